@@ -0,0 +1,82 @@
+package org.dew.test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.json.JSONPullParser;
+import org.json.JSONTokener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.rpc.server.JsonRpcEnvelope;
+
+/**
+ * JSONTokener vs JSONPullParser on JSON-RPC requests (mvn -P jmh test-compile exec:exec).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParseBenchmark {
+  
+  @Param({"10", "200"})
+  public int items;
+  
+  protected String request;
+  protected String params;
+  
+  @Setup
+  public void setup() {
+    StringBuilder sb = new StringBuilder();
+    sb.append('[');
+    for(int i = 0; i < items; i++) {
+      if(i > 0) sb.append(',');
+      sb.append("{\"id\":").append(i);
+      sb.append(",\"name\":\"item \\\"").append(i).append("\\\"\"");
+      sb.append(",\"price\":").append(i * 1.5d);
+      sb.append(",\"active\":").append(i % 2 == 0);
+      sb.append(",\"date\":\"2024-01-02T03:04:05.006Z\"");
+      sb.append(",\"tags\":[\"a\",\"b\",null]}");
+    }
+    sb.append(']');
+    params  = sb.toString();
+    request = "{\"jsonrpc\":\"2.0\",\"method\":\"TEST.save\",\"params\":[" + params + "],\"id\":1}";
+  }
+  
+  @Benchmark
+  public Object tokener() {
+    return new JSONTokener(params).nextValue();
+  }
+  
+  @Benchmark
+  public Object pullParser() {
+    return new JSONPullParser(params).nextValue();
+  }
+  
+  @Benchmark
+  public Object requestTokener() {
+    // As the executors before JsonRpcEnvelope: JSONObject and conversion of the params
+    JSONObject req = new JSONObject(new JSONTokener(request));
+    List list = req.getJSONArray("params").asList(true);
+    return list.get(0);
+  }
+  
+  @Benchmark
+  public Object requestPullParser() {
+    JsonRpcEnvelope envelope = JsonRpcEnvelope.scan(request);
+    return envelope.getParams().get(0);
+  }
+}
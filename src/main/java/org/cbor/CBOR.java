@@ -0,0 +1,80 @@
+package org.cbor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Utility class to encode and decode values in CBOR (RFC 8949), the binary
+ * alternative to JSON (see CborWriter and CborReader for the mapping).
+ */
+public
+class CBOR
+{
+  public static final String CONTENT_TYPE = "application/cbor";
+  
+  public static
+  byte[] encode(Object value)
+  {
+    return new CborWriter().write(value).toByteArray();
+  }
+  
+  public static
+  void encode(Object value, OutputStream out)
+    throws IOException
+  {
+    new CborWriter().write(value).writeTo(out);
+  }
+  
+  public static
+  Object decode(byte[] data)
+  {
+    return decode(data, false);
+  }
+  
+  /**
+   * @param legacy true = Vector / Hashtable, false = ArrayList / HashMap
+   */
+  public static
+  Object decode(byte[] data, boolean legacy)
+  {
+    if(data == null || data.length == 0) return null;
+    CborReader reader = new CborReader(data);
+    reader.setLegacy(legacy);
+    return reader.read();
+  }
+  
+  public static
+  Object decode(InputStream in, boolean legacy)
+    throws IOException
+  {
+    return decode(readAll(in), legacy);
+  }
+  
+  /**
+   * @return true if the first bytes are those of a CBOR map, of a CBOR array or of the self-described CBOR tag
+   */
+  public static
+  boolean isCbor(byte[] data, int iLength)
+  {
+    if(data == null || iLength < 1) return false;
+    int b0 = data[0] & 0xff;
+    // 0x80-0xbf are never the first byte of a UTF-8 or ISO-8859-1 JSON / XML text
+    if(b0 >= 0x80 && b0 <= 0xbf) return true;
+    return iLength >= 3 && b0 == 0xd9 && (data[1] & 0xff) == 0xd9 && (data[2] & 0xff) == 0xf7;
+  }
+  
+  public static
+  byte[] readAll(InputStream in)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] buff = new byte[8192];
+    int n;
+    while((n = in.read(buff)) > 0) {
+      bos.write(buff, 0, n);
+    }
+    return bos.toByteArray();
+  }
+}
@@ -0,0 +1,20 @@
+package org.cbor;
+
+/**
+ * Thrown when a CBOR item is malformed or cannot be encoded.
+ */
+public
+class CborException extends RuntimeException
+{
+  private static final long serialVersionUID = 1L;
+  
+  public CborException(String message)
+  {
+    super(message);
+  }
+  
+  public CborException(String message, Throwable cause)
+  {
+    super(message, cause);
+  }
+}
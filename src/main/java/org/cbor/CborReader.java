@@ -0,0 +1,524 @@
+package org.cbor;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * CBOR (RFC 8949) decoder. Items are mapped to Integer / Long / BigInteger, Double, String,
+ * byte[], Boolean, null, ArrayList / HashMap (Vector / Hashtable in legacy mode, where the
+ * null values of the maps are omitted). The tags 0 and 1 are decoded as java.util.Date,
+ * 2 and 3 as BigInteger, 4 as BigDecimal; the content of other tags is returned as is.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class CborReader
+{
+  public static final int MAX_DEPTH = 512;
+  // Initial capacity of the collections: the declared size is not trusted (it may be hostile)
+  public static final int MAX_INITIAL_CAPACITY = 16;
+  
+  protected static final Object BREAK = new Object();
+  
+  protected final byte[] data;
+  protected final int    limit;
+  protected int     pos;
+  protected int     depth;
+  protected boolean legacy;
+  
+  public CborReader(byte[] data)
+  {
+    this(data, 0, data.length);
+  }
+  
+  public CborReader(byte[] data, int iOffset, int iLength)
+  {
+    this.data  = data;
+    this.pos   = iOffset;
+    this.limit = iOffset + iLength;
+  }
+  
+  public
+  boolean isLegacy()
+  {
+    return legacy;
+  }
+  
+  public
+  void setLegacy(boolean legacy)
+  {
+    this.legacy = legacy;
+  }
+  
+  public
+  int getPosition()
+  {
+    return pos;
+  }
+  
+  public
+  boolean hasNext()
+  {
+    return pos < limit;
+  }
+  
+  /**
+   * Decode the next data item.
+   */
+  public
+  Object read()
+  {
+    Object result = readItem();
+    if(result == BREAK) {
+      throw new CborException("unexpected break at " + (pos - 1));
+    }
+    return result;
+  }
+  
+  /**
+   * @return major type (0-7) of the next data item, without reading it
+   */
+  public
+  int peekType()
+  {
+    if(pos >= limit) {
+      throw new CborException("unexpected end of data at " + pos);
+    }
+    return (data[pos] & 0xff) >>> 5;
+  }
+  
+  /**
+   * Skip the next data item without decoding it (lengths and depth are checked).
+   */
+  public
+  void skip()
+  {
+    if(skipItem()) {
+      throw new CborException("unexpected break at " + (pos - 1));
+    }
+  }
+  
+  /**
+   * Read the header of a map (the tags before it are skipped).
+   *
+   * @return number of pairs or -1 if indefinite (see readBreak)
+   */
+  public
+  int readMapStart()
+  {
+    return readStart(5, "map");
+  }
+  
+  /**
+   * Read the header of an array (the tags before it are skipped).
+   *
+   * @return number of items or -1 if indefinite (see readBreak)
+   */
+  public
+  int readArrayStart()
+  {
+    return readStart(4, "array");
+  }
+  
+  /**
+   * @return true if the next byte is the break of an indefinite array or map (it is consumed)
+   */
+  public
+  boolean readBreak()
+  {
+    if(pos < limit && (data[pos] & 0xff) == 0xff) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+  
+  protected
+  int readStart(int iMajorType, String sType)
+  {
+    int ib = next();
+    while((ib >>> 5) == 6) {
+      readArgument(ib & 0x1f);
+      ib = next();
+    }
+    if((ib >>> 5) != iMajorType) {
+      throw new CborException("expected " + sType + " at " + (pos - 1));
+    }
+    int ai = ib & 0x1f;
+    return ai == 31 ? -1 : readLength(ai);
+  }
+  
+  /**
+   * @return true if the item is a break
+   */
+  protected
+  boolean skipItem()
+  {
+    int ib = next();
+    int iMajorType = ib >>> 5;
+    int ai = ib & 0x1f;
+    switch(iMajorType) {
+    case 0:
+    case 1:
+      readArgument(ai);
+      return false;
+    case 2:
+    case 3:
+      if(ai == 31) {
+        while(true) {
+          int ibChunk = next();
+          if(ibChunk == 0xff) break;
+          if((ibChunk >>> 5) != iMajorType || (ibChunk & 0x1f) == 31) {
+            throw new CborException("invalid chunk at " + (pos - 1));
+          }
+          pos += readLength(ibChunk & 0x1f);
+        }
+      }
+      else {
+        pos += readLength(ai);
+      }
+      return false;
+    case 4:
+    case 5:
+      enter();
+      if(ai == 31) {
+        while(!skipItem()) {
+          if(iMajorType == 5) skip();
+        }
+      }
+      else {
+        int iSize = readLength(ai);
+        for(int i = 0; i < iSize; i++) {
+          skip();
+          if(iMajorType == 5) skip();
+        }
+      }
+      depth--;
+      return false;
+    case 6:
+      readArgument(ai);
+      enter();
+      skip();
+      depth--;
+      return false;
+    default:
+      if(ai == 31) return true;
+      readSimple(ai);
+      return false;
+    }
+  }
+  
+  protected
+  Object readItem()
+  {
+    int ib = next();
+    int iMajorType = ib >>> 5;
+    int ai = ib & 0x1f;
+    switch(iMajorType) {
+    case 0: {
+      long v = readArgument(ai);
+      if(v < 0) return new BigInteger(Long.toUnsignedString(v));
+      if(v <= Integer.MAX_VALUE) return Integer.valueOf((int) v);
+      return Long.valueOf(v);
+    }
+    case 1: {
+      long v = readArgument(ai);
+      if(v < 0) return BigInteger.ONE.negate().subtract(new BigInteger(Long.toUnsignedString(v)));
+      long n = -1 - v;
+      if(n >= Integer.MIN_VALUE) return Integer.valueOf((int) n);
+      return Long.valueOf(n);
+    }
+    case 2:
+      if(ai == 31) return readChunks(2);
+      return readBytes(readLength(ai));
+    case 3:
+      if(ai == 31) return new String(readChunks(3), StandardCharsets.UTF_8);
+      return readText(readLength(ai));
+    case 4:
+      return readArray(ai);
+    case 5:
+      return readMap(ai);
+    case 6: {
+      long lTag = readArgument(ai);
+      enter();
+      Object item = read();
+      depth--;
+      return decodeTag(lTag, item);
+    }
+    default:
+      return readSimple(ai);
+    }
+  }
+  
+  protected
+  Object readArray(int ai)
+  {
+    enter();
+    List list = null;
+    if(ai == 31) {
+      list = legacy ? new Vector() : new ArrayList();
+      Object item;
+      while((item = readItem()) != BREAK) {
+        list.add(item);
+      }
+    }
+    else {
+      // Each item takes at least one byte
+      int iSize = readLength(ai);
+      int iCapacity = Math.min(iSize, MAX_INITIAL_CAPACITY);
+      list = legacy ? new Vector(iCapacity) : new ArrayList(iCapacity);
+      for(int i = 0; i < iSize; i++) {
+        list.add(read());
+      }
+    }
+    depth--;
+    return list;
+  }
+  
+  protected
+  Object readMap(int ai)
+  {
+    enter();
+    Map map = null;
+    if(ai == 31) {
+      map = legacy ? new Hashtable() : new HashMap();
+      Object key;
+      while((key = readItem()) != BREAK) {
+        put(map, key, read());
+      }
+    }
+    else {
+      int iSize = readLength(ai);
+      int iCapacity = Math.min(iSize, MAX_INITIAL_CAPACITY);
+      map = legacy ? new Hashtable(Math.max(iCapacity * 4 / 3 + 1, 11)) : new HashMap(Math.max(iCapacity * 4 / 3 + 1, 16));
+      for(int i = 0; i < iSize; i++) {
+        Object key = read();
+        put(map, key, read());
+      }
+    }
+    depth--;
+    return map;
+  }
+  
+  protected
+  void put(Map map, Object key, Object value)
+  {
+    if(legacy && (key == null || value == null)) return;
+    map.put(key, value);
+  }
+  
+  protected
+  Object decodeTag(long lTag, Object item)
+  {
+    if(lTag == CborWriter.TAG_DATE_TIME && item instanceof String) {
+      try {
+        return java.util.Date.from(java.time.OffsetDateTime.parse((String) item).toInstant());
+      }
+      catch(Exception ex) {
+        throw new CborException("invalid date/time string " + item);
+      }
+    }
+    if(lTag == CborWriter.TAG_EPOCH && item instanceof Number) {
+      if(item instanceof Double) {
+        return new java.util.Date(Math.round(((Double) item).doubleValue() * 1000.0d));
+      }
+      return new java.util.Date(((Number) item).longValue() * 1000);
+    }
+    if((lTag == CborWriter.TAG_POS_BIGNUM || lTag == CborWriter.TAG_NEG_BIGNUM) && item instanceof byte[]) {
+      BigInteger value = new BigInteger(1, (byte[]) item);
+      return lTag == CborWriter.TAG_POS_BIGNUM ? value : BigInteger.ONE.negate().subtract(value);
+    }
+    if(lTag == CborWriter.TAG_DECIMAL && item instanceof List && ((List) item).size() == 2) {
+      Object exponent = ((List) item).get(0);
+      Object mantissa = ((List) item).get(1);
+      if(!(exponent instanceof Integer) || !(mantissa instanceof Number)) {
+        throw new CborException("invalid decimal fraction " + item);
+      }
+      BigInteger unscaledValue = mantissa instanceof BigInteger ? (BigInteger) mantissa : BigInteger.valueOf(((Number) mantissa).longValue());
+      return new BigDecimal(unscaledValue, -((Integer) exponent).intValue());
+    }
+    return item;
+  }
+  
+  protected
+  Object readSimple(int ai)
+  {
+    switch(ai) {
+    case 20: return Boolean.FALSE;
+    case 21: return Boolean.TRUE;
+    case 22: return null;
+    case 23: return null;
+    case 24: check(1); pos++; return null;
+    case 25: {
+      check(2);
+      int h = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+      pos += 2;
+      return Double.valueOf(halfToDouble(h));
+    }
+    case 26: {
+      check(4);
+      int bits = getInt(pos);
+      pos += 4;
+      return Double.valueOf(Float.intBitsToFloat(bits));
+    }
+    case 27: {
+      check(8);
+      long bits = ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+      pos += 8;
+      return Double.valueOf(Double.longBitsToDouble(bits));
+    }
+    case 31: return BREAK;
+    }
+    if(ai < 20) return null;
+    throw new CborException("invalid simple value " + ai + " at " + (pos - 1));
+  }
+  
+  protected
+  byte[] readChunks(int iMajorType)
+  {
+    java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+    while(true) {
+      int ib = next();
+      if(ib == 0xff) break;
+      if((ib >>> 5) != iMajorType || (ib & 0x1f) == 31) {
+        throw new CborException("invalid chunk at " + (pos - 1));
+      }
+      int iLength = readLength(ib & 0x1f);
+      bos.write(data, pos, iLength);
+      pos += iLength;
+    }
+    return bos.toByteArray();
+  }
+  
+  protected
+  byte[] readBytes(int iLength)
+  {
+    byte[] result = new byte[iLength];
+    System.arraycopy(data, pos, result, 0, iLength);
+    pos += iLength;
+    return result;
+  }
+  
+  protected
+  String readText(int iLength)
+  {
+    int p = pos;
+    int iEnd = p + iLength;
+    byte[] buff = data;
+    while(p < iEnd && buff[p] >= 0) p++;
+    String result;
+    if(p == iEnd) {
+      // ASCII
+      result = new String(buff, pos, iLength, StandardCharsets.ISO_8859_1);
+    }
+    else {
+      result = new String(buff, pos, iLength, StandardCharsets.UTF_8);
+    }
+    pos = iEnd;
+    return result;
+  }
+  
+  /**
+   * @return definite length (checked against the remaining bytes)
+   */
+  protected
+  int readLength(int ai)
+  {
+    long lLength = readArgument(ai);
+    if(lLength < 0 || lLength > limit - pos) {
+      throw new CborException("invalid length " + Long.toUnsignedString(lLength) + " at " + pos);
+    }
+    return (int) lLength;
+  }
+  
+  /**
+   * @return argument as unsigned long (negative if greater than Long.MAX_VALUE)
+   */
+  protected
+  long readArgument(int ai)
+  {
+    if(ai < 24) return ai;
+    long result;
+    switch(ai) {
+    case 24:
+      check(1);
+      result = data[pos] & 0xff;
+      pos += 1;
+      return result;
+    case 25:
+      check(2);
+      result = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+      pos += 2;
+      return result;
+    case 26:
+      check(4);
+      result = getInt(pos) & 0xffffffffL;
+      pos += 4;
+      return result;
+    case 27:
+      check(8);
+      result = ((long) getInt(pos) << 32) | (getInt(pos + 4) & 0xffffffffL);
+      pos += 8;
+      return result;
+    }
+    throw new CborException("invalid additional information " + ai + " at " + (pos - 1));
+  }
+  
+  protected
+  int getInt(int p)
+  {
+    byte[] buff = data;
+    return ((buff[p] & 0xff) << 24) | ((buff[p + 1] & 0xff) << 16) | ((buff[p + 2] & 0xff) << 8) | (buff[p + 3] & 0xff);
+  }
+  
+  protected
+  int next()
+  {
+    if(pos >= limit) {
+      throw new CborException("unexpected end of data at " + pos);
+    }
+    return data[pos++] & 0xff;
+  }
+  
+  protected
+  void check(int iLength)
+  {
+    if(pos + iLength > limit) {
+      throw new CborException("unexpected end of data at " + limit);
+    }
+  }
+  
+  protected
+  void enter()
+  {
+    if(++depth > MAX_DEPTH) {
+      throw new CborException("maximum depth exceeded (" + MAX_DEPTH + ")");
+    }
+  }
+  
+  protected static
+  double halfToDouble(int h)
+  {
+    int iExp = (h >> 10) & 0x1f;
+    int iMant = h & 0x3ff;
+    double value;
+    if(iExp == 0) {
+      value = iMant * Math.pow(2, -24);
+    }
+    else if(iExp != 31) {
+      value = (iMant + 1024) * Math.pow(2, iExp - 25);
+    }
+    else {
+      value = iMant == 0 ? Double.POSITIVE_INFINITY : Double.NaN;
+    }
+    return (h & 0x8000) != 0 ? -value : value;
+  }
+}
@@ -0,0 +1,598 @@
+package org.cbor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.json.JSON;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import org.rpc.util.Mapable;
+import org.rpc.util.RpcBinary;
+
+import org.util.BeanInfo;
+
+/**
+ * CBOR (RFC 8949) encoder writing in a growable buffer.
+ * The values are mapped as in the JSON serialization (null members skipped, beans as maps,
+ * java.* objects as text) but integers, byte[], BigInteger, BigDecimal and dates
+ * are written as native items and tags instead of text.
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class CborWriter
+{
+  public static final int MAX_DEPTH = 512;
+  
+  public static final int TAG_DATE_TIME     = 0;
+  public static final int TAG_EPOCH         = 1;
+  public static final int TAG_POS_BIGNUM    = 2;
+  public static final int TAG_NEG_BIGNUM    = 3;
+  public static final int TAG_DECIMAL       = 4;
+  public static final int TAG_SELF_DESCRIBE = 55799;
+  
+  protected byte[] buffer;
+  protected int    count;
+  protected int    depth;
+  
+  public CborWriter()
+  {
+    this(512);
+  }
+  
+  public CborWriter(int iInitialCapacity)
+  {
+    this.buffer = new byte[Math.max(iInitialCapacity, 16)];
+  }
+  
+  public
+  int size()
+  {
+    return count;
+  }
+  
+  public
+  void reset()
+  {
+    count = 0;
+    depth = 0;
+  }
+  
+  public
+  byte[] toByteArray()
+  {
+    return Arrays.copyOf(buffer, count);
+  }
+  
+  public
+  void writeTo(OutputStream out)
+    throws IOException
+  {
+    out.write(buffer, 0, count);
+  }
+  
+  /**
+   * Encode a value (see the class comment for the mapping).
+   */
+  public
+  CborWriter write(Object value)
+  {
+    if(value == null || value == JSONObject.NULL) {
+      writeNull();
+    }
+    else if(value instanceof String) {
+      writeString((String) value);
+    }
+    else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      writeLong(((Number) value).longValue());
+    }
+    else if(value instanceof Boolean) {
+      writeBoolean(((Boolean) value).booleanValue());
+    }
+    else if(value instanceof Double || value instanceof Float) {
+      writeDouble(((Number) value).doubleValue());
+    }
+    else if(value instanceof byte[]) {
+      writeBytes((byte[]) value);
+    }
+    else if(value instanceof Map) {
+      writeMap((Map) value);
+    }
+    else if(value instanceof Collection) {
+      writeCollection((Collection) value);
+    }
+    else if(value.getClass().isArray()) {
+      writeArray(value);
+    }
+    else if(value instanceof java.util.Date) {
+      writeDate(((java.util.Date) value).getTime());
+    }
+    else if(value instanceof Calendar) {
+      writeDate(((Calendar) value).getTimeInMillis());
+    }
+    else if(value instanceof java.time.LocalDate) {
+      writeDate(((java.time.LocalDate) value).atStartOfDay().atZone(JSONObject.timeZone.toZoneId()).toInstant().toEpochMilli());
+    }
+    else if(value instanceof java.time.LocalDateTime) {
+      writeDate(((java.time.LocalDateTime) value).atZone(JSONObject.timeZone.toZoneId()).toInstant().toEpochMilli());
+    }
+    else if(value instanceof BigDecimal) {
+      writeBigDecimal((BigDecimal) value);
+    }
+    else if(value instanceof BigInteger) {
+      writeBigInteger((BigInteger) value);
+    }
+    else if(value instanceof java.util.concurrent.atomic.AtomicInteger || value instanceof java.util.concurrent.atomic.AtomicLong) {
+      writeLong(((Number) value).longValue());
+    }
+    else if(value instanceof Number) {
+      writeDouble(((Number) value).doubleValue());
+    }
+    else if(value instanceof CharSequence || value instanceof Character) {
+      writeString(value.toString());
+    }
+    else if(value instanceof JSONObject) {
+      writeJSONObject((JSONObject) value);
+    }
+    else if(value instanceof JSONArray) {
+      writeJSONArray((JSONArray) value);
+    }
+    else if(value instanceof RpcBinary) {
+      // Link of the attachment or native bytes
+      try {
+        write(((RpcBinary) value).getValue());
+      }
+      catch(IOException ex) {
+        throw new CborException("cannot read binary: " + ex.getMessage(), ex);
+      }
+    }
+    else if(value instanceof JSONString) {
+      write(JSON.parse(((JSONString) value).toJSONString()));
+    }
+    else if(value instanceof Mapable) {
+      writeMap(((Mapable) value).toMap());
+    }
+    else if(value.getClass().isEnum()) {
+      writeString(value.toString());
+    }
+    else if(value instanceof Map.Entry) {
+      write(((Map.Entry) value).getValue());
+    }
+    else if(value.equals(null)) {
+      writeNull();
+    }
+    else {
+      writeObject(value);
+    }
+    return this;
+  }
+  
+  public
+  void writeNull()
+  {
+    ensure(1);
+    buffer[count++] = (byte) 0xf6;
+  }
+  
+  public
+  void writeBoolean(boolean value)
+  {
+    ensure(1);
+    buffer[count++] = (byte) (value ? 0xf5 : 0xf4);
+  }
+  
+  public
+  void writeLong(long value)
+  {
+    if(value >= 0) {
+      writeHead(0, value);
+    }
+    else {
+      writeHead(1, -1 - value);
+    }
+  }
+  
+  /**
+   * Integer item if in the range of long, otherwise bignum (tag 2 or 3).
+   */
+  public
+  void writeBigInteger(BigInteger value)
+  {
+    if(value.bitLength() < 64) {
+      writeLong(value.longValue());
+      return;
+    }
+    if(value.signum() >= 0) {
+      writeHead(6, TAG_POS_BIGNUM);
+    }
+    else {
+      writeHead(6, TAG_NEG_BIGNUM);
+      value = value.negate().subtract(BigInteger.ONE);
+    }
+    byte[] abValue = value.toByteArray();
+    int iOffset = abValue[0] == 0 ? 1 : 0;
+    writeHead(2, abValue.length - iOffset);
+    ensure(abValue.length);
+    System.arraycopy(abValue, iOffset, buffer, count, abValue.length - iOffset);
+    count += abValue.length - iOffset;
+  }
+  
+  /**
+   * Decimal fraction (tag 4): [exponent, mantissa].
+   */
+  public
+  void writeBigDecimal(BigDecimal value)
+  {
+    writeHead(6, TAG_DECIMAL);
+    writeHead(4, 2);
+    writeLong(-(long) value.scale());
+    writeBigInteger(value.unscaledValue());
+  }
+  
+  /**
+   * Single precision float if exact, otherwise double precision.
+   */
+  public
+  void writeDouble(double value)
+  {
+    float f = (float) value;
+    if(f == value || value != value) {
+      ensure(5);
+      buffer[count++] = (byte) 0xfa;
+      putInt(Float.floatToIntBits(f));
+    }
+    else {
+      ensure(9);
+      buffer[count++] = (byte) 0xfb;
+      long bits = Double.doubleToLongBits(value);
+      putInt((int) (bits >>> 32));
+      putInt((int) bits);
+    }
+  }
+  
+  /**
+   * Epoch-based date/time (tag 1): integer seconds or, with milliseconds, floating-point seconds.
+   */
+  public
+  void writeDate(long lMillis)
+  {
+    writeHead(6, TAG_EPOCH);
+    if(lMillis % 1000 == 0) {
+      writeLong(lMillis / 1000);
+    }
+    else {
+      writeDouble(lMillis / 1000.0d);
+    }
+  }
+  
+  public
+  void writeBytes(byte[] value)
+  {
+    writeHead(2, value.length);
+    ensure(value.length);
+    System.arraycopy(value, 0, buffer, count, value.length);
+    count += value.length;
+  }
+  
+  /**
+   * Text string encoded in UTF-8 (unpaired surrogates as '?', as String.getBytes).
+   */
+  public
+  void writeString(String value)
+  {
+    int iLength = value.length();
+    int iUTF8Length = iLength;
+    for(int i = 0; i < iLength; i++) {
+      if(value.charAt(i) >= 0x80) {
+        iUTF8Length = i + utf8Length(value, i);
+        break;
+      }
+    }
+    writeHead(3, iUTF8Length);
+    ensure(iUTF8Length);
+    byte[] buff = buffer;
+    int p = count;
+    if(iUTF8Length == iLength) {
+      for(int i = 0; i < iLength; i++) buff[p++] = (byte) value.charAt(i);
+      count = p;
+      return;
+    }
+    for(int i = 0; i < iLength; i++) {
+      char c = value.charAt(i);
+      if(c < 0x80) {
+        buff[p++] = (byte) c;
+      }
+      else if(c < 0x800) {
+        buff[p++] = (byte) (0xc0 | (c >> 6));
+        buff[p++] = (byte) (0x80 | (c & 0x3f));
+      }
+      else if(Character.isSurrogate(c)) {
+        if(Character.isHighSurrogate(c) && i + 1 < iLength && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, value.charAt(++i));
+          buff[p++] = (byte) (0xf0 | (cp >> 18));
+          buff[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+          buff[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+          buff[p++] = (byte) (0x80 | (cp & 0x3f));
+        }
+        else {
+          buff[p++] = (byte) '?';
+        }
+      }
+      else {
+        buff[p++] = (byte) (0xe0 | (c >> 12));
+        buff[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buff[p++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    count = p;
+  }
+  
+  /**
+   * Map with text keys (String.valueOf of the key); the entries with null value are skipped.
+   */
+  public
+  void writeMap(Map map)
+  {
+    int iSize = 0;
+    Iterator iterator = map.entrySet().iterator();
+    while(iterator.hasNext()) {
+      if(((Map.Entry) iterator.next()).getValue() != null) iSize++;
+    }
+    writeHead(5, iSize);
+    enter();
+    iterator = map.entrySet().iterator();
+    while(iterator.hasNext() && iSize > 0) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      Object value = entry.getValue();
+      if(value == null) continue;
+      Object key = entry.getKey();
+      writeString(key instanceof String ? (String) key : String.valueOf(key));
+      write(value);
+      iSize--;
+    }
+    depth--;
+  }
+  
+  public
+  void writeCollection(Collection collection)
+  {
+    int iSize = collection.size();
+    writeHead(4, iSize);
+    enter();
+    if(collection instanceof List && collection instanceof RandomAccess) {
+      List list = (List) collection;
+      for(int i = 0; i < iSize; i++) {
+        write(list.get(i));
+      }
+    }
+    else {
+      Iterator iterator = collection.iterator();
+      for(int i = 0; i < iSize; i++) {
+        write(iterator.next());
+      }
+    }
+    depth--;
+  }
+  
+  public
+  void writeArray(Object array)
+  {
+    enter();
+    if(array instanceof Object[]) {
+      Object[] ao = (Object[]) array;
+      writeHead(4, ao.length);
+      for(int i = 0; i < ao.length; i++) write(ao[i]);
+    }
+    else if(array instanceof int[]) {
+      int[] ai = (int[]) array;
+      writeHead(4, ai.length);
+      for(int i = 0; i < ai.length; i++) writeLong(ai[i]);
+    }
+    else if(array instanceof long[]) {
+      long[] al = (long[]) array;
+      writeHead(4, al.length);
+      for(int i = 0; i < al.length; i++) writeLong(al[i]);
+    }
+    else if(array instanceof double[]) {
+      double[] ad = (double[]) array;
+      writeHead(4, ad.length);
+      for(int i = 0; i < ad.length; i++) writeDouble(ad[i]);
+    }
+    else if(array instanceof float[]) {
+      float[] af = (float[]) array;
+      writeHead(4, af.length);
+      for(int i = 0; i < af.length; i++) writeDouble(af[i]);
+    }
+    else if(array instanceof boolean[]) {
+      boolean[] ab = (boolean[]) array;
+      writeHead(4, ab.length);
+      for(int i = 0; i < ab.length; i++) writeBoolean(ab[i]);
+    }
+    else if(array instanceof short[]) {
+      short[] as = (short[]) array;
+      writeHead(4, as.length);
+      for(int i = 0; i < as.length; i++) writeLong(as[i]);
+    }
+    else if(array instanceof char[]) {
+      char[] ac = (char[]) array;
+      writeHead(4, ac.length);
+      for(int i = 0; i < ac.length; i++) writeString(String.valueOf(ac[i]));
+    }
+    depth--;
+  }
+  
+  public
+  void writeJSONObject(JSONObject jsonObject)
+  {
+    writeHead(5, jsonObject.length());
+    enter();
+    Iterator iterator = jsonObject.keys();
+    while(iterator.hasNext()) {
+      String key = (String) iterator.next();
+      writeString(key);
+      write(jsonObject.opt(key));
+    }
+    depth--;
+  }
+  
+  public
+  void writeJSONArray(JSONArray jsonArray)
+  {
+    int iLength = jsonArray.length();
+    writeHead(4, iLength);
+    enter();
+    for(int i = 0; i < iLength; i++) {
+      write(jsonArray.opt(i));
+    }
+    depth--;
+  }
+  
+  /**
+   * Objects of the JDK as text, value beans (CodeAndDesc, NamedParam) as their code/value,
+   * other beans as map of the properties (see BeanInfo).
+   */
+  protected
+  void writeObject(Object value)
+  {
+    Class klass = value.getClass();
+    Package objectPackage = klass.getPackage();
+    String objectPackageName = objectPackage != null ? objectPackage.getName() : "";
+    if(objectPackageName.startsWith("java.") || objectPackageName.startsWith("javax.") || klass.getClassLoader() == null) {
+      writeString(value.toString());
+      return;
+    }
+    BeanInfo beanInfo = BeanInfo.getBeanInfo(klass);
+    if(BeanInfo.isValueBean(klass) && beanInfo.getCodeValue() != null) {
+      Object codeValue = null;
+      try {
+        codeValue = beanInfo.getCodeValue().get(value);
+      }
+      catch(Exception ex) {
+      }
+      if(codeValue != null) {
+        write(codeValue);
+        return;
+      }
+    }
+    BeanInfo.Property[] getters = beanInfo.getGetters();
+    Object[] aoValues = new Object[getters.length];
+    int iSize = 0;
+    for(int i = 0; i < getters.length; i++) {
+      try {
+        aoValues[i] = getters[i].get(value);
+        if(aoValues[i] != null) iSize++;
+      }
+      catch(Exception ignore) {
+      }
+    }
+    writeHead(5, iSize);
+    enter();
+    for(int i = 0; i < getters.length; i++) {
+      if(aoValues[i] == null) continue;
+      writeString(getters[i].getName());
+      write(aoValues[i]);
+    }
+    depth--;
+  }
+  
+  /**
+   * Initial byte (major type and additional information) followed by the argument.
+   */
+  public
+  void writeHead(int iMajorType, long lArgument)
+  {
+    ensure(9);
+    int mt = iMajorType << 5;
+    byte[] buff = buffer;
+    if(lArgument < 24) {
+      buff[count++] = (byte) (mt | (int) lArgument);
+    }
+    else if(lArgument < 0x100) {
+      buff[count++] = (byte) (mt | 24);
+      buff[count++] = (byte) lArgument;
+    }
+    else if(lArgument < 0x10000) {
+      buff[count++] = (byte) (mt | 25);
+      buff[count++] = (byte) (lArgument >> 8);
+      buff[count++] = (byte) lArgument;
+    }
+    else if(lArgument < 0x100000000L) {
+      buff[count++] = (byte) (mt | 26);
+      putInt((int) lArgument);
+    }
+    else {
+      buff[count++] = (byte) (mt | 27);
+      putInt((int) (lArgument >>> 32));
+      putInt((int) lArgument);
+    }
+  }
+  
+  protected
+  void putInt(int value)
+  {
+    byte[] buff = buffer;
+    buff[count++] = (byte) (value >> 24);
+    buff[count++] = (byte) (value >> 16);
+    buff[count++] = (byte) (value >> 8);
+    buff[count++] = (byte) value;
+  }
+  
+  protected
+  void enter()
+  {
+    if(++depth > MAX_DEPTH) {
+      throw new CborException("maximum depth exceeded (" + MAX_DEPTH + "): cyclic structure?");
+    }
+  }
+  
+  protected
+  void ensure(int iLength)
+  {
+    if(count + iLength > buffer.length) {
+      int iCapacity = Math.max(buffer.length * 2, count + iLength);
+      buffer = Arrays.copyOf(buffer, iCapacity);
+    }
+  }
+  
+  /**
+   * @return UTF-8 length of value from index iFrom
+   */
+  protected static
+  int utf8Length(String value, int iFrom)
+  {
+    int iLength = value.length();
+    int iResult = 0;
+    for(int i = iFrom; i < iLength; i++) {
+      char c = value.charAt(i);
+      if(c < 0x80) {
+        iResult++;
+      }
+      else if(c < 0x800) {
+        iResult += 2;
+      }
+      else if(Character.isHighSurrogate(c) && i + 1 < iLength && Character.isLowSurrogate(value.charAt(i + 1))) {
+        iResult += 4;
+        i++;
+      }
+      else if(Character.isSurrogate(c)) {
+        iResult++;
+      }
+      else {
+        iResult += 3;
+      }
+    }
+    return iResult;
+  }
+}
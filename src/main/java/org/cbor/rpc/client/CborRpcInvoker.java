@@ -0,0 +1,186 @@
+package org.cbor.rpc.client;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.cbor.CBOR;
+import org.json.rpc.commons.RpcRemoteException;
+import org.rpc.client.AsyncCallback;
+import org.rpc.client.HttpRpcClientTransport;
+import org.rpc.client.RpcBinaryClientTransport;
+import org.rpc.client.RpcClientTransport;
+import org.rpc.client.RpcInvoker;
+
+/**
+ * Invoker of JSON-RPC 2.0 calls encoded in CBOR (application/cbor).
+ * The transport must implement RpcBinaryClientTransport (e.g. HttpRpcClientTransport).
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class CborRpcInvoker implements RpcInvoker
+{
+  private Random rand = new Random();
+  private RpcClientTransport transport;
+  private boolean boLegacy = true;
+  
+  public CborRpcInvoker()
+  {
+  }
+  
+  public CborRpcInvoker(RpcClientTransport transport)
+  {
+    this.transport = transport;
+  }
+  
+  public CborRpcInvoker(URL url)
+  {
+    this.transport = new HttpRpcClientTransport(url);
+  }
+  
+  public CborRpcInvoker(String sURL)
+    throws MalformedURLException
+  {
+    this.transport = new HttpRpcClientTransport(new URL(sURL));
+  }
+  
+  public
+  void setTransport(RpcClientTransport transport)
+  {
+    this.transport = transport;
+  }
+  
+  public
+  RpcClientTransport getTransport()
+  {
+    return transport;
+  }
+  
+  public
+  String getURL()
+  {
+    if(transport instanceof HttpRpcClientTransport) {
+      return ((HttpRpcClientTransport) transport).getURL();
+    }
+    return null;
+  }
+  
+  public
+  boolean isLegacy()
+  {
+    return boLegacy;
+  }
+  
+  public
+  void setLegacy(boolean boLegacy)
+  {
+    this.boLegacy = boLegacy;
+  }
+  
+  public
+  Object invoke(String sMethod, Collection colArgs)
+    throws Throwable
+  {
+    return invoke(transport, sMethod, colArgs);
+  }
+  
+  public
+  void invokeAsync(String sMethod, Collection colArgs, AsyncCallback callback)
+  {
+    Thread thread = new Thread(new Worker(transport, sMethod, colArgs, callback));
+    thread.start();
+  }
+  
+  protected
+  Object invoke(RpcClientTransport transport, String sMethod, Collection colArgs)
+    throws Throwable
+  {
+    if(!(transport instanceof RpcBinaryClientTransport)) {
+      throw new IOException("binary transport required (" + (transport != null ? transport.getClass().getName() : "null") + ")");
+    }
+    int id = rand.nextInt(Integer.MAX_VALUE);
+    
+    Map req = new HashMap(8);
+    req.put("jsonrpc", "2.0");
+    req.put("id",      id);
+    req.put("method",  sMethod);
+    req.put("params",  colArgs != null ? colArgs : new ArrayList(0));
+    
+    byte[] requestData = CBOR.encode(req);
+    byte[] responseData;
+    try {
+      responseData = ((RpcBinaryClientTransport) transport).call(CBOR.CONTENT_TYPE, requestData);
+    }
+    catch(Exception e) {
+      throw new IOException("unable to get data from transport: " + e);
+    }
+    
+    Object oResponse = CBOR.decode(responseData, boLegacy);
+    if(!(oResponse instanceof Map)) {
+      throw new RpcRemoteException("invalid response: " + oResponse);
+    }
+    Map resp = (Map) oResponse;
+    Object result = resp.get("result");
+    Object error  = resp.get("error");
+    if(error != null) {
+      if(error instanceof String) {
+        throw new RpcRemoteException((String) error);
+      }
+      else
+      if(error instanceof Map) {
+        Object code    = ((Map) error).get("code");
+        Object message = ((Map) error).get("message");
+        Object data    = ((Map) error).get("data");
+        int iCode      = code instanceof Number ? ((Number) code).intValue() : 0;
+        String sData   = data != null ? data.toString() : null;
+        throw new RpcRemoteException(iCode, message != null ? message.toString() : "", sData);
+      } else {
+        throw new RpcRemoteException("unknown error: " + error.toString());
+      }
+    }
+    return result;
+  }
+  
+  public
+  String toString()
+  {
+    return this.getClass().getName();
+  }
+  
+  class Worker implements Runnable
+  {
+    private RpcClientTransport w_trans;
+    private String        w_method;
+    private Collection    w_args;
+    private AsyncCallback w_callback;
+    
+    public Worker(RpcClientTransport transport, String sMethod, Collection colArgs, AsyncCallback callback)
+    {
+      this.w_trans    = transport;
+      this.w_method   = sMethod;
+      this.w_args     = colArgs;
+      this.w_callback = callback;
+    }
+    
+    public
+    void run()
+    {
+      try {
+        Object oResult = invoke(w_trans, w_method, w_args);
+        if(w_callback != null) {
+          w_callback.handleResult(w_method, w_args, oResult);
+        }
+      }
+      catch(Throwable th) {
+        if(w_callback != null) {
+          w_callback.handleError(w_method, w_args, th);
+        }
+      }
+    }
+  }
+}
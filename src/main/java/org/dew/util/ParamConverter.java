@@ -0,0 +1,713 @@
+package org.dew.util;
+
+import java.lang.reflect.Method;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import org.util.Arrays;
+import org.util.WUtil;
+
+/**
+ * Precompiled converter of a method parameter.
+ * The kind of conversion is resolved once from the parameter type, so that
+ * the holders of the method (RpcMethod, BeanInfo.Property) don't compare type names on every call.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public final
+class ParamConverter
+{
+  /** Returned by convert and convertExt when the value is not compatible with the parameter. */
+  public static final Object NO_MATCH = new Object();
+  
+  static final int K_STRING         =  1;
+  static final int K_INT            =  2;
+  static final int K_NUMBER         =  3;
+  static final int K_INTEGER        =  4;
+  static final int K_LONG_PRIM      =  5;
+  static final int K_LONG           =  6;
+  static final int K_DOUBLE_PRIM    =  7;
+  static final int K_DOUBLE         =  8;
+  static final int K_BOOLEAN_PRIM   =  9;
+  static final int K_BOOLEAN        = 10;
+  static final int K_DATE           = 11;
+  static final int K_CALENDAR       = 12;
+  static final int K_LOCAL_DATE     = 13;
+  static final int K_LOCAL_DATETIME = 14;
+  static final int K_VECTOR         = 15;
+  static final int K_STACK          = 16;
+  static final int K_LIST           = 17;
+  static final int K_LINKED_LIST    = 18;
+  static final int K_HASHTABLE      = 19;
+  static final int K_MAP            = 20;
+  static final int K_PROPERTIES     = 21;
+  static final int K_TREE_SET       = 22;
+  static final int K_TREE_MAP       = 23;
+  static final int K_BYTES          = 24;
+  static final int K_INTS           = 25;
+  static final int K_CHARS          = 26;
+  static final int K_BOOLEANS       = 27;
+  static final int K_DOUBLES        = 28;
+  static final int K_OBJECTS        = 29;
+  static final int K_SET            = 30;
+  static final int K_SQL_DATE       = 31;
+  static final int K_SQL_TIMESTAMP  = 32;
+  static final int K_SQL_TIME       = 33;
+  static final int K_BIG_DECIMAL    = 34;
+  static final int K_BIG_INTEGER    = 35;
+  static final int K_OBJECT         = 36;
+  static final int K_BEAN           = 37;
+  
+  private static final Map<Class, Integer> kinds = new HashMap<Class, Integer>();
+  static {
+    kinds.put(String.class,                  K_STRING);
+    kinds.put(int.class,                     K_INT);
+    kinds.put(Number.class,                  K_NUMBER);
+    kinds.put(Integer.class,                 K_INTEGER);
+    kinds.put(long.class,                    K_LONG_PRIM);
+    kinds.put(Long.class,                    K_LONG);
+    kinds.put(double.class,                  K_DOUBLE_PRIM);
+    kinds.put(Double.class,                  K_DOUBLE);
+    kinds.put(boolean.class,                 K_BOOLEAN_PRIM);
+    kinds.put(Boolean.class,                 K_BOOLEAN);
+    kinds.put(java.util.Date.class,          K_DATE);
+    kinds.put(Calendar.class,                K_CALENDAR);
+    kinds.put(java.time.LocalDate.class,     K_LOCAL_DATE);
+    kinds.put(java.time.LocalDateTime.class, K_LOCAL_DATETIME);
+    kinds.put(Vector.class,                  K_VECTOR);
+    kinds.put(Stack.class,                   K_STACK);
+    kinds.put(List.class,                    K_LIST);
+    kinds.put(ArrayList.class,               K_LIST);
+    kinds.put(Collection.class,              K_LIST);
+    kinds.put(LinkedList.class,              K_LINKED_LIST);
+    kinds.put(Hashtable.class,               K_HASHTABLE);
+    kinds.put(Map.class,                     K_MAP);
+    kinds.put(HashMap.class,                 K_MAP);
+    kinds.put(Properties.class,              K_PROPERTIES);
+    kinds.put(TreeSet.class,                 K_TREE_SET);
+    kinds.put(TreeMap.class,                 K_TREE_MAP);
+    kinds.put(byte[].class,                  K_BYTES);
+    kinds.put(int[].class,                   K_INTS);
+    kinds.put(char[].class,                  K_CHARS);
+    kinds.put(boolean[].class,               K_BOOLEANS);
+    kinds.put(double[].class,                K_DOUBLES);
+    kinds.put(java.util.Set.class,           K_SET);
+    kinds.put(HashSet.class,                 K_SET);
+    kinds.put(java.sql.Date.class,           K_SQL_DATE);
+    kinds.put(java.sql.Timestamp.class,      K_SQL_TIMESTAMP);
+    kinds.put(java.sql.Time.class,           K_SQL_TIME);
+    kinds.put(BigDecimal.class,              K_BIG_DECIMAL);
+    kinds.put(BigInteger.class,              K_BIG_INTEGER);
+    kinds.put(Object.class,                  K_OBJECT);
+  }
+  
+  private static final Class[] ACCEPT_STRING     = { String.class };
+  private static final Class[] ACCEPT_INTEGER    = { Integer.class };
+  private static final Class[] ACCEPT_NUMBER     = { Number.class };
+  private static final Class[] ACCEPT_DOUBLE     = { Double.class };
+  private static final Class[] ACCEPT_BOOLEAN    = { Boolean.class };
+  private static final Class[] ACCEPT_DATE       = { java.util.Date.class, Calendar.class, String.class };
+  private static final Class[] ACCEPT_LOCAL_DATE = { java.time.LocalDate.class, java.util.Date.class, Calendar.class, String.class };
+  private static final Class[] ACCEPT_LOCAL_DT   = { java.time.LocalDateTime.class, java.util.Date.class, Calendar.class, String.class };
+  private static final Class[] ACCEPT_COLLECTION = { Collection.class };
+  private static final Class[] ACCEPT_MAP        = { Map.class };
+  private static final Class[] ACCEPT_BYTES      = { byte[].class,    Collection.class };
+  private static final Class[] ACCEPT_INTS       = { int[].class,     Collection.class };
+  private static final Class[] ACCEPT_CHARS      = { char[].class,    Collection.class, String.class };
+  private static final Class[] ACCEPT_BOOLEANS   = { boolean[].class, Collection.class };
+  private static final Class[] ACCEPT_DOUBLES    = { double[].class,  Collection.class };
+  private static final Class[] ACCEPT_ANY        = { Object.class };
+  private static final Class[] ACCEPT_BEAN       = { Map.class };
+  private static final Class[] ACCEPT_ENUM       = { Map.class, String.class };
+  
+  private final Method  method;
+  private final int     index;
+  private final Class   type;
+  private final int     kind;
+  private final String  typeName;
+  private final String  beanGenericType;
+  private final Class[] accepted;
+  
+  private
+  ParamConverter(Method method, int index, Class type)
+  {
+    this.method   = method;
+    this.index    = index;
+    this.type     = type;
+    this.typeName = type.getName();
+    
+    Integer oKind = kinds.get(type);
+    if(oKind != null) {
+      this.kind = oKind.intValue();
+    }
+    else if(type.isArray() && typeName.startsWith("[L")) {
+      this.kind = K_OBJECTS;
+    }
+    else {
+      this.kind = K_BEAN;
+    }
+    
+    switch(kind) {
+      case K_VECTOR:
+      case K_STACK:
+      case K_LIST:
+      case K_LINKED_LIST:
+      case K_HASHTABLE:
+      case K_MAP:
+      case K_TREE_SET:
+      case K_TREE_MAP:
+        this.beanGenericType = RefUtil.getBeanGenericType(method, index);
+        break;
+      default:
+        this.beanGenericType = null;
+    }
+    
+    switch(kind) {
+      case K_STRING:         accepted = ACCEPT_STRING;     break;
+      case K_INT:
+      case K_INTEGER:        accepted = ACCEPT_INTEGER;    break;
+      case K_NUMBER:
+      case K_LONG_PRIM:
+      case K_LONG:
+      case K_BIG_DECIMAL:
+      case K_BIG_INTEGER:    accepted = ACCEPT_NUMBER;     break;
+      case K_DOUBLE_PRIM:
+      case K_DOUBLE:         accepted = ACCEPT_DOUBLE;     break;
+      case K_BOOLEAN_PRIM:
+      case K_BOOLEAN:        accepted = ACCEPT_BOOLEAN;    break;
+      case K_DATE:
+      case K_CALENDAR:
+      case K_SQL_DATE:
+      case K_SQL_TIMESTAMP:
+      case K_SQL_TIME:       accepted = ACCEPT_DATE;       break;
+      case K_LOCAL_DATE:     accepted = ACCEPT_LOCAL_DATE; break;
+      case K_LOCAL_DATETIME: accepted = ACCEPT_LOCAL_DT;   break;
+      case K_VECTOR:
+      case K_STACK:
+      case K_LIST:
+      case K_LINKED_LIST:
+      case K_TREE_SET:
+      case K_SET:            accepted = ACCEPT_COLLECTION; break;
+      case K_HASHTABLE:
+      case K_MAP:
+      case K_PROPERTIES:
+      case K_TREE_MAP:       accepted = ACCEPT_MAP;        break;
+      case K_BYTES:          accepted = ACCEPT_BYTES;      break;
+      case K_INTS:           accepted = ACCEPT_INTS;       break;
+      case K_CHARS:          accepted = ACCEPT_CHARS;      break;
+      case K_BOOLEANS:       accepted = ACCEPT_BOOLEANS;   break;
+      case K_DOUBLES:        accepted = ACCEPT_DOUBLES;    break;
+      case K_OBJECTS:
+      case K_OBJECT:         accepted = ACCEPT_ANY;        break;
+      default:               accepted = type.isEnum() ? ACCEPT_ENUM : ACCEPT_BEAN;
+    }
+  }
+  
+  /**
+   * Converters of the parameters of a method. They are not cached here:
+   * the caller keeps them with the method (see RpcMethod).
+   *
+   * @param method Method
+   * @return array of ParamConverter
+   */
+  public static
+  ParamConverter[] createConverters(Method method)
+  {
+    Class[] types = method.getParameterTypes();
+    ParamConverter[] result = new ParamConverter[types.length];
+    for(int i = 0; i < types.length; i++) {
+      result[i] = new ParamConverter(method, i, types[i]);
+    }
+    return result;
+  }
+  
+  /**
+   * Strict conversion of the parameters (see RefUtil.getParameters).
+   *
+   * @param converters converters of the method
+   * @param params values
+   * @return converted values or null if the values are not compatible with the method.
+   */
+  public static
+  Object[] convert(ParamConverter[] converters, List<?> params)
+  {
+    int paramsSize = params != null ? params.size() : 0;
+    if(converters.length != paramsSize) return null;
+    Object[] aoResult = new Object[converters.length];
+    for(int i = 0; i < converters.length; i++) {
+      Object value = converters[i].convert(params.get(i));
+      if(value == NO_MATCH) return null;
+      aoResult[i] = value;
+    }
+    return aoResult;
+  }
+  
+  /**
+   * Lenient conversion of the parameters (see RefUtil.getParametersExt).
+   *
+   * @param converters converters of the method
+   * @param params values
+   * @return converted values or null if the values are not compatible with the method.
+   */
+  public static
+  Object[] convertExt(ParamConverter[] converters, List<?> params)
+  {
+    int paramsSize = params != null ? params.size() : 0;
+    if(converters.length != paramsSize) return null;
+    Object[] aoResult = new Object[converters.length];
+    for(int i = 0; i < converters.length; i++) {
+      Object value = converters[i].convertExt(params.get(i));
+      if(value == NO_MATCH) return null;
+      aoResult[i] = value;
+    }
+    return aoResult;
+  }
+  
+  /**
+   * Check (by class only) whether convert could accept a value.
+   * If this method returns false convert certainly returns NO_MATCH.
+   *
+   * @param valueClass class of the value (null for null value)
+   * @return false if convert certainly fails
+   */
+  public
+  boolean accepts(Class valueClass)
+  {
+    if(valueClass == null) return true;
+    for(int i = 0; i < accepted.length; i++) {
+      if(accepted[i].isAssignableFrom(valueClass)) return true;
+    }
+    return false;
+  }
+  
+  public
+  Class getType()
+  {
+    return type;
+  }
+  
+  public
+  Object convert(Object param)
+  {
+    switch(kind) {
+      case K_STRING:
+        if(param == null) return null;
+        if(param instanceof String) return param;
+        return NO_MATCH;
+      case K_INT:
+        if(param == null) return 0;
+        if(param instanceof Integer) return param;
+        return NO_MATCH;
+      case K_NUMBER:
+        if(param == null) return null;
+        if(param instanceof Number) return param;
+        return NO_MATCH;
+      case K_INTEGER:
+        if(param == null) return null;
+        if(param instanceof Integer) return param;
+        return NO_MATCH;
+      case K_LONG_PRIM:
+        if(param == null) return 0l;
+        if(param instanceof Number) return ((Number) param).longValue();
+        return NO_MATCH;
+      case K_LONG:
+        if(param == null) return null;
+        if(param instanceof Number) return ((Number) param).longValue();
+        return NO_MATCH;
+      case K_DOUBLE_PRIM:
+        if(param == null) return 0.0d;
+        if(param instanceof Double) return param;
+        return NO_MATCH;
+      case K_DOUBLE:
+        if(param == null) return null;
+        if(param instanceof Double) return param;
+        return NO_MATCH;
+      case K_BOOLEAN_PRIM:
+        if(param == null) return Boolean.FALSE;
+        if(param instanceof Boolean) return param;
+        return NO_MATCH;
+      case K_BOOLEAN:
+        if(param == null) return null;
+        if(param instanceof Boolean) return param;
+        return NO_MATCH;
+      case K_DATE:
+        if(param == null) return null;
+        if(param instanceof java.util.Date) return param;
+        if(param instanceof Calendar) return ((Calendar) param).getTime();
+        if(param instanceof String) {
+          Calendar calDate = WUtil.stringToCalendar((String) param);
+          if(calDate == null) return NO_MATCH;
+          return calDate.getTime();
+        }
+        return NO_MATCH;
+      case K_CALENDAR:
+        if(param == null) return null;
+        if(param instanceof java.util.Date) {
+          Calendar cal = Calendar.getInstance();
+          cal.setTimeInMillis(((java.util.Date) param).getTime());
+          return cal;
+        }
+        if(param instanceof Calendar) return param;
+        if(param instanceof String) {
+          Calendar calDate = WUtil.stringToCalendar((String) param);
+          if(calDate == null) return NO_MATCH;
+          return calDate;
+        }
+        return NO_MATCH;
+      case K_LOCAL_DATE:
+        if(param == null) return null;
+        if(param instanceof java.time.LocalDate) return param;
+        if(param instanceof java.util.Date) return WUtil.toLocalDate(param, null);
+        if(param instanceof Calendar) return WUtil.toLocalDate(param, null);
+        if(param instanceof String) {
+          Calendar calDate = WUtil.stringToCalendar((String) param);
+          if(calDate == null) return NO_MATCH;
+          return WUtil.toLocalDate(calDate, null);
+        }
+        return NO_MATCH;
+      case K_LOCAL_DATETIME:
+        if(param == null) return null;
+        if(param instanceof java.time.LocalDateTime) return param;
+        if(param instanceof java.util.Date) return WUtil.toLocalDateTime(param, null);
+        if(param instanceof Calendar) return WUtil.toLocalDateTime(param, null);
+        if(param instanceof String) {
+          Calendar calDate = WUtil.stringToCalendar((String) param);
+          if(calDate == null) return NO_MATCH;
+          return WUtil.toLocalDateTime(calDate, null);
+        }
+        return NO_MATCH;
+      case K_VECTOR:
+        if(param == null) return null;
+        if(param instanceof Vector) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Collection) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new Vector((Collection) param);
+        }
+        return NO_MATCH;
+      case K_STACK:
+        if(param == null) return null;
+        if(param instanceof Stack) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Collection) {
+          if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+          Stack stack = new Stack();
+          stack.addAll((Collection) param);
+          return stack;
+        }
+        return NO_MATCH;
+      case K_LIST:
+        if(param == null) return null;
+        if(param instanceof ArrayList) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Collection) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new ArrayList((Collection) param);
+        }
+        return NO_MATCH;
+      case K_LINKED_LIST:
+        if(param == null) return null;
+        if(param instanceof LinkedList) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Collection) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new LinkedList((Collection) param);
+        }
+        return NO_MATCH;
+      case K_HASHTABLE:
+        if(param == null) return null;
+        if(param instanceof Hashtable) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Map) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new Hashtable((Map) param);
+        }
+        return NO_MATCH;
+      case K_MAP:
+        if(param == null) return null;
+        if(param instanceof HashMap) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Map) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new HashMap((Map) param);
+        }
+        return NO_MATCH;
+      case K_PROPERTIES:
+        if(param == null) return null;
+        if(param instanceof Properties) return param;
+        if(param instanceof Map) return toProperties((Map) param);
+        return NO_MATCH;
+      case K_TREE_SET:
+        if(param == null) return null;
+        if(param instanceof TreeSet) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Collection) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new TreeSet((Collection) param);
+        }
+        return NO_MATCH;
+      case K_TREE_MAP:
+        if(param == null) return null;
+        if(param instanceof TreeMap) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : param;
+        }
+        if(param instanceof Map) {
+          return beanGenericType != null ? WUtil.toObject(param, beanGenericType) : new TreeMap((Map) param);
+        }
+        return NO_MATCH;
+      case K_BYTES:
+      case K_INTS:
+      case K_CHARS:
+      case K_BOOLEANS:
+      case K_DOUBLES:
+        if(param == null) return null;
+        return toPrimitiveArray(param);
+      case K_OBJECTS:
+        if(param == null) return null;
+        if(param.getClass().isArray()) return WUtil.toObject(param, typeName);
+        if(param instanceof Collection) return WUtil.toObject(param, typeName);
+        return NO_MATCH;
+      case K_SET:
+        if(param == null) return null;
+        if(param instanceof Collection) return new HashSet((Collection) param);
+        return NO_MATCH;
+      case K_SQL_DATE:
+      case K_SQL_TIMESTAMP:
+      case K_SQL_TIME:
+        if(param == null) return null;
+        long lTime = 0;
+        if(param instanceof java.util.Date) {
+          lTime = ((java.util.Date) param).getTime();
+        }
+        else if(param instanceof Calendar) {
+          lTime = ((Calendar) param).getTimeInMillis();
+        }
+        else if(param instanceof String) {
+          Calendar calDate = WUtil.stringToCalendar((String) param);
+          if(calDate == null) return NO_MATCH;
+          lTime = calDate.getTimeInMillis();
+        }
+        else {
+          return NO_MATCH;
+        }
+        if(kind == K_SQL_DATE)      return new java.sql.Date(lTime);
+        if(kind == K_SQL_TIMESTAMP) return new java.sql.Timestamp(lTime);
+        return new java.sql.Time(lTime);
+      case K_BIG_DECIMAL:
+        if(param == null) return null;
+        if(param instanceof Number) return new BigDecimal(param.toString());
+        return NO_MATCH;
+      case K_BIG_INTEGER:
+        if(param == null) return null;
+        if(param instanceof Number) return new BigInteger(param.toString());
+        return NO_MATCH;
+      case K_OBJECT:
+        return param;
+      default:
+        if(param == null) return null;
+        return toBean(param, "RpcUtil.getParameters");
+    }
+  }
+  
+  public
+  Object convertExt(Object param)
+  {
+    boolean boNull = param == null || param.equals("null");
+    switch(kind) {
+      case K_STRING:
+        if(boNull) return null;
+        return WUtil.toString(param, null);
+      case K_INT:
+        if(boNull) return 0;
+        return WUtil.toInteger(param, 0);
+      case K_NUMBER:
+        if(boNull) return null;
+        return WUtil.toNumber(param, null);
+      case K_INTEGER:
+        if(boNull) return null;
+        return WUtil.toInteger(param, null);
+      case K_LONG_PRIM:
+        if(boNull) return 0l;
+        return WUtil.toLongObj(param, 0l);
+      case K_LONG:
+        if(boNull) return null;
+        return WUtil.toLongObj(param, null);
+      case K_DOUBLE_PRIM:
+        if(boNull) return 0.0d;
+        return WUtil.toDoubleObj(param, 0.0d);
+      case K_DOUBLE:
+        if(boNull) return null;
+        return WUtil.toDoubleObj(param, null);
+      case K_BIG_DECIMAL:
+        if(boNull) return null;
+        return WUtil.toBigDecimal(param, null);
+      case K_BIG_INTEGER:
+        if(boNull) return null;
+        return WUtil.toBigInteger(param, null);
+      case K_BOOLEAN_PRIM:
+        if(boNull) return Boolean.FALSE;
+        return WUtil.toBooleanObj(param, Boolean.FALSE);
+      case K_BOOLEAN:
+        if(boNull) return null;
+        return WUtil.toBooleanObj(param, null);
+      case K_DATE:
+        if(boNull) return null;
+        return WUtil.toDate(param, null);
+      case K_CALENDAR:
+        if(boNull) return null;
+        return WUtil.toCalendar(param, null);
+      case K_LOCAL_DATE:
+        if(boNull) return null;
+        return WUtil.toLocalDate(param, null);
+      case K_LOCAL_DATETIME:
+        if(boNull) return null;
+        return WUtil.toLocalDateTime(param, null);
+      case K_VECTOR:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return WUtil.toVector(param, null);
+      case K_STACK:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        Stack stack = new Stack();
+        stack.addAll(WUtil.toVector(param, true));
+        return stack;
+      case K_LIST:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return WUtil.toList(param, null);
+      case K_LINKED_LIST:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return new LinkedList(WUtil.toList(param, true));
+      case K_HASHTABLE:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return WUtil.toHashtable(param, false);
+      case K_MAP:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return WUtil.toMap(param, false);
+      case K_PROPERTIES:
+        if(boNull) return null;
+        if(param instanceof Map) return toProperties((Map) param);
+        return NO_MATCH;
+      case K_TREE_SET:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return new TreeSet(WUtil.toList(param, true));
+      case K_TREE_MAP:
+        if(boNull) return null;
+        if(beanGenericType != null) return WUtil.toObject(param, beanGenericType);
+        return new TreeMap(WUtil.toMap(param, true));
+      case K_BYTES:
+      case K_INTS:
+      case K_CHARS:
+      case K_BOOLEANS:
+      case K_DOUBLES:
+        if(boNull) return null;
+        return toPrimitiveArray(param);
+      case K_OBJECTS:
+        if(boNull) return null;
+        if(param.getClass().isArray()) return WUtil.toObject(param, typeName);
+        if(param instanceof Collection) return WUtil.toObject(param, typeName);
+        return NO_MATCH;
+      case K_SET:
+        if(boNull) return null;
+        return WUtil.toSet(param, false);
+      case K_SQL_DATE:
+        if(boNull) return null;
+        return WUtil.toSQLDate(param, null);
+      case K_SQL_TIME:
+        if(boNull) return null;
+        return WUtil.toSQLTime(param, null);
+      case K_SQL_TIMESTAMP:
+        if(boNull) return null;
+        return WUtil.toSQLTimestamp(param, null);
+      case K_OBJECT:
+        if(boNull) return null;
+        return param;
+      default:
+        if(boNull) return null;
+        return toBean(param, "RpcUtil.getParametersExt");
+    }
+  }
+  
+  private
+  Object toPrimitiveArray(Object param)
+  {
+    if(type.isInstance(param)) return param;
+    if(param instanceof Collection) {
+      Object array = null;
+      switch(kind) {
+        case K_BYTES:    array = Arrays.toArrayOfByte((Collection) param);    break;
+        case K_INTS:     array = Arrays.toArrayOfInt((Collection) param);     break;
+        case K_CHARS:    array = Arrays.toArrayOfChar((Collection) param);    break;
+        case K_BOOLEANS: array = Arrays.toArrayOfBoolean((Collection) param); break;
+        case K_DOUBLES:  array = Arrays.toArrayOfDouble((Collection) param);  break;
+      }
+      if(array == null) return NO_MATCH;
+      return array;
+    }
+    if(kind == K_CHARS && param instanceof String) {
+      return ((String) param).toCharArray();
+    }
+    return NO_MATCH;
+  }
+  
+  private
+  Object toBean(Object param, String sCaller)
+  {
+    if(param instanceof Map) {
+      return WUtil.populateBean(type, (Map) param);
+    }
+    if(param instanceof String && type.isEnum()) {
+      try {
+        return Enum.valueOf(type, (String) param);
+      }
+      catch(Exception ex) {
+        System.err.println(sCaller + "(" + method + "," + index + "): " + ex);
+        return NO_MATCH;
+      }
+    }
+    return NO_MATCH;
+  }
+  
+  private static
+  Properties toProperties(Map map)
+  {
+    Properties properties = new Properties();
+    Iterator iterator = map.entrySet().iterator();
+    while(iterator.hasNext()) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      Object oVal = entry.getValue();
+      if(oVal == null) continue;
+      properties.setProperty(entry.getKey().toString(), oVal.toString());
+    }
+    return properties;
+  }
+  
+  @Override
+  public
+  String toString()
+  {
+    return "ParamConverter(" + typeName + ")";
+  }
+}
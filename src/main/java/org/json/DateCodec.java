@@ -0,0 +1,378 @@
+package org.json;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Dates as text yyyy-MM-ddTHH:mm:ss.SSSZ with the same results of JSONObject.dateTimeToString
+ * and JSONTokener.stringToObject, computed by arithmetic on the offsets of JSONObject.timeZone
+ * and of the default time zone. The offset transitions of the zones are cached (years 1900-2100).
+ * When the Calendar code could give a different result (dates near a transition or out of range,
+ * custom zones, not gregorian default calendar) format returns -1 and parse NO_MILLIS:
+ * the callers then fall back to the Calendar code.
+ */
+final
+class DateCodec
+{
+  static final int  LENGTH     = 24;
+  static final long NO_MILLIS  = Long.MIN_VALUE;
+  static final int  NO_OFFSET  = Integer.MIN_VALUE;
+  static final long DAY_MILLIS = 86400000L;
+  static final long MIN_MILLIS = -2208988800000L; // 1900-01-01T00:00:00Z
+  static final long MAX_MILLIS =  4102444800000L; // 2100-01-01T00:00:00Z
+  // Far enough from a transition all the offsets read by the Calendar code are the same
+  static final long MARGIN     = 3 * DAY_MILLIS;
+  
+  private static volatile ZoneTable zoneTable;
+  private static volatile ZoneTable defaultTable;
+  private static volatile Locale    gregorianLocale;
+  
+  private DateCodec()
+  {
+  }
+  
+  /**
+   * Write the text of JSONObject.dateTimeToString(value) when JSON.DATE_FORMAT is not set.
+   *
+   * @param value Date, Calendar, LocalDate or LocalDateTime
+   * @param buf buffer with at least LENGTH chars from offset
+   * @param offset index of the first char
+   * @return index after the text or -1
+   */
+  static
+  int format(Object value, char[] buf, int offset)
+  {
+    if(!isGregorian()) return -1;
+    long lWall = NO_MILLIS;
+    if(value instanceof Date) {
+      lWall = toDefaultWall(((Date) value).getTime());
+    }
+    else if(value instanceof GregorianCalendar) {
+      Calendar c = (Calendar) value;
+      lWall = c.getTimeInMillis() + c.get(Calendar.ZONE_OFFSET) + c.get(Calendar.DST_OFFSET);
+    }
+    else if(value instanceof LocalDateTime) {
+      LocalDateTime localDateTime = (LocalDateTime) value;
+      long lLocal = localDateTime.toLocalDate().toEpochDay() * DAY_MILLIS + localDateTime.toLocalTime().toNanoOfDay() / 1000000L;
+      int iOffset = getZoneTable().offset(lLocal);
+      if(iOffset != NO_OFFSET) lWall = toDefaultWall(lLocal - iOffset);
+    }
+    else if(value instanceof LocalDate) {
+      long lLocal = ((LocalDate) value).toEpochDay() * DAY_MILLIS;
+      int iOffset = getZoneTable().offset(lLocal);
+      if(iOffset != NO_OFFSET) lWall = toDefaultWall(lLocal - iOffset);
+    }
+    if(lWall == NO_MILLIS) return -1;
+    // Wall time of the default zone read as wall time of JSONObject.timeZone and shifted to UTC
+    int iOffset = getZoneTable().offset(lWall);
+    if(iOffset == NO_OFFSET) return -1;
+    write(lWall - iOffset, buf, offset);
+    return offset + LENGTH;
+  }
+  
+  /**
+   * @param s text of a date (any length)
+   * @return time of the Date of JSONTokener.stringToObject(s) or NO_MILLIS
+   */
+  static
+  long parse(String s)
+  {
+    if(s.length() != LENGTH) return NO_MILLIS;
+    for(int i = 0; i < LENGTH; i++) {
+      if(!matches(s.charAt(i), i)) return NO_MILLIS;
+    }
+    return toMillis(digits(s, 0, 4), digits(s, 5, 2), digits(s, 8, 2), digits(s, 11, 2), digits(s, 14, 2), digits(s, 17, 2), digits(s, 20, 3));
+  }
+  
+  /**
+   * @param chars text of a date (LENGTH chars from offset)
+   * @param offset index of the first char
+   * @return time of the Date of JSONTokener.stringToObject or NO_MILLIS
+   */
+  static
+  long parse(char[] chars, int offset)
+  {
+    for(int i = 0; i < LENGTH; i++) {
+      if(!matches(chars[offset + i], i)) return NO_MILLIS;
+    }
+    return toMillis(digits(chars, offset, 4), digits(chars, offset + 5, 2), digits(chars, offset + 8, 2), digits(chars, offset + 11, 2), digits(chars, offset + 14, 2), digits(chars, offset + 17, 2), digits(chars, offset + 20, 3));
+  }
+  
+  static
+  long toMillis(int iYear, int iMonth, int iDay, int iHour, int iMin, int iSec, int iMill)
+  {
+    // Out of range values are left to the lenient Calendar
+    if(iYear < 1900 || iYear > 2100 || iMonth < 1 || iMonth > 12 || iDay < 1 || iDay > lengthOfMonth(iYear, iMonth)) return NO_MILLIS;
+    if(iHour > 23 || iMin > 59 || iSec > 59) return NO_MILLIS;
+    if(!isGregorian()) return NO_MILLIS;
+    long lWall = toEpochDay(iYear, iMonth, iDay) * DAY_MILLIS + iHour * 3600000L + iMin * 60000L + iSec * 1000L + iMill;
+    // UTC time as wall time of JSONObject.timeZone, read as wall time of the default zone
+    int iOffset = getZoneTable().offset(lWall);
+    if(iOffset == NO_OFFSET) return NO_MILLIS;
+    int iDefaultOffset = getDefaultTable().offset(lWall);
+    if(iDefaultOffset == NO_OFFSET) return NO_MILLIS;
+    return lWall + iOffset - iDefaultOffset;
+  }
+  
+  static
+  long toDefaultWall(long lTime)
+  {
+    int iOffset = getDefaultTable().offset(lTime);
+    return iOffset != NO_OFFSET ? lTime + iOffset : NO_MILLIS;
+  }
+  
+  static
+  ZoneTable getZoneTable()
+  {
+    TimeZone timeZone = JSONObject.timeZone;
+    ZoneTable table = zoneTable;
+    if(table == null || table.zone != timeZone) {
+      table = new ZoneTable(timeZone);
+      zoneTable = table;
+    }
+    return table;
+  }
+  
+  static
+  ZoneTable getDefaultTable()
+  {
+    // TimeZone.getDefault is read each time so that TimeZone.setDefault is honored
+    TimeZone timeZone = TimeZone.getDefault();
+    ZoneTable table = getZoneTable();
+    if(table.zone.equals(timeZone)) return table;
+    table = defaultTable;
+    if(table == null || !table.zone.equals(timeZone)) {
+      table = new ZoneTable(timeZone);
+      defaultTable = table;
+    }
+    return table;
+  }
+  
+  /**
+   * @return true if Calendar.getInstance() is a GregorianCalendar of the default zone
+   */
+  static
+  boolean isGregorian()
+  {
+    Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+    if(locale == gregorianLocale) return true;
+    if(locale.hasExtensions() || !(Calendar.getInstance(locale) instanceof GregorianCalendar)) return false;
+    gregorianLocale = locale;
+    return true;
+  }
+  
+  static
+  void write(long lMillis, char[] buf, int offset)
+  {
+    int iDays = (int) Math.floorDiv(lMillis, DAY_MILLIS);
+    int iTime = (int) Math.floorMod(lMillis, DAY_MILLIS);
+    // Civil date from the days since 1970-01-01 (proleptic gregorian, days > 0000-03-01)
+    int z    = iDays + 719468;
+    int iEra = z / 146097;
+    int iDoe = z - iEra * 146097;
+    int iYoe = (iDoe - iDoe / 1460 + iDoe / 36524 - iDoe / 146096) / 365;
+    int iDoy = iDoe - (365 * iYoe + iYoe / 4 - iYoe / 100);
+    int iMp  = (5 * iDoy + 2) / 153;
+    int iDay   = iDoy - (153 * iMp + 2) / 5 + 1;
+    int iMonth = iMp < 10 ? iMp + 3 : iMp - 9;
+    int iYear  = iYoe + iEra * 400 + (iMonth <= 2 ? 1 : 0);
+    
+    buf[offset]      = (char) ('0' + iYear / 1000);
+    buf[offset +  1] = (char) ('0' + iYear / 100 % 10);
+    buf[offset +  2] = (char) ('0' + iYear / 10 % 10);
+    buf[offset +  3] = (char) ('0' + iYear % 10);
+    buf[offset +  4] = '-';
+    twoDigits(iMonth, buf, offset + 5);
+    buf[offset +  7] = '-';
+    twoDigits(iDay, buf, offset + 8);
+    buf[offset + 10] = 'T';
+    twoDigits(iTime / 3600000, buf, offset + 11);
+    buf[offset + 13] = ':';
+    twoDigits(iTime / 60000 % 60, buf, offset + 14);
+    buf[offset + 16] = ':';
+    twoDigits(iTime / 1000 % 60, buf, offset + 17);
+    buf[offset + 19] = '.';
+    int iMill = iTime % 1000;
+    buf[offset + 20] = (char) ('0' + iMill / 100);
+    buf[offset + 21] = (char) ('0' + iMill / 10 % 10);
+    buf[offset + 22] = (char) ('0' + iMill % 10);
+    buf[offset + 23] = 'Z';
+  }
+  
+  static
+  long toEpochDay(int iYear, int iMonth, int iDay)
+  {
+    int y    = iMonth <= 2 ? iYear - 1 : iYear;
+    int iEra = y / 400;
+    int iYoe = y - iEra * 400;
+    int iDoy = (153 * (iMonth > 2 ? iMonth - 3 : iMonth + 9) + 2) / 5 + iDay - 1;
+    int iDoe = iYoe * 365 + iYoe / 4 - iYoe / 100 + iDoy;
+    return iEra * 146097L + iDoe - 719468;
+  }
+  
+  static
+  int lengthOfMonth(int iYear, int iMonth)
+  {
+    if(iMonth == 2) {
+      return (iYear % 4 == 0 && (iYear % 100 != 0 || iYear % 400 == 0)) ? 29 : 28;
+    }
+    return iMonth == 4 || iMonth == 6 || iMonth == 9 || iMonth == 11 ? 30 : 31;
+  }
+  
+  private static
+  boolean matches(char c, int i)
+  {
+    switch(i) {
+      case  4: case  7: return c == '-';
+      case 10: return c == 'T';
+      case 13: case 16: return c == ':';
+      case 19: return c == '.';
+      case 23: return c == 'Z';
+      default: return c >= '0' && c <= '9';
+    }
+  }
+  
+  private static
+  int digits(String s, int offset, int length)
+  {
+    int iResult = 0;
+    for(int i = 0; i < length; i++) iResult = iResult * 10 + s.charAt(offset + i) - '0';
+    return iResult;
+  }
+  
+  private static
+  int digits(char[] chars, int offset, int length)
+  {
+    int iResult = 0;
+    for(int i = 0; i < length; i++) iResult = iResult * 10 + chars[offset + i] - '0';
+    return iResult;
+  }
+  
+  private static
+  void twoDigits(int value, char[] buf, int offset)
+  {
+    buf[offset]     = (char) ('0' + value / 10);
+    buf[offset + 1] = (char) ('0' + value % 10);
+  }
+  
+  /**
+   * Offsets of a zone between 1900 and 2100 (from java.time ZoneRules, checked against the TimeZone).
+   */
+  static final
+  class ZoneTable
+  {
+    final TimeZone zone;
+    // offsets[i] is valid before transitions[i] (and after transitions[i - 1])
+    final long[]   transitions;
+    final int[]    offsets;
+    
+    ZoneTable(TimeZone zone)
+    {
+      this.zone = zone;
+      long[] alTransitions = null;
+      int[]  aiOffsets     = null;
+      try {
+        ZoneId zoneId = zone.toZoneId();
+        // Custom zones (e.g. a SimpleTimeZone) are left to the Calendar code
+        if(zone.hasSameRules(TimeZone.getTimeZone(zoneId))) {
+          ZoneRules rules = zoneId.getRules();
+          alTransitions = new long[16];
+          aiOffsets     = new int[17];
+          aiOffsets[0]  = rules.getOffset(Instant.ofEpochMilli(MIN_MILLIS)).getTotalSeconds() * 1000;
+          int n = 0;
+          ZoneOffsetTransition transition = rules.nextTransition(Instant.ofEpochMilli(MIN_MILLIS));
+          while(transition != null && transition.toEpochSecond() * 1000L < MAX_MILLIS) {
+            if(n == alTransitions.length) {
+              alTransitions = Arrays.copyOf(alTransitions, n * 2);
+              aiOffsets     = Arrays.copyOf(aiOffsets, n * 2 + 1);
+            }
+            alTransitions[n] = transition.toEpochSecond() * 1000L;
+            aiOffsets[n + 1] = transition.getOffsetAfter().getTotalSeconds() * 1000;
+            n++;
+            transition = rules.nextTransition(transition.getInstant());
+          }
+          // A change of the standard offset with the same total offset (e.g. US/Indiana-Starke 2006)
+          // changes ZONE_OFFSET and DST_OFFSET of the Calendar: it is added as a transition.
+          long[] alStandard = new long[4];
+          int m = 0;
+          if(!rules.isFixedOffset()) {
+            int iStandard = rules.getStandardOffset(Instant.ofEpochMilli(MIN_MILLIS)).getTotalSeconds();
+            for(long lDay = MIN_MILLIS + DAY_MILLIS; lDay < MAX_MILLIS; lDay += DAY_MILLIS) {
+              int iDayStandard = rules.getStandardOffset(Instant.ofEpochMilli(lDay)).getTotalSeconds();
+              if(iDayStandard == iStandard) continue;
+              iStandard = iDayStandard;
+              if(m == alStandard.length) alStandard = Arrays.copyOf(alStandard, m * 2);
+              alStandard[m++] = lDay - DAY_MILLIS;
+            }
+          }
+          long[] alAll = new long[n + m];
+          int[]  aiAll = new int[n + m + 1];
+          aiAll[0] = aiOffsets[0];
+          for(int i = 0, j = 0, k = 0; k < n + m; k++) {
+            if(j >= m || (i < n && alTransitions[i] <= alStandard[j])) {
+              alAll[k]     = alTransitions[i];
+              aiAll[k + 1] = aiOffsets[i + 1];
+              i++;
+            }
+            else {
+              alAll[k]     = alStandard[j];
+              aiAll[k + 1] = aiOffsets[i];
+              j++;
+            }
+          }
+          alTransitions = alAll;
+          aiOffsets     = aiAll;
+          n += m;
+          // An interval where the TimeZone does not agree (sampled every 6 hours) is not used,
+          // e.g. the zones with predicted transitions after 2037 not supported by TimeZone.
+          for(int i = 0; i <= n; i++) {
+            long lFrom = i > 0 ? alTransitions[i - 1] : MIN_MILLIS;
+            long lTo   = i < n ? alTransitions[i] : MAX_MILLIS;
+            if(zone.getOffset(lTo - 1) != aiOffsets[i]) {
+              aiOffsets[i] = NO_OFFSET;
+              continue;
+            }
+            for(long lTime = lFrom; lTime < lTo; lTime += DAY_MILLIS / 4) {
+              if(zone.getOffset(lTime) != aiOffsets[i]) {
+                aiOffsets[i] = NO_OFFSET;
+                break;
+              }
+            }
+          }
+        }
+      }
+      catch(Exception ex) {
+        alTransitions = null;
+        aiOffsets     = null;
+      }
+      this.transitions = alTransitions;
+      this.offsets     = aiOffsets;
+    }
+    
+    /**
+     * @param lTime time (or wall time) in milliseconds
+     * @return offset of the zone or NO_OFFSET if lTime is near a transition or out of range
+     */
+    int offset(long lTime)
+    {
+      if(offsets == null || lTime < MIN_MILLIS + MARGIN || lTime >= MAX_MILLIS - MARGIN) return NO_OFFSET;
+      int i = Arrays.binarySearch(transitions, lTime);
+      if(i >= 0) return NO_OFFSET;
+      i = -i - 1;
+      if(i > 0 && lTime - transitions[i - 1] < MARGIN) return NO_OFFSET;
+      if(i < transitions.length && transitions[i] - lTime < MARGIN) return NO_OFFSET;
+      return offsets[i];
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.json;
 
+import java.nio.charset.StandardCharsets;
+
 import java.text.DateFormat;
 
 import java.util.ArrayList;
@@ -33,13 +35,9 @@ class JSON
     sText = sText.trim();
     if(sText.length() == 0) return "";
     char c0 = sText.charAt(0);
-    if(c0 == '{') {
-      JSONObject jsonObject = new JSONObject(sText);
-      return jsonObject.toHashMap();
-    }
-    if(c0 == '[') {
-      JSONArray jsonArray = new JSONArray(sText);
-      return jsonArray.toArrayList();
+    if(c0 == '{' || c0 == '[') {
+      // One pass: HashMap / ArrayList are built without intermediate JSONObject / JSONArray
+      return new JSONPullParser(sText).nextValue();
     }
     if(c0 != '\'' && c0 != '"') {
       return JSONObject.stringToValue(sText);
@@ -59,6 +57,50 @@ class JSON
     return sText;
   }
   
+  /**
+   * Parse lazily: objects and arrays are returned as read-only LazyJSONObject (Map) and
+   * LazyJSONArray (List) backed by the text, whose values are decoded only when accessed.
+   * Only the structure of the document (brackets and strings) is checked here.
+   * 
+   * @param sText JSON text
+   * @return LazyJSONObject, LazyJSONArray or the value as parse
+   */
+  public static
+  Object parseLazy(String sText)
+  {
+    if(sText == null) return null;
+    return parseLazy(sText.toCharArray());
+  }
+  
+  /**
+   * @param abText JSON text encoded in UTF-8 (decoded once in the source of the lazy values)
+   */
+  public static
+  Object parseLazy(byte[] abText)
+  {
+    if(abText == null) return null;
+    return parseLazy(new String(abText, StandardCharsets.UTF_8).toCharArray());
+  }
+  
+  public static
+  Object parseLazy(char[] acText)
+  {
+    if(acText == null) return null;
+    int iStart = LazyJSONScanner.skipWhitespace(acText, 0, acText.length);
+    if(iStart < acText.length && acText[iStart] == '\uFEFF') {
+      iStart = LazyJSONScanner.skipWhitespace(acText, iStart + 1, acText.length);
+    }
+    if(iStart >= acText.length) return "";
+    char c0 = acText[iStart];
+    if(c0 == '{') {
+      return new LazyJSONObject(acText, iStart, LazyJSONScanner.skipValue(acText, iStart, acText.length));
+    }
+    if(c0 == '[') {
+      return new LazyJSONArray(acText, iStart, LazyJSONScanner.skipValue(acText, iStart, acText.length));
+    }
+    return parse(new String(acText, iStart, acText.length - iStart));
+  }
+  
   public static
   Object parseLegacy(String sText)
   {
@@ -66,13 +108,10 @@ class JSON
     sText = sText.trim();
     if(sText.length() == 0) return "";
     char c0 = sText.charAt(0);
-    if(c0 == '{') {
-      JSONObject jsonObject = new JSONObject(sText);
-      return jsonObject.toHashtable();
-    }
-    if(c0 == '[') {
-      JSONArray jsonArray = new JSONArray(sText);
-      return jsonArray.toVector();
+    if(c0 == '{' || c0 == '[') {
+      JSONPullParser parser = new JSONPullParser(sText);
+      parser.setLegacy(true);
+      return parser.nextValue();
     }
     if(c0 != '\'' && c0 != '"') {
       return JSONObject.stringToValue(sText);
@@ -206,6 +245,7 @@ class JSON
   public static
   String stringify(Object object)
   {
-    return JSONObject.valueToString(object);
+    // Same output of JSONObject.valueToString
+    return JsonWriter.stringify(object);
   }
 }
@@ -28,13 +28,16 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Vector;
 
 /**
@@ -918,6 +921,19 @@ public class JSONArray {
     }
   }
   
+  /**
+   * List view of this array, without copy (e.g. the params of a request for RpcUtil.executeMethod).
+   * JSONObject.NULL is returned as null; nested objects and arrays are converted as toHashMap /
+   * toArrayList (toHashtable / toVector in legacy mode) at the first access and then reused.
+   * The view is read-only and the array should not be modified while it is used.
+   *
+   * @param legacy true for Hashtable / Vector nested values (as toVector)
+   * @return read-only List
+   */
+  public List asList(boolean legacy) {
+    return new ListView(legacy);
+  }
+  
   public Vector toVector() {
     if(myArrayList == null || myArrayList.isEmpty()) return new Vector(0);
     Vector vResult = new Vector(myArrayList.size());
@@ -1207,4 +1223,39 @@ public class JSONArray {
       throw new JSONException(e);
     }
   }
+  
+  protected class ListView extends AbstractList implements RandomAccess {
+    protected final boolean legacy;
+    protected Object[] converted;
+    
+    protected ListView(boolean legacy) {
+      this.legacy = legacy;
+    }
+    
+    public int size() {
+      return myArrayList.size();
+    }
+    
+    public Object get(int index) {
+      Object oItem = myArrayList.get(index);
+      if(oItem instanceof JSONObject.Null) return null;
+      if(!(oItem instanceof JSONObject) && !(oItem instanceof JSONArray)) return oItem;
+      if(converted == null || converted.length <= index) {
+        Object[] aoConverted = new Object[myArrayList.size()];
+        if(converted != null) System.arraycopy(converted, 0, aoConverted, 0, converted.length);
+        converted = aoConverted;
+      }
+      Object oResult = converted[index];
+      if(oResult == null) {
+        if(oItem instanceof JSONObject) {
+          oResult = legacy ? (Object) ((JSONObject) oItem).toHashtable() : (Object) ((JSONObject) oItem).toHashMap();
+        }
+        else {
+          oResult = legacy ? (Object) ((JSONArray) oItem).toVector() : (Object) ((JSONArray) oItem).toArrayList();
+        }
+        converted[index] = oResult;
+      }
+      return oResult;
+    }
+  }
 }
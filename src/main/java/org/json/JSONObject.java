@@ -28,8 +28,6 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Calendar;
@@ -47,6 +45,8 @@ import java.util.TimeZone;
 import org.rpc.util.Base64Coder;
 import org.rpc.util.Mapable;
 
+import org.util.BeanInfo;
+
 /**
  * A JSONObject is an unordered collection of name/value pairs. Its external
  * form is a string wrapped in curly braces with colons between the names and
@@ -751,6 +751,13 @@ public class JSONObject {
     return this.keySet().iterator();
   }
   
+  /**
+   * @return the map of the members (see JsonWriter)
+   */
+  Map getMap() {
+    return this.map;
+  }
+  
   /**
    * Get a set of keys of the JSONObject.
    *
@@ -979,41 +986,12 @@ public class JSONObject {
   
   private void populateMap(Object bean) {
     if(bean == null) return;
-    Class klass = bean.getClass();
-    // If klass is a System class then set includeSuperClass to false.
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
-    for(int i = 0; i < methods.length; i += 1) {
+    BeanInfo.Property[] getters = BeanInfo.getBeanInfo(bean.getClass()).getGetters();
+    for(int i = 0; i < getters.length; i += 1) {
       try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          String name = method.getName();
-          String key = "";
-          if(name.startsWith("get")) {
-            if("getClass".equals(name) || "getDeclaringClass".equals(name)) {
-              key = "";
-            } 
-            else {
-              key = name.substring(3);
-            }
-          } 
-          else
-          if(name.startsWith("is")) {
-            key = name.substring(2);
-          }
-          if(key.length() > 0 && key.charAt(0) < 97 && method.getParameterTypes().length == 0) {
-            if(key.length() == 1) {
-              key = key.toLowerCase();
-            } 
-            else
-            if(!Character.isUpperCase(key.charAt(1))) {
-              key = key.substring(0, 1).toLowerCase() + key.substring(1);
-            }
-            Object result = method.invoke(bean,(Object[]) null);
-            if(result != null) {
-              this.map.put(key, wrap(result));
-            }
-          }
+        Object result = getters[i].get(bean);
+        if(result != null) {
+          this.map.put(getters[i].getName(), wrap(result));
         }
       } 
       catch(Exception ignore) {
@@ -1619,6 +1597,10 @@ public class JSONObject {
   public static
   String dateTimeToString(Object oDateTime)
   {
+    if(JSON.DATE_FORMAT == null) {
+      char[] acDateTime = new char[DateCodec.LENGTH];
+      if(DateCodec.format(oDateTime, acDateTime, 0) > 0) return new String(acDateTime);
+    }
     Calendar c = null;
     if(oDateTime instanceof java.util.Date) {
       c = Calendar.getInstance();
@@ -1903,54 +1885,30 @@ public class JSONObject {
   public static
   String getCodeValueString(Object object)
   {
-    Class klass  = object.getClass();
-    String sClassName = klass.getName();
-    boolean boValue   = sClassName.indexOf("CodeAndDesc") >= 0 || sClassName.indexOf("NamedParam") >= 0;
-    if(!boValue) return null;
-    
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
-    for(int i = 0; i < methods.length; i++) {
-      try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          String name = method.getName();
-          if(name.equalsIgnoreCase("getCode") || name.equalsIgnoreCase("getValue")) {
-            return valueToString(method.invoke(object,(Object[]) null));
-          }
-        }
-      }
-      catch(Throwable th) {
-        return null;
-      }
+    Class klass = object.getClass();
+    if(!BeanInfo.isValueBean(klass)) return null;
+    BeanInfo.Property codeValue = BeanInfo.getBeanInfo(klass).getCodeValue();
+    if(codeValue == null) return null;
+    try {
+      return valueToString(codeValue.get(object));
+    }
+    catch(Throwable th) {
+      return null;
     }
-    return null;
   }
   
   public static
   Object getCodeValueWrap(Object object)
   {
-    Class klass  = object.getClass();
-    String sClassName = klass.getName();
-    boolean boValue   = sClassName.indexOf("CodeAndDesc") >= 0 || sClassName.indexOf("NamedParam") >= 0;
-    if(!boValue) return null;
-    
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
-    for(int i = 0; i < methods.length; i++) {
-      try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          String name = method.getName();
-          if(name.equalsIgnoreCase("getCode") || name.equalsIgnoreCase("getValue")) {
-            return wrap(method.invoke(object,(Object[]) null));
-          }
-        }
-      }
-      catch(Throwable th) {
-        return null;
-      }
+    Class klass = object.getClass();
+    if(!BeanInfo.isValueBean(klass)) return null;
+    BeanInfo.Property codeValue = BeanInfo.getBeanInfo(klass).getCodeValue();
+    if(codeValue == null) return null;
+    try {
+      return wrap(codeValue.get(object));
+    }
+    catch(Throwable th) {
+      return null;
     }
-    return null;
   }
 }
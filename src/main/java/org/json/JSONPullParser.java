@@ -0,0 +1,595 @@
+package org.json;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Non-backtracking JSON pull parser working on a char[] (a UTF-8 byte[] is decoded once).
+ * The values are the same of JSON.parse: objects as HashMap, arrays as ArrayList, null for
+ * JSONObject.NULL and the strings converted by JSONTokener.stringToObject (dates and byte arrays).
+ * The syntax accepted is the same of JSONTokener (unquoted keys and values, single quotes,
+ * ';' between the members of an object, empty elements of an array).
+ * In legacy mode the values are the same of JSON.parseLegacy (Hashtable and Vector, null
+ * members of the objects omitted).
+ * <pre>
+ * Object value = new JSONPullParser(text).nextValue();
+ *
+ * JSONPullParser parser = new JSONPullParser(text);
+ * while((event = parser.next()) != JSONPullParser.END) {
+ *   if(event == JSONPullParser.KEY &amp;&amp; parser.getKey().equals("params")) params = parser.nextValue();
+ * }
+ * </pre>
+ * Not thread-safe.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class JSONPullParser
+{
+  public static final int END          = 0;
+  public static final int START_OBJECT = 1;
+  public static final int END_OBJECT   = 2;
+  public static final int START_ARRAY  = 3;
+  public static final int END_ARRAY    = 4;
+  public static final int KEY          = 5;
+  public static final int VALUE        = 6;
+  
+  protected static final int S_VALUE        = 0;
+  protected static final int S_OBJECT_FIRST = 1;
+  protected static final int S_OBJECT_NEXT  = 2;
+  protected static final int S_ARRAY_FIRST  = 3;
+  protected static final int S_ARRAY_NEXT   = 4;
+  protected static final int S_AFTER_VALUE  = 5;
+  protected static final int S_DONE         = 6;
+  
+  protected final char[] buf;
+  protected final int    end;
+  protected int    pos;
+  protected char[] scratch = new char[128];
+  protected char[] stack   = new char[16];
+  protected int    depth;
+  protected int    state = S_VALUE;
+  protected String key;
+  protected Object value;
+  protected boolean legacy;
+  
+  public JSONPullParser(String text)
+  {
+    this(text.toCharArray());
+  }
+  
+  /**
+   * @param text JSON text encoded in UTF-8
+   */
+  public JSONPullParser(byte[] text)
+  {
+    this(new String(text, StandardCharsets.UTF_8).toCharArray());
+  }
+  
+  public JSONPullParser(char[] text)
+  {
+    this(text, 0, text.length);
+  }
+  
+  public JSONPullParser(char[] text, int offset, int length)
+  {
+    this.buf = text;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+  
+  /**
+   * @param legacy true to build Hashtable and Vector (see JSON.parseLegacy)
+   */
+  public
+  void setLegacy(boolean legacy)
+  {
+    this.legacy = legacy;
+  }
+  
+  public
+  boolean isLegacy()
+  {
+    return legacy;
+  }
+  
+  /**
+   * Next event: START_OBJECT, END_OBJECT, START_ARRAY, END_ARRAY, KEY (see getKey), VALUE (see getValue) or END.
+   */
+  public
+  int next()
+  {
+    for(;;) {
+      int c = peekClean();
+      switch(state) {
+        case S_DONE:
+          return END;
+        case S_OBJECT_FIRST:
+        case S_OBJECT_NEXT:
+          if(c == '}') {
+            pos++;
+            return endContainer(END_OBJECT);
+          }
+          key = readKey(c);
+          if(peekClean() != ':') throw syntaxError("Expected a ':' after a key");
+          pos++;
+          state = S_VALUE;
+          return KEY;
+        case S_AFTER_VALUE:
+          if(stack[depth - 1] == '{') {
+            if(c == ',' || c == ';') {
+              pos++;
+              state = S_OBJECT_NEXT;
+              continue;
+            }
+            if(c == '}') {
+              pos++;
+              return endContainer(END_OBJECT);
+            }
+            throw syntaxError("Expected a ',' or '}'");
+          }
+          if(c == ',') {
+            pos++;
+            state = S_ARRAY_NEXT;
+            continue;
+          }
+          if(c == ']') {
+            pos++;
+            return endContainer(END_ARRAY);
+          }
+          throw syntaxError("Expected a ',' or ']'");
+        default:
+          if(state != S_VALUE) {
+            if(c == ']') {
+              pos++;
+              return endContainer(END_ARRAY);
+            }
+            if(c == ',') {
+              // Empty element
+              value = null;
+              afterValue();
+              return VALUE;
+            }
+          }
+          if(c == '{') {
+            pos++;
+            push('{');
+            state = S_OBJECT_FIRST;
+            return START_OBJECT;
+          }
+          if(c == '[') {
+            pos++;
+            push('[');
+            state = S_ARRAY_FIRST;
+            return START_ARRAY;
+          }
+          value = readScalar(c);
+          afterValue();
+          return VALUE;
+      }
+    }
+  }
+  
+  /**
+   * @return key of the last KEY event
+   */
+  public
+  String getKey()
+  {
+    return key;
+  }
+  
+  /**
+   * @return value of the last VALUE event
+   */
+  public
+  Object getValue()
+  {
+    return value;
+  }
+  
+  /**
+   * @return nesting level of the current position
+   */
+  public
+  int getDepth()
+  {
+    return depth;
+  }
+  
+  /**
+   * @return offset in the text of the next char to read (e.g. bounds of a skipped value)
+   */
+  public
+  int getPosition()
+  {
+    return pos;
+  }
+  
+  /**
+   * Read a complete value (at the start, after a KEY event or as element of an array).
+   *
+   * @return HashMap (Hashtable), ArrayList (Vector), String, Number, Boolean, Date, byte[] or null
+   */
+  public
+  Object nextValue()
+  {
+    int c = peekClean();
+    Object result = null;
+    if(state == S_VALUE) {
+      result = readValue(c);
+    }
+    else if(state == S_ARRAY_FIRST || state == S_ARRAY_NEXT) {
+      if(c == ']') throw syntaxError("Missing value");
+      result = c == ',' ? null : readValue(c);
+    }
+    else {
+      throw syntaxError("Value not expected");
+    }
+    afterValue();
+    return result;
+  }
+  
+  /**
+   * Skip a complete value without building it.
+   */
+  public
+  void skipValue()
+  {
+    int c = peekClean();
+    if(state == S_ARRAY_FIRST || state == S_ARRAY_NEXT) {
+      if(c == ']') throw syntaxError("Missing value");
+      if(c != ',') pos = LazyJSONScanner.skipValue(buf, pos, end);
+    }
+    else if(state == S_VALUE) {
+      if(c < 0) throw syntaxError("Missing value");
+      pos = LazyJSONScanner.skipValue(buf, pos, end);
+    }
+    else {
+      throw syntaxError("Value not expected");
+    }
+    afterValue();
+  }
+  
+  protected
+  Object readValue(int c)
+  {
+    if(c == '{') {
+      pos++;
+      return readObject();
+    }
+    if(c == '[') {
+      pos++;
+      return readArray();
+    }
+    return readScalar(c);
+  }
+  
+  protected
+  Map readObject()
+  {
+    Map map = newMap();
+    List listNullKeys = null;
+    int c = peekClean();
+    if(c == '}') {
+      pos++;
+      return map;
+    }
+    for(;;) {
+      if(c < 0) throw syntaxError("A JSONObject text must end with '}'");
+      String sKey = readKey(c);
+      if(peekClean() != ':') throw syntaxError("Expected a ':' after a key");
+      pos++;
+      Object oValue = readValue(peekClean());
+      boolean boDuplicate = listNullKeys != null && listNullKeys.contains(sKey);
+      if(oValue == null && legacy) {
+        // As JSONObject.toHashtable the null members are omitted
+        boDuplicate = boDuplicate || map.containsKey(sKey);
+        if(listNullKeys == null) listNullKeys = new ArrayList();
+        listNullKeys.add(sKey);
+      }
+      else {
+        int iSize = map.size();
+        map.put(sKey, oValue);
+        boDuplicate = boDuplicate || map.size() == iSize;
+      }
+      if(boDuplicate) throw new JSONException("Duplicate key \"" + sKey + "\"");
+      c = peekClean();
+      if(c == ',' || c == ';') {
+        pos++;
+        c = peekClean();
+        if(c == '}') {
+          pos++;
+          return map;
+        }
+        continue;
+      }
+      if(c == '}') {
+        pos++;
+        return map;
+      }
+      throw syntaxError("Expected a ',' or '}'");
+    }
+  }
+  
+  protected
+  List readArray()
+  {
+    List list = newList();
+    int c = peekClean();
+    if(c == ']') {
+      pos++;
+      return list;
+    }
+    for(;;) {
+      if(c == ',') {
+        // Empty element
+        list.add(null);
+      }
+      else {
+        list.add(readValue(c));
+      }
+      c = peekClean();
+      if(c == ',') {
+        pos++;
+        c = peekClean();
+        if(c == ']') {
+          pos++;
+          return list;
+        }
+        continue;
+      }
+      if(c == ']') {
+        pos++;
+        return list;
+      }
+      throw syntaxError("Expected a ',' or ']'");
+    }
+  }
+  
+  protected
+  Map newMap()
+  {
+    if(legacy) return new Hashtable();
+    return new HashMap();
+  }
+  
+  protected
+  List newList()
+  {
+    if(legacy) return new Vector();
+    return new ArrayList();
+  }
+  
+  protected
+  String readKey(int c)
+  {
+    if(c == '"' || c == '\'') {
+      // As JSONObject: nextValue().toString()
+      Object oKey = readString((char) c);
+      return oKey instanceof String ? (String) oKey : oKey.toString();
+    }
+    if(c == '{' || c == '[' || c < 0) {
+      throw syntaxError("Invalid key");
+    }
+    Object oKey = readUnquoted();
+    return oKey instanceof String ? (String) oKey : oKey.toString();
+  }
+  
+  protected
+  Object readScalar(int c)
+  {
+    if(c == '"' || c == '\'') {
+      return readString((char) c);
+    }
+    if(c < 0) throw syntaxError("Missing value");
+    Object result = readUnquoted();
+    return result == JSONObject.NULL ? null : result;
+  }
+  
+  /**
+   * Quoted string (pos at the quote) converted as JSONTokener.nextQuoted.
+   */
+  protected
+  Object readString(char quote)
+  {
+    int iStart = ++pos;
+    int i = iStart;
+    // Fast path: no escapes
+    while(i < end) {
+      char c = buf[i];
+      if(c == quote) {
+        pos = i + 1;
+        return toObject(buf, iStart, i - iStart);
+      }
+      if(c == '\\' || c == '\n' || c == '\r') break;
+      i++;
+    }
+    int iLength = i - iStart;
+    if(scratch.length < iLength + 16) scratch = new char[Math.max(scratch.length * 2, iLength + 16)];
+    System.arraycopy(buf, iStart, scratch, 0, iLength);
+    while(true) {
+      if(i >= end) {
+        pos = i;
+        throw syntaxError("Unterminated string");
+      }
+      char c = buf[i++];
+      if(c == quote) break;
+      if(c == '\n' || c == '\r') {
+        pos = i;
+        throw syntaxError("Unterminated string");
+      }
+      if(c == '\\') {
+        if(i >= end) {
+          pos = i;
+          throw syntaxError("Unterminated string");
+        }
+        c = buf[i++];
+        switch(c) {
+          case 'b': c = '\b'; break;
+          case 't': c = '\t'; break;
+          case 'n': c = '\n'; break;
+          case 'f': c = '\f'; break;
+          case 'r': c = '\r'; break;
+          case 'u':
+            if(i + 4 > end) {
+              pos = i;
+              throw syntaxError("Substring bounds error");
+            }
+            c = (char) hex(i);
+            i += 4;
+            break;
+          case '"':
+          case '\'':
+          case '\\':
+          case '/':
+            break;
+          default:
+            pos = i;
+            throw syntaxError("Illegal escape.");
+        }
+      }
+      if(iLength == scratch.length) {
+        char[] acScratch = new char[scratch.length * 2];
+        System.arraycopy(scratch, 0, acScratch, 0, iLength);
+        scratch = acScratch;
+      }
+      scratch[iLength++] = c;
+    }
+    pos = i;
+    return toObject(scratch, 0, iLength);
+  }
+  
+  /**
+   * String, Date or byte[] (JSONTokener.stringToObject), sniffed only when the text may be a date or a byte array.
+   */
+  protected static
+  Object toObject(char[] chars, int offset, int length)
+  {
+    if(length == DateCodec.LENGTH) {
+      long lMillis = DateCodec.parse(chars, offset);
+      if(lMillis != DateCodec.NO_MILLIS) return new java.util.Date(lMillis);
+      return JSONTokener.stringToObject(new String(chars, offset, length));
+    }
+    String s = new String(chars, offset, length);
+    String sPrefix = JSON.BYTEARRAY_PREFIX;
+    if(sPrefix != null && sPrefix.length() > 0 && length >= sPrefix.length() && chars[offset] == sPrefix.charAt(0)) {
+      return JSONTokener.stringToObject(s);
+    }
+    return s;
+  }
+  
+  protected
+  int hex(int i)
+  {
+    int iResult = 0;
+    for(int k = 0; k < 4; k++) {
+      char c = buf[i + k];
+      int d = -1;
+      if(c >= '0' && c <= '9') d = c - '0';
+      else if(c >= 'a' && c <= 'f') d = c - 'a' + 10;
+      else if(c >= 'A' && c <= 'F') d = c - 'A' + 10;
+      if(d < 0) {
+        // Same result (or exception) of JSONTokener
+        try {
+          return Integer.parseInt(new String(buf, i, 4), 16);
+        }
+        catch(NumberFormatException ex) {
+          throw new JSONException(ex);
+        }
+      }
+      iResult = (iResult << 4) | d;
+    }
+    return iResult;
+  }
+  
+  /**
+   * Unquoted text converted as JSONTokener.nextValue (JSONObject.stringToValue).
+   */
+  protected
+  Object readUnquoted()
+  {
+    int iStart = pos;
+    int i = pos;
+    while(i < end) {
+      char c = buf[i];
+      if(c < ' ' || c == ',' || c == ':' || c == ']' || c == '}' || c == '/' || c == '\\' || c == '"' || c == '[' || c == '{' || c == ';' || c == '=' || c == '#') break;
+      i++;
+    }
+    pos = i;
+    int iEnd = i;
+    while(iEnd > iStart && buf[iEnd - 1] == ' ') iEnd--;
+    if(iEnd == iStart) throw syntaxError("Missing value");
+    // Fast path: integers in canonical form
+    int iDigits = iStart;
+    if(buf[iDigits] == '-') iDigits++;
+    int iCount = iEnd - iDigits;
+    if(iCount > 0 && iCount <= 18 && (buf[iDigits] != '0' || (iCount == 1 && iDigits == iStart))) {
+      long lValue = 0;
+      int k = iDigits;
+      while(k < iEnd) {
+        char c = buf[k];
+        if(c < '0' || c > '9') break;
+        lValue = lValue * 10 + (c - '0');
+        k++;
+      }
+      if(k == iEnd) {
+        if(iDigits > iStart) lValue = -lValue;
+        if(lValue == (int) lValue) return Integer.valueOf((int) lValue);
+        return Long.valueOf(lValue);
+      }
+    }
+    return JSONObject.stringToValue(new String(buf, iStart, iEnd - iStart).trim());
+  }
+  
+  /**
+   * @return next non blank character (not consumed) or -1 at the end
+   */
+  protected
+  int peekClean()
+  {
+    while(pos < end) {
+      char c = buf[pos];
+      if(c == 0) return -1;
+      if(c > ' ') return c;
+      pos++;
+    }
+    return -1;
+  }
+  
+  protected
+  void push(char c)
+  {
+    if(depth == stack.length) {
+      char[] acStack = new char[depth * 2];
+      System.arraycopy(stack, 0, acStack, 0, depth);
+      stack = acStack;
+    }
+    stack[depth++] = c;
+  }
+  
+  protected
+  int endContainer(int event)
+  {
+    depth--;
+    afterValue();
+    return event;
+  }
+  
+  protected
+  void afterValue()
+  {
+    state = depth == 0 ? S_DONE : S_AFTER_VALUE;
+  }
+  
+  protected
+  JSONException syntaxError(String message)
+  {
+    return new JSONException(message + " at " + pos);
+  }
+}
@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
 
 import org.rpc.util.Base64Coder;
@@ -341,6 +342,9 @@ public class JSONTokener {
         }
       }
       if(boDateTime) {
+        long lMillis = DateCodec.parse(s);
+        if(lMillis != DateCodec.NO_MILLIS) return new Date(lMillis);
+        
         int iYear  = Integer.parseInt(s.substring( 0,  4));
         int iMonth = Integer.parseInt(s.substring( 5,  7));
         int iDay   = Integer.parseInt(s.substring( 8, 10));
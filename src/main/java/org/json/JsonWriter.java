@@ -0,0 +1,1005 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.rpc.util.Base64Coder;
+import org.rpc.util.Mapable;
+
+/**
+ * Single-pass JSON serializer writing into a reusable char buffer, without the JSONObject / JSONArray
+ * wrappers and the intermediate Strings of JSONObject.valueToString. The output is identical to
+ * JSON.stringify: the same conversions (byte arrays, dates, beans, Mapable, code values) and the
+ * same order of the members of the maps (that of the HashMap of a JSONObject).
+ * <pre>
+ * String json = JsonWriter.stringify(value);
+ *
+ * JsonWriter jsonWriter = new JsonWriter();
+ * jsonWriter.write(value);
+ * jsonWriter.writeTo(outputStream); // UTF-8
+ * </pre>
+ * With a sink (stringify(value, writer)) the buffer is written to the Writer each time it is
+ * full, so a large document is never held entirely in memory.
+ * Not thread-safe: stringify uses one instance per thread.
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class JsonWriter
+{
+  protected static final int MAX_POOLED_CAPACITY = 64 * 1024;
+  protected static final int CHUNK_LENGTH = 8 * 1024;
+  protected static final char[] HEX = "0123456789abcdef".toCharArray();
+  protected static final ThreadLocal<JsonWriter> pool = new ThreadLocal<JsonWriter>();
+  
+  protected char[] buf;
+  protected int    count;
+  // Destination of the full buffers (null = the whole document is kept in buf)
+  protected Writer sink;
+  protected char[] digits = new char[20];
+  // Members of the maps being written, by nesting level
+  protected Object[][] keys   = new Object[8][];
+  protected Object[][] values = new Object[8][];
+  protected long[][]   order  = new long[8][];
+  protected int[]      groups = new int[16];
+  protected int        depth;
+  protected boolean    inUse;
+  // Calendars of dateTimeToString, reused until reset
+  protected Calendar localCalendar;
+  protected Calendar zoneCalendar;
+  
+  public JsonWriter()
+  {
+    this(256);
+  }
+  
+  public JsonWriter(int capacity)
+  {
+    this.buf = new char[capacity > 0 ? capacity : 256];
+  }
+  
+  /**
+   * As JSON.stringify (null if the serialization of a structure fails, as JSONObject.toString).
+   *
+   * @param value Object
+   * @return JSON text
+   */
+  public static
+  String stringify(Object value)
+  {
+    JsonWriter jsonWriter = acquire();
+    try {
+      try {
+        jsonWriter.write(value);
+      }
+      catch(RuntimeException ex) {
+        if(isStructure(value)) return null;
+        throw ex;
+      }
+      return jsonWriter.toString();
+    }
+    finally {
+      release(jsonWriter);
+    }
+  }
+  
+  /**
+   * Write a value as JSON.stringify (e.g. a response on the stream of the transport)
+   * in chunks of CHUNK_LENGTH chars.
+   *
+   * @param value Object
+   * @param writer Writer
+   * @throws IOException I/O error
+   */
+  public static
+  void stringify(Object value, Writer writer)
+    throws IOException
+  {
+    JsonWriter jsonWriter = acquire();
+    try {
+      if(jsonWriter.buf.length < 2 * CHUNK_LENGTH) jsonWriter.buf = new char[2 * CHUNK_LENGTH];
+      jsonWriter.sink = writer;
+      jsonWriter.write(value);
+      jsonWriter.flushBuffer();
+    }
+    catch(JSONException ex) {
+      if(ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+      throw ex;
+    }
+    finally {
+      jsonWriter.sink = null;
+      release(jsonWriter);
+    }
+  }
+  
+  protected static
+  JsonWriter acquire()
+  {
+    JsonWriter jsonWriter = pool.get();
+    if(jsonWriter == null) {
+      jsonWriter = new JsonWriter();
+      pool.set(jsonWriter);
+    }
+    else if(jsonWriter.inUse) {
+      // Reentrant call (e.g. from toJSONString)
+      return new JsonWriter();
+    }
+    jsonWriter.inUse = true;
+    jsonWriter.reset();
+    return jsonWriter;
+  }
+  
+  protected static
+  void release(JsonWriter jsonWriter)
+  {
+    if(!jsonWriter.inUse) return;
+    jsonWriter.inUse = false;
+    jsonWriter.sink  = null;
+    if(jsonWriter.buf.length > MAX_POOLED_CAPACITY) {
+      jsonWriter.buf = new char[256];
+    }
+  }
+  
+  /**
+   * Append a value as JSON.stringify.
+   *
+   * @param value Object
+   * @return this
+   * @throws JSONException as JSON.stringify
+   */
+  public
+  JsonWriter write(Object value)
+  {
+    if(value == null) {
+      append("null");
+    }
+    else if(value instanceof String) {
+      quote((String) value);
+    }
+    else if(value instanceof Integer || value instanceof Long) {
+      writeLong(((Number) value).longValue());
+    }
+    else if(value instanceof Boolean) {
+      append(((Boolean) value).booleanValue() ? "true" : "false");
+    }
+    else if(value.equals(null)) {
+      append("null");
+    }
+    else if(value instanceof JSONString) {
+      Object object = null;
+      try {
+        object = ((JSONString) value).toJSONString();
+      }
+      catch(Exception ex) {
+        throw new JSONException(ex);
+      }
+      if(!(object instanceof String)) {
+        throw new JSONException("Bad value from toJSONString: " + object);
+      }
+      append((String) object);
+    }
+    else if(value instanceof byte[]) {
+      writeBytes((byte[]) value, '\'');
+    }
+    else if(value instanceof Number) {
+      append(value.toString());
+    }
+    else if(value instanceof JSONObject) {
+      writeJSONObject((JSONObject) value);
+    }
+    else if(value instanceof JSONArray) {
+      writeJSONArray((JSONArray) value);
+    }
+    else if(value instanceof Map) {
+      writeMap((Map) value);
+    }
+    else if(value instanceof Collection) {
+      writeCollection((Collection) value);
+    }
+    else if(value instanceof Mapable) {
+      writeMap(((Mapable) value).toMap());
+    }
+    else if(isDateTime(value)) {
+      writeDateTime(value, false);
+    }
+    else if(value.getClass().isArray()) {
+      writeArray(value);
+    }
+    else if(value.getClass().isEnum() || isText(value)) {
+      quote(value.toString());
+    }
+    else if(value instanceof Map.Entry) {
+      write(((Map.Entry) value).getValue());
+    }
+    else {
+      String sCodeValue = JSONObject.getCodeValueString(value);
+      if(sCodeValue != null) {
+        append(sCodeValue);
+      }
+      else {
+        writeJSONObject(new JSONObject(value));
+      }
+    }
+    return this;
+  }
+  
+  public
+  void reset()
+  {
+    count = 0;
+    depth = 0;
+    localCalendar = null;
+    zoneCalendar  = null;
+  }
+  
+  public
+  int size()
+  {
+    return count;
+  }
+  
+  public
+  String toString()
+  {
+    return new String(buf, 0, count);
+  }
+  
+  public
+  void writeTo(Writer writer)
+    throws IOException
+  {
+    writer.write(buf, 0, count);
+  }
+  
+  /**
+   * @return content encoded in UTF-8
+   */
+  public
+  byte[] toByteArray()
+  {
+    byte[] abResult = new byte[utf8Length()];
+    encodeUTF8(0, count, abResult);
+    return abResult;
+  }
+  
+  /**
+   * Write the content encoded in UTF-8 (in chunks of CHUNK_LENGTH chars, without a copy of the whole content).
+   */
+  public
+  void writeTo(OutputStream out)
+    throws IOException
+  {
+    byte[] abChunk = new byte[Math.min(count, CHUNK_LENGTH + 1) * 3];
+    int iStart = 0;
+    while(iStart < count) {
+      int iEnd = Math.min(iStart + CHUNK_LENGTH, count);
+      // A surrogate pair is not split
+      if(iEnd < count && Character.isHighSurrogate(buf[iEnd - 1])) iEnd++;
+      int iLength = encodeUTF8(iStart, iEnd, abChunk);
+      out.write(abChunk, 0, iLength);
+      iStart = iEnd;
+    }
+  }
+  
+  /**
+   * Value of a Map, Collection or array (as JSONObject.wrap and then JSONObject.writeValue).
+   */
+  protected
+  void writeWrapped(Object value)
+  {
+    if(value == null) {
+      append("null");
+    }
+    else if(value instanceof String) {
+      quote((String) value);
+    }
+    else if(value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      writeLong(((Number) value).longValue());
+    }
+    else if(value instanceof Boolean) {
+      append(((Boolean) value).booleanValue() ? "true" : "false");
+    }
+    else if(value instanceof byte[]) {
+      writeBytes((byte[]) value, '"');
+    }
+    else if(value instanceof JSONObject || value instanceof JSONArray || value instanceof JSONString || value == JSONObject.NULL
+        || value instanceof Float || value instanceof Double || value instanceof java.math.BigDecimal || value instanceof java.math.BigInteger
+        || value instanceof Character) {
+      writeValue(value);
+    }
+    else if(value instanceof Collection) {
+      writeCollection((Collection) value);
+    }
+    else if(value.getClass().isArray()) {
+      writeArray(value);
+    }
+    else if(value.getClass().isEnum()) {
+      quote(value.toString());
+    }
+    else if(value instanceof Map) {
+      writeMap((Map) value);
+    }
+    else if(isDateTime(value)) {
+      writeDateTime(value, true);
+    }
+    else if(value instanceof Map.Entry) {
+      writeWrapped(((Map.Entry) value).getValue());
+    }
+    else {
+      // java.* objects as strings, code values and beans
+      writeValue(JSONObject.wrap(value));
+    }
+  }
+  
+  /**
+   * Value of a JSONObject or JSONArray (as JSONObject.writeValue).
+   */
+  protected
+  void writeValue(Object value)
+  {
+    if(value == null) {
+      append("null");
+    }
+    else if(value instanceof String) {
+      quote((String) value);
+    }
+    else if(value instanceof Integer || value instanceof Long) {
+      writeLong(((Number) value).longValue());
+    }
+    else if(value instanceof Boolean) {
+      append(((Boolean) value).booleanValue() ? "true" : "false");
+    }
+    else if(value.equals(null)) {
+      append("null");
+    }
+    else if(value instanceof JSONObject) {
+      writeJSONObject((JSONObject) value);
+    }
+    else if(value instanceof JSONArray) {
+      writeJSONArray((JSONArray) value);
+    }
+    else if(value instanceof byte[]) {
+      writeBytes((byte[]) value, '\'');
+    }
+    else if(value instanceof Map) {
+      writeMap((Map) value);
+    }
+    else if(value instanceof Mapable) {
+      writeMap(((Mapable) value).toMap());
+    }
+    else if(value instanceof Collection) {
+      writeCollection((Collection) value);
+    }
+    else if(value.getClass().isArray()) {
+      writeArray(value);
+    }
+    else if(value instanceof Number) {
+      append(value.toString());
+    }
+    else if(isDateTime(value)) {
+      writeDateTime(value, false);
+    }
+    else if(value instanceof JSONString) {
+      try {
+        Object object = ((JSONString) value).toJSONString();
+        if(object != null) {
+          append(object.toString());
+        }
+        else {
+          quote(value.toString());
+        }
+      }
+      catch(Exception ex) {
+        throw new JSONException(ex);
+      }
+    }
+    else if(isText(value)) {
+      quote(value.toString());
+    }
+    else if(value instanceof Map.Entry) {
+      writeValue(((Map.Entry) value).getValue());
+    }
+    else {
+      String sCodeValue = JSONObject.getCodeValueString(value);
+      if(sCodeValue != null) {
+        append(sCodeValue);
+      }
+      else {
+        writeJSONObject(new JSONObject(value));
+      }
+    }
+  }
+  
+  protected
+  void writeJSONObject(JSONObject jsonObject)
+  {
+    append('{');
+    Iterator iterator = jsonObject.getMap().entrySet().iterator();
+    boolean boFirst = true;
+    while(iterator.hasNext()) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      if(!boFirst) append(',');
+      boFirst = false;
+      quote(entry.getKey().toString());
+      append(':');
+      writeValue(entry.getValue());
+    }
+    append('}');
+  }
+  
+  protected
+  void writeJSONArray(JSONArray jsonArray)
+  {
+    append('[');
+    int iLength = jsonArray.length();
+    for(int i = 0; i < iLength; i++) {
+      if(i > 0) append(',');
+      writeValue(jsonArray.opt(i));
+    }
+    append(']');
+  }
+  
+  /**
+   * Map as new JSONObject(map): null values omitted and members in the order of the HashMap
+   * of the JSONObject (simulated; the JSONObject is built only in the rare cases of treeified
+   * bins, null keys or keys equal for the HashMap but not for the source map).
+   */
+  protected
+  void writeMap(Map map)
+  {
+    if(keys.length <= depth) {
+      keys   = Arrays.copyOf(keys,   depth * 2);
+      values = Arrays.copyOf(values, depth * 2);
+      order  = Arrays.copyOf(order,  depth * 2);
+    }
+    int iSize = Math.max(map.size(), 16);
+    Object[] aoKeys   = keys[depth];
+    Object[] aoValues = values[depth];
+    if(aoKeys == null || aoKeys.length < iSize) {
+      aoKeys   = keys[depth]   = new Object[iSize];
+      aoValues = values[depth] = new Object[iSize];
+    }
+    int n = 0;
+    Iterator iterator = map.entrySet().iterator();
+    while(iterator.hasNext()) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      Object value = entry.getValue();
+      if(value == null) continue;
+      if(n == aoKeys.length) {
+        aoKeys   = keys[depth]   = Arrays.copyOf(aoKeys,   n * 2);
+        aoValues = values[depth] = Arrays.copyOf(aoValues, n * 2);
+      }
+      aoKeys[n]   = entry.getKey();
+      aoValues[n] = value;
+      n++;
+    }
+    long[] alOrder = order[depth];
+    if(alOrder == null || alOrder.length < aoKeys.length) alOrder = order[depth] = new long[aoKeys.length];
+    if(!hashOrder(aoKeys, n, alOrder)) {
+      Arrays.fill(aoKeys,   0, n, null);
+      Arrays.fill(aoValues, 0, n, null);
+      writeJSONObject(new JSONObject(map));
+      return;
+    }
+    append('{');
+    depth++;
+    try {
+      for(int j = 0; j < n; j++) {
+        int i = (int) alOrder[j];
+        if(j > 0) append(',');
+        quote(aoKeys[i].toString());
+        append(':');
+        writeWrapped(aoValues[i]);
+      }
+    }
+    finally {
+      depth--;
+      Arrays.fill(aoKeys,   0, n, null);
+      Arrays.fill(aoValues, 0, n, null);
+    }
+    append('}');
+  }
+  
+  /**
+   * Order of iteration of a HashMap (default capacity) filled with the keys: by bin, then by
+   * insertion. The result is the index of each key in the low 32 bits of the ordered items.
+   *
+   * @return false if the order cannot be simulated
+   */
+  protected
+  boolean hashOrder(Object[] aoKeys, int n, long[] alOrder)
+  {
+    int iTable = 16;
+    while(n > iTable * 3 / 4) iTable <<= 1;
+    Arrays.fill(groups, 0);
+    for(int i = 0; i < n; i++) {
+      Object key = aoKeys[i];
+      if(key == null) return false;
+      int h = key.hashCode();
+      h ^= (h >>> 16);
+      // More than 8 keys in a bin of 16 may resize the table early or treeify the bin
+      if(++groups[h & 15] > 8) return false;
+      alOrder[i] = ((long) (h & (iTable - 1)) << 32) | i;
+    }
+    Arrays.sort(alOrder, 0, n);
+    int iStart = 0;
+    for(int j = 1; j <= n; j++) {
+      if(j < n && (alOrder[j] >>> 32) == (alOrder[iStart] >>> 32)) continue;
+      for(int p = iStart; p < j; p++) {
+        for(int q = p + 1; q < j; q++) {
+          if(aoKeys[(int) alOrder[p]].equals(aoKeys[(int) alOrder[q]])) return false;
+        }
+      }
+      iStart = j;
+    }
+    return true;
+  }
+  
+  protected
+  void writeCollection(Collection collection)
+  {
+    append('[');
+    if(collection instanceof List && collection instanceof RandomAccess) {
+      List list = (List) collection;
+      int iSize = list.size();
+      for(int i = 0; i < iSize; i++) {
+        if(i > 0) append(',');
+        writeWrapped(list.get(i));
+      }
+    }
+    else {
+      Iterator iterator = collection.iterator();
+      boolean boFirst = true;
+      while(iterator.hasNext()) {
+        if(!boFirst) append(',');
+        boFirst = false;
+        writeWrapped(iterator.next());
+      }
+    }
+    append(']');
+  }
+  
+  protected
+  void writeArray(Object array)
+  {
+    append('[');
+    if(array instanceof Object[]) {
+      Object[] ao = (Object[]) array;
+      for(int i = 0; i < ao.length; i++) {
+        if(i > 0) append(',');
+        writeWrapped(ao[i]);
+      }
+    }
+    else if(array instanceof int[]) {
+      int[] ai = (int[]) array;
+      for(int i = 0; i < ai.length; i++) {
+        if(i > 0) append(',');
+        writeLong(ai[i]);
+      }
+    }
+    else if(array instanceof long[]) {
+      long[] al = (long[]) array;
+      for(int i = 0; i < al.length; i++) {
+        if(i > 0) append(',');
+        writeLong(al[i]);
+      }
+    }
+    else if(array instanceof double[]) {
+      double[] ad = (double[]) array;
+      for(int i = 0; i < ad.length; i++) {
+        if(i > 0) append(',');
+        append(Double.toString(ad[i]));
+      }
+    }
+    else if(array instanceof float[]) {
+      float[] af = (float[]) array;
+      for(int i = 0; i < af.length; i++) {
+        if(i > 0) append(',');
+        append(Float.toString(af[i]));
+      }
+    }
+    else if(array instanceof boolean[]) {
+      boolean[] ab = (boolean[]) array;
+      for(int i = 0; i < ab.length; i++) {
+        if(i > 0) append(',');
+        append(ab[i] ? "true" : "false");
+      }
+    }
+    else if(array instanceof short[]) {
+      short[] as = (short[]) array;
+      for(int i = 0; i < as.length; i++) {
+        if(i > 0) append(',');
+        writeLong(as[i]);
+      }
+    }
+    else if(array instanceof char[]) {
+      char[] ac = (char[]) array;
+      for(int i = 0; i < ac.length; i++) {
+        if(i > 0) append(',');
+        writeWrapped(Character.valueOf(ac[i]));
+      }
+    }
+    append(']');
+  }
+  
+  /**
+   * @param quote '\'' as JSONObject.valueToString, '"' as the String of JSONObject.wrap
+   */
+  protected
+  void writeBytes(byte[] value, char quote)
+  {
+    String sPrefix = String.valueOf(JSON.BYTEARRAY_PREFIX);
+    if(quote == '"' && !isPlain(sPrefix)) {
+      quote(sPrefix + String.valueOf(Base64Coder.encode(value)));
+      return;
+    }
+    // The base64 text needs no escapes: it is encoded in blocks (multiple of 3 bytes, no padding)
+    append(quote);
+    append(sPrefix);
+    int iBlock = CHUNK_LENGTH / 4 * 3;
+    for(int i = 0; i < value.length; i += iBlock) {
+      append(Base64Coder.encode(value, i, Math.min(iBlock, value.length - i)));
+    }
+    append(quote);
+  }
+  
+  /**
+   * @return true if quote does not escape any char of the text
+   */
+  protected static
+  boolean isPlain(String text)
+  {
+    for(int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if(c < ' ' || c >= '\u0080' || c == '"' || c == '\\' || c == '<' || c == '/') return false;
+    }
+    return true;
+  }
+  
+  protected static
+  boolean isDateTime(Object value)
+  {
+    return value instanceof java.util.Date || value instanceof Calendar || value instanceof java.time.LocalDate || value instanceof java.time.LocalDateTime;
+  }
+  
+  protected static
+  boolean isText(Object value)
+  {
+    return value instanceof CharSequence || value instanceof java.net.URL || value instanceof java.net.URI || value instanceof java.io.File;
+  }
+  
+  /**
+   * @return true if JSON.stringify of the value goes through JSONObject.toString or JSONArray.toString
+   */
+  protected static
+  boolean isStructure(Object value)
+  {
+    if(value == null || value instanceof String || value instanceof JSONString || value instanceof byte[] || value instanceof Number || value instanceof Boolean) {
+      return false;
+    }
+    if(value instanceof JSONObject || value instanceof JSONArray || value instanceof Map || value instanceof Collection || value instanceof Mapable) {
+      return true;
+    }
+    if(isDateTime(value)) return false;
+    if(value.getClass().isArray()) return true;
+    if(value.getClass().isEnum() || isText(value)) return false;
+    if(value instanceof Map.Entry) return isStructure(((Map.Entry) value).getValue());
+    return true;
+  }
+  
+  /**
+   * As JSONObject.dateTimeToString: DateCodec writes the text in the buffer,
+   * otherwise the Calendars are reused.
+   *
+   * @param escape true to escape the text as the String of JSONObject.wrap
+   */
+  protected
+  void writeDateTime(Object value, boolean escape)
+  {
+    if(JSON.DATE_FORMAT != null) {
+      String sDateTime = JSONObject.dateTimeToString(value);
+      if(escape) {
+        quote(sDateTime);
+      }
+      else {
+        append('"');
+        append(sDateTime);
+        append('"');
+      }
+      return;
+    }
+    ensure(DateCodec.LENGTH + 2);
+    int iEnd = DateCodec.format(value, buf, count + 1);
+    if(iEnd > 0) {
+      buf[count] = '"';
+      buf[iEnd]  = '"';
+      count = iEnd + 1;
+      return;
+    }
+    Calendar c = null;
+    if(value instanceof Calendar) {
+      c = (Calendar) value;
+    }
+    else {
+      if(localCalendar == null) localCalendar = Calendar.getInstance();
+      c = localCalendar;
+      if(value instanceof java.util.Date) {
+        c.setTimeInMillis(((java.util.Date) value).getTime());
+      }
+      else if(value instanceof java.time.LocalDate) {
+        c.setTimeInMillis(((java.time.LocalDate) value).atStartOfDay().atZone(JSONObject.timeZone.toZoneId()).toInstant().toEpochMilli());
+      }
+      else {
+        c.setTimeInMillis(((java.time.LocalDateTime) value).atZone(JSONObject.timeZone.toZoneId()).toInstant().toEpochMilli());
+      }
+    }
+    if(zoneCalendar == null) zoneCalendar = Calendar.getInstance(JSONObject.timeZone);
+    Calendar cal = zoneCalendar;
+    // Same state of a new instance (e.g. ERA of the previous date)
+    cal.clear();
+    cal.set(Calendar.YEAR,        c.get(Calendar.YEAR));
+    cal.set(Calendar.MONTH,       c.get(Calendar.MONTH));
+    cal.set(Calendar.DATE,        c.get(Calendar.DATE));
+    cal.set(Calendar.HOUR_OF_DAY, c.get(Calendar.HOUR_OF_DAY));
+    cal.set(Calendar.MINUTE,      c.get(Calendar.MINUTE));
+    cal.set(Calendar.SECOND,      c.get(Calendar.SECOND));
+    cal.set(Calendar.MILLISECOND, c.get(Calendar.MILLISECOND));
+    
+    int iZoneOffset = cal.get(Calendar.ZONE_OFFSET);
+    cal.add(Calendar.MILLISECOND, -iZoneOffset);
+    int iDST_Offset = cal.get(Calendar.DST_OFFSET);
+    cal.add(Calendar.MILLISECOND, -iDST_Offset);
+    
+    int iYear = cal.get(Calendar.YEAR);
+    ensure(32);
+    buf[count++] = '"';
+    if(iYear < 1000) {
+      buf[count++] = '0';
+      if(iYear < 100) buf[count++] = '0';
+      if(iYear < 10)  buf[count++] = '0';
+    }
+    writeLong(iYear);
+    ensure(24);
+    buf[count++] = '-';
+    writeTwoDigits(cal.get(Calendar.MONTH) + 1);
+    buf[count++] = '-';
+    writeTwoDigits(cal.get(Calendar.DATE));
+    buf[count++] = 'T';
+    writeTwoDigits(cal.get(Calendar.HOUR_OF_DAY));
+    buf[count++] = ':';
+    writeTwoDigits(cal.get(Calendar.MINUTE));
+    buf[count++] = ':';
+    writeTwoDigits(cal.get(Calendar.SECOND));
+    buf[count++] = '.';
+    int iMill = cal.get(Calendar.MILLISECOND);
+    if(iMill < 100) buf[count++] = '0';
+    if(iMill < 10)  buf[count++] = '0';
+    writeLong(iMill);
+    ensure(2);
+    buf[count++] = 'Z';
+    buf[count++] = '"';
+  }
+  
+  protected
+  void writeTwoDigits(int value)
+  {
+    if(value < 10) buf[count++] = '0';
+    writeLong(value);
+  }
+  
+  protected
+  void writeLong(long value)
+  {
+    if(value == Long.MIN_VALUE) {
+      append("-9223372036854775808");
+      return;
+    }
+    ensure(20);
+    if(value < 0) {
+      buf[count++] = '-';
+      value = -value;
+    }
+    int i = digits.length;
+    do {
+      digits[--i] = (char) ('0' + (value % 10));
+      value /= 10;
+    }
+    while(value != 0);
+    int iLength = digits.length - i;
+    System.arraycopy(digits, i, buf, count, iLength);
+    count += iLength;
+  }
+  
+  /**
+   * As JSONObject.quote.
+   */
+  protected
+  void quote(String string)
+  {
+    int iLength = string.length();
+    ensure(Math.min(iLength, CHUNK_LENGTH) + 2);
+    buf[count++] = '"';
+    char b = 0;
+    char c = 0;
+    // Room for the chars up to iLimit (an escape takes up to 6 chars)
+    int iLimit = 0;
+    for(int i = 0; i < iLength; i++) {
+      b = c;
+      c = string.charAt(i);
+      if(i >= iLimit) {
+        int iChunk = Math.min(iLength - i, CHUNK_LENGTH);
+        ensure(iChunk + 7);
+        iLimit = i + (buf.length - count - 7);
+      }
+      if(c >= ' ' && c < '\u0080' && c != '"' && c != '\\' && c != '/') {
+        buf[count++] = c;
+        continue;
+      }
+      // Each escape uses up to 5 more chars
+      iLimit -= 5;
+      switch(c) {
+        case '\\':
+        case '"':
+          buf[count++] = '\\';
+          buf[count++] = c;
+          break;
+        case '/':
+          if(b == '<') buf[count++] = '\\';
+          buf[count++] = c;
+          break;
+        case '\b': buf[count++] = '\\'; buf[count++] = 'b'; break;
+        case '\t': buf[count++] = '\\'; buf[count++] = 't'; break;
+        case '\n': buf[count++] = '\\'; buf[count++] = 'n'; break;
+        case '\f': buf[count++] = '\\'; buf[count++] = 'f'; break;
+        case '\r': buf[count++] = '\\'; buf[count++] = 'r'; break;
+        default:
+          if(c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+            buf[count++] = '\\';
+            buf[count++] = 'u';
+            buf[count++] = HEX[(c >> 12) & 15];
+            buf[count++] = HEX[(c >> 8) & 15];
+            buf[count++] = HEX[(c >> 4) & 15];
+            buf[count++] = HEX[c & 15];
+          }
+          else {
+            buf[count++] = c;
+          }
+      }
+    }
+    buf[count++] = '"';
+  }
+  
+  protected
+  void append(char c)
+  {
+    if(count == buf.length) ensure(1);
+    buf[count++] = c;
+  }
+  
+  protected
+  void append(String s)
+  {
+    int iLength = s.length();
+    if(sink != null && iLength > CHUNK_LENGTH) {
+      // Written as is (e.g. text of toJSONString)
+      flushBuffer();
+      try {
+        sink.write(s);
+      }
+      catch(IOException ex) {
+        throw new JSONException(ex);
+      }
+      return;
+    }
+    ensure(iLength);
+    s.getChars(0, iLength, buf, count);
+    count += iLength;
+  }
+  
+  protected
+  void append(char[] ac)
+  {
+    ensure(ac.length);
+    System.arraycopy(ac, 0, buf, count, ac.length);
+    count += ac.length;
+  }
+  
+  /**
+   * Make room for length chars: with a sink the buffer is written first, otherwise it grows.
+   */
+  protected
+  void ensure(int length)
+  {
+    if(count + length <= buf.length) return;
+    if(sink != null) {
+      flushBuffer();
+      if(length <= buf.length) return;
+    }
+    buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + length));
+  }
+  
+  /**
+   * Write the content of the buffer to the sink, if any.
+   *
+   * @throws JSONException with the IOException of the sink as cause
+   */
+  protected
+  void flushBuffer()
+  {
+    if(sink == null || count == 0) return;
+    try {
+      sink.write(buf, 0, count);
+    }
+    catch(IOException ex) {
+      throw new JSONException(ex);
+    }
+    count = 0;
+  }
+  
+  protected
+  int utf8Length()
+  {
+    int iResult = count;
+    for(int i = 0; i < count; i++) {
+      char c = buf[i];
+      if(c < 0x80) continue;
+      if(c < 0x800) {
+        iResult += 1;
+      }
+      else if(Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(buf[i + 1])) {
+        iResult += 2;
+        i++;
+      }
+      else if(Character.isSurrogate(c)) {
+        // Unpaired surrogate: '?' as String.getBytes
+      }
+      else {
+        iResult += 2;
+      }
+    }
+    return iResult;
+  }
+  
+  /**
+   * @return number of bytes written in out
+   */
+  protected
+  int encodeUTF8(int iStart, int iEnd, byte[] out)
+  {
+    int j = 0;
+    for(int i = iStart; i < iEnd; i++) {
+      char c = buf[i];
+      if(c < 0x80) {
+        out[j++] = (byte) c;
+      }
+      else if(c < 0x800) {
+        out[j++] = (byte) (0xc0 | (c >> 6));
+        out[j++] = (byte) (0x80 | (c & 0x3f));
+      }
+      else if(Character.isHighSurrogate(c) && i + 1 < iEnd && Character.isLowSurrogate(buf[i + 1])) {
+        int cp = Character.toCodePoint(c, buf[++i]);
+        out[j++] = (byte) (0xf0 | (cp >> 18));
+        out[j++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        out[j++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        out[j++] = (byte) (0x80 | (cp & 0x3f));
+      }
+      else if(Character.isSurrogate(c)) {
+        out[j++] = (byte) '?';
+      }
+      else {
+        out[j++] = (byte) (0xe0 | (c >> 12));
+        out[j++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[j++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    return j;
+  }
+}
@@ -0,0 +1,135 @@
+package org.json;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read-only List view of a JSON array backed by the source text (see JSON.parseLazy and LazyJSONObject).
+ * The elements are indexed at the first access and decoded only when they are read.
+ * Not thread-safe.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class LazyJSONArray extends AbstractList implements RandomAccess, JSONString
+{
+  protected final char[] source;
+  protected final int    start;
+  protected final int    end;
+  protected int      size = -1;
+  protected int[]    offsets;
+  protected Object[] values;
+  
+  /**
+   * @param source JSON text
+   * @param start index of '['
+   * @param end index after ']'
+   */
+  public LazyJSONArray(char[] source, int start, int end)
+  {
+    this.source = source;
+    this.start  = start;
+    this.end    = end;
+  }
+  
+  public
+  int size()
+  {
+    index();
+    return size;
+  }
+  
+  public
+  Object get(int i)
+  {
+    index();
+    if(i < 0 || i >= size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+    Object value = values[i];
+    if(value == LazyJSONScanner.UNDECODED) {
+      value = LazyJSONScanner.decode(source, offsets[i * 2], offsets[i * 2 + 1]);
+      values[i] = value;
+    }
+    return value;
+  }
+  
+  /**
+   * @return original JSON text of the array (nothing is decoded)
+   */
+  public
+  String toJSONString()
+  {
+    return new String(source, start, end - start);
+  }
+  
+  public
+  String toString()
+  {
+    return toJSONString();
+  }
+  
+  /**
+   * @return mutable deep copy (as JSONArray.toArrayList)
+   */
+  public
+  ArrayList toArrayList()
+  {
+    int iSize = size();
+    ArrayList lResult = new ArrayList(iSize);
+    for(int i = 0; i < iSize; i++) {
+      Object value = get(i);
+      if(value instanceof LazyJSONObject) {
+        value = ((LazyJSONObject) value).toHashMap();
+      }
+      else if(value instanceof LazyJSONArray) {
+        value = ((LazyJSONArray) value).toArrayList();
+      }
+      lResult.add(value);
+    }
+    return lResult;
+  }
+  
+  /**
+   * Build the index of the elements (offsets of the values, -1 for the empty elements).
+   */
+  protected
+  void index()
+  {
+    if(size >= 0) return;
+    int[] aiOffsets = new int[16];
+    int n = 0;
+    int i = LazyJSONScanner.skipWhitespace(source, start + 1, end);
+    if(i < end && source[i] == ']') i = -1;
+    while(i >= 0) {
+      if(i >= end) throw LazyJSONScanner.syntaxError("A JSONArray text must end with ']'", i);
+      int iValueStart = -1;
+      int iValueEnd   = -1;
+      if(source[i] != ',') {
+        iValueStart = i;
+        iValueEnd   = LazyJSONScanner.skipValue(source, i, end);
+        i = LazyJSONScanner.skipWhitespace(source, iValueEnd, end);
+      }
+      if(n * 2 + 2 > aiOffsets.length) aiOffsets = LazyJSONScanner.grow(aiOffsets);
+      aiOffsets[n * 2]     = iValueStart;
+      aiOffsets[n * 2 + 1] = iValueEnd;
+      n++;
+      
+      char c = i < end ? source[i] : 0;
+      if(c == ',') {
+        i = LazyJSONScanner.skipWhitespace(source, i + 1, end);
+        if(i < end && source[i] == ']') i = -1;
+      }
+      else if(c == ']') {
+        i = -1;
+      }
+      else {
+        throw LazyJSONScanner.syntaxError("Expected a ',' or ']'", i);
+      }
+    }
+    Object[] aoValues = new Object[n];
+    Arrays.fill(aoValues, LazyJSONScanner.UNDECODED);
+    offsets = aiOffsets;
+    values  = aoValues;
+    size    = n;
+  }
+}
@@ -0,0 +1,234 @@
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only Map view of a JSON object backed by the source text (see JSON.parseLazy).
+ * The members are indexed (key and offsets of the value) at the first access and each value
+ * is decoded only when it is read, so the parts of the document never accessed are not built.
+ * The values are the same of JSON.parse (nested objects and arrays as LazyJSONObject and
+ * LazyJSONArray). Syntax errors inside a value are thrown (JSONException) when it is accessed.
+ * Not thread-safe.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class LazyJSONObject extends AbstractMap implements JSONString
+{
+  protected static final int HASH_THRESHOLD = 16;
+  
+  protected final char[] source;
+  protected final int    start;
+  protected final int    end;
+  protected String[] keys;
+  protected int[]    offsets;
+  protected Object[] values;
+  protected Map      positions;
+  protected Set      entrySet;
+  
+  /**
+   * @param source JSON text
+   * @param start index of '{'
+   * @param end index after '}'
+   */
+  public LazyJSONObject(char[] source, int start, int end)
+  {
+    this.source = source;
+    this.start  = start;
+    this.end    = end;
+  }
+  
+  public
+  int size()
+  {
+    index();
+    return keys.length;
+  }
+  
+  public
+  boolean containsKey(Object key)
+  {
+    return indexOf(key) >= 0;
+  }
+  
+  public
+  Object get(Object key)
+  {
+    int i = indexOf(key);
+    return i >= 0 ? valueAt(i) : null;
+  }
+  
+  public
+  Set entrySet()
+  {
+    if(entrySet == null) {
+      entrySet = new AbstractSet() {
+        public int size() {
+          return LazyJSONObject.this.size();
+        }
+        public Iterator iterator() {
+          index();
+          return new Iterator() {
+            int next = 0;
+            public boolean hasNext() {
+              return next < keys.length;
+            }
+            public Object next() {
+              if(next >= keys.length) throw new NoSuchElementException();
+              int i = next++;
+              return new AbstractMap.SimpleImmutableEntry(keys[i], valueAt(i));
+            }
+          };
+        }
+      };
+    }
+    return entrySet;
+  }
+  
+  /**
+   * @return original JSON text of the object (nothing is decoded)
+   */
+  public
+  String toJSONString()
+  {
+    return new String(source, start, end - start);
+  }
+  
+  public
+  String toString()
+  {
+    return toJSONString();
+  }
+  
+  /**
+   * @return mutable deep copy (as JSONObject.toHashMap)
+   */
+  public
+  HashMap toHashMap()
+  {
+    index();
+    HashMap hmResult = new HashMap(Math.max(keys.length * 4 / 3 + 1, 16));
+    for(int i = 0; i < keys.length; i++) {
+      Object value = valueAt(i);
+      if(value instanceof LazyJSONObject) {
+        value = ((LazyJSONObject) value).toHashMap();
+      }
+      else if(value instanceof LazyJSONArray) {
+        value = ((LazyJSONArray) value).toArrayList();
+      }
+      hmResult.put(keys[i], value);
+    }
+    return hmResult;
+  }
+  
+  protected
+  int indexOf(Object key)
+  {
+    index();
+    if(positions != null) {
+      Integer oIndex = (Integer) positions.get(key);
+      return oIndex != null ? oIndex.intValue() : -1;
+    }
+    for(int i = 0; i < keys.length; i++) {
+      if(keys[i].equals(key)) return i;
+    }
+    return -1;
+  }
+  
+  protected
+  Object valueAt(int i)
+  {
+    Object value = values[i];
+    if(value == LazyJSONScanner.UNDECODED) {
+      value = LazyJSONScanner.decode(source, offsets[i * 2], offsets[i * 2 + 1]);
+      values[i] = value;
+    }
+    return value;
+  }
+  
+  /**
+   * Build the index of the members (keys and offsets of the values).
+   */
+  protected
+  void index()
+  {
+    if(keys != null) return;
+    List listKeys = new ArrayList();
+    int[] aiOffsets = new int[16];
+    int i = LazyJSONScanner.skipWhitespace(source, start + 1, end);
+    if(i < end && source[i] == '}') i = -1;
+    while(i >= 0) {
+      if(i >= end) throw LazyJSONScanner.syntaxError("A JSONObject text must end with '}'", i);
+      char c = source[i];
+      String sKey = null;
+      if(c == '"' || c == '\'') {
+        int iKeyEnd = LazyJSONScanner.skipString(source, i, end);
+        sKey = LazyJSONScanner.unescape(source, i, iKeyEnd);
+        i = iKeyEnd;
+      }
+      else if(c == '{' || c == '[') {
+        throw LazyJSONScanner.syntaxError("Invalid key", i);
+      }
+      else {
+        int iKeyEnd = LazyJSONScanner.skipValue(source, i, end);
+        sKey = new String(source, i, iKeyEnd - i).trim();
+        i = iKeyEnd;
+      }
+      i = LazyJSONScanner.skipWhitespace(source, i, end);
+      if(i >= end || source[i] != ':') {
+        throw LazyJSONScanner.syntaxError("Expected a ':' after a key", i);
+      }
+      int iValueStart = LazyJSONScanner.skipWhitespace(source, i + 1, end);
+      int iValueEnd   = LazyJSONScanner.skipValue(source, iValueStart, end);
+      int n = listKeys.size();
+      if(n * 2 + 2 > aiOffsets.length) aiOffsets = LazyJSONScanner.grow(aiOffsets);
+      aiOffsets[n * 2]     = iValueStart;
+      aiOffsets[n * 2 + 1] = iValueEnd;
+      listKeys.add(sKey);
+      
+      i = LazyJSONScanner.skipWhitespace(source, iValueEnd, end);
+      c = i < end ? source[i] : 0;
+      if(c == ',' || c == ';') {
+        i = LazyJSONScanner.skipWhitespace(source, i + 1, end);
+        if(i < end && source[i] == '}') i = -1;
+      }
+      else if(c == '}') {
+        i = -1;
+      }
+      else {
+        throw LazyJSONScanner.syntaxError("Expected a ',' or '}'", i);
+      }
+    }
+    String[] asKeys = (String[]) listKeys.toArray(new String[listKeys.size()]);
+    Object[] aoValues = new Object[asKeys.length];
+    Arrays.fill(aoValues, LazyJSONScanner.UNDECODED);
+    // Duplicate keys are rejected as in JSONObject
+    if(asKeys.length > HASH_THRESHOLD) {
+      positions = new HashMap(asKeys.length * 4 / 3 + 1);
+      for(int k = 0; k < asKeys.length; k++) {
+        if(positions.put(asKeys[k], Integer.valueOf(k)) != null) {
+          positions = null;
+          throw new JSONException("Duplicate key \"" + asKeys[k] + "\"");
+        }
+      }
+    }
+    else {
+      for(int k = 1; k < asKeys.length; k++) {
+        for(int j = 0; j < k; j++) {
+          if(asKeys[j].equals(asKeys[k])) throw new JSONException("Duplicate key \"" + asKeys[k] + "\"");
+        }
+      }
+    }
+    offsets = aiOffsets;
+    values  = aoValues;
+    keys    = asKeys;
+  }
+}
@@ -0,0 +1,162 @@
+package org.json;
+
+/**
+ * Structural scanning of JSON text in a char[] for LazyJSONObject and LazyJSONArray.
+ * The syntax accepted is the same as JSONObject / JSONArray (unquoted keys and values,
+ * single quotes, ';' between the members of an object, empty elements of an array).
+ */
+final
+class LazyJSONScanner
+{
+  static final Object UNDECODED = new Object();
+  
+  static final String DELIMITERS = ",:]}/\\\"[{;=#";
+  
+  private LazyJSONScanner()
+  {
+  }
+  
+  static
+  int skipWhitespace(char[] source, int index, int end)
+  {
+    while(index < end && source[index] <= ' ') index++;
+    return index;
+  }
+  
+  /**
+   * @return index after the value starting at index (not blank)
+   */
+  static
+  int skipValue(char[] source, int index, int end)
+  {
+    if(index >= end) throw syntaxError("Missing value", index);
+    char c = source[index];
+    if(c == '"' || c == '\'') {
+      return skipString(source, index, end);
+    }
+    if(c == '{' || c == '[') {
+      char cOpen = c;
+      int iDepth = 0;
+      while(index < end) {
+        c = source[index];
+        if(c == '"' || c == '\'') {
+          index = skipString(source, index, end);
+          continue;
+        }
+        if(c == '{' || c == '[') {
+          iDepth++;
+        }
+        else if(c == '}' || c == ']') {
+          if(--iDepth == 0) return index + 1;
+        }
+        index++;
+      }
+      throw syntaxError(cOpen == '{' ? "A JSONObject text must end with '}'" : "A JSONArray text must end with ']'", index);
+    }
+    int iStart = index;
+    while(index < end && source[index] >= ' ' && DELIMITERS.indexOf(source[index]) < 0) index++;
+    if(index == iStart) throw syntaxError("Missing value", index);
+    return index;
+  }
+  
+  /**
+   * @return index after the closing quote
+   */
+  static
+  int skipString(char[] source, int index, int end)
+  {
+    char cQuote = source[index++];
+    while(index < end) {
+      char c = source[index++];
+      if(c == '\n' || c == '\r') break;
+      if(c == '\\') {
+        index++;
+      }
+      else if(c == cQuote) {
+        return index;
+      }
+    }
+    throw syntaxError("Unterminated string", index);
+  }
+  
+  /**
+   * @param start index of the opening quote
+   * @param end index after the closing quote
+   */
+  static
+  String unescape(char[] source, int start, int end)
+  {
+    int iFirst = start + 1;
+    int iLast  = end - 1;
+    int i = iFirst;
+    while(i < iLast && source[i] != '\\') i++;
+    if(i == iLast) return new String(source, iFirst, iLast - iFirst);
+    StringBuilder sb = new StringBuilder(iLast - iFirst);
+    sb.append(source, iFirst, i - iFirst);
+    while(i < iLast) {
+      char c = source[i++];
+      if(c != '\\') {
+        sb.append(c);
+        continue;
+      }
+      c = source[i++];
+      switch(c) {
+        case 'b': sb.append('\b'); break;
+        case 't': sb.append('\t'); break;
+        case 'n': sb.append('\n'); break;
+        case 'f': sb.append('\f'); break;
+        case 'r': sb.append('\r'); break;
+        case 'u':
+          if(i + 4 > iLast) throw syntaxError("Substring bounds error", i);
+          try {
+            sb.append((char) Integer.parseInt(new String(source, i, 4), 16));
+          }
+          catch(NumberFormatException ex) {
+            throw syntaxError("Illegal escape.", i);
+          }
+          i += 4;
+          break;
+        case '"':
+        case '\'':
+        case '\\':
+        case '/':
+          sb.append(c);
+          break;
+        default:
+          throw syntaxError("Illegal escape.", i);
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Decode the value in [start, end) as JSON.parse does (JSONObject.NULL as null).
+   */
+  static
+  Object decode(char[] source, int start, int end)
+  {
+    if(start < 0) return null;
+    char c = source[start];
+    if(c == '{') return new LazyJSONObject(source, start, end);
+    if(c == '[') return new LazyJSONArray(source, start, end);
+    if(c == '"' || c == '\'') {
+      return JSONTokener.stringToObject(unescape(source, start, end));
+    }
+    Object value = JSONObject.stringToValue(new String(source, start, end - start).trim());
+    return value == JSONObject.NULL ? null : value;
+  }
+  
+  static
+  JSONException syntaxError(String message, int index)
+  {
+    return new JSONException(message + " at " + index);
+  }
+  
+  static
+  int[] grow(int[] array)
+  {
+    int[] result = new int[array.length * 2];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+}
@@ -16,21 +16,38 @@
 
 package org.json.rpc.server;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import org.apache.xmlrpc.XmlRpcException;
 
 import org.dew.util.RefUtil;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JsonWriter;
 import org.json.rpc.commons.RpcRemoteException;
 
+import org.rpc.server.JsonRpcBatch;
+import org.rpc.server.JsonRpcEnvelope;
+import org.rpc.server.JsonRpcNotifications;
+import org.rpc.server.RpcAsync;
 import org.rpc.server.RpcAudit;
+import org.rpc.server.RpcCoalescer;
+import org.rpc.server.RpcDispatcher;
 import org.rpc.server.RpcExecutor;
+import org.rpc.server.RpcPhases;
+import org.rpc.server.RpcResponseWriter;
+import org.rpc.server.RpcResultCache;
 import org.rpc.server.RpcServerTransport;
+import org.rpc.server.RpcStreamServerTransport;
+import org.rpc.server.RpcStreams;
 import org.rpc.server.RpcTracer;
 import org.rpc.server.RpcUtil;
 
@@ -43,6 +60,11 @@ class JsonRpcExecutor implements RpcExecutor
   protected Map       handlers;
   protected RpcTracer tracer;
   protected RpcAudit  audit;
+  protected Executor  invocationExecutor;
+  protected RpcResultCache resultCache;
+  protected RpcCoalescer coalescer;
+  protected JsonRpcBatch batch = new JsonRpcBatch();
+  protected JsonRpcNotifications notifications = new JsonRpcNotifications();
   
   public JsonRpcExecutor()
   {
@@ -65,6 +87,8 @@ class JsonRpcExecutor implements RpcExecutor
       }
       this.handlers.put(name, handler);
     }
+    // Build the dispatch table of the handler
+    RpcDispatcher.getDispatcher(handler);
   }
   
   public
@@ -87,32 +111,116 @@ class JsonRpcExecutor implements RpcExecutor
     this.audit = audit;
   }
   
+  /**
+   * Set the executor of the handler methods (null = current thread), e.g. RpcWorkers.newVirtualThreadPerCall().
+   * With an asynchronous transport the calling thread is released during the invocation.
+   */
+  public
+  void setInvocationExecutor(Executor invocationExecutor)
+  {
+    this.invocationExecutor = invocationExecutor;
+  }
+  
+  /**
+   * Set the cache of the results of the RpcCacheable (or registered) methods (null = no cache).
+   */
+  public
+  void setResultCache(RpcResultCache resultCache)
+  {
+    this.resultCache = resultCache;
+  }
+  
+  /**
+   * Set the RpcCoalescer of the RpcCoalesce (or registered) methods (null = no coalescing).
+   */
+  public
+  void setCoalescer(RpcCoalescer coalescer)
+  {
+    this.coalescer = coalescer;
+  }
+  
+  /**
+   * Set the maximum number of requests in a JSON-RPC batch (0 = no limit).
+   */
+  public
+  void setBatchMaxSize(int batchMaxSize)
+  {
+    this.batch.setMaxSize(batchMaxSize);
+  }
+  
+  /**
+   * Set the pool used to run in parallel the calls of a JSON-RPC batch.
+   */
+  public
+  void setBatchExecutor(ExecutorService executorService)
+  {
+    this.batch.setExecutorService(executorService);
+  }
+  
+  /**
+   * Set the capacity of the queue of JSON-RPC notifications (requests without id).
+   */
+  public
+  void setNotificationQueueCapacity(int queueCapacity)
+  {
+    this.notifications.setQueueCapacity(queueCapacity);
+  }
+  
+  /**
+   * Set the behavior when the queue of notifications is full:
+   * JsonRpcNotifications.OVERFLOW_DROP or JsonRpcNotifications.OVERFLOW_BLOCK.
+   */
+  public
+  void setNotificationOverflowPolicy(int overflowPolicy)
+  {
+    this.notifications.setOverflowPolicy(overflowPolicy);
+  }
+  
   public
   void execute(RpcServerTransport transport)
   {
-    String[] requestData = null;
+    RpcPhases phases = RpcPhases.start("jsonrpc", tracer);
     try {
-      requestData = transport.readRequest("application/json");
+      String[] requestData = null;
+      try {
+        if(!RpcUtil.isTracing(tracer) && transport instanceof RpcStreamServerTransport) {
+          // The body is parsed directly from the stream (a tracer that may sample needs the text of the request)
+          requestData = ((RpcStreamServerTransport) transport).openRequest("application/json");
+        }
+        else {
+          requestData = transport.readRequest("application/json");
+        }
+      }
+      catch(Throwable t) {
+        t.printStackTrace();
+        return;
+      }
+      RpcPhases.mark(RpcPhases.READ);
+      jsonrpc_execute(requestData, transport);
     }
-    catch(Throwable t) {
-      t.printStackTrace();
-      return;
+    finally {
+      RpcPhases.end(phases);
     }
-    jsonrpc_execute(requestData, transport);
   }
   
   private
   void jsonrpc_execute(String[] requestData, RpcServerTransport transport)
   {
+    if(JsonRpcBatch.isBatch(requestData, transport)) {
+      batch.execute(handlers, audit, resultCache, coalescer, tracer, notifications, requestData, transport);
+      return;
+    }
+    
     String methodName = null;
-    JSONArray params = null;
+    List params = null;
     
     JSONObject resp = new JSONObject();
     resp.put("jsonrpc", "2.0");
     
-    JSONObject req = null;
+    // Only the envelope is scanned: the params are parsed after authorization and handler lookup.
+    JsonRpcEnvelope envelope = null;
     try {
-      req = new JSONObject(requestData[1]);
+      envelope = JsonRpcEnvelope.scan(RpcStreams.getChars(requestData, transport));
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -125,12 +233,10 @@ class JsonRpcExecutor implements RpcExecutor
     }
     
     try {
-      resp.put("id", req.get("id"));
-      
-      methodName = req.getString("method");
-      params     = req.getJSONArray("params");
-      if(params == null) params = new JSONArray();
-      
+      methodName = envelope.getMethod();
+      if(methodName == null) {
+        throw new JSONException("JSONObject[\"method\"] not a string.");
+      }
       if(methodName.indexOf('.') < 0) {
         methodName = RpcUtil.completeMethodName(methodName, requestData);
       }
@@ -138,6 +244,7 @@ class JsonRpcExecutor implements RpcExecutor
     catch(Throwable t) {
       t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      if(envelope.hasId()) resp.put("id", envelope.getId());
       int     errorCode    = INVALID_REQUEST_ERROR_CODE;
       String  errorMessage = "unable to read request";
       String  errorData    = RefUtil.getStackTrace(t);
@@ -145,40 +252,156 @@ class JsonRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
+    RpcRemoteException lookupError = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params.toVector());
-      
-      resp.put("result", result);
+      RpcUtil.checkMethod(handlers, methodName);
+    }
+    catch(RpcRemoteException rre) {
+      lookupError = rre;
+    }
+    
+    try {
+      if(lookupError != null) {
+        envelope.skipParams();
+      }
+      else {
+        params = envelope.getParams();
+      }
     }
     catch(Throwable t) {
+      t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException jrre = (RpcRemoteException) t;
-        RpcUtil.jsonrpc_sendError(transport, resp, jrre.getCode(), jrre.getMessage(), jrre.getData());
-        return;
+      if(envelope.hasId()) resp.put("id", envelope.getId());
+      int errorCode        = PARSE_ERROR_CODE;
+      String  errorMessage = "unable to parse json-rpc request";
+      String  errorData    = RefUtil.getStackTrace(t);
+      RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
+      return;
+    }
+    
+    boolean notification = false;
+    try {
+      notification = envelope.isNotification();
+      if(!notification) {
+        if(!envelope.hasId()) throw new JSONException("JSONObject[\"id\"] not found.");
+        resp.put("id", envelope.getId());
       }
-      else
-      if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.jsonrpc_sendError(transport, resp, xre.code, xre.getMessage(), null);
-        return;
+      if(params == null && lookupError == null) {
+        throw new JSONException("JSONObject[\"params\"] is not a JSONArray.");
       }
-      int errorCode       = SERVER_ERROR_START - 1;
-      String errorMessage = t.getMessage();
-      String errorData    = RefUtil.getStackTrace(t);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      int     errorCode    = INVALID_REQUEST_ERROR_CODE;
+      String  errorMessage = "unable to read request";
+      String  errorData    = RefUtil.getStackTrace(t);
       RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
       return;
     }
     
+    if(notification) {
+      // Unknown method: the notification fails on the background thread as before
+      notifications.execute(handlers, audit, resultCache, coalescer, tracer, requestData, methodName, params != null ? params : new ArrayList(0), transport);
+      return;
+    }
+    
+    if(lookupError != null) {
+      jsonrpc_sendFault(requestData, transport, resp, lookupError);
+      return;
+    }
+    
+    Object result = null;
     try {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], resp.toString(), methodName);
-      transport.writeResponse("application/json", resp.toString(), false);
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
+    }
+    catch(Throwable t) {
+      jsonrpc_sendFault(requestData, transport, resp, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          jsonrpc_sendResult(requestData, transport, resp, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          jsonrpc_sendFault(requestData, transport, resp, throwable);
+        }
+      });
+      return;
+    }
+    
+    jsonrpc_sendResult(requestData, transport, resp, methodName, result);
+  }
+  
+  private
+  void jsonrpc_sendResult(String[] requestData, RpcServerTransport transport, JSONObject resp, String methodName, Object result)
+  {
+    try {
+      resp.put("result", result);
+    }
+    catch(Throwable t) {
+      jsonrpc_sendFault(requestData, transport, resp, t);
+      return;
+    }
+    
+    boolean traced = RpcUtil.isTraced(tracer, methodName);
+    if(!traced && transport instanceof RpcStreamServerTransport) {
+      // The response is serialized directly to the output stream (opened after the first chunk)
+      RpcResponseWriter writer = new RpcResponseWriter((RpcStreamServerTransport) transport, "application/json");
+      try {
+        JsonWriter.stringify(resp, writer);
+        writer.close();
+        RpcPhases.mark(RpcPhases.WRITE);
+      }
+      catch(Throwable t) {
+        if(!writer.isOpened()) {
+          // Nothing has been sent: fault as in the buffered mode
+          jsonrpc_sendFault(requestData, transport, resp, t);
+          return;
+        }
+        t.printStackTrace();
+      }
+      return;
+    }
+    
+    try {
+      String responseData = JsonWriter.stringify(resp);
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(traced) RpcUtil.traceResult(tracer, requestData[0], requestData[1], responseData, methodName);
+      transport.writeResponse("application/json", responseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], resp.toString(), methodName, t);
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], JsonWriter.stringify(resp), methodName, t);
+    }
+  }
+  
+  private
+  void jsonrpc_sendFault(String[] requestData, RpcServerTransport transport, JSONObject resp, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException jrre = (RpcRemoteException) t;
+      RpcUtil.jsonrpc_sendError(transport, resp, jrre.getCode(), jrre.getMessage(), jrre.getData());
+      return;
+    }
+    else
+    if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.jsonrpc_sendError(transport, resp, xre.code, xre.getMessage(), null);
+      return;
     }
+    int errorCode       = SERVER_ERROR_START - 1;
+    String errorMessage = t.getMessage();
+    String errorData    = RefUtil.getStackTrace(t);
+    RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
   }
 }
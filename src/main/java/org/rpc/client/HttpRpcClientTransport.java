@@ -29,10 +29,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 @SuppressWarnings({"rawtypes","unchecked"})
 public
-class HttpRpcClientTransport implements RpcClientTransport
+class HttpRpcClientTransport implements RpcBinaryClientTransport
 {
   protected URL url;
   protected Map headers;
@@ -95,9 +96,59 @@ class HttpRpcClientTransport implements RpcClientTransport
     return post(url, headers, requestData);
   }
   
+  public
+  byte[] call(String sContentType, byte[] requestData)
+    throws Exception
+  {
+    return post(url, headers, sContentType, requestData);
+  }
+  
+  /**
+   * Download an attachment returned by the server as link (see org.rpc.server.RpcAttachments).
+   *
+   * @param reference Map with href (as returned by the call) or href
+   * @return content (the caller closes the stream)
+   */
+  public
+  InputStream getAttachment(Object reference)
+    throws IOException
+  {
+    Object oHref = reference instanceof Map ? ((Map) reference).get("href") : reference;
+    if(oHref == null) {
+      throw new IOException("invalid attachment reference " + reference);
+    }
+    HttpURLConnection connection = (HttpURLConnection) new URL(url, oHref.toString()).openConnection();
+    if(headers != null && !headers.isEmpty()) {
+      Iterator iterator = headers.entrySet().iterator();
+      while(iterator.hasNext()) {
+        Map.Entry entry = (Map.Entry) iterator.next();
+        Object oValue = entry.getValue();
+        connection.addRequestProperty(entry.getKey().toString(), oValue != null ? oValue.toString() : null);
+      }
+    }
+    connection.setRequestMethod("GET");
+    if(timeOut > 0) {
+      connection.setConnectTimeout(timeOut);
+      connection.setReadTimeout(timeOut);
+    }
+    int statusCode = connection.getResponseCode();
+    if(statusCode != HttpURLConnection.HTTP_OK) {
+      throw new IOException("unexpected status code returned : " + statusCode);
+    }
+    return new BufferedInputStream(connection.getInputStream());
+  }
+  
   protected
   String post(URL url, Map headers, String data)
     throws IOException
+  {
+    String sContentType = data.startsWith("<") ? "text/xml" : "application/json";
+    return new String(post(url, headers, sContentType, data.getBytes()));
+  }
+  
+  protected
+  byte[] post(URL url, Map headers, String sContentType, byte[] data)
+    throws IOException
   {
     HttpURLConnection connection = (HttpURLConnection) url.openConnection();
     
@@ -112,12 +163,7 @@ class HttpRpcClientTransport implements RpcClientTransport
       }
     }
     connection.addRequestProperty("Accept-Encoding", "gzip,deflate");
-    if(data.startsWith("<")) {
-      connection.addRequestProperty("Content-Type", "text/xml");
-    }
-    else {
-      connection.addRequestProperty("Content-Type", "application/json");
-    }
+    connection.addRequestProperty("Content-Type", sContentType);
     connection.setRequestMethod("POST");
     connection.setDoOutput(true);
     // 1.5+
@@ -131,7 +177,7 @@ class HttpRpcClientTransport implements RpcClientTransport
     try {
       out = connection.getOutputStream();
       
-      out.write(data.getBytes());
+      out.write(data);
       out.flush();
       out.close();
       
@@ -154,6 +200,9 @@ class HttpRpcClientTransport implements RpcClientTransport
       if("gzip".equalsIgnoreCase(responseEncoding)) {
         in = new GZIPInputStream(in);
       }
+      else if("deflate".equalsIgnoreCase(responseEncoding)) {
+        in = new InflaterInputStream(in);
+      }
       in = new BufferedInputStream(in);
       
       byte[] buff = new byte[1024];
@@ -167,6 +216,6 @@ class HttpRpcClientTransport implements RpcClientTransport
     finally {
       if(in != null) try{ in.close(); } catch(Exception ex) {}
     }
-    return bos.toString();
+    return bos.toByteArray();
   }
 }
@@ -0,0 +1,15 @@
+package org.rpc.client;
+
+/**
+ * Transport of binary requests (e.g. application/cbor).
+ */
+public
+interface RpcBinaryClientTransport extends RpcClientTransport
+{
+  /**
+   * @param sContentType content type of the request
+   * @param requestData body of the request
+   * @return body of the response
+   */
+  public byte[] call(String sContentType, byte[] requestData) throws Exception;
+}
@@ -0,0 +1,213 @@
+package org.rpc.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cbor.CborException;
+import org.cbor.CborReader;
+
+/**
+ * Envelope of a CBOR-RPC request (jsonrpc, id, method) scanned without decoding the params,
+ * so that authorization and handler lookup run before the decoding of the params (see JsonRpcEnvelope).
+ * The params are skipped and their bounds in the body are kept to decode them on demand,
+ * as CBOR.decode in legacy mode (Vector and Hashtable). As in the legacy decoding, a member
+ * with null value is handled as missing.
+ * <pre>
+ * CborRpcEnvelope envelope = CborRpcEnvelope.scan(data);
+ * if(!transport.checkAuthorization(envelope.getMethod())) return;
+ * List params = envelope.getParams();
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class CborRpcEnvelope
+{
+  protected byte[]  data;
+  protected Object  version;
+  protected Object  id;
+  protected boolean hasId;
+  protected String  method;
+  protected boolean hasMethod;
+  protected boolean hasParams;
+  protected int     paramsStart = -1;
+  protected int     paramsEnd;
+  protected List    params;
+  
+  protected CborRpcEnvelope(byte[] data)
+  {
+    this.data = data;
+  }
+  
+  /**
+   * @param data CBOR-RPC body
+   * @return true if the body is an array (batch)
+   */
+  public static
+  boolean isBatch(byte[] data)
+  {
+    if(data == null || data.length == 0) return false;
+    try {
+      // The tags before the array (e.g. self-described CBOR) are skipped
+      new CborReader(data).readArrayStart();
+      return true;
+    }
+    catch(CborException ex) {
+      return false;
+    }
+  }
+  
+  /**
+   * Scan the members of the request skipping the params.
+   *
+   * @param data CBOR-RPC request
+   * @return CborRpcEnvelope
+   * @throws CborException malformed data or not a map
+   */
+  public static
+  CborRpcEnvelope scan(byte[] data)
+    throws CborException
+  {
+    CborReader reader = new CborReader(data);
+    CborRpcEnvelope result = new CborRpcEnvelope(data);
+    result.scanMembers(reader);
+    return result;
+  }
+  
+  /**
+   * Scan the requests of a batch.
+   *
+   * @param data CBOR-RPC batch (array of requests)
+   * @return list of CborRpcEnvelope (null for the elements that are not maps)
+   * @throws CborException malformed data or not an array
+   */
+  public static
+  List scanBatch(byte[] data)
+    throws CborException
+  {
+    CborReader reader = new CborReader(data);
+    int iSize = reader.readArrayStart();
+    List result = new ArrayList(iSize >= 0 ? Math.min(iSize, 16) : 16);
+    for(int i = 0; iSize < 0 ? !reader.readBreak() : i < iSize; i++) {
+      if(reader.peekType() != 5) {
+        reader.skip();
+        result.add(null);
+        continue;
+      }
+      CborRpcEnvelope envelope = new CborRpcEnvelope(data);
+      envelope.scanMembers(reader);
+      result.add(envelope);
+    }
+    return result;
+  }
+  
+  /**
+   * @return value of jsonrpc (e.g. "2.0") or null
+   */
+  public
+  Object getVersion()
+  {
+    return version;
+  }
+  
+  /**
+   * @return method or null if missing or not a string
+   */
+  public
+  String getMethod()
+  {
+    return method;
+  }
+  
+  /**
+   * @return id or null if missing
+   */
+  public
+  Object getId()
+  {
+    return id;
+  }
+  
+  /**
+   * @return true if the params member is present
+   */
+  public
+  boolean hasParams()
+  {
+    return hasParams;
+  }
+  
+  public
+  boolean isNotification()
+  {
+    return id == null && "2.0".equals(version);
+  }
+  
+  /**
+   * Decode the params.
+   *
+   * @return params or null if missing or not an array
+   * @throws CborException malformed params
+   */
+  public
+  List getParams()
+    throws CborException
+  {
+    if(params != null || paramsStart < 0) return params;
+    CborReader reader = new CborReader(data, paramsStart, paramsEnd - paramsStart);
+    reader.setLegacy(true);
+    Object value = reader.read();
+    paramsStart = -1;
+    if(value instanceof List) params = (List) value;
+    return params;
+  }
+  
+  protected
+  void scanMembers(CborReader reader)
+    throws CborException
+  {
+    int iSize = reader.readMapStart();
+    for(int i = 0; iSize < 0 ? !reader.readBreak() : i < iSize; i++) {
+      if(reader.peekType() != 3) {
+        // Only text keys are members of the envelope
+        reader.skip();
+        reader.skip();
+        continue;
+      }
+      Object key = reader.read();
+      if(key.equals("params")) {
+        if(hasParams) throw syntaxError(reader, "Duplicate key \"params\"");
+        hasParams = true;
+        paramsStart = reader.getPosition();
+        reader.skip();
+        paramsEnd = reader.getPosition();
+      }
+      else if(key.equals("method")) {
+        if(hasMethod) throw syntaxError(reader, "Duplicate key \"method\"");
+        hasMethod = true;
+        if(reader.peekType() == 3) {
+          method = (String) reader.read();
+        }
+        else {
+          reader.skip();
+        }
+      }
+      else if(key.equals("id")) {
+        if(hasId) throw syntaxError(reader, "Duplicate key \"id\"");
+        hasId = true;
+        id = reader.read();
+      }
+      else if(key.equals("jsonrpc") && reader.peekType() == 3) {
+        version = reader.read();
+      }
+      else {
+        reader.skip();
+      }
+    }
+  }
+  
+  protected static
+  CborException syntaxError(CborReader reader, String message)
+  {
+    return new CborException(message + " at " + reader.getPosition());
+  }
+}
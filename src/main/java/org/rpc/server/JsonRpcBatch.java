@@ -0,0 +1,374 @@
+package org.rpc.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import org.dew.util.RefUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JsonWriter;
+import org.json.rpc.commons.RpcRemoteException;
+
+import org.rpc.util.RPCContext;
+import org.rpc.util.WebContext;
+
+/**
+ * JSON-RPC 2.0 batch: an array of requests in one body and an array of responses back.
+ * The calls of a batch run in parallel on a bounded pool; the responses are returned
+ * in the order of the requests, with an error object for each failed call.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class JsonRpcBatch
+{
+  public static final int DEFAULT_MAX_SIZE = 100;
+  
+  private static ExecutorService defaultExecutorService;
+  
+  protected int maxSize = DEFAULT_MAX_SIZE;
+  protected ExecutorService executorService;
+  
+  public JsonRpcBatch()
+  {
+  }
+  
+  public JsonRpcBatch(int maxSize, ExecutorService executorService)
+  {
+    this.maxSize = maxSize;
+    this.executorService = executorService;
+  }
+  
+  public
+  int getMaxSize()
+  {
+    return maxSize;
+  }
+  
+  /**
+   * Set the maximum number of requests in a batch (0 = no limit).
+   *
+   * @param maxSize maximum batch size
+   */
+  public
+  void setMaxSize(int maxSize)
+  {
+    this.maxSize = maxSize;
+  }
+  
+  public
+  ExecutorService getExecutorService()
+  {
+    return executorService;
+  }
+  
+  /**
+   * Set the pool used to run the calls of a batch. If null a shared bounded pool is used.
+   *
+   * @param executorService ExecutorService
+   */
+  public
+  void setExecutorService(ExecutorService executorService)
+  {
+    this.executorService = executorService;
+  }
+  
+  public static
+  boolean isBatch(String requestData)
+  {
+    if(requestData == null) return false;
+    int iLength = requestData.length();
+    for(int i = 0; i < iLength; i++) {
+      char c = requestData.charAt(i);
+      if(c > 32) return c == '[';
+    }
+    return false;
+  }
+  
+  /**
+   * Check whether the request (read or to be read from the stream of the transport) is a batch.
+   */
+  public static
+  boolean isBatch(String[] requestData, RpcServerTransport transport)
+  {
+    if(requestData[1] != null) return isBatch(requestData[1]);
+    if(!(transport instanceof RpcStreamServerTransport)) return false;
+    try {
+      return RpcStreams.peekFirstChar(((RpcStreamServerTransport) transport).getRequestStream()) == '[';
+    }
+    catch(Exception ex) {
+      return false;
+    }
+  }
+  
+  /**
+   * Execute a batch. The result cache and the coalescer (may be null) are used as for the single requests.
+   */
+  public
+  void execute(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, JsonRpcNotifications notifications, String[] requestData, RpcServerTransport transport)
+  {
+    // Only the envelopes are scanned: the params are parsed by each call after the authorization of all calls.
+    List requests = null;
+    try {
+      requests = JsonRpcEnvelope.scanBatch(RpcStreams.getChars(requestData, transport));
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      JSONObject resp = new JSONObject();
+      resp.put("jsonrpc", "2.0");
+      RpcUtil.jsonrpc_sendError(transport, resp, RpcExecutor.PARSE_ERROR_CODE, "unable to parse json-rpc request", RefUtil.getStackTrace(t));
+      return;
+    }
+    
+    RpcPhases.mark(RpcPhases.PARSE);
+    
+    int size = requests.size();
+    if(size == 0 || (maxSize > 0 && size > maxSize)) {
+      JSONObject resp = new JSONObject();
+      resp.put("jsonrpc", "2.0");
+      String errorMessage = size == 0 ? "empty batch" : "batch too large (max " + maxSize + " requests)";
+      RpcUtil.jsonrpc_sendError(transport, resp, RpcExecutor.INVALID_REQUEST_ERROR_CODE, errorMessage, null);
+      return;
+    }
+    
+    // Authorization of all calls before any execution
+    String[] methodNames = new String[size];
+    for(int i = 0; i < size; i++) {
+      JsonRpcEnvelope request = (JsonRpcEnvelope) requests.get(i);
+      if(request == null || request.getMethod() == null) continue;
+      String methodName = request.getMethod();
+      if(methodName.indexOf('.') < 0) {
+        methodName = RpcUtil.completeMethodName(methodName, requestData);
+      }
+      if(!transport.checkAuthorization(methodName)) return;
+      methodNames[i] = methodName;
+    }
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
+    
+    // The calls are timed as a whole (INVOKE)
+    RpcPhases phases = RpcPhases.current();
+    RpcPhases.setCurrent(null);
+    
+    long timeout = RpcAsync.getTimeout(transport);
+    JSONObject[] responses = new JSONObject[size];
+    if(size == 1) {
+      responses[0] = call(handlers, audit, cache, coalescer, tracer, notifications, requestData, (JsonRpcEnvelope) requests.get(0), methodNames[0], timeout);
+    }
+    else {
+      ExecutorService service = executorService != null ? executorService : getDefaultExecutorService();
+      WebContext webContext = RPCContext.getContext();
+      List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>(size - 1);
+      for(int i = 0; i < size - 1; i++) {
+        futures.add(service.submit(new Call(handlers, audit, cache, coalescer, tracer, notifications, requestData, (JsonRpcEnvelope) requests.get(i), methodNames[i], timeout, webContext)));
+      }
+      // The last call runs on the current thread
+      responses[size - 1] = call(handlers, audit, cache, coalescer, tracer, notifications, requestData, (JsonRpcEnvelope) requests.get(size - 1), methodNames[size - 1], timeout);
+      for(int i = 0; i < size - 1; i++) {
+        try {
+          responses[i] = futures.get(i).get();
+        }
+        catch(Throwable t) {
+          JSONObject resp = new JSONObject();
+          resp.put("jsonrpc", "2.0");
+          resp.put("id", JSONObject.NULL);
+          responses[i] = RpcUtil.jsonrpc_setError(resp, RpcExecutor.INTERNAL_ERROR_CODE, t.toString(), null);
+        }
+      }
+    }
+    
+    RpcPhases.setCurrent(phases);
+    RpcPhases.mark(RpcPhases.INVOKE);
+    
+    JSONArray array = new JSONArray();
+    for(int i = 0; i < size; i++) {
+      if(responses[i] != null) array.put(responses[i]);
+    }
+    boolean traced = RpcUtil.isTraced(tracer, "batch");
+    if(!traced && array.length() > 0 && transport instanceof RpcStreamServerTransport) {
+      // The response is serialized directly to the output stream (opened after the first chunk)
+      RpcResponseWriter writer = new RpcResponseWriter((RpcStreamServerTransport) transport, "application/json");
+      try {
+        JsonWriter.stringify(array, writer);
+        writer.close();
+        RpcPhases.mark(RpcPhases.WRITE);
+      }
+      catch(Throwable t) {
+        if(!writer.isOpened()) {
+          // Nothing has been sent: error response as in the buffered mode
+          JSONObject resp = new JSONObject();
+          resp.put("jsonrpc", "2.0");
+          resp.put("id", JSONObject.NULL);
+          RpcUtil.jsonrpc_sendError(transport, resp, RpcExecutor.INTERNAL_ERROR_CODE, t.toString(), null);
+          return;
+        }
+        t.printStackTrace();
+      }
+      return;
+    }
+    // A batch of notifications only has no response
+    String responseData = array.length() > 0 ? JsonWriter.stringify(array) : "";
+    RpcPhases.mark(RpcPhases.SERIALIZE);
+    try {
+      if(traced) RpcUtil.traceResult(tracer, requestData[0], requestData[1], responseData, "batch");
+      transport.writeResponse("application/json", responseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData, "batch", t);
+    }
+  }
+  
+  protected
+  JSONObject call(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, JsonRpcNotifications notifications, String[] requestData, JsonRpcEnvelope request, String methodName, long timeout)
+  {
+    JSONObject resp = new JSONObject();
+    resp.put("jsonrpc", "2.0");
+    
+    if(request == null) {
+      resp.put("id", JSONObject.NULL);
+      return RpcUtil.jsonrpc_setError(resp, RpcExecutor.INVALID_REQUEST_ERROR_CODE, "invalid request", null);
+    }
+    
+    boolean notification = notifications != null && request.isNotification();
+    if(!notification) resp.put("id", request.hasId() ? request.getId() : JSONObject.NULL);
+    
+    List params = null;
+    try {
+      params = request.getParams();
+    }
+    catch(Throwable t) {
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      return RpcUtil.jsonrpc_setError(resp, RpcExecutor.PARSE_ERROR_CODE, "unable to parse json-rpc request", RefUtil.getStackTrace(t));
+    }
+    
+    try {
+      if(!notification && !request.hasId()) throw new JSONException("JSONObject[\"id\"] not found.");
+      if(methodName == null) throw new JSONException("JSONObject[\"method\"] not a string.");
+      if(params == null) throw new JSONException("JSONObject[\"params\"] is not a JSONArray.");
+    }
+    catch(Throwable t) {
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      return RpcUtil.jsonrpc_setError(resp, RpcExecutor.INVALID_REQUEST_ERROR_CODE, "unable to read request", RefUtil.getStackTrace(t));
+    }
+    
+    if(notification) {
+      // No response for notifications
+      notifications.submit(handlers, audit, cache, coalescer, tracer, requestData, methodName, params);
+      return null;
+    }
+    
+    try {
+      Object result = RpcUtil.executeMethod(handlers, audit, cache, coalescer, methodName, params);
+      if(RpcAsync.isAsync(result)) {
+        // The calls of a batch are already parallel
+        result = RpcAsync.await(result, timeout);
+      }
+      
+      resp.put("result", result);
+    }
+    catch(Throwable t) {
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      if(t instanceof RpcRemoteException) {
+        RpcRemoteException rre = (RpcRemoteException) t;
+        return RpcUtil.jsonrpc_setError(resp, rre.getCode(), rre.getMessage(), rre.getData());
+      }
+      else if(t instanceof XmlRpcException) {
+        XmlRpcException xre = (XmlRpcException) t;
+        return RpcUtil.jsonrpc_setError(resp, xre.code, xre.getMessage(), null);
+      }
+      return RpcUtil.jsonrpc_setError(resp, RpcExecutor.SERVER_ERROR_START - 1, t.getMessage(), RefUtil.getStackTrace(t));
+    }
+    return resp;
+  }
+  
+  protected static synchronized
+  ExecutorService getDefaultExecutorService()
+  {
+    if(defaultExecutorService == null) {
+      // core = max: a ThreadPoolExecutor grows over core only when the queue is full,
+      // the idle threads are released by allowCoreThreadTimeOut.
+      int iThreads = Math.max(2, Runtime.getRuntime().availableProcessors()) * 4;
+      ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(iThreads, iThreads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(iThreads * 16), new DaemonThreadFactory("rpc-batch-"),
+          new ThreadPoolExecutor.CallerRunsPolicy());
+      threadPoolExecutor.allowCoreThreadTimeOut(true);
+      defaultExecutorService = threadPoolExecutor;
+    }
+    return defaultExecutorService;
+  }
+  
+  class Call implements Callable<JSONObject>
+  {
+    private Map        handlers;
+    private RpcAudit   audit;
+    private RpcResultCache cache;
+    private RpcCoalescer   coalescer;
+    private RpcTracer  tracer;
+    private String[]   requestData;
+    private JsonRpcEnvelope request;
+    private String     methodName;
+    private long       timeout;
+    private WebContext webContext;
+    private JsonRpcNotifications notifications;
+    
+    public Call(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, JsonRpcNotifications notifications, String[] requestData, JsonRpcEnvelope request, String methodName, long timeout, WebContext webContext)
+    {
+      this.handlers      = handlers;
+      this.audit         = audit;
+      this.cache         = cache;
+      this.coalescer     = coalescer;
+      this.tracer        = tracer;
+      this.notifications = notifications;
+      this.requestData   = requestData;
+      this.request       = request;
+      this.methodName    = methodName;
+      this.timeout       = timeout;
+      this.webContext    = webContext;
+    }
+    
+    public
+    JSONObject call()
+    {
+      // The call may run on the caller thread (CallerRunsPolicy): restore the previous context.
+      WebContext previous = RPCContext.getContext();
+      RPCContext.setContext(webContext);
+      try {
+        return JsonRpcBatch.this.call(handlers, audit, cache, coalescer, tracer, notifications, requestData, request, methodName, timeout);
+      }
+      finally {
+        RPCContext.setContext(previous);
+      }
+    }
+  }
+  
+  static class DaemonThreadFactory implements ThreadFactory
+  {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+    
+    public DaemonThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+    
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package org.rpc.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONPullParser;
+
+/**
+ * Envelope of a JSON-RPC request (jsonrpc, id, method) scanned with JSONPullParser without
+ * materializing the params, so that authorization and handler lookup run before the parsing of the params.
+ * The scan stops at params if the method is already known (the usual order of the members): the
+ * params are then parsed, or skipped, by the parser. If params precede method, they are skipped
+ * and their bounds in the text are kept to parse them on demand.
+ * The params are built as JSON.parseLegacy (Vector and Hashtable).
+ * <pre>
+ * JsonRpcEnvelope envelope = JsonRpcEnvelope.scan(text);
+ * if(!transport.checkAuthorization(envelope.getMethod())) return;
+ * List params = envelope.getParams();
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class JsonRpcEnvelope
+{
+  protected JSONPullParser parser;
+  protected char[]  text;
+  protected Object  version;
+  protected Object  id;
+  protected boolean hasId;
+  protected String  method;
+  protected boolean hasMethod;
+  protected boolean hasParams;
+  protected int     paramsStart = -1;
+  protected int     paramsEnd;
+  protected List    params;
+  protected boolean pending;
+  protected boolean complete;
+  
+  protected JsonRpcEnvelope(JSONPullParser parser, char[] text)
+  {
+    this.parser = parser;
+    this.text   = text;
+  }
+  
+  public static
+  JsonRpcEnvelope scan(String text)
+    throws JSONException
+  {
+    return scan(text.toCharArray());
+  }
+  
+  /**
+   * Scan the members of the request up to params (if the method is known) or to the end.
+   *
+   * @param text JSON-RPC request
+   * @return JsonRpcEnvelope
+   * @throws JSONException syntax error
+   */
+  public static
+  JsonRpcEnvelope scan(char[] text)
+    throws JSONException
+  {
+    JSONPullParser parser = new JSONPullParser(text);
+    parser.setLegacy(true);
+    if(parser.next() != JSONPullParser.START_OBJECT) {
+      throw syntaxError(parser, "A JSONObject text must begin with '{'");
+    }
+    JsonRpcEnvelope result = new JsonRpcEnvelope(parser, text);
+    result.scanMembers(true);
+    return result;
+  }
+  
+  /**
+   * Scan the requests of a batch. The envelopes are complete: the params of every request
+   * are skipped and parsed on demand (after the authorization of all the calls).
+   *
+   * @param text JSON-RPC batch (array of requests)
+   * @return list of JsonRpcEnvelope (null for the elements that are not objects)
+   * @throws JSONException syntax error
+   */
+  public static
+  List scanBatch(char[] text)
+    throws JSONException
+  {
+    JSONPullParser parser = new JSONPullParser(text);
+    parser.setLegacy(true);
+    if(parser.next() != JSONPullParser.START_ARRAY) {
+      throw syntaxError(parser, "A JSONArray text must start with '['");
+    }
+    List result = new ArrayList();
+    for(;;) {
+      int event = parser.next();
+      if(event == JSONPullParser.END_ARRAY) break;
+      if(event == JSONPullParser.START_OBJECT) {
+        JsonRpcEnvelope envelope = new JsonRpcEnvelope(parser, text);
+        envelope.scanMembers(false);
+        result.add(envelope);
+        continue;
+      }
+      if(event == JSONPullParser.START_ARRAY) {
+        // Skip the nested array
+        int iDepth = parser.getDepth() - 1;
+        while(parser.getDepth() > iDepth) parser.next();
+      }
+      result.add(null);
+    }
+    return result;
+  }
+  
+  /**
+   * @return value of jsonrpc (e.g. "2.0") or null
+   */
+  public
+  Object getVersion()
+  {
+    return version;
+  }
+  
+  /**
+   * @return method or null if missing or not a string
+   */
+  public
+  String getMethod()
+  {
+    return method;
+  }
+  
+  /**
+   * Value of id (JSONObject.NULL for null). With pending params id may follow them: call getParams or skipParams first.
+   */
+  public
+  Object getId()
+  {
+    return id;
+  }
+  
+  public
+  boolean hasId()
+  {
+    return hasId;
+  }
+  
+  /**
+   * As JsonRpcNotifications.isNotification (call getParams or skipParams first).
+   */
+  public
+  boolean isNotification()
+  {
+    return !hasId && "2.0".equals(version);
+  }
+  
+  /**
+   * @return true if the envelope has been completely scanned
+   */
+  public
+  boolean isComplete()
+  {
+    return complete;
+  }
+  
+  /**
+   * Parse the params and complete the scan of the envelope.
+   *
+   * @return params or null if missing or not an array
+   * @throws JSONException syntax error
+   */
+  public
+  List getParams()
+    throws JSONException
+  {
+    if(params != null) return params;
+    Object value = null;
+    if(pending) {
+      pending = false;
+      value = parser.nextValue();
+      scanMembers(false);
+    }
+    else if(paramsStart >= 0) {
+      JSONPullParser paramsParser = new JSONPullParser(text, paramsStart, paramsEnd - paramsStart);
+      paramsParser.setLegacy(true);
+      value = paramsParser.nextValue();
+      paramsStart = -1;
+    }
+    if(value instanceof List) params = (List) value;
+    return params;
+  }
+  
+  /**
+   * Skip the params (e.g. method not found) and complete the scan of the envelope.
+   *
+   * @throws JSONException syntax error
+   */
+  public
+  void skipParams()
+    throws JSONException
+  {
+    if(!pending) return;
+    pending = false;
+    parser.skipValue();
+    scanMembers(false);
+  }
+  
+  /**
+   * @param stopAtParams true to stop at params if the method is known
+   */
+  protected
+  void scanMembers(boolean stopAtParams)
+    throws JSONException
+  {
+    // In an object the events are KEY or END_OBJECT
+    while(parser.next() == JSONPullParser.KEY) {
+      String key = parser.getKey();
+      if(key.equals("params")) {
+        if(hasParams) throw syntaxError(parser, "Duplicate key \"params\"");
+        hasParams = true;
+        if(stopAtParams && method != null) {
+          pending = true;
+          return;
+        }
+        paramsStart = parser.getPosition();
+        parser.skipValue();
+        paramsEnd = parser.getPosition();
+      }
+      else if(key.equals("method")) {
+        if(hasMethod) throw syntaxError(parser, "Duplicate key \"method\"");
+        hasMethod = true;
+        Object value = parser.nextValue();
+        method = value instanceof String ? (String) value : null;
+      }
+      else if(key.equals("id")) {
+        if(hasId) throw syntaxError(parser, "Duplicate key \"id\"");
+        Object value = parser.nextValue();
+        id    = value != null ? value : JSONObject.NULL;
+        hasId = true;
+      }
+      else if(key.equals("jsonrpc")) {
+        version = parser.nextValue();
+      }
+      else {
+        parser.skipValue();
+      }
+    }
+    complete = true;
+  }
+  
+  protected static
+  JSONException syntaxError(JSONPullParser parser, String message)
+  {
+    return new JSONException(message + " at " + parser.getPosition());
+  }
+}
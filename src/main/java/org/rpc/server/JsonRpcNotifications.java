@@ -0,0 +1,227 @@
+package org.rpc.server;
+
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import org.rpc.util.RPCContext;
+import org.rpc.util.WebContext;
+
+/**
+ * JSON-RPC 2.0 notifications (requests without "id").
+ * A notification is acknowledged immediately with an empty response and executed
+ * asynchronously on a bounded queue; its result is never serialized.
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class JsonRpcNotifications
+{
+  /** When the queue is full the notification is discarded. */
+  public static final int OVERFLOW_DROP  = 0;
+  /** When the queue is full the request thread waits for a free slot. */
+  public static final int OVERFLOW_BLOCK = 1;
+  
+  public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+  public static final int DEFAULT_THREADS        = 2;
+  
+  protected int queueCapacity  = DEFAULT_QUEUE_CAPACITY;
+  protected int threads        = DEFAULT_THREADS;
+  protected int overflowPolicy = OVERFLOW_DROP;
+  
+  protected ThreadPoolExecutor executor;
+  protected final AtomicLong dropped = new AtomicLong();
+  
+  public static
+  boolean isNotification(JSONObject req)
+  {
+    return !req.has("id") && "2.0".equals(req.opt("jsonrpc"));
+  }
+  
+  public
+  int getQueueCapacity()
+  {
+    return queueCapacity;
+  }
+  
+  /**
+   * Set the capacity of the queue (effective before the first notification).
+   */
+  public
+  void setQueueCapacity(int queueCapacity)
+  {
+    this.queueCapacity = queueCapacity;
+  }
+  
+  public
+  int getThreads()
+  {
+    return threads;
+  }
+  
+  /**
+   * Set the number of threads that execute the notifications (effective before the first notification).
+   */
+  public
+  void setThreads(int threads)
+  {
+    this.threads = threads;
+  }
+  
+  public
+  int getOverflowPolicy()
+  {
+    return overflowPolicy;
+  }
+  
+  /**
+   * Set the behavior when the queue is full: OVERFLOW_DROP or OVERFLOW_BLOCK.
+   */
+  public
+  void setOverflowPolicy(int overflowPolicy)
+  {
+    this.overflowPolicy = overflowPolicy;
+  }
+  
+  /**
+   * Number of notifications discarded because the queue was full.
+   */
+  public
+  long getDropped()
+  {
+    return dropped.get();
+  }
+  
+  /**
+   * Acknowledge the notification with an empty response and queue its execution.
+   * The result cache and the coalescer (may be null) are used as for the other calls.
+   */
+  public
+  void execute(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, String[] requestData, String methodName, List params, RpcServerTransport transport)
+  {
+    try {
+      transport.writeResponse("application/json", "", false);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+    }
+    submit(handlers, audit, cache, coalescer, tracer, requestData, methodName, params);
+  }
+  
+  /**
+   * Queue the execution of a notification.
+   * 
+   * @return false if the notification has been discarded
+   */
+  public
+  boolean submit(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, String[] requestData, String methodName, List params)
+  {
+    WebContext webContext = RPCContext.getContext();
+    Notification notification = new Notification(handlers, audit, cache, coalescer, tracer, requestData, methodName, params, webContext != null ? webContext.detach() : null);
+    try {
+      getExecutor().execute(notification);
+      return true;
+    }
+    catch(RejectedExecutionException ex) {
+      dropped.incrementAndGet();
+      return false;
+    }
+  }
+  
+  public synchronized
+  void shutdown()
+  {
+    if(executor != null) {
+      executor.shutdown();
+      executor = null;
+    }
+  }
+  
+  protected synchronized
+  ThreadPoolExecutor getExecutor()
+  {
+    if(executor == null) {
+      RejectedExecutionHandler handler = null;
+      if(overflowPolicy == OVERFLOW_BLOCK) {
+        handler = new BlockPolicy();
+      }
+      else {
+        handler = new ThreadPoolExecutor.AbortPolicy();
+      }
+      int iThreads = threads > 0 ? threads : DEFAULT_THREADS;
+      int iCapacity = queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY;
+      executor = new ThreadPoolExecutor(iThreads, iThreads, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>(iCapacity), new JsonRpcBatch.DaemonThreadFactory("rpc-notification-"), handler);
+      executor.allowCoreThreadTimeOut(true);
+    }
+    return executor;
+  }
+  
+  static class BlockPolicy implements RejectedExecutionHandler
+  {
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if(executor.isShutdown()) throw new RejectedExecutionException("executor shutdown");
+      BlockingQueue<Runnable> queue = executor.getQueue();
+      try {
+        queue.put(runnable);
+      }
+      catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(ex);
+      }
+    }
+  }
+  
+  static class Notification implements Runnable
+  {
+    private Map        handlers;
+    private RpcAudit   audit;
+    private RpcResultCache cache;
+    private RpcCoalescer   coalescer;
+    private RpcTracer  tracer;
+    private String[]   requestData;
+    private String     methodName;
+    private List       params;
+    private WebContext webContext;
+    
+    public Notification(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, RpcTracer tracer, String[] requestData, String methodName, List params, WebContext webContext)
+    {
+      this.handlers    = handlers;
+      this.audit       = audit;
+      this.cache       = cache;
+      this.coalescer   = coalescer;
+      this.tracer      = tracer;
+      this.requestData = requestData;
+      this.methodName  = methodName;
+      this.params      = params;
+      this.webContext  = webContext;
+    }
+    
+    public
+    void run()
+    {
+      RPCContext.setContext(webContext);
+      try {
+        Object result = RpcUtil.executeMethod(handlers, audit, cache, coalescer, methodName, params);
+        if(RpcAsync.isAsync(result)) {
+          // Wait so that the queue bounds also the pending notifications
+          RpcAsync.await(result, 0);
+        }
+      }
+      catch(Throwable t) {
+        if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      }
+      finally {
+        RPCContext.removeContext();
+      }
+    }
+  }
+}
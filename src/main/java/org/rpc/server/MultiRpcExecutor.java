@@ -1,25 +1,40 @@
 package org.rpc.server;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import org.apache.xmlrpc.XmlRpcException;
 
+import org.cbor.CBOR;
+import org.cbor.CborException;
+
 import org.dew.util.RefUtil;
 
 import org.json.JSON;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JsonWriter;
 import org.json.rpc.commons.RpcRemoteException;
 
 import org.soap.rpc.SoapRpcContentHandler;
 import org.soap.rpc.server.SoapRpcExecutor;
 
+import org.rpc.util.RPCContext;
+import org.rpc.util.WebContext;
+
 import org.util.WUtil;
 
 import org.xml.rpc.XmlRpcContentHandler;
@@ -32,6 +47,11 @@ class MultiRpcExecutor implements RpcExecutor
   protected Map       handlers;
   protected RpcTracer tracer;
   protected RpcAudit  audit;
+  protected Executor  invocationExecutor;
+  protected RpcResultCache resultCache;
+  protected RpcCoalescer coalescer;
+  protected JsonRpcBatch batch = new JsonRpcBatch();
+  protected JsonRpcNotifications notifications = new JsonRpcNotifications();
   
   public MultiRpcExecutor()
   {
@@ -54,6 +74,8 @@ class MultiRpcExecutor implements RpcExecutor
       }
       this.handlers.put(name, handler);
     }
+    // Build the dispatch table of the handler
+    RpcDispatcher.getDispatcher(handler);
   }
   
   public
@@ -76,27 +98,111 @@ class MultiRpcExecutor implements RpcExecutor
     this.audit = audit;
   }
   
+  /**
+   * Set the executor of the handler methods (null = current thread), e.g. RpcWorkers.newVirtualThreadPerCall().
+   * With an asynchronous transport the calling thread is released during the invocation.
+   */
+  public
+  void setInvocationExecutor(Executor invocationExecutor)
+  {
+    this.invocationExecutor = invocationExecutor;
+  }
+  
+  /**
+   * Set the cache of the results of the RpcCacheable (or registered) methods (null = no cache).
+   */
+  public
+  void setResultCache(RpcResultCache resultCache)
+  {
+    this.resultCache = resultCache;
+  }
+  
+  /**
+   * Set the RpcCoalescer of the RpcCoalesce (or registered) methods (null = no coalescing).
+   */
+  public
+  void setCoalescer(RpcCoalescer coalescer)
+  {
+    this.coalescer = coalescer;
+  }
+  
+  /**
+   * Set the maximum number of requests in a JSON-RPC batch (0 = no limit).
+   */
+  public
+  void setBatchMaxSize(int batchMaxSize)
+  {
+    this.batch.setMaxSize(batchMaxSize);
+  }
+  
+  /**
+   * Set the pool used to run in parallel the calls of a JSON-RPC batch.
+   */
+  public
+  void setBatchExecutor(ExecutorService executorService)
+  {
+    this.batch.setExecutorService(executorService);
+  }
+  
+  /**
+   * Set the capacity of the queue of JSON-RPC notifications (requests without id).
+   */
+  public
+  void setNotificationQueueCapacity(int queueCapacity)
+  {
+    this.notifications.setQueueCapacity(queueCapacity);
+  }
+  
+  /**
+   * Set the behavior when the queue of notifications is full:
+   * JsonRpcNotifications.OVERFLOW_DROP or JsonRpcNotifications.OVERFLOW_BLOCK.
+   */
+  public
+  void setNotificationOverflowPolicy(int overflowPolicy)
+  {
+    this.notifications.setOverflowPolicy(overflowPolicy);
+  }
+  
   public
   void execute(RpcServerTransport transport)
   {
-    String[] requestData;
+    RpcPhases phases = RpcPhases.start("jsonrpc", tracer);
     try {
-      requestData = transport.readRequest(null);
-    }
-    catch(Throwable t) {
-      t.printStackTrace();
-      return;
-    }
-    
-    String sContentType = requestData[0];
-    if(sContentType != null && sContentType.equals("text/xml")) {
-      xmlrpc_execute(requestData, transport);
+      String[] requestData;
+      try {
+        if(!RpcUtil.isTracing(tracer) && transport instanceof RpcStreamServerTransport) {
+          // The body is parsed directly from the stream (a tracer that may sample needs the text of the request)
+          requestData = ((RpcStreamServerTransport) transport).openRequest(null);
+        }
+        else {
+          requestData = transport.readRequest(null);
+        }
+      }
+      catch(Throwable t) {
+        t.printStackTrace();
+        return;
+      }
+      RpcPhases.mark(RpcPhases.READ);
+      
+      String sContentType = requestData[0];
+      if(sContentType != null && sContentType.equals("text/xml")) {
+        RpcPhases.setProtocol("xmlrpc");
+        xmlrpc_execute(requestData, transport);
+      }
+      else if(sContentType != null && sContentType.equals("application/soap+xml")) {
+        RpcPhases.setProtocol("soaprpc");
+        soaprpc_execute(requestData, transport);
+      }
+      else if(sContentType != null && sContentType.equals(CBOR.CONTENT_TYPE)) {
+        RpcPhases.setProtocol("cborrpc");
+        cborrpc_execute(requestData, transport);
+      }
+      else {
+        jsonrpc_execute(requestData, transport);
+      }
     }
-    else if(sContentType != null && sContentType.equals("application/soap+xml")) {
-      soaprpc_execute(requestData, transport);
-    }
-    else {
-      jsonrpc_execute(requestData, transport);
+    finally {
+      RpcPhases.end(phases);
     }
   }
   
@@ -127,7 +233,12 @@ class MultiRpcExecutor implements RpcExecutor
     XmlRpcContentHandler req = null;
     try {
       req = new XmlRpcContentHandler(true);
-      req.load(requestData[1]);
+      if(requestData[1] != null) {
+        req.load(requestData[1]);
+      }
+      else {
+        req.load(RpcStreams.getInputSource(transport));
+      }
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -155,31 +266,82 @@ class MultiRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
-    String sResult = null;
+    Object result = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params);
-      
-      sResult = XmlRpcSerializer.serialize(result);
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
     }
     catch(Throwable t) {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException rre = (RpcRemoteException) t;
-        RpcUtil.xmlrpc_sendError(transport, rre.getCode(), rre.getMessage());
-        return;
+      xmlrpc_sendFault(requestData, transport, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          xmlrpc_sendResult(requestData, transport, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          xmlrpc_sendFault(requestData, transport, throwable);
+        }
+      });
+      return;
+    }
+    
+    xmlrpc_sendResult(requestData, transport, methodName, result);
+  }
+  
+  private
+  void xmlrpc_sendResult(String[] requestData, RpcServerTransport transport, String methodName, Object result)
+  {
+    boolean traced = RpcUtil.isTraced(tracer, methodName);
+    if(!traced && transport instanceof RpcStreamServerTransport) {
+      // The response is serialized directly to the output stream (opened after the first chunk)
+      RpcResponseWriter writer = new RpcResponseWriter((RpcStreamServerTransport) transport, "text/xml");
+      try {
+        String sEncoding = transport.getEncoding();
+        if(sEncoding != null && sEncoding.length() > 0) {
+          writer.write("<?xml version=\"1.0\" encoding=\"" + sEncoding + "\"?><methodResponse><params><param>");
+        }
+        else {
+          writer.write("<?xml version=\"1.0\"?><methodResponse><params><param>");
+        }
+        if(result instanceof RpcResultCache.Entry) {
+          writer.write(((RpcResultCache.Entry) result).getXmlRpc());
+        }
+        else {
+          XmlRpcSerializer.serialize(result, false, writer);
+        }
+        writer.write("</param></params></methodResponse>");
+        writer.close();
+        RpcPhases.mark(RpcPhases.WRITE);
       }
-      else if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.xmlrpc_sendError(transport, xre.code, xre.getMessage());
-        return;
+      catch(Throwable t) {
+        if(!writer.isOpened()) {
+          // Nothing has been sent: fault as in the buffered mode
+          xmlrpc_sendFault(requestData, transport, t);
+          return;
+        }
+        t.printStackTrace();
       }
-      String errorMessage = t.getMessage();
-      if(errorMessage == null || errorMessage.length() == 0) {
-        errorMessage = t.toString();
+      return;
+    }
+    
+    String sResult = null;
+    try {
+      if(result instanceof RpcResultCache.Entry) {
+        sResult = ((RpcResultCache.Entry) result).getXmlRpc();
+      }
+      else {
+        sResult = XmlRpcSerializer.serialize(result);
       }
-      RpcUtil.xmlrpc_sendError(transport, 0, errorMessage);
+    }
+    catch(Throwable t) {
+      xmlrpc_sendFault(requestData, transport, t);
       return;
     }
     
@@ -196,8 +358,11 @@ class MultiRpcExecutor implements RpcExecutor
       responseData.append(sResult);
       responseData.append("</param></params></methodResponse>");
       
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName);
-      transport.writeResponse("text/xml", responseData.toString(), false);
+      String sResponseData = responseData.toString();
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(traced) RpcUtil.traceResult(tracer, requestData[0], requestData[1], sResponseData, methodName);
+      transport.writeResponse("text/xml", sResponseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -205,18 +370,45 @@ class MultiRpcExecutor implements RpcExecutor
     }
   }
   
+  private
+  void xmlrpc_sendFault(String[] requestData, RpcServerTransport transport, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException rre = (RpcRemoteException) t;
+      RpcUtil.xmlrpc_sendError(transport, rre.getCode(), rre.getMessage());
+      return;
+    }
+    else if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.xmlrpc_sendError(transport, xre.code, xre.getMessage());
+      return;
+    }
+    String errorMessage = t.getMessage();
+    if(errorMessage == null || errorMessage.length() == 0) {
+      errorMessage = t.toString();
+    }
+    RpcUtil.xmlrpc_sendError(transport, 0, errorMessage);
+  }
+  
   private
   void jsonrpc_execute(String[] requestData, RpcServerTransport transport)
   {
+    if(JsonRpcBatch.isBatch(requestData, transport)) {
+      batch.execute(handlers, audit, resultCache, coalescer, tracer, notifications, requestData, transport);
+      return;
+    }
+    
     String methodName = null;
-    JSONArray params = null;
+    List params = null;
     
     JSONObject resp = new JSONObject();
     resp.put("jsonrpc", "2.0");
     
-    JSONObject req = null;
+    // Only the envelope is scanned: the params are parsed after authorization and handler lookup.
+    JsonRpcEnvelope envelope = null;
     try {
-      req = new JSONObject(requestData[1]);
+      envelope = JsonRpcEnvelope.scan(RpcStreams.getChars(requestData, transport));
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -229,12 +421,10 @@ class MultiRpcExecutor implements RpcExecutor
     }
     
     try {
-      resp.put("id", req.get("id"));
-      
-      methodName = req.getString("method");
-      params     = req.getJSONArray("params");
-      if(params == null) params = new JSONArray();
-      
+      methodName = envelope.getMethod();
+      if(methodName == null) {
+        throw new JSONException("JSONObject[\"method\"] not a string.");
+      }
       if(methodName.indexOf('.') < 0) {
         methodName = RpcUtil.completeMethodName(methodName, requestData);
       }
@@ -242,6 +432,7 @@ class MultiRpcExecutor implements RpcExecutor
     catch(Throwable t) {
       t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      if(envelope.hasId()) resp.put("id", envelope.getId());
       int     errorCode    = INVALID_REQUEST_ERROR_CODE;
       String  errorMessage = "unable to read request";
       String  errorData    = RefUtil.getStackTrace(t);
@@ -249,42 +440,527 @@ class MultiRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
+    RpcRemoteException lookupError = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params.toVector());
-      
-      resp.put("result", result);
+      RpcUtil.checkMethod(handlers, methodName);
+    }
+    catch(RpcRemoteException rre) {
+      lookupError = rre;
+    }
+    
+    try {
+      if(lookupError != null) {
+        envelope.skipParams();
+      }
+      else {
+        params = envelope.getParams();
+      }
     }
     catch(Throwable t) {
+      t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException jrre = (RpcRemoteException) t;
-        RpcUtil.jsonrpc_sendError(transport, resp, jrre.getCode(), jrre.getMessage(), jrre.getData());
-        return;
+      if(envelope.hasId()) resp.put("id", envelope.getId());
+      int errorCode        = PARSE_ERROR_CODE;
+      String  errorMessage = "unable to parse json-rpc request";
+      String  errorData    = RefUtil.getStackTrace(t);
+      RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
+      return;
+    }
+    
+    boolean notification = false;
+    try {
+      notification = envelope.isNotification();
+      if(!notification) {
+        if(!envelope.hasId()) throw new JSONException("JSONObject[\"id\"] not found.");
+        resp.put("id", envelope.getId());
+      }
+      if(params == null && lookupError == null) {
+        throw new JSONException("JSONObject[\"params\"] is not a JSONArray.");
+      }
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      int     errorCode    = INVALID_REQUEST_ERROR_CODE;
+      String  errorMessage = "unable to read request";
+      String  errorData    = RefUtil.getStackTrace(t);
+      RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
+      return;
+    }
+    
+    if(notification) {
+      // Unknown method: the notification fails on the background thread as before
+      notifications.execute(handlers, audit, resultCache, coalescer, tracer, requestData, methodName, params != null ? params : new ArrayList(0), transport);
+      return;
+    }
+    
+    if(lookupError != null) {
+      jsonrpc_sendFault(requestData, transport, resp, lookupError);
+      return;
+    }
+    
+    Object result = null;
+    try {
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
+    }
+    catch(Throwable t) {
+      jsonrpc_sendFault(requestData, transport, resp, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          jsonrpc_sendResult(requestData, transport, resp, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          jsonrpc_sendFault(requestData, transport, resp, throwable);
+        }
+      });
+      return;
+    }
+    
+    jsonrpc_sendResult(requestData, transport, resp, methodName, result);
+  }
+  
+  private
+  void jsonrpc_sendResult(String[] requestData, RpcServerTransport transport, JSONObject resp, String methodName, Object result)
+  {
+    try {
+      resp.put("result", result);
+    }
+    catch(Throwable t) {
+      jsonrpc_sendFault(requestData, transport, resp, t);
+      return;
+    }
+    
+    boolean traced = RpcUtil.isTraced(tracer, methodName);
+    if(!traced && transport instanceof RpcStreamServerTransport) {
+      // The response is serialized directly to the output stream (opened after the first chunk)
+      RpcResponseWriter writer = new RpcResponseWriter((RpcStreamServerTransport) transport, "application/json");
+      try {
+        JsonWriter.stringify(resp, writer);
+        writer.close();
+        RpcPhases.mark(RpcPhases.WRITE);
       }
-      else if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.jsonrpc_sendError(transport, resp, xre.code, xre.getMessage(), null);
+      catch(Throwable t) {
+        if(!writer.isOpened()) {
+          // Nothing has been sent: fault as in the buffered mode
+          jsonrpc_sendFault(requestData, transport, resp, t);
+          return;
+        }
+        t.printStackTrace();
+      }
+      return;
+    }
+    
+    try {
+      String responseData = JsonWriter.stringify(resp);
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(traced) RpcUtil.traceResult(tracer, requestData[0], requestData[1], responseData, methodName);
+      transport.writeResponse("application/json", responseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], JsonWriter.stringify(resp), methodName, t);
+    }
+  }
+  
+  private
+  void jsonrpc_sendFault(String[] requestData, RpcServerTransport transport, JSONObject resp, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException jrre = (RpcRemoteException) t;
+      RpcUtil.jsonrpc_sendError(transport, resp, jrre.getCode(), jrre.getMessage(), jrre.getData());
+      return;
+    }
+    else if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.jsonrpc_sendError(transport, resp, xre.code, xre.getMessage(), null);
+      return;
+    }
+    int errorCode       = SERVER_ERROR_START - 1;
+    String errorMessage = t.getMessage();
+    String errorData    = RefUtil.getStackTrace(t);
+    RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
+  }
+  
+  /**
+   * JSON-RPC 2.0 envelope (single request, notification or batch) encoded in CBOR.
+   * Only the envelope is scanned: the params are decoded after authorization and handler lookup.
+   */
+  private
+  void cborrpc_execute(String[] requestData, RpcServerTransport transport)
+  {
+    if(!(transport instanceof RpcBinaryServerTransport)) {
+      JSONObject resp = new JSONObject();
+      resp.put("jsonrpc", "2.0");
+      RpcUtil.jsonrpc_sendError(transport, resp, INVALID_REQUEST_ERROR_CODE, "cbor-rpc not supported by " + transport.getClass().getName(), null);
+      return;
+    }
+    RpcBinaryServerTransport binaryTransport = (RpcBinaryServerTransport) transport;
+    
+    byte[] data = null;
+    CborRpcEnvelope envelope = null;
+    try {
+      data = CBOR.readAll(binaryTransport.getRequestStream());
+      if(CborRpcEnvelope.isBatch(data)) {
+        cborrpc_batch(requestData, binaryTransport, data, CborRpcEnvelope.scanBatch(data));
         return;
       }
-      int errorCode       = SERVER_ERROR_START - 1;
-      String errorMessage = t.getMessage();
+      envelope = CborRpcEnvelope.scan(data);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+      int    errorCode    = PARSE_ERROR_CODE;
+      String errorMessage = "unable to parse cbor-rpc request";
       String errorData    = RefUtil.getStackTrace(t);
-      RpcUtil.jsonrpc_sendError(transport, resp, errorCode, errorMessage, errorData);
+      RpcUtil.cborrpc_sendError(binaryTransport, RpcUtil.cborrpc_response(null), errorCode, errorMessage, errorData);
       return;
     }
     
+    Map resp = RpcUtil.cborrpc_response(null);
+    String methodName = null;
+    List params = null;
+    boolean notification = envelope.isNotification();
     try {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], resp.toString(), methodName);
-      transport.writeResponse("application/json", resp.toString(), false);
+      if(!notification) {
+        if(envelope.getId() == null) throw new CborException("id not found");
+        resp.put("id", envelope.getId());
+      }
+      methodName = cborrpc_getMethod(envelope, requestData);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, data), t);
+      int    errorCode    = INVALID_REQUEST_ERROR_CODE;
+      String errorMessage = "unable to read request";
+      String errorData    = RefUtil.getStackTrace(t);
+      RpcUtil.cborrpc_sendError(binaryTransport, resp, errorCode, errorMessage, errorData);
+      return;
+    }
+    
+    RpcPhases.mark(RpcPhases.PARSE);
+    if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
+    
+    RpcRemoteException lookupError = null;
+    try {
+      RpcUtil.checkMethod(handlers, methodName);
+    }
+    catch(RpcRemoteException rre) {
+      lookupError = rre;
+    }
+    
+    if(lookupError == null) {
+      try {
+        params = cborrpc_getParams(envelope);
+      }
+      catch(Throwable t) {
+        t.printStackTrace();
+        if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, data), t);
+        int    errorCode    = t instanceof CborException && envelope.hasParams() ? PARSE_ERROR_CODE : INVALID_REQUEST_ERROR_CODE;
+        String errorMessage = errorCode == PARSE_ERROR_CODE ? "unable to parse cbor-rpc request" : "unable to read request";
+        String errorData    = RefUtil.getStackTrace(t);
+        RpcUtil.cborrpc_sendError(binaryTransport, resp, errorCode, errorMessage, errorData);
+        return;
+      }
+    }
+    
+    if(notification) {
+      // The text of the request is built by the background thread only in case of error
+      RpcTracer notificationTracer = tracer != null ? new CborTracer(requestData, data) : null;
+      notifications.execute(handlers, audit, resultCache, coalescer, notificationTracer, requestData, methodName, params != null ? params : new ArrayList(0), transport);
+      return;
+    }
+    
+    if(lookupError != null) {
+      cborrpc_sendFault(requestData, data, binaryTransport, resp, lookupError);
+      return;
+    }
+    
+    Object result = null;
+    try {
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
+    }
+    catch(Throwable t) {
+      cborrpc_sendFault(requestData, data, binaryTransport, resp, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final Object fRequest    = data;
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          cborrpc_sendResult(requestData, fRequest, binaryTransport, resp, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          cborrpc_sendFault(requestData, fRequest, binaryTransport, resp, throwable);
+        }
+      });
+      return;
+    }
+    
+    cborrpc_sendResult(requestData, data, binaryTransport, resp, methodName, result);
+  }
+  
+  /**
+   * Batch of CBOR-RPC requests: all calls are authorized first and then executed in parallel
+   * on the pool of the JSON-RPC batches, within a single deadline (the async timeout).
+   */
+  private
+  void cborrpc_batch(String[] requestData, RpcBinaryServerTransport transport, byte[] data, List requests)
+  {
+    RpcPhases.mark(RpcPhases.PARSE);
+    
+    int size = requests.size();
+    int maxSize = batch.getMaxSize();
+    if(size == 0 || (maxSize > 0 && size > maxSize)) {
+      String errorMessage = size == 0 ? "empty batch" : "batch too large (max " + maxSize + " requests)";
+      RpcUtil.cborrpc_sendError(transport, RpcUtil.cborrpc_response(null), INVALID_REQUEST_ERROR_CODE, errorMessage, null);
+      return;
+    }
+    
+    // Authorization of all calls before any execution; the errors of the envelopes are kept per call
+    String[] methodNames = new String[size];
+    Throwable[] errors = new Throwable[size];
+    for(int i = 0; i < size; i++) {
+      CborRpcEnvelope request = (CborRpcEnvelope) requests.get(i);
+      if(request == null) continue;
+      try {
+        methodNames[i] = cborrpc_getMethod(request, requestData);
+      }
+      catch(Throwable t) {
+        errors[i] = t;
+        continue;
+      }
+      if(!transport.checkAuthorization(methodNames[i])) return;
+    }
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
+    
+    // The calls are timed as a whole (INVOKE)
+    RpcPhases phases = RpcPhases.current();
+    RpcPhases.setCurrent(null);
+    
+    long deadline = System.currentTimeMillis() + RpcAsync.getTimeout(transport);
+    Map[] results = new Map[size];
+    if(size == 1) {
+      results[0] = cborrpc_call(requestData, data, (CborRpcEnvelope) requests.get(0), methodNames[0], errors[0], deadline);
+    }
+    else {
+      ExecutorService service = batch.getExecutorService() != null ? batch.getExecutorService() : JsonRpcBatch.getDefaultExecutorService();
+      WebContext webContext = RPCContext.getContext();
+      List<Future<Map>> futures = new ArrayList<Future<Map>>(size - 1);
+      for(int i = 0; i < size - 1; i++) {
+        futures.add(service.submit(new CborCall(requestData, data, (CborRpcEnvelope) requests.get(i), methodNames[i], errors[i], deadline, webContext)));
+      }
+      // The last call runs on the current thread
+      results[size - 1] = cborrpc_call(requestData, data, (CborRpcEnvelope) requests.get(size - 1), methodNames[size - 1], errors[size - 1], deadline);
+      for(int i = 0; i < size - 1; i++) {
+        Future<Map> future = futures.get(i);
+        try {
+          results[i] = future.get(Math.max(deadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+        }
+        catch(Throwable t) {
+          future.cancel(true);
+          CborRpcEnvelope request = (CborRpcEnvelope) requests.get(i);
+          Map resp = RpcUtil.cborrpc_response(null);
+          resp.put("id", request != null && request.getId() != null ? request.getId() : JSONObject.NULL);
+          if(t instanceof TimeoutException) {
+            results[i] = cborrpc_setFault(resp, RpcAsync.timeoutException(RpcAsync.getTimeout(transport)));
+          }
+          else {
+            results[i] = RpcUtil.cborrpc_setError(resp, INTERNAL_ERROR_CODE, t.toString(), null);
+          }
+        }
+      }
+    }
+    
+    RpcPhases.setCurrent(phases);
+    RpcPhases.mark(RpcPhases.INVOKE);
+    
+    List responses = new ArrayList(size);
+    for(int i = 0; i < size; i++) {
+      if(results[i] != null) responses.add(results[i]);
+    }
+    
+    // A batch of notifications only has no response
+    byte[] responseData = responses.size() > 0 ? CBOR.encode(responses) : new byte[0];
+    RpcPhases.mark(RpcPhases.SERIALIZE);
+    try {
+      if(RpcUtil.isTraced(tracer, "batch")) RpcUtil.traceResult(tracer, requestData[0], cborrpc_text(requestData, data), JsonWriter.stringify(responses), "batch");
+      transport.writeResponse(CBOR.CONTENT_TYPE, responseData);
+      RpcPhases.mark(RpcPhases.WRITE);
+    }
+    catch(Throwable t) {
+      t.printStackTrace();
+      if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, data), JsonWriter.stringify(responses), "batch", t);
+    }
+  }
+  
+  /**
+   * @param error exception of the envelope (method) or null
+   * @return response of a call of a batch or null (notification)
+   */
+  private
+  Map cborrpc_call(String[] requestData, byte[] data, CborRpcEnvelope request, String methodName, Throwable error, long deadline)
+  {
+    Map resp = RpcUtil.cborrpc_response(null);
+    if(request == null) {
+      return RpcUtil.cborrpc_setError(resp, INVALID_REQUEST_ERROR_CODE, "invalid request", null);
+    }
+    
+    boolean notification = request.isNotification();
+    List params = null;
+    try {
+      if(!notification) {
+        if(request.getId() == null) throw new CborException("id not found");
+        resp.put("id", request.getId());
+      }
+      if(error != null) throw error;
+      params = cborrpc_getParams(request);
+    }
+    catch(Throwable t) {
+      if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, data), t);
+      return RpcUtil.cborrpc_setError(resp, INVALID_REQUEST_ERROR_CODE, "unable to read request", RefUtil.getStackTrace(t));
+    }
+    
+    if(notification) {
+      RpcTracer notificationTracer = tracer != null ? new CborTracer(requestData, data) : null;
+      notifications.submit(handlers, audit, resultCache, coalescer, notificationTracer, requestData, methodName, params);
+      return null;
+    }
+    
+    try {
+      Object result = RpcUtil.executeMethod(handlers, audit, resultCache, coalescer, methodName, params);
+      if(RpcAsync.isAsync(result)) {
+        // The calls of a batch are already parallel
+        result = RpcAsync.await(result, Math.max(deadline - System.currentTimeMillis(), 1));
+      }
+      resp.put("result", cborrpc_value(result));
+    }
+    catch(Throwable t) {
+      if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, data), t);
+      return cborrpc_setFault(resp, t);
+    }
+    return resp;
+  }
+  
+  private
+  void cborrpc_sendResult(String[] requestData, Object request, RpcBinaryServerTransport transport, Map resp, String methodName, Object result)
+  {
+    byte[] responseData = null;
+    try {
+      resp.put("result", cborrpc_value(result));
+      responseData = CBOR.encode(resp);
+    }
+    catch(Throwable t) {
+      cborrpc_sendFault(requestData, request, transport, resp, t);
+      return;
+    }
+    
+    RpcPhases.mark(RpcPhases.SERIALIZE);
+    try {
+      // The tracer receives request and response as JSON text
+      if(RpcUtil.isTraced(tracer, methodName)) RpcUtil.traceResult(tracer, requestData[0], cborrpc_text(requestData, request), JsonWriter.stringify(resp), methodName);
+      transport.writeResponse(CBOR.CONTENT_TYPE, responseData);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], resp.toString(), methodName, t);
+      if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, request), JsonWriter.stringify(resp), methodName, t);
+    }
+  }
+  
+  private
+  void cborrpc_sendFault(String[] requestData, Object request, RpcBinaryServerTransport transport, Map resp, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], cborrpc_text(requestData, request), t);
+    cborrpc_setFault(resp, t);
+    try {
+      transport.writeResponse(CBOR.CONTENT_TYPE, CBOR.encode(resp));
+      RpcPhases.mark(RpcPhases.WRITE);
+    }
+    catch(Throwable e) {
+      e.printStackTrace();
     }
   }
   
+  /**
+   * Text (JSON) of the request for the tracer, built at the first trace of the call.
+   */
+  private
+  String cborrpc_text(String[] requestData, Object request)
+  {
+    if(requestData[1] == null && request != null) {
+      try {
+        requestData[1] = JsonWriter.stringify(request instanceof byte[] ? CBOR.decode((byte[]) request, true) : request);
+      }
+      catch(Throwable t) {
+        // Malformed params: no text
+      }
+    }
+    return requestData[1];
+  }
+  
+  private
+  Map cborrpc_setFault(Map resp, Throwable t)
+  {
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException rre = (RpcRemoteException) t;
+      return RpcUtil.cborrpc_setError(resp, rre.getCode(), rre.getMessage(), rre.getData());
+    }
+    else if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      return RpcUtil.cborrpc_setError(resp, xre.code, xre.getMessage(), null);
+    }
+    return RpcUtil.cborrpc_setError(resp, SERVER_ERROR_START - 1, t.getMessage(), RefUtil.getStackTrace(t));
+  }
+  
+  private static
+  String cborrpc_getMethod(CborRpcEnvelope envelope, String[] requestData)
+  {
+    String methodName = envelope.getMethod();
+    if(methodName == null) {
+      throw new CborException("method is not a string");
+    }
+    if(methodName.indexOf('.') < 0) {
+      methodName = RpcUtil.completeMethodName(methodName, requestData);
+    }
+    return methodName;
+  }
+  
+  private static
+  List cborrpc_getParams(CborRpcEnvelope envelope)
+  {
+    List params = envelope.getParams();
+    if(params == null) {
+      throw new CborException("params is not an array");
+    }
+    return params;
+  }
+  
+  /**
+   * @return value of a cached result; JSONObject.NULL for null (the result member is always present)
+   */
+  private static
+  Object cborrpc_value(Object result)
+  {
+    if(result instanceof RpcResultCache.Entry) {
+      result = ((RpcResultCache.Entry) result).getValue();
+    }
+    return result != null ? result : JSONObject.NULL;
+  }
+  
   private
   void soaprpc_execute(String[] requestData, RpcServerTransport transport)
   {
@@ -294,7 +970,12 @@ class MultiRpcExecutor implements RpcExecutor
     SoapRpcContentHandler req = null;
     try {
       req = new SoapRpcContentHandler(true);
-      req.load(requestData[1]);
+      if(requestData[1] != null) {
+        req.load(requestData[1]);
+      }
+      else {
+        req.load(RpcStreams.getInputSource(transport));
+      }
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -322,31 +1003,49 @@ class MultiRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
-    String sResult = null;
+    Object result = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params);
-      
-      sResult = XmlRpcSerializer.normalizeString(JSON.stringify(result));
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
     }
     catch(Throwable t) {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException rre = (RpcRemoteException) t;
-        RpcUtil.soaprpc_sendError(transport, rre.getCode(), rre.getMessage(), rre.getData());
-        return;
-      }
-      else if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.soaprpc_sendError(transport, xre.code, xre.getMessage(), null);
-        return;
+      soaprpc_sendFault(requestData, transport, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          soaprpc_sendResult(requestData, transport, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          soaprpc_sendFault(requestData, transport, throwable);
+        }
+      });
+      return;
+    }
+    
+    soaprpc_sendResult(requestData, transport, methodName, result);
+  }
+  
+  private
+  void soaprpc_sendResult(String[] requestData, RpcServerTransport transport, String methodName, Object result)
+  {
+    String sResult = null;
+    try {
+      if(result instanceof RpcResultCache.Entry) {
+        sResult = ((RpcResultCache.Entry) result).getSoap();
       }
-      String errorMessage = t.getMessage();
-      if(errorMessage == null || errorMessage.length() == 0) {
-        errorMessage = t.toString();
+      else {
+        sResult = XmlRpcSerializer.normalizeString(JSON.stringify(result));
       }
-      RpcUtil.soaprpc_sendError(transport, 0, errorMessage, null);
+    }
+    catch(Throwable t) {
+      soaprpc_sendFault(requestData, transport, t);
       return;
     }
     
@@ -358,12 +1057,108 @@ class MultiRpcExecutor implements RpcExecutor
       responseData.append(sResult);
       responseData.append("</executeReturn></executeResponse></s:Body></s:Envelope>");
       
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName);
-      transport.writeResponse("text/xml", responseData.toString(), true);
+      String sResponseData = responseData.toString();
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(RpcUtil.isTraced(tracer, methodName)) RpcUtil.traceResult(tracer, requestData[0], requestData[1], sResponseData, methodName);
+      transport.writeResponse("text/xml", sResponseData, true);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName, t);
     }
   }
+  
+  private
+  void soaprpc_sendFault(String[] requestData, RpcServerTransport transport, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException rre = (RpcRemoteException) t;
+      RpcUtil.soaprpc_sendError(transport, rre.getCode(), rre.getMessage(), rre.getData());
+      return;
+    }
+    else if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.soaprpc_sendError(transport, xre.code, xre.getMessage(), null);
+      return;
+    }
+    String errorMessage = t.getMessage();
+    if(errorMessage == null || errorMessage.length() == 0) {
+      errorMessage = t.toString();
+    }
+    RpcUtil.soaprpc_sendError(transport, 0, errorMessage, null);
+  }
+  
+  /**
+   * Call of a CBOR-RPC batch on the pool of the batches.
+   */
+  class CborCall implements Callable<Map>
+  {
+    private String[]   requestData;
+    private byte[]     data;
+    private CborRpcEnvelope request;
+    private String     methodName;
+    private Throwable  error;
+    private long       deadline;
+    private WebContext webContext;
+    
+    public CborCall(String[] requestData, byte[] data, CborRpcEnvelope request, String methodName, Throwable error, long deadline, WebContext webContext)
+    {
+      this.requestData = requestData;
+      this.data        = data;
+      this.request     = request;
+      this.methodName  = methodName;
+      this.error       = error;
+      this.deadline    = deadline;
+      this.webContext  = webContext;
+    }
+    
+    public
+    Map call()
+    {
+      // The call may run on the caller thread (CallerRunsPolicy): restore the previous context.
+      WebContext previous = RPCContext.getContext();
+      RPCContext.setContext(webContext);
+      try {
+        return cborrpc_call(requestData, data, request, methodName, error, deadline);
+      }
+      finally {
+        RPCContext.setContext(previous);
+      }
+    }
+  }
+  
+  /**
+   * Tracer of the CBOR-RPC notifications: the JSON text of the request is built at the first trace.
+   */
+  class CborTracer implements RpcTracer
+  {
+    private String[] requestData;
+    private byte[]   data;
+    
+    public CborTracer(String[] requestData, byte[] data)
+    {
+      this.requestData = requestData;
+      this.data        = data;
+    }
+    
+    public
+    void trace(String sContentType, String sRequest, Throwable throwable)
+    {
+      tracer.trace(sContentType, cborrpc_text(requestData, data), throwable);
+    }
+    
+    public
+    void trace(String sContentType, String sRequest, String sResponse, String sMethodName)
+    {
+      tracer.trace(sContentType, cborrpc_text(requestData, data), sResponse, sMethodName);
+    }
+    
+    public
+    void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable)
+    {
+      tracer.trace(sContentType, cborrpc_text(requestData, data), sResponse, sMethodName, throwable);
+    }
+  }
 }
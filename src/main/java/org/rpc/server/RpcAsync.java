@@ -0,0 +1,185 @@
+package org.rpc.server;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.apache.xmlrpc.XmlRpcException;
+
+import org.dew.util.RefUtil;
+
+import org.json.rpc.commons.RpcRemoteException;
+
+/**
+ * Handler methods returning CompletionStage (e.g. CompletableFuture).
+ * If the transport supports it the calling thread is released and the response
+ * is written when the stage completes, otherwise the caller waits for the result.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcAsync
+{
+  public static final long DEFAULT_TIMEOUT = 30 * 1000;
+  
+  public static
+  interface Callback
+  {
+    public void onResult(Object result);
+    
+    public void onError(Throwable throwable);
+  }
+  
+  public static
+  boolean isAsync(Object result)
+  {
+    return result instanceof CompletionStage;
+  }
+  
+  public static
+  long getTimeout(RpcServerTransport transport)
+  {
+    if(transport instanceof RpcAsyncServerTransport) {
+      long timeout = ((RpcAsyncServerTransport) transport).getAsyncTimeout();
+      if(timeout > 0) return timeout;
+    }
+    return DEFAULT_TIMEOUT;
+  }
+  
+  /**
+   * Deliver the result of a CompletionStage to the callback: asynchronously if the transport
+   * supports it, otherwise on the current thread. A timeout is notified as RpcRemoteException
+   * with code RpcExecutor.TIMEOUT_ERROR_CODE and cancels the stage (in both modes).
+   */
+  public static
+  void execute(final RpcServerTransport transport, Object result, final Callback callback)
+  {
+    final long timeout = getTimeout(transport);
+    final CompletionStage stage = (CompletionStage) result;
+    
+    Future future = stage.toCompletableFuture();
+    if(!future.isDone() && transport instanceof RpcAsyncServerTransport) {
+      final RpcAsyncServerTransport asyncTransport = (RpcAsyncServerTransport) transport;
+      final AtomicBoolean done = new AtomicBoolean();
+      final RpcPhases[] phases = new RpcPhases[1];
+      Runnable onTimeout = new Runnable() {
+        public void run() {
+          if(!done.compareAndSet(false, true)) return;
+          // As await: the stage of the handler is cancelled
+          stage.toCompletableFuture().cancel(true);
+          if(phases[0] != null) phases[0].resume();
+          try {
+            RpcPhases.mark(RpcPhases.INVOKE);
+            callback.onError(timeoutException(timeout));
+          }
+          finally {
+            asyncTransport.complete();
+            if(phases[0] != null) phases[0].end();
+          }
+        }
+      };
+      if(asyncTransport.startAsync(onTimeout)) {
+        // The timing of the call is moved to the completing thread
+        phases[0] = RpcPhases.suspend();
+        stage.whenComplete(new BiConsumer() {
+          public void accept(Object value, Object throwable) {
+            if(!done.compareAndSet(false, true)) return;
+            // The stage may be completed by a thread serving another call
+            RpcPhases previous = RpcPhases.current();
+            if(phases[0] != null) phases[0].resume();
+            Object previousAttachments = RpcAttachments.bind(transport);
+            try {
+              RpcPhases.mark(RpcPhases.INVOKE);
+              if(throwable != null) {
+                callback.onError(toRpcException((Throwable) throwable));
+              }
+              else {
+                callback.onResult(value);
+              }
+            }
+            finally {
+              asyncTransport.complete();
+              if(phases[0] != null) phases[0].end();
+              RpcPhases.setCurrent(previous);
+              RpcAttachments.restore(previousAttachments);
+            }
+          }
+        });
+        return;
+      }
+    }
+    
+    Object value = null;
+    try {
+      value = await(future, timeout);
+    }
+    catch(Throwable t) {
+      RpcPhases.mark(RpcPhases.INVOKE);
+      callback.onError(t);
+      return;
+    }
+    RpcPhases.mark(RpcPhases.INVOKE);
+    callback.onResult(value);
+  }
+  
+  /**
+   * Wait for the result of a CompletionStage (or Future).
+   *
+   * @param result CompletionStage, Future or plain value
+   * @param timeout milliseconds (0 = DEFAULT_TIMEOUT)
+   * @return value
+   */
+  public static
+  Object await(Object result, long timeout)
+    throws Exception
+  {
+    Future future = null;
+    if(result instanceof CompletionStage) {
+      future = ((CompletionStage) result).toCompletableFuture();
+    }
+    else if(result instanceof Future) {
+      future = (Future) result;
+    }
+    else {
+      return result;
+    }
+    if(timeout <= 0) timeout = DEFAULT_TIMEOUT;
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    }
+    catch(TimeoutException ex) {
+      future.cancel(true);
+      throw timeoutException(timeout);
+    }
+    catch(Throwable t) {
+      throw toRpcException(t);
+    }
+  }
+  
+  /**
+   * Unwrap the exception of a stage and convert it as RpcUtil.executeMethod does.
+   */
+  public static
+  Exception toRpcException(Throwable t)
+  {
+    while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null) {
+      t = t.getCause();
+    }
+    if(t instanceof RpcRemoteException) return (RpcRemoteException) t;
+    if(t instanceof XmlRpcException)    return (XmlRpcException) t;
+    if(t instanceof TimeoutException)   return timeoutException(DEFAULT_TIMEOUT);
+    String sMessage = t.getMessage();
+    if(sMessage == null || sMessage.length() == 0) sMessage = t.toString();
+    return new RpcRemoteException(0, sMessage, RefUtil.getStackTrace(t));
+  }
+  
+  protected static
+  RpcRemoteException timeoutException(long timeout)
+  {
+    return new RpcRemoteException(RpcExecutor.TIMEOUT_ERROR_CODE, "timeout (" + timeout + " ms)", null);
+  }
+}
@@ -0,0 +1,21 @@
+package org.rpc.server;
+
+/**
+ * Transport able to release the calling thread and write the response later,
+ * e.g. Servlet AsyncContext.
+ */
+public
+interface RpcAsyncServerTransport extends RpcServerTransport
+{
+  /**
+   * Switch to asynchronous mode.
+   *
+   * @param onTimeout invoked if the response is not completed within the timeout
+   * @return false if the asynchronous mode is not available (the caller must block)
+   */
+  public boolean startAsync(Runnable onTimeout);
+  
+  public long getAsyncTimeout();
+  
+  public void complete();
+}
@@ -0,0 +1,371 @@
+package org.rpc.server;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * RpcTracer wrapper that hands the events to a bounded lock-free ring buffer drained by a
+ * background thread, so that a slow tracer does not add latency to the calls.
+ * <pre>
+ * rpcExecutor.setTracer(new RpcAsyncTracer(myTracer, 4096).setSampleRate(0.1).setMaxPayloadLength(4096));
+ * </pre>
+ * The sampling is decided on the request thread, before the serialization of the response when the
+ * executors ask it (see RpcSampledTracer): the calls not sampled keep the streaming mode.
+ * The payloads are passed by reference and truncated on the background thread. When the buffer is full the event is dropped (see getDropped).
+ * The background thread is started at the first event and parks while the buffer is empty (the producers unpark it).
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcAsyncTracer implements RpcPhaseTracer, RpcSampledTracer
+{
+  public static final int DEFAULT_CAPACITY = 4096;
+  
+  protected final RpcTracer tracer;
+  protected final int capacity;
+  protected final int mask;
+  protected final AtomicReferenceArray slots;
+  protected final AtomicLongArray sequences;
+  protected final AtomicLong tail = new AtomicLong();
+  protected long head;
+  
+  protected final AtomicLong dropped = new AtomicLong();
+  protected final AtomicLong traced  = new AtomicLong();
+  
+  protected volatile double sampleRate      = 1.0d;
+  protected volatile double errorSampleRate = 1.0d;
+  protected volatile int    maxPayloadLength = 0;
+  protected final ConcurrentHashMap methodSampleRates = new ConcurrentHashMap();
+  
+  protected volatile boolean closed;
+  protected volatile boolean parked;
+  protected volatile Thread  worker;
+  
+  public RpcAsyncTracer(RpcTracer tracer)
+  {
+    this(tracer, DEFAULT_CAPACITY);
+  }
+  
+  /**
+   * @param tracer tracer invoked on the background thread
+   * @param capacity size of the ring buffer (rounded up to a power of 2)
+   */
+  public RpcAsyncTracer(RpcTracer tracer, int capacity)
+  {
+    if(tracer == null) throw new IllegalArgumentException("tracer is null");
+    int iCapacity = 2;
+    while(iCapacity < capacity && iCapacity < (1 << 30)) iCapacity <<= 1;
+    this.tracer    = tracer;
+    this.capacity  = iCapacity;
+    this.mask      = iCapacity - 1;
+    this.slots     = new AtomicReferenceArray(iCapacity);
+    this.sequences = new AtomicLongArray(iCapacity);
+    for(int i = 0; i < iCapacity; i++) sequences.set(i, i);
+  }
+  
+  /**
+   * Default sampling rate of the calls (0.0 - 1.0).
+   */
+  public
+  RpcAsyncTracer setSampleRate(double sampleRate)
+  {
+    this.sampleRate = sampleRate;
+    return this;
+  }
+  
+  /**
+   * Sampling rate of a method (handler.method).
+   */
+  public
+  RpcAsyncTracer setSampleRate(String methodName, double sampleRate)
+  {
+    methodSampleRates.put(methodName, Double.valueOf(sampleRate));
+    return this;
+  }
+  
+  /**
+   * Sampling rate of the failed requests (default 1.0).
+   */
+  public
+  RpcAsyncTracer setErrorSampleRate(double errorSampleRate)
+  {
+    this.errorSampleRate = errorSampleRate;
+    return this;
+  }
+  
+  /**
+   * Max length of the request and response payloads passed to the tracer (0 = no limit).
+   */
+  public
+  RpcAsyncTracer setMaxPayloadLength(int maxPayloadLength)
+  {
+    this.maxPayloadLength = maxPayloadLength;
+    return this;
+  }
+  
+  public
+  RpcTracer getTracer()
+  {
+    return tracer;
+  }
+  
+  public
+  int getCapacity()
+  {
+    return capacity;
+  }
+  
+  /**
+   * Number of events discarded because the buffer was full.
+   */
+  public
+  long getDropped()
+  {
+    return dropped.get();
+  }
+  
+  /**
+   * Number of events delivered to the tracer.
+   */
+  public
+  long getTraced()
+  {
+    return traced.get();
+  }
+  
+  public
+  void trace(String sContentType, String sRequest, Throwable throwable)
+  {
+    if(!sample(errorSampleRate)) return;
+    offer(new Event(Event.FAULT, sContentType, sRequest, null, null, throwable, null));
+  }
+  
+  public
+  void trace(String sContentType, String sRequest, String sResponse, String sMethodName)
+  {
+    if(!sample(getSampleRate(sMethodName))) return;
+    offer(new Event(Event.RESULT, sContentType, sRequest, sResponse, sMethodName, null, null));
+  }
+  
+  public
+  boolean isSampling()
+  {
+    if(sampleRate > 0.0d) return true;
+    Iterator iterator = methodSampleRates.values().iterator();
+    while(iterator.hasNext()) {
+      if(((Double) iterator.next()).doubleValue() > 0.0d) return true;
+    }
+    return false;
+  }
+  
+  public
+  boolean isSampled(String sMethodName)
+  {
+    return sample(getSampleRate(sMethodName));
+  }
+  
+  public
+  void traceSampled(String sContentType, String sRequest, String sResponse, String sMethodName)
+  {
+    offer(new Event(Event.RESULT, sContentType, sRequest, sResponse, sMethodName, null, null));
+  }
+  
+  public
+  void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable)
+  {
+    if(!sample(errorSampleRate)) return;
+    offer(new Event(Event.WRITE_FAULT, sContentType, sRequest, sResponse, sMethodName, throwable, null));
+  }
+  
+  public
+  void trace(String sProtocol, String sMethodName, RpcPhases phases)
+  {
+    if(!(tracer instanceof RpcPhaseTracer)) return;
+    if(!sample(getSampleRate(sMethodName))) return;
+    offer(new Event(Event.PHASES, sProtocol, null, null, sMethodName, null, phases));
+  }
+  
+  /**
+   * Stop the background thread after the delivery of the queued events.
+   */
+  public
+  void close()
+  {
+    closed = true;
+    Thread thread = worker;
+    if(thread != null) LockSupport.unpark(thread);
+  }
+  
+  /**
+   * @return background thread (started at the first call)
+   */
+  protected
+  Thread getWorker()
+  {
+    Thread thread = worker;
+    if(thread != null) return thread;
+    synchronized(this) {
+      if(worker == null) {
+        thread = new JsonRpcBatch.DaemonThreadFactory("rpc-tracer-").newThread(new Runnable() {
+          public void run() {
+            drain();
+          }
+        });
+        thread.start();
+        worker = thread;
+      }
+      return worker;
+    }
+  }
+  
+  protected
+  double getSampleRate(String sMethodName)
+  {
+    if(sMethodName != null && !methodSampleRates.isEmpty()) {
+      Double oRate = (Double) methodSampleRates.get(sMethodName);
+      if(oRate != null) return oRate.doubleValue();
+    }
+    return sampleRate;
+  }
+  
+  protected static
+  boolean sample(double rate)
+  {
+    if(rate >= 1.0d) return true;
+    if(rate <= 0.0d) return false;
+    return ThreadLocalRandom.current().nextDouble() < rate;
+  }
+  
+  /**
+   * Multi producer enqueue (bounded MPMC queue with per slot sequence numbers).
+   *
+   * @return false if the buffer is full
+   */
+  protected
+  boolean offer(Event event)
+  {
+    if(closed) {
+      dropped.incrementAndGet();
+      return false;
+    }
+    long lPos = tail.get();
+    int  iIndex;
+    for(;;) {
+      iIndex = (int) (lPos & mask);
+      long lDiff = sequences.get(iIndex) - lPos;
+      if(lDiff == 0) {
+        if(tail.compareAndSet(lPos, lPos + 1)) break;
+        lPos = tail.get();
+      }
+      else if(lDiff < 0) {
+        dropped.incrementAndGet();
+        return false;
+      }
+      else {
+        lPos = tail.get();
+      }
+    }
+    slots.set(iIndex, event);
+    sequences.set(iIndex, lPos + 1);
+    // parked is set by the consumer before checking the buffer again: no wakeup is lost
+    Thread thread = getWorker();
+    if(parked) LockSupport.unpark(thread);
+    return true;
+  }
+  
+  /**
+   * Single consumer dequeue (background thread).
+   */
+  protected
+  Event poll()
+  {
+    int iIndex = (int) (head & mask);
+    if(sequences.get(iIndex) != head + 1) return null;
+    Event event = (Event) slots.get(iIndex);
+    slots.set(iIndex, null);
+    sequences.set(iIndex, head + capacity);
+    head++;
+    return event;
+  }
+  
+  protected
+  void drain()
+  {
+    while(true) {
+      Event event = poll();
+      if(event == null) {
+        if(closed) return;
+        parked = true;
+        event = poll();
+        if(event == null && !closed) LockSupport.park(this);
+        parked = false;
+        if(event == null) continue;
+      }
+      deliver(event);
+    }
+  }
+  
+  protected
+  void deliver(Event event)
+  {
+    try {
+      switch(event.type) {
+        case Event.FAULT:
+          tracer.trace(event.contentType, truncate(event.request), event.throwable);
+          break;
+        case Event.RESULT:
+          tracer.trace(event.contentType, truncate(event.request), truncate(event.response), event.methodName);
+          break;
+        case Event.WRITE_FAULT:
+          tracer.trace(event.contentType, truncate(event.request), truncate(event.response), event.methodName, event.throwable);
+          break;
+        default:
+          ((RpcPhaseTracer) tracer).trace(event.contentType, event.methodName, event.phases);
+          break;
+      }
+      traced.incrementAndGet();
+    }
+    catch(Throwable th) {
+      System.err.println("[RpcAsyncTracer] Exception in trace: " + th);
+    }
+  }
+  
+  protected
+  String truncate(String sPayload)
+  {
+    int iMaxLength = maxPayloadLength;
+    if(sPayload == null || iMaxLength <= 0 || sPayload.length() <= iMaxLength) return sPayload;
+    return sPayload.substring(0, iMaxLength) + "...[" + (sPayload.length() - iMaxLength) + " chars truncated]";
+  }
+  
+  static class Event
+  {
+    static final int FAULT       = 0;
+    static final int RESULT      = 1;
+    static final int WRITE_FAULT = 2;
+    static final int PHASES      = 3;
+    
+    final int       type;
+    final String    contentType;
+    final String    request;
+    final String    response;
+    final String    methodName;
+    final Throwable throwable;
+    final RpcPhases phases;
+    
+    Event(int type, String contentType, String request, String response, String methodName, Throwable throwable, RpcPhases phases)
+    {
+      this.type        = type;
+      this.contentType = contentType;
+      this.request     = request;
+      this.response    = response;
+      this.methodName  = methodName;
+      this.throwable   = throwable;
+      this.phases      = phases;
+    }
+  }
+}
@@ -0,0 +1,313 @@
+package org.rpc.server;
+
+import java.security.SecureRandom;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rpc.util.RpcBinary;
+
+/**
+ * Out-of-band attachments of the RPC protocols: a RpcBinary result greater than minSize is kept
+ * here (for ttl ms, single download) and serialized as link {href, contentType, length, name}
+ * instead of the base64 inline content. The href is served by RpcServlet (GET on path).
+ * <pre>
+ * attachments = new RpcAttachments(); // RpcServlet
+ * ...
+ * public RpcBinary getDocument(String id) {
+ *   return new RpcBinary(new FileInputStream(file), "application/pdf", file.length()).setName(id + ".pdf");
+ * }
+ * </pre>
+ * The pending attachments are bounded by number (maxEntries) and total length (maxBytes).
+ * The store is bound to the thread of the call (see bind) by RpcServlet and RpcAsync.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcAttachments
+{
+  public static final String DEFAULT_PATH        = "/attachments";
+  public static final long   DEFAULT_TTL         = 60 * 1000;
+  public static final int    DEFAULT_MIN_SIZE    = 64 * 1024;
+  public static final int    DEFAULT_MAX_ENTRIES = 1000;
+  public static final long   DEFAULT_MAX_BYTES   = 256L * 1024 * 1024;
+  
+  protected static final ThreadLocal current = new ThreadLocal();
+  protected static final SecureRandom random = new SecureRandom();
+  
+  protected final ConcurrentHashMap entries = new ConcurrentHashMap();
+  protected final AtomicLong pendingBytes = new AtomicLong();
+  protected String path       = DEFAULT_PATH;
+  protected long   ttl        = DEFAULT_TTL;
+  protected int    minSize    = DEFAULT_MIN_SIZE;
+  protected int    maxEntries = DEFAULT_MAX_ENTRIES;
+  protected long   maxBytes   = DEFAULT_MAX_BYTES;
+  
+  public RpcAttachments()
+  {
+  }
+  
+  /**
+   * @param path path (after the servlet path) of the attachments
+   * @param ttl expiry in ms of the attachments not downloaded
+   * @param minSize min length of the binaries sent as attachment (smaller or unknown size are inlined if 0)
+   * @param maxEntries max attachments pending (over it the binaries are inlined)
+   */
+  public RpcAttachments(String path, long ttl, int minSize, int maxEntries)
+  {
+    this(path, ttl, minSize, maxEntries, DEFAULT_MAX_BYTES);
+  }
+  
+  /**
+   * @param path path (after the servlet path) of the attachments
+   * @param ttl expiry in ms of the attachments not downloaded
+   * @param minSize min length of the binaries sent as attachment (smaller or unknown size are inlined if 0)
+   * @param maxEntries max attachments pending (over it the binaries are inlined)
+   * @param maxBytes max total length of the attachments pending (over it the binaries are inlined, 0 = no limit)
+   */
+  public RpcAttachments(String path, long ttl, int minSize, int maxEntries, long maxBytes)
+  {
+    if(path != null && path.length() > 0) {
+      this.path = path.startsWith("/") ? path : "/" + path;
+    }
+    if(ttl > 0) this.ttl = ttl;
+    this.minSize    = minSize;
+    this.maxEntries = maxEntries;
+    this.maxBytes   = maxBytes;
+  }
+  
+  public
+  String getPath()
+  {
+    return path;
+  }
+  
+  public
+  long getTTL()
+  {
+    return ttl;
+  }
+  
+  public
+  int getMinSize()
+  {
+    return minSize;
+  }
+  
+  public
+  int getMaxEntries()
+  {
+    return maxEntries;
+  }
+  
+  public
+  long getMaxBytes()
+  {
+    return maxBytes;
+  }
+  
+  /**
+   * @return total length of the attachments pending (unknown lengths are not counted)
+   */
+  public
+  long getPendingBytes()
+  {
+    return pendingBytes.get();
+  }
+  
+  public
+  int size()
+  {
+    return entries.size();
+  }
+  
+  /**
+   * @param binary RpcBinary
+   * @return true if it is sent as attachment (size known and not less than minSize)
+   */
+  public
+  boolean accept(RpcBinary binary)
+  {
+    long lLength = binary.getLength();
+    if(lLength < 0) return minSize <= 0;
+    return lLength >= minSize;
+  }
+  
+  /**
+   * Store an attachment.
+   *
+   * @return id or null if the max number (or the max total length) of attachments is reached
+   */
+  public
+  String put(RpcBinary binary)
+  {
+    purge();
+    if(maxEntries > 0 && entries.size() >= maxEntries) return null;
+    long lLength = Math.max(binary.getLength(), 0);
+    if(!reserve(lLength)) return null;
+    byte[] abId = new byte[16];
+    random.nextBytes(abId);
+    StringBuilder sb = new StringBuilder(32);
+    for(int i = 0; i < abId.length; i++) {
+      int b = abId[i] & 0xff;
+      if(b < 16) sb.append('0');
+      sb.append(Integer.toHexString(b));
+    }
+    String sId = sb.toString();
+    entries.put(sId, new Entry(binary, lLength, System.currentTimeMillis() + ttl));
+    return sId;
+  }
+  
+  /**
+   * Add the length to the pending bytes if it does not exceed maxBytes.
+   */
+  protected
+  boolean reserve(long lLength)
+  {
+    for(;;) {
+      long lPending = pendingBytes.get();
+      long lNext    = lPending + lLength;
+      if(maxBytes > 0 && lNext > maxBytes) return false;
+      if(pendingBytes.compareAndSet(lPending, lNext)) return true;
+    }
+  }
+  
+  /**
+   * Remove an attachment (single download).
+   *
+   * @return RpcBinary or null if not found or expired
+   */
+  public
+  RpcBinary remove(String sId)
+  {
+    if(sId == null) return null;
+    Entry entry = (Entry) entries.remove(sId);
+    if(entry == null) return null;
+    pendingBytes.addAndGet(-entry.length);
+    if(entry.expiry < System.currentTimeMillis()) {
+      entry.binary.close();
+      return null;
+    }
+    return entry.binary;
+  }
+  
+  /**
+   * Remove the expired attachments (the streams are closed).
+   */
+  public
+  void purge()
+  {
+    long lCurrentTime = System.currentTimeMillis();
+    Iterator iterator = entries.entrySet().iterator();
+    while(iterator.hasNext()) {
+      Map.Entry mapEntry = (Map.Entry) iterator.next();
+      Entry entry = (Entry) mapEntry.getValue();
+      if(entry.expiry < lCurrentTime) release(mapEntry.getKey(), entry);
+    }
+  }
+  
+  public
+  void clear()
+  {
+    Iterator iterator = entries.entrySet().iterator();
+    while(iterator.hasNext()) {
+      Map.Entry mapEntry = (Map.Entry) iterator.next();
+      release(mapEntry.getKey(), (Entry) mapEntry.getValue());
+    }
+  }
+  
+  /**
+   * Remove the entry (if not already removed by a download) and close its stream.
+   */
+  protected
+  void release(Object id, Entry entry)
+  {
+    if(!entries.remove(id, entry)) return;
+    pendingBytes.addAndGet(-entry.length);
+    entry.binary.close();
+  }
+  
+  /**
+   * Bind the attachments to the current thread.
+   *
+   * @param attachments RpcAttachments (null = unbind)
+   * @param sBaseHref prefix of the links (e.g. /app/rpc/attachments/)
+   * @return previous binding (see restore)
+   */
+  public static
+  Object bind(RpcAttachments attachments, String sBaseHref)
+  {
+    Object previous = current.get();
+    if(attachments != null) {
+      current.set(new Object[] {attachments, sBaseHref != null ? sBaseHref : ""});
+    }
+    else {
+      current.remove();
+    }
+    return previous;
+  }
+  
+  /**
+   * Bind the attachments of the transport (RpcServletTransport) to the current thread.
+   *
+   * @return previous binding (see restore)
+   */
+  public static
+  Object bind(RpcServerTransport transport)
+  {
+    if(transport instanceof RpcServletTransport) {
+      RpcServletTransport servletTransport = (RpcServletTransport) transport;
+      return bind(servletTransport.getAttachments(), servletTransport.getAttachmentsHref());
+    }
+    return bind(null, null);
+  }
+  
+  public static
+  void restore(Object previous)
+  {
+    if(previous != null) {
+      current.set(previous);
+    }
+    else {
+      current.remove();
+    }
+  }
+  
+  /**
+   * @return link of the binary stored in the attachments bound to the current thread, or null
+   */
+  public static
+  Map reference(RpcBinary binary)
+  {
+    Object[] binding = (Object[]) current.get();
+    if(binding == null) return null;
+    RpcAttachments attachments = (RpcAttachments) binding[0];
+    if(!attachments.accept(binary)) return null;
+    String sId = attachments.put(binary);
+    if(sId == null) return null;
+    Map result = new HashMap(6);
+    result.put("href", binding[1] + sId);
+    result.put("contentType", binary.getContentType());
+    if(binary.getLength() >= 0) result.put("length", Long.valueOf(binary.getLength()));
+    if(binary.getName() != null) result.put("name", binary.getName());
+    return result;
+  }
+  
+  protected static
+  class Entry
+  {
+    final RpcBinary binary;
+    final long length;
+    final long expiry;
+    
+    Entry(RpcBinary binary, long length, long expiry)
+    {
+      this.binary = binary;
+      this.length = length;
+      this.expiry = expiry;
+    }
+  }
+}
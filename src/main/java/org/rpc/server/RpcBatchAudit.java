@@ -0,0 +1,409 @@
+package org.rpc.server;
+
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rpc.util.RPCContext;
+import org.rpc.util.WebContext;
+
+/**
+ * Write-behind RpcAudit decorator: beforeInvoke is delegated synchronously (a non null result
+ * still short-circuits the call), afterInvoke takes a snapshot of the call (Record) and queues it.
+ * A background thread delivers the records to the Sink in batches of batchSize records or every
+ * flushInterval ms. Without a Sink, the afterInvoke of the audit is called for each record on the
+ * background thread (its result is ignored: it can no longer replace the result of the call), with
+ * the RPCContext of the call detached from the request (servlet context and user principal).
+ * <pre>
+ * RpcBatchAudit batchAudit = new RpcBatchAudit(audit, sink);
+ * batchAudit.setBatchSize(100);
+ * batchAudit.setFlushInterval(1000);
+ * rpcExecutor.setAudit(batchAudit);
+ * ...
+ * batchAudit.shutdown(); // e.g. in Servlet.destroy()
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcBatchAudit implements RpcAudit
+{
+  /** When the queue is full the record is discarded. */
+  public static final int OVERFLOW_DROP  = 0;
+  /** When the queue is full the request thread waits for a free slot. */
+  public static final int OVERFLOW_BLOCK = 1;
+  
+  public static final int  DEFAULT_QUEUE_CAPACITY = 10000;
+  public static final int  DEFAULT_BATCH_SIZE     = 100;
+  public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+  
+  public static
+  interface Sink
+  {
+    /**
+     * @param records list of Record
+     */
+    public void write(List records) throws Exception;
+  }
+  
+  public static
+  interface Extractor
+  {
+    /**
+     * Snapshot of the parameters to be audited (e.g. only the identifiers of the beans).
+     */
+    public Object[] extract(String handlerName, String methodName, Object[] parameters);
+  }
+  
+  protected RpcAudit  audit;
+  protected Sink      sink;
+  protected Extractor extractor;
+  protected int  queueCapacity  = DEFAULT_QUEUE_CAPACITY;
+  protected int  batchSize      = DEFAULT_BATCH_SIZE;
+  protected long flushInterval  = DEFAULT_FLUSH_INTERVAL;
+  protected int  overflowPolicy = OVERFLOW_DROP;
+  
+  protected ArrayBlockingQueue queue;
+  protected Thread worker;
+  protected volatile boolean stopped;
+  protected final AtomicLong dropped = new AtomicLong();
+  protected final AtomicLong failed  = new AtomicLong();
+  
+  /**
+   * @param audit audit for beforeInvoke and, on the background thread, afterInvoke
+   */
+  public RpcBatchAudit(RpcAudit audit)
+  {
+    this.audit = audit;
+  }
+  
+  /**
+   * @param audit audit for beforeInvoke (may be null)
+   * @param sink destination of the records
+   */
+  public RpcBatchAudit(RpcAudit audit, Sink sink)
+  {
+    this.audit = audit;
+    this.sink  = sink;
+  }
+  
+  public
+  void setExtractor(Extractor extractor)
+  {
+    this.extractor = extractor;
+  }
+  
+  /**
+   * Set the capacity of the queue (effective before the first record).
+   */
+  public
+  void setQueueCapacity(int queueCapacity)
+  {
+    this.queueCapacity = queueCapacity;
+  }
+  
+  public
+  void setBatchSize(int batchSize)
+  {
+    this.batchSize = batchSize;
+  }
+  
+  /**
+   * Set the maximum delay in ms of a record in a partial batch.
+   */
+  public
+  void setFlushInterval(long flushInterval)
+  {
+    this.flushInterval = flushInterval;
+  }
+  
+  /**
+   * Set the behavior when the queue is full: OVERFLOW_DROP or OVERFLOW_BLOCK.
+   */
+  public
+  void setOverflowPolicy(int overflowPolicy)
+  {
+    this.overflowPolicy = overflowPolicy;
+  }
+  
+  /**
+   * Number of records discarded because the queue was full.
+   */
+  public
+  long getDropped()
+  {
+    return dropped.get();
+  }
+  
+  /**
+   * Number of records not delivered because of an exception of the sink.
+   */
+  public
+  long getFailed()
+  {
+    return failed.get();
+  }
+  
+  public
+  Object beforeInvoke(String handlerName, String methodName, Object handler, Object[] parameters)
+    throws Exception
+  {
+    if(audit == null) return null;
+    return audit.beforeInvoke(handlerName, methodName, handler, parameters);
+  }
+  
+  public
+  Object afterInvoke(String handlerName, String methodName, Object handler, Object[] parameters, long lBefore, Object oResult, Throwable thFault)
+    throws Exception
+  {
+    Object[] snapshot = null;
+    if(extractor != null) {
+      snapshot = extractor.extract(handlerName, methodName, parameters);
+    }
+    else if(parameters != null) {
+      snapshot = parameters.clone();
+    }
+    Principal  principal = null;
+    WebContext context   = null;
+    WebContext webContext = RPCContext.getContext();
+    if(webContext != null) {
+      try {
+        if(sink == null) {
+          // The afterInvoke of the audit runs with the context of the call
+          context   = webContext.detach();
+          principal = context.getUserPrincipal();
+        }
+        else {
+          principal = webContext.getUserPrincipal();
+        }
+      }
+      catch(Throwable ignore) {
+      }
+    }
+    Record record = new Record(handlerName, methodName, handler, snapshot, lBefore, System.currentTimeMillis(), oResult, thFault, principal, context);
+    
+    ArrayBlockingQueue recordQueue = getQueue();
+    if(stopped) {
+      dropped.incrementAndGet();
+      return null;
+    }
+    if(overflowPolicy == OVERFLOW_BLOCK) {
+      try {
+        recordQueue.put(record);
+      }
+      catch(InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        dropped.incrementAndGet();
+      }
+    }
+    else if(!recordQueue.offer(record)) {
+      dropped.incrementAndGet();
+    }
+    return null;
+  }
+  
+  /**
+   * Deliver the queued records and stop the background thread.
+   *
+   * @param timeout max wait in ms
+   */
+  public
+  void shutdown(long timeout)
+  {
+    Thread thread = null;
+    synchronized(this) {
+      stopped = true;
+      thread  = worker;
+    }
+    if(thread == null) return;
+    try {
+      thread.join(timeout);
+    }
+    catch(InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  public
+  void shutdown()
+  {
+    shutdown(flushInterval + 5000);
+  }
+  
+  protected synchronized
+  ArrayBlockingQueue getQueue()
+  {
+    if(queue == null) {
+      queue = new ArrayBlockingQueue(queueCapacity > 0 ? queueCapacity : DEFAULT_QUEUE_CAPACITY);
+      worker = new JsonRpcBatch.DaemonThreadFactory("rpc-audit-").newThread(new Runnable() {
+        public void run() {
+          drain();
+        }
+      });
+      worker.start();
+    }
+    return queue;
+  }
+  
+  protected
+  void drain()
+  {
+    int iBatchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+    long lFlushInterval = flushInterval > 0 ? flushInterval : DEFAULT_FLUSH_INTERVAL;
+    List batch = new ArrayList(iBatchSize);
+    long lDeadline = 0;
+    while(true) {
+      long lWait = batch.isEmpty() ? lFlushInterval : lDeadline - System.currentTimeMillis();
+      Object record = null;
+      if(lWait > 0 && !stopped) {
+        try {
+          // Short waits so that shutdown is noticed
+          record = queue.poll(Math.min(lWait, 100), TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException ex) {
+          stopped = true;
+        }
+      }
+      else {
+        record = queue.poll();
+      }
+      if(record != null) {
+        if(batch.isEmpty()) lDeadline = System.currentTimeMillis() + lFlushInterval;
+        batch.add(record);
+        queue.drainTo(batch, iBatchSize - batch.size());
+      }
+      if(!batch.isEmpty()) {
+        if(batch.size() >= iBatchSize || System.currentTimeMillis() >= lDeadline || (stopped && record == null)) {
+          deliver(batch);
+          batch = new ArrayList(iBatchSize);
+        }
+      }
+      else if(stopped && queue.isEmpty()) {
+        return;
+      }
+    }
+  }
+  
+  protected
+  void deliver(List records)
+  {
+    if(sink != null) {
+      try {
+        sink.write(records);
+      }
+      catch(Throwable th) {
+        failed.addAndGet(records.size());
+        System.err.println("[RpcBatchAudit] Exception in Sink.write (" + records.size() + " records): " + th);
+      }
+      return;
+    }
+    if(audit == null) return;
+    for(int i = 0; i < records.size(); i++) {
+      Record record = (Record) records.get(i);
+      RPCContext.setContext(record.webContext);
+      try {
+        audit.afterInvoke(record.handlerName, record.methodName, record.handler, record.parameters, record.before, record.result, record.fault);
+      }
+      catch(Throwable th) {
+        failed.incrementAndGet();
+        System.err.println("[RpcBatchAudit] Exception in afterInvoke: " + th);
+      }
+      finally {
+        RPCContext.removeContext();
+      }
+    }
+  }
+  
+  /**
+   * Snapshot of a call.
+   */
+  public static
+  class Record
+  {
+    protected String    handlerName;
+    protected String    methodName;
+    protected Object    handler;
+    protected Object[]  parameters;
+    protected long      before;
+    protected long      after;
+    protected Object    result;
+    protected Throwable fault;
+    protected Principal userPrincipal;
+    protected WebContext webContext;
+    
+    public Record(String handlerName, String methodName, Object handler, Object[] parameters, long before, long after, Object result, Throwable fault, Principal userPrincipal)
+    {
+      this(handlerName, methodName, handler, parameters, before, after, result, fault, userPrincipal, null);
+    }
+    
+    /**
+     * @param webContext detached RPCContext of the call (set around the afterInvoke of the audit)
+     */
+    public Record(String handlerName, String methodName, Object handler, Object[] parameters, long before, long after, Object result, Throwable fault, Principal userPrincipal, WebContext webContext)
+    {
+      this.handlerName   = handlerName;
+      this.methodName    = methodName;
+      this.handler       = handler;
+      this.parameters    = parameters;
+      this.before        = before;
+      this.after         = after;
+      this.result        = result;
+      this.fault         = fault;
+      this.userPrincipal = userPrincipal;
+      this.webContext    = webContext;
+    }
+    
+    public String getHandlerName() {
+      return handlerName;
+    }
+    
+    public String getMethodName() {
+      return methodName;
+    }
+    
+    public Object getHandler() {
+      return handler;
+    }
+    
+    public Object[] getParameters() {
+      return parameters;
+    }
+    
+    /**
+     * @return time in ms before the invocation (see RpcAudit.afterInvoke lBefore)
+     */
+    public long getBefore() {
+      return before;
+    }
+    
+    /**
+     * @return time in ms after the invocation
+     */
+    public long getAfter() {
+      return after;
+    }
+    
+    public Object getResult() {
+      return result;
+    }
+    
+    public Throwable getFault() {
+      return fault;
+    }
+    
+    /**
+     * @return principal of the RPCContext at the time of the call (the context is not available to the sink)
+     */
+    public Principal getUserPrincipal() {
+      return userPrincipal;
+    }
+    
+    public String toString() {
+      return handlerName + "." + methodName + " " + (after - before) + " ms" + (fault != null ? " " + fault : "");
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package org.rpc.server;
+
+/**
+ * Transport of binary bodies (e.g. application/cbor). The request body is read
+ * from getRequestStream() after readRequest or openRequest.
+ */
+public
+interface RpcBinaryServerTransport extends RpcStreamServerTransport
+{
+  /**
+   * Write a binary response (an empty body is written as for writeResponse).
+   *
+   * @param sContentType content type
+   * @param responseData body
+   */
+  public void writeResponse(String sContentType, byte[] responseData) throws Exception;
+}
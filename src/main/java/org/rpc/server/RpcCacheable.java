@@ -0,0 +1,18 @@
+package org.rpc.server;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Handler method whose result depends only on the parameters: the result is kept
+ * in the RpcResultCache of the executor, if any, for ttl milliseconds.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public
+@interface RpcCacheable
+{
+  long ttl() default 60 * 1000;
+}
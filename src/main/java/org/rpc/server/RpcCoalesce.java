@@ -0,0 +1,18 @@
+package org.rpc.server;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Handler method whose concurrent calls with equal parameters share a single invocation
+ * (see RpcCoalescer). After timeout milliseconds a waiting call invokes the method itself.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public
+@interface RpcCoalesce
+{
+  long timeout() default 30 * 1000;
+}
@@ -0,0 +1,226 @@
+package org.rpc.server;
+
+import java.util.List;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Single-flight execution of the idempotent methods: concurrent calls with the same method and
+ * canonical parameters (see RpcResultCache.key) share the invocation of the first call and get
+ * the same result or exception. A method is coalesced if annotated with RpcCoalesce or registered
+ * (register takes precedence). A call waiting longer than the timeout of the method invokes it itself.
+ * <pre>
+ * RpcCoalescer coalescer = new RpcCoalescer();
+ * coalescer.register("DASHBOARD.getSummary", 10 * 1000);
+ * rpcExecutor.setCoalescer(coalescer);
+ * </pre>
+ * If the method returns a CompletionStage, the calls arriving before its completion share the stage:
+ * each call gets its own dependent copy, so that a call cancelling it (e.g. RpcAsync.await on
+ * timeout) does not cancel the result of the others.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcCoalescer
+{
+  protected static final Object TIMEOUT = new Object();
+  
+  protected final ConcurrentHashMap inflight   = new ConcurrentHashMap();
+  protected final ConcurrentHashMap registered = new ConcurrentHashMap();
+  protected final LongAdder invocations = new LongAdder();
+  protected final LongAdder coalesced   = new LongAdder();
+  protected final LongAdder timeouts    = new LongAdder();
+  protected final AtomicInteger waiting = new AtomicInteger();
+  
+  /**
+   * Coalesce the calls of a method.
+   *
+   * @param methodName handler.method
+   * @param timeout max wait in ms of the coalesced calls (0 = not coalesced, also if annotated)
+   */
+  public
+  void register(String methodName, long timeout)
+  {
+    registered.put(methodName, Long.valueOf(timeout));
+  }
+  
+  public
+  void unregister(String methodName)
+  {
+    registered.remove(methodName);
+  }
+  
+  /**
+   * @param methodName handler.method
+   * @param method resolved method (may be null)
+   * @return timeout in ms, 0 if the method is not coalesced
+   */
+  public
+  long getTimeout(String methodName, RpcMethod method)
+  {
+    Long oTimeout = (Long) registered.get(methodName);
+    if(oTimeout != null) return oTimeout.longValue();
+    return method != null ? method.getCoalesceTimeout() : 0;
+  }
+  
+  /**
+   * Invoke the method or wait for the result of an equal call in flight.
+   *
+   * @param methodName handler.method
+   * @param params request parameters (key of the call)
+   * @param method resolved method
+   * @param handler handler
+   * @param parameters converted parameters
+   * @return result
+   * @throws Exception as RpcMethod.invoke
+   */
+  public
+  Object invoke(String methodName, List params, RpcMethod method, Object handler, Object[] parameters)
+    throws Exception
+  {
+    long lTimeout = getTimeout(methodName, method);
+    String sKey = lTimeout > 0 ? RpcResultCache.key(methodName, params) : null;
+    if(sKey == null) {
+      return method.invoke(handler, parameters);
+    }
+    CompletableFuture flight = new CompletableFuture();
+    CompletableFuture leader = (CompletableFuture) inflight.putIfAbsent(sKey, flight);
+    if(leader != null) {
+      Object oResult = await(methodName, leader, lTimeout);
+      if(oResult != TIMEOUT) return oResult;
+      return method.invoke(handler, parameters);
+    }
+    invocations.increment();
+    Object oResult = null;
+    try {
+      oResult = method.invoke(handler, parameters);
+    }
+    catch(Exception ex) {
+      inflight.remove(sKey, flight);
+      flight.completeExceptionally(ex);
+      throw ex;
+    }
+    catch(Error err) {
+      inflight.remove(sKey, flight);
+      flight.completeExceptionally(err);
+      throw err;
+    }
+    if(oResult instanceof CompletionStage) {
+      final String fKey = sKey;
+      final CompletableFuture fFlight = flight;
+      ((CompletionStage) oResult).whenComplete(new BiConsumer() {
+        public void accept(Object value, Object throwable) {
+          inflight.remove(fKey, fFlight);
+        }
+      });
+    }
+    else {
+      inflight.remove(sKey, flight);
+    }
+    flight.complete(oResult);
+    return share(oResult);
+  }
+  
+  /**
+   * Number of invocations of the coalesced methods.
+   */
+  public
+  long getInvocations()
+  {
+    return invocations.sum();
+  }
+  
+  /**
+   * Number of calls served by the invocation of another call.
+   */
+  public
+  long getCoalesced()
+  {
+    return coalesced.sum();
+  }
+  
+  /**
+   * Number of calls that invoked the method after the timeout.
+   */
+  public
+  long getTimeouts()
+  {
+    return timeouts.sum();
+  }
+  
+  /**
+   * @return coalesced calls / calls of the coalesced methods
+   */
+  public
+  double getCoalescingRatio()
+  {
+    long lCoalesced = coalesced.sum();
+    long lTotal = lCoalesced + invocations.sum();
+    return lTotal > 0 ? (double) lCoalesced / lTotal : 0.0d;
+  }
+  
+  public
+  int getInflight()
+  {
+    return inflight.size();
+  }
+  
+  /**
+   * Number of calls currently waiting for the invocation of another call.
+   */
+  public
+  int getWaiting()
+  {
+    return waiting.get();
+  }
+  
+  /**
+   * @return dependent copy of a CompletionStage result, otherwise the result
+   */
+  protected static
+  Object share(Object result)
+  {
+    if(result instanceof CompletionStage) {
+      return ((CompletionStage) result).toCompletableFuture().copy();
+    }
+    return result;
+  }
+  
+  /**
+   * @return result of the leader or TIMEOUT
+   */
+  protected
+  Object await(String methodName, CompletableFuture leader, long timeout)
+    throws Exception
+  {
+    waiting.incrementAndGet();
+    try {
+      Object oResult = leader.get(timeout, TimeUnit.MILLISECONDS);
+      coalesced.increment();
+      RpcMetrics.MethodMetrics metrics = RpcMetrics.getMethodMetrics(methodName);
+      if(metrics != null) metrics.addCoalesced();
+      return share(oResult);
+    }
+    catch(TimeoutException ex) {
+      timeouts.increment();
+      invocations.increment();
+      return TIMEOUT;
+    }
+    catch(ExecutionException ex) {
+      coalesced.increment();
+      Throwable cause = ex.getCause();
+      if(cause instanceof Exception) throw (Exception) cause;
+      throw (Error) cause;
+    }
+    finally {
+      waiting.decrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,319 @@
+package org.rpc.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Compression (gzip, deflate) of the HTTP bodies negotiated with Accept-Encoding / Content-Encoding.
+ * The decoded request bodies are limited (DEFAULT_MAX_DECODED_SIZE): a few KB of gzip may expand
+ * to gigabytes and the limits of the container only see the compressed size.
+ */
+public
+class RpcCompression
+{
+  public static final int DEFAULT_MIN_SIZE = 1024;
+  public static final int DEFAULT_LEVEL    = Deflater.DEFAULT_COMPRESSION;
+  public static final long DEFAULT_MAX_DECODED_SIZE = 32L * 1024 * 1024;
+  
+  /**
+   * Encoding accepted by the client (gzip preferred).
+   *
+   * @param request HttpServletRequest
+   * @return "gzip", "deflate" or null
+   */
+  public static
+  String getAcceptedEncoding(HttpServletRequest request)
+  {
+    String sAcceptEncoding = request.getHeader("Accept-Encoding");
+    if(sAcceptEncoding == null || sAcceptEncoding.length() == 0) return null;
+    boolean boDeflate = false;
+    String[] asCodings = sAcceptEncoding.toLowerCase().split(",");
+    for(int i = 0; i < asCodings.length; i++) {
+      String sCoding = asCodings[i].trim();
+      int iSep = sCoding.indexOf(';');
+      if(iSep >= 0) {
+        // e.g. gzip;q=0
+        String sParams = sCoding.substring(iSep + 1).trim();
+        sCoding = sCoding.substring(0, iSep).trim();
+        if(sParams.startsWith("q=")) {
+          try {
+            if(Double.parseDouble(sParams.substring(2).trim()) <= 0.0d) continue;
+          }
+          catch(Exception ex) {
+          }
+        }
+      }
+      if(sCoding.equals("gzip") || sCoding.equals("x-gzip") || sCoding.equals("*")) return "gzip";
+      if(sCoding.equals("deflate")) boDeflate = true;
+    }
+    return boDeflate ? "deflate" : null;
+  }
+  
+  /**
+   * Decode the body of the request according to the Content-Encoding header
+   * (decoded size limited to DEFAULT_MAX_DECODED_SIZE).
+   */
+  public static
+  InputStream decode(HttpServletRequest request, InputStream in)
+    throws IOException
+  {
+    return decode(request.getHeader("Content-Encoding"), in, DEFAULT_MAX_DECODED_SIZE);
+  }
+  
+  /**
+   * Decode the body of the request according to the Content-Encoding header.
+   *
+   * @param lMaxSize max size of the decoded body (0 = unlimited)
+   * @return body (LimitedInputStream if decoded)
+   * @throws StatusException 415 if the encoding is not supported
+   */
+  public static
+  InputStream decode(HttpServletRequest request, InputStream in, long lMaxSize)
+    throws IOException
+  {
+    return decode(request.getHeader("Content-Encoding"), in, lMaxSize);
+  }
+  
+  public static
+  InputStream decode(String sContentEncoding, InputStream in, long lMaxSize)
+    throws IOException
+  {
+    if(sContentEncoding == null) return in;
+    sContentEncoding = sContentEncoding.trim();
+    if(sContentEncoding.length() == 0 || sContentEncoding.equalsIgnoreCase("identity")) {
+      return in;
+    }
+    if(sContentEncoding.equalsIgnoreCase("gzip") || sContentEncoding.equalsIgnoreCase("x-gzip")) {
+      return new LimitedInputStream(new GZIPInputStream(in), lMaxSize);
+    }
+    if(sContentEncoding.equalsIgnoreCase("deflate")) {
+      return new LimitedInputStream(new InflaterInputStream(in), lMaxSize);
+    }
+    throw new StatusException(415, "unsupported Content-Encoding " + sContentEncoding); // Unsupported Media Type
+  }
+  
+  public static
+  OutputStream encode(OutputStream out, String sEncoding, int iLevel)
+    throws IOException
+  {
+    if("gzip".equals(sEncoding)) {
+      final int level = iLevel;
+      return new GZIPOutputStream(out, 8192) {
+        { def.setLevel(level); }
+      };
+    }
+    if("deflate".equals(sEncoding)) {
+      return new DeflaterOutputStream(out, new Deflater(iLevel), 8192) {
+        public void close() throws IOException {
+          super.close();
+          def.end();
+        }
+      };
+    }
+    return out;
+  }
+  
+  public static
+  byte[] compress(byte[] data, String sEncoding, int iLevel)
+    throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4 + 64);
+    OutputStream out = encode(bos, sEncoding, iLevel);
+    out.write(data, 0, data.length);
+    out.close();
+    return bos.toByteArray();
+  }
+  
+  /**
+   * Write the body of the response, compressed if accepted by the client and not smaller than iMinSize.
+   *
+   * @param iMinSize minimum size to compress (negative = compression disabled)
+   * @param iLevel compression level (0-9, -1 = default)
+   */
+  public static
+  void write(HttpServletRequest request, HttpServletResponse response, byte[] data, int iMinSize, int iLevel)
+    throws IOException
+  {
+    RpcMetrics.addResponseBytes(data.length);
+    String sEncoding = iMinSize >= 0 && data.length >= iMinSize ? getAcceptedEncoding(request) : null;
+    if(sEncoding != null) {
+      data = compress(data, sEncoding, iLevel);
+      response.setHeader("Content-Encoding", sEncoding);
+      response.addHeader("Vary", "Accept-Encoding");
+    }
+    response.setHeader("Content-Length", String.valueOf(data.length));
+    OutputStream os = response.getOutputStream();
+    os.write(data, 0, data.length);
+    os.flush();
+  }
+  
+  /**
+   * Stream for bodies of unknown size: the first iMinSize bytes are buffered; the compression
+   * starts (and Content-Encoding is set) only if they are exceeded.
+   */
+  public static
+  OutputStream open(HttpServletRequest request, HttpServletResponse response, int iMinSize, int iLevel)
+    throws IOException
+  {
+    String sEncoding = iMinSize >= 0 ? getAcceptedEncoding(request) : null;
+    if(sEncoding == null) return RpcMetrics.countResponse(response.getOutputStream());
+    return RpcMetrics.countResponse(new ThresholdOutputStream(response, sEncoding, iMinSize, iLevel));
+  }
+  
+  static class ThresholdOutputStream extends OutputStream
+  {
+    private HttpServletResponse response;
+    private String sEncoding;
+    private int    iMinSize;
+    private int    iLevel;
+    private ByteArrayOutputStream buffer;
+    private OutputStream out;
+    
+    public ThresholdOutputStream(HttpServletResponse response, String sEncoding, int iMinSize, int iLevel)
+    {
+      this.response  = response;
+      this.sEncoding = sEncoding;
+      this.iMinSize  = iMinSize;
+      this.iLevel    = iLevel;
+      this.buffer    = new ByteArrayOutputStream(Math.min(Math.max(iMinSize, 32), 64 * 1024));
+    }
+    
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+    
+    public void write(byte[] b, int off, int len) throws IOException {
+      if(out == null) {
+        if(buffer.size() + len < iMinSize) {
+          buffer.write(b, off, len);
+          return;
+        }
+        response.setHeader("Content-Encoding", sEncoding);
+        response.addHeader("Vary", "Accept-Encoding");
+        out = encode(response.getOutputStream(), sEncoding, iLevel);
+        buffer.writeTo(out);
+        buffer = null;
+      }
+      out.write(b, off, len);
+    }
+    
+    public void flush() throws IOException {
+      // Flushing before the threshold would prevent the compression
+      if(out != null) out.flush();
+    }
+    
+    public void close() throws IOException {
+      if(out != null) {
+        out.close();
+        return;
+      }
+      // Below the threshold: not compressed
+      OutputStream os = response.getOutputStream();
+      response.setHeader("Content-Length", String.valueOf(buffer.size()));
+      buffer.writeTo(os);
+      os.close();
+    }
+  }
+  
+  /**
+   * Error of the request to be answered with an HTTP status (e.g. 413, 415).
+   */
+  public static
+  class StatusException extends IOException
+  {
+    private static final long serialVersionUID = 1L;
+    
+    protected int status;
+    
+    public StatusException(int status, String message)
+    {
+      super(message);
+      this.status = status;
+    }
+    
+    public
+    int getStatus()
+    {
+      return status;
+    }
+  }
+  
+  /**
+   * Decoded body: StatusException 413 (Payload Too Large) when more than lMaxSize bytes are read.
+   */
+  public static
+  class LimitedInputStream extends FilterInputStream
+  {
+    protected long maxSize;
+    protected long count;
+    protected boolean exceeded;
+    
+    public LimitedInputStream(InputStream in, long maxSize)
+    {
+      super(in);
+      this.maxSize = maxSize;
+    }
+    
+    public
+    boolean isExceeded()
+    {
+      return exceeded;
+    }
+    
+    public
+    int read()
+      throws IOException
+    {
+      int b = super.read();
+      if(b >= 0) check(1);
+      return b;
+    }
+    
+    public
+    int read(byte[] b, int off, int len)
+      throws IOException
+    {
+      int n = super.read(b, off, len);
+      if(n > 0) check(n);
+      return n;
+    }
+    
+    public
+    long skip(long n)
+      throws IOException
+    {
+      long lSkipped = super.skip(n);
+      if(lSkipped > 0) check(lSkipped);
+      return lSkipped;
+    }
+    
+    public
+    boolean markSupported()
+    {
+      return false;
+    }
+    
+    protected
+    void check(long n)
+      throws StatusException
+    {
+      count += n;
+      if(maxSize > 0 && count > maxSize) {
+        exceeded = true;
+        throw new StatusException(413, "decoded request body exceeds " + maxSize + " bytes"); // Payload Too Large
+      }
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package org.rpc.server;
+
+import java.security.Principal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread safe cache of the authenticated credentials (see RpcServlet.checkBasicAuth).
+ * The size is bounded (a slot is reserved on an atomic counter before adding a new key,
+ * so concurrent writes never exceed maxSize), the entries expire and the failed credentials
+ * are cached too (negative entries with principal null). The cleanup is amortized on the writes.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcCredentialCache
+{
+  public static final int DEFAULT_MAX_SIZE = 10000;
+  public static final int CLEANUP_INTERVAL = 256;
+  
+  protected final ConcurrentHashMap map = new ConcurrentHashMap();
+  protected final AtomicBoolean cleaning = new AtomicBoolean();
+  protected final AtomicInteger writes   = new AtomicInteger();
+  protected final AtomicInteger count    = new AtomicInteger();
+  protected final int maxSize;
+  
+  public RpcCredentialCache()
+  {
+    this(DEFAULT_MAX_SIZE);
+  }
+  
+  public RpcCredentialCache(int maxSize)
+  {
+    this.maxSize = maxSize > 0 ? maxSize : DEFAULT_MAX_SIZE;
+  }
+  
+  /**
+   * @param sCredentials credentials
+   * @return valid entry (getPrincipal() == null for failed credentials) or null
+   */
+  public
+  Entry get(String sCredentials)
+  {
+    Entry entry = (Entry) map.get(sCredentials);
+    if(entry == null) return null;
+    if(entry.expiryIn <= System.currentTimeMillis()) {
+      if(map.remove(sCredentials, entry)) count.decrementAndGet();
+      return null;
+    }
+    return entry;
+  }
+  
+  /**
+   * @param sCredentials credentials
+   * @param principal authenticated principal or null for failed credentials
+   * @param expiryIn time to live in milliseconds
+   */
+  public
+  void put(String sCredentials, Principal principal, long expiryIn)
+  {
+    if(expiryIn <= 0) return;
+    long currentTimeMillis = System.currentTimeMillis();
+    Entry entry = new Entry(principal, currentTimeMillis + expiryIn);
+    while(true) {
+      Object previous = map.get(sCredentials);
+      if(previous != null) {
+        if(map.replace(sCredentials, previous, entry)) break;
+        continue;
+      }
+      // Full and cleaned by another thread: not cached
+      if(!reserve(currentTimeMillis)) return;
+      if(map.putIfAbsent(sCredentials, entry) == null) break;
+      count.decrementAndGet();
+    }
+    if(writes.incrementAndGet() % CLEANUP_INTERVAL == 0) {
+      cleanup(currentTimeMillis);
+    }
+  }
+  
+  public
+  void remove(String sCredentials)
+  {
+    if(map.remove(sCredentials) != null) count.decrementAndGet();
+  }
+  
+  public
+  void clear()
+  {
+    Iterator iterator = map.keySet().iterator();
+    while(iterator.hasNext()) {
+      remove((String) iterator.next());
+    }
+  }
+  
+  public
+  int size()
+  {
+    return map.size();
+  }
+  
+  public
+  int getMaxSize()
+  {
+    return maxSize;
+  }
+  
+  /**
+   * Reserve the slot of a new key.
+   *
+   * @param currentTimeMillis current time
+   * @return false if the cache is full after the cleanup
+   */
+  protected
+  boolean reserve(long currentTimeMillis)
+  {
+    while(true) {
+      int iCount = count.get();
+      if(iCount >= maxSize) {
+        cleanup(currentTimeMillis);
+        iCount = count.get();
+        if(iCount >= maxSize) return false;
+      }
+      if(count.compareAndSet(iCount, iCount + 1)) return true;
+    }
+  }
+  
+  /**
+   * Remove the expired entries; if the cache is still full, the entries closest to the expiry
+   * are removed down to 3/4 of the max size. Only one thread at a time does the cleanup.
+   */
+  protected
+  void cleanup(long currentTimeMillis)
+  {
+    if(!cleaning.compareAndSet(false, true)) return;
+    try {
+      Iterator iterator = map.entrySet().iterator();
+      while(iterator.hasNext()) {
+        Map.Entry mapEntry = (Map.Entry) iterator.next();
+        Entry entry = (Entry) mapEntry.getValue();
+        if(entry.expiryIn <= currentTimeMillis && map.remove(mapEntry.getKey(), entry)) {
+          count.decrementAndGet();
+        }
+      }
+      if(count.get() < maxSize) return;
+      List listEntries = new ArrayList(map.entrySet());
+      Collections.sort(listEntries, new Comparator() {
+        public int compare(Object o1, Object o2) {
+          long e1 = ((Entry) ((Map.Entry) o1).getValue()).expiryIn;
+          long e2 = ((Entry) ((Map.Entry) o2).getValue()).expiryIn;
+          return e1 < e2 ? -1 : (e1 == e2 ? 0 : 1);
+        }
+      });
+      int iToRemove = map.size() - (maxSize * 3) / 4;
+      for(int i = 0; i < iToRemove && i < listEntries.size(); i++) {
+        Map.Entry mapEntry = (Map.Entry) listEntries.get(i);
+        if(map.remove(mapEntry.getKey(), mapEntry.getValue())) count.decrementAndGet();
+      }
+    }
+    finally {
+      cleaning.set(false);
+    }
+  }
+  
+  public static
+  class Entry
+  {
+    private Principal principal;
+    private long      expiryIn;
+    
+    public Entry(Principal principal, long expiryIn) {
+      this.principal = principal;
+      this.expiryIn  = expiryIn;
+    }
+    
+    public Principal getPrincipal() {
+      return principal;
+    }
+    
+    public long getExpiryIn() {
+      return expiryIn;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package org.rpc.server;
+
+import java.lang.reflect.Method;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch table of a handler class: public methods grouped by name and arity.
+ * The table is built once per class (see RpcExecutor.addHandler) and shared by all executors.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcDispatcher
+{
+  protected static final RpcOverloads NO_OVERLOADS = new RpcOverloads(new RpcMethod[0]);
+  
+  private static final ClassValue<RpcDispatcher> dispatchers = new ClassValue<RpcDispatcher>() {
+    protected RpcDispatcher computeValue(Class type) {
+      return new RpcDispatcher(type);
+    }
+  };
+  
+  protected final Class handlerClass;
+  // methodName -> arity -> overloads (in getMethods() order)
+  protected final Map<String, RpcOverloads[]> methods;
+  
+  protected
+  RpcDispatcher(Class handlerClass)
+  {
+    this.handlerClass = handlerClass;
+    
+    Map<String, List<RpcMethod>> mapByName = new HashMap<String, List<RpcMethod>>();
+    Method[] amethods = handlerClass.getMethods();
+    for(int i = 0; i < amethods.length; i++) {
+      Method m = amethods[i];
+      List<RpcMethod> listOverloads = mapByName.get(m.getName());
+      if(listOverloads == null) {
+        listOverloads = new ArrayList<RpcMethod>();
+        mapByName.put(m.getName(), listOverloads);
+      }
+      listOverloads.add(new RpcMethod(m));
+    }
+    
+    this.methods = new HashMap<String, RpcOverloads[]>(mapByName.size() * 4 / 3 + 1);
+    for(Map.Entry<String, List<RpcMethod>> entry : mapByName.entrySet()) {
+      List<RpcMethod> listOverloads = entry.getValue();
+      int iMaxArity = 0;
+      for(RpcMethod rpcMethod : listOverloads) {
+        if(rpcMethod.getArity() > iMaxArity) iMaxArity = rpcMethod.getArity();
+      }
+      RpcOverloads[] byArity = new RpcOverloads[iMaxArity + 1];
+      for(int a = 0; a <= iMaxArity; a++) {
+        List<RpcMethod> listArity = new ArrayList<RpcMethod>();
+        for(RpcMethod rpcMethod : listOverloads) {
+          if(rpcMethod.getArity() == a) listArity.add(rpcMethod);
+        }
+        byArity[a] = listArity.isEmpty() ? NO_OVERLOADS : new RpcOverloads(listArity.toArray(new RpcMethod[listArity.size()]));
+      }
+      this.methods.put(entry.getKey(), byArity);
+    }
+  }
+  
+  public static
+  RpcDispatcher getDispatcher(Class handlerClass)
+  {
+    return dispatchers.get(handlerClass);
+  }
+  
+  /**
+   * Returns the dispatch table of the handler or null if the handler
+   * is a JNDI name (resolved at invocation time).
+   */
+  public static
+  RpcDispatcher getDispatcher(Object handler)
+  {
+    if(handler == null || handler instanceof String) return null;
+    return dispatchers.get(handler.getClass());
+  }
+  
+  public
+  Class getHandlerClass()
+  {
+    return handlerClass;
+  }
+  
+  public
+  boolean hasMethod(String methodName)
+  {
+    return methods.containsKey(methodName);
+  }
+  
+  /**
+   * Overloads with the given name and number of parameters.
+   * 
+   * @param methodName method name
+   * @param arity number of parameters
+   * @return overloads (empty if not found), never null
+   */
+  public
+  RpcOverloads getOverloads(String methodName, int arity)
+  {
+    RpcOverloads[] byArity = methods.get(methodName);
+    if(byArity == null || arity >= byArity.length) return NO_OVERLOADS;
+    return byArity[arity];
+  }
+  
+  public
+  RpcMethod[] getMethods(String methodName, int arity)
+  {
+    return getOverloads(methodName, arity).getMethods();
+  }
+}
@@ -9,6 +9,7 @@ interface RpcExecutor
   public static final int INVALID_PARAMS_ERROR_CODE   = -32602;
   public static final int INTERNAL_ERROR_CODE         = -32603;
   public static final int SERVER_ERROR_START          = -32000;
+  public static final int TIMEOUT_ERROR_CODE          = -32002;
   
   public void addHandler(String name, Object handler);
   
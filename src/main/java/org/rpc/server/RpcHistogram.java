@@ -0,0 +1,112 @@
+package org.rpc.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds. The buckets are log-linear
+ * (8 sub-buckets for each power of 2), so the relative error of the percentiles is below 12.5%.
+ */
+public
+class RpcHistogram
+{
+  protected static final int SUB_BITS    = 3;
+  protected static final int SUB_BUCKETS = 1 << SUB_BITS;
+  protected static final int BUCKETS     = (64 - SUB_BITS) * SUB_BUCKETS;
+  
+  protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  protected final LongAdder  count = new LongAdder();
+  protected final LongAdder  sum   = new LongAdder();
+  protected final AtomicLong max   = new AtomicLong();
+  
+  public
+  void record(long nanos)
+  {
+    if(nanos < 0) nanos = 0;
+    counts.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    sum.add(nanos);
+    long lMax = max.get();
+    while(nanos > lMax && !max.compareAndSet(lMax, nanos)) {
+      lMax = max.get();
+    }
+  }
+  
+  public
+  long getCount()
+  {
+    return count.sum();
+  }
+  
+  public
+  long getSum()
+  {
+    return sum.sum();
+  }
+  
+  public
+  long getMax()
+  {
+    return max.get();
+  }
+  
+  public
+  long getMean()
+  {
+    long lCount = count.sum();
+    return lCount > 0 ? sum.sum() / lCount : 0;
+  }
+  
+  /**
+   * @param percentile 0.0 - 1.0 (e.g. 0.99)
+   * @return upper bound of the bucket containing the percentile (nanoseconds)
+   */
+  public
+  long getPercentile(double percentile)
+  {
+    long[] alCounts = new long[BUCKETS];
+    long lTotal = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      alCounts[i] = counts.get(i);
+      lTotal += alCounts[i];
+    }
+    if(lTotal == 0) return 0;
+    long lRank = (long) Math.ceil(percentile * lTotal);
+    if(lRank < 1) lRank = 1;
+    long lSeen = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      lSeen += alCounts[i];
+      if(lSeen >= lRank) return Math.min(upperBoundOf(i), max.get());
+    }
+    return max.get();
+  }
+  
+  public
+  void reset()
+  {
+    for(int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+    count.reset();
+    sum.reset();
+    max.set(0);
+  }
+  
+  protected static
+  int bucketOf(long value)
+  {
+    if(value < SUB_BUCKETS) return (int) value;
+    int iExp = 63 - Long.numberOfLeadingZeros(value);
+    int iSub = (int) (value >>> (iExp - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (iExp - SUB_BITS + 1) * SUB_BUCKETS + iSub;
+  }
+  
+  protected static
+  long upperBoundOf(int bucket)
+  {
+    if(bucket < SUB_BUCKETS) return bucket;
+    int iExp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    int iSub = bucket % SUB_BUCKETS;
+    long lLower = ((long) (SUB_BUCKETS + iSub)) << (iExp - SUB_BITS);
+    return lLower + (1L << (iExp - SUB_BITS)) - 1;
+  }
+}
@@ -1,12 +1,19 @@
 package org.rpc.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
+
+import org.cbor.CBOR;
 
 public
-class RpcIOTransport implements RpcServerTransport
+class RpcIOTransport implements RpcBinaryServerTransport
 {
   private static final int BUFF_LENGTH = 1024;
   
@@ -32,7 +39,15 @@ class RpcIOTransport implements RpcServerTransport
       while((n = is.read(buff)) > 0) {
         bos.write(buff, 0, n);
       }
-      asResult[1] = bos.toString();
+      byte[] data = bos.toByteArray();
+      if(sContentType == null || sContentType.length() == 0 ? CBOR.isCbor(data, data.length) : RpcStreams.isCbor(sContentType)) {
+        // Binary body: it is read from getRequestStream()
+        asResult[0] = CBOR.CONTENT_TYPE;
+        try{ is.close(); } catch(Exception ex) {}
+        is = new ByteArrayInputStream(data);
+        return asResult;
+      }
+      asResult[1] = new String(data);
       if(sContentType == null || sContentType.length() == 0) {
         // Is XML?
         int iLength = asResult[1].length();
@@ -74,6 +89,33 @@ class RpcIOTransport implements RpcServerTransport
     return asResult;
   }
   
+  public
+  String[] openRequest(String sContentType)
+      throws Exception
+  {
+    String[] asResult = new String[2];
+    if(!is.markSupported()) is = new BufferedInputStream(is, BUFF_LENGTH * 8);
+    if(sContentType == null || sContentType.length() == 0) {
+      asResult[0] = RpcStreams.sniffContentType(is);
+    }
+    else {
+      asResult[0] = sContentType;
+    }
+    return asResult;
+  }
+  
+  public
+  InputStream getRequestStream()
+  {
+    return is;
+  }
+  
+  public
+  String getRequestCharset()
+  {
+    return null;
+  }
+  
   public
   boolean checkAuthorization(String methodName)
   {
@@ -95,6 +137,26 @@ class RpcIOTransport implements RpcServerTransport
     }
   }
   
+  public
+  void writeResponse(String sContentType, byte[] responseData)
+      throws Exception
+  {
+    try {
+      os.write(responseData, 0, responseData.length);
+      os.flush();
+    }
+    finally {
+      try{ os.close(); } catch(Exception ex) {}
+    }
+  }
+  
+  public
+  Writer openResponse(String sContentType)
+      throws Exception
+  {
+    return new BufferedWriter(new OutputStreamWriter(os), BUFF_LENGTH * 8);
+  }
+  
   public
   void setEncoding(String encoding)
   {
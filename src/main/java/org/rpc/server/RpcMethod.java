@@ -0,0 +1,166 @@
+package org.rpc.server;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import java.util.List;
+
+import org.dew.util.ParamConverter;
+
+/**
+ * Public method of a handler bound once to a spreading MethodHandle.
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class RpcMethod
+{
+  protected final Method       method;
+  protected final Class[]      types;
+  protected final MethodHandle invoker;
+  protected final ParamConverter[] converters;
+  protected final long         cacheTtl;
+  protected final long         coalesceTimeout;
+  
+  public
+  RpcMethod(Method method)
+  {
+    this.method     = method;
+    this.types      = method.getParameterTypes();
+    this.invoker    = createInvoker(method, types.length);
+    this.converters = ParamConverter.createConverters(method);
+    RpcCacheable cacheable = method.getAnnotation(RpcCacheable.class);
+    this.cacheTtl   = cacheable != null ? cacheable.ttl() : 0;
+    RpcCoalesce coalesce = method.getAnnotation(RpcCoalesce.class);
+    this.coalesceTimeout = coalesce != null ? coalesce.timeout() : 0;
+  }
+  
+  public
+  Method getMethod()
+  {
+    return method;
+  }
+  
+  public
+  String getName()
+  {
+    return method.getName();
+  }
+  
+  public
+  Class[] getParameterTypes()
+  {
+    return types;
+  }
+  
+  public
+  int getArity()
+  {
+    return types.length;
+  }
+  
+  /**
+   * @return ttl of RpcCacheable or 0
+   */
+  public
+  long getCacheTtl()
+  {
+    return cacheTtl;
+  }
+  
+  /**
+   * @return timeout of RpcCoalesce or 0
+   */
+  public
+  long getCoalesceTimeout()
+  {
+    return coalesceTimeout;
+  }
+  
+  /**
+   * Strict conversion of the parameters.
+   * 
+   * @param params values
+   * @return converted values or null if the values are not compatible with the method.
+   */
+  public
+  Object[] getParameters(List params)
+  {
+    return ParamConverter.convert(converters, params);
+  }
+  
+  /**
+   * Lenient conversion of the parameters.
+   * 
+   * @param params values
+   * @return converted values or null if the values are not compatible with the method.
+   */
+  public
+  Object[] getParametersExt(List params)
+  {
+    return ParamConverter.convertExt(converters, params);
+  }
+  
+  /**
+   * Check (by class only) whether the values could be accepted by the method.
+   * 
+   * @param classes classes of the values (null item for null value)
+   * @return false if getParameters certainly returns null
+   */
+  public
+  boolean accepts(Class[] classes)
+  {
+    if(classes.length != converters.length) return false;
+    for(int i = 0; i < converters.length; i++) {
+      if(!converters[i].accepts(classes[i])) return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Invoke the method. As with Method.invoke the exceptions thrown by the method
+   * are wrapped in InvocationTargetException.
+   */
+  public
+  Object invoke(Object handler, Object[] parameters)
+    throws Exception
+  {
+    if(invoker == null) {
+      return method.invoke(handler, parameters);
+    }
+    try {
+      return (Object) invoker.invokeExact(handler, parameters);
+    }
+    catch(Throwable th) {
+      throw new InvocationTargetException(th);
+    }
+  }
+  
+  protected static
+  MethodHandle createInvoker(Method method, int arity)
+  {
+    try {
+      MethodHandle mh = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+      if(Modifier.isStatic(method.getModifiers())) {
+        mh = MethodHandles.dropArguments(mh, 0, Object.class);
+      }
+      // (Object handler, Object[] parameters)Object
+      return mh.asType(MethodType.genericMethodType(arity + 1)).asSpreader(Object[].class, arity);
+    }
+    catch(Throwable th) {
+      // Not accessible through the public lookup: fallback to reflection.
+      return null;
+    }
+  }
+  
+  @Override
+  public
+  String toString()
+  {
+    return method.toString();
+  }
+}
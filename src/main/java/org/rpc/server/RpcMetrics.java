@@ -0,0 +1,366 @@
+package org.rpc.server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Built-in instrumentation: calls, errors and latency (RpcHistogram) by handler.method,
+ * request and response bytes. See RpcServlet.metricsPath.
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcMetrics
+{
+  public static final double[] PERCENTILES = {0.5d, 0.9d, 0.99d, 0.999d};
+  
+  protected static volatile boolean enabled = true;
+  
+  protected static final ConcurrentHashMap methods = new ConcurrentHashMap();
+  protected static final ConcurrentHashMap phases  = new ConcurrentHashMap();
+  protected static final LongAdder requestBytes  = new LongAdder();
+  protected static final LongAdder responseBytes = new LongAdder();
+  
+  public static
+  boolean isEnabled()
+  {
+    return enabled;
+  }
+  
+  public static
+  void setEnabled(boolean enabled)
+  {
+    RpcMetrics.enabled = enabled;
+  }
+  
+  /**
+   * @param methodName handler.method
+   * @return MethodMetrics or null if the metrics are disabled
+   */
+  public static
+  MethodMetrics getMethodMetrics(String methodName)
+  {
+    if(!enabled) return null;
+    MethodMetrics result = (MethodMetrics) methods.get(methodName);
+    if(result != null) return result;
+    result = new MethodMetrics(methodName);
+    MethodMetrics previous = (MethodMetrics) methods.putIfAbsent(methodName, result);
+    return previous != null ? previous : result;
+  }
+  
+  /**
+   * @param protocol jsonrpc, xmlrpc, soaprpc
+   * @param phase RpcPhases.READ ... RpcPhases.WRITE
+   * @return histogram of the durations of the phase
+   */
+  public static
+  RpcHistogram getPhaseHistogram(String protocol, int phase)
+  {
+    String sKey = protocol + "." + RpcPhases.NAMES[phase];
+    RpcHistogram result = (RpcHistogram) phases.get(sKey);
+    if(result != null) return result;
+    result = new RpcHistogram();
+    RpcHistogram previous = (RpcHistogram) phases.putIfAbsent(sKey, result);
+    return previous != null ? previous : result;
+  }
+  
+  /**
+   * @return MethodMetrics sorted by name
+   */
+  public static
+  List getMethodMetrics()
+  {
+    List listResult = new ArrayList(methods.values());
+    Collections.sort(listResult);
+    return listResult;
+  }
+  
+  public static
+  void addRequestBytes(long bytes)
+  {
+    if(enabled && bytes > 0) requestBytes.add(bytes);
+  }
+  
+  public static
+  void addResponseBytes(long bytes)
+  {
+    if(enabled && bytes > 0) responseBytes.add(bytes);
+  }
+  
+  public static
+  long getRequestBytes()
+  {
+    return requestBytes.sum();
+  }
+  
+  public static
+  long getResponseBytes()
+  {
+    return responseBytes.sum();
+  }
+  
+  public static
+  InputStream countRequest(InputStream in)
+  {
+    if(!enabled) return in;
+    return new FilterInputStream(in) {
+      public int read() throws IOException {
+        int b = super.read();
+        if(b >= 0) requestBytes.increment();
+        return b;
+      }
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if(n > 0) requestBytes.add(n);
+        return n;
+      }
+    };
+  }
+  
+  public static
+  OutputStream countResponse(OutputStream out)
+  {
+    if(!enabled) return out;
+    return new FilterOutputStream(out) {
+      public void write(int b) throws IOException {
+        out.write(b);
+        responseBytes.increment();
+      }
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        responseBytes.add(len);
+      }
+    };
+  }
+  
+  public static
+  void reset()
+  {
+    methods.clear();
+    phases.clear();
+    requestBytes.reset();
+    responseBytes.reset();
+  }
+  
+  /**
+   * @return metrics in Prometheus text format (version 0.0.4)
+   */
+  public static
+  String toPrometheus()
+  {
+    List listMethods = getMethodMetrics();
+    StringBuilder sb = new StringBuilder(256 + listMethods.size() * 512);
+    sb.append("# HELP rpc_calls_total Calls by method.\n");
+    sb.append("# TYPE rpc_calls_total counter\n");
+    for(int i = 0; i < listMethods.size(); i++) {
+      MethodMetrics methodMetrics = (MethodMetrics) listMethods.get(i);
+      sb.append("rpc_calls_total{method=\"" + methodMetrics.getLabel() + "\"} " + methodMetrics.getCalls() + "\n");
+    }
+    sb.append("# HELP rpc_errors_total Failed calls by method.\n");
+    sb.append("# TYPE rpc_errors_total counter\n");
+    for(int i = 0; i < listMethods.size(); i++) {
+      MethodMetrics methodMetrics = (MethodMetrics) listMethods.get(i);
+      sb.append("rpc_errors_total{method=\"" + methodMetrics.getLabel() + "\"} " + methodMetrics.getErrors() + "\n");
+    }
+    sb.append("# HELP rpc_coalesced_total Calls served by the invocation of an equal concurrent call by method.\n");
+    sb.append("# TYPE rpc_coalesced_total counter\n");
+    for(int i = 0; i < listMethods.size(); i++) {
+      MethodMetrics methodMetrics = (MethodMetrics) listMethods.get(i);
+      sb.append("rpc_coalesced_total{method=\"" + methodMetrics.getLabel() + "\"} " + methodMetrics.getCoalesced() + "\n");
+    }
+    sb.append("# HELP rpc_latency_seconds Latency of the calls by method.\n");
+    sb.append("# TYPE rpc_latency_seconds summary\n");
+    for(int i = 0; i < listMethods.size(); i++) {
+      MethodMetrics methodMetrics = (MethodMetrics) listMethods.get(i);
+      RpcHistogram latency = methodMetrics.getLatency();
+      String sLabel = methodMetrics.getLabel();
+      for(int j = 0; j < PERCENTILES.length; j++) {
+        sb.append("rpc_latency_seconds{method=\"" + sLabel + "\",quantile=\"" + PERCENTILES[j] + "\"} " + seconds(latency.getPercentile(PERCENTILES[j])) + "\n");
+      }
+      sb.append("rpc_latency_seconds_sum{method=\"" + sLabel + "\"} " + seconds(latency.getSum()) + "\n");
+      sb.append("rpc_latency_seconds_count{method=\"" + sLabel + "\"} " + latency.getCount() + "\n");
+    }
+    sb.append("# HELP rpc_latency_max_seconds Max latency by method.\n");
+    sb.append("# TYPE rpc_latency_max_seconds gauge\n");
+    for(int i = 0; i < listMethods.size(); i++) {
+      MethodMetrics methodMetrics = (MethodMetrics) listMethods.get(i);
+      sb.append("rpc_latency_max_seconds{method=\"" + methodMetrics.getLabel() + "\"} " + seconds(methodMetrics.getLatency().getMax()) + "\n");
+    }
+    sb.append("# HELP rpc_phase_seconds Duration of the phases of the calls by protocol.\n");
+    sb.append("# TYPE rpc_phase_seconds summary\n");
+    List listPhases = new ArrayList(phases.keySet());
+    Collections.sort(listPhases);
+    for(int i = 0; i < listPhases.size(); i++) {
+      String sKey = (String) listPhases.get(i);
+      RpcHistogram histogram = (RpcHistogram) phases.get(sKey);
+      int iSep = sKey.indexOf('.');
+      String sLabels = "protocol=\"" + sKey.substring(0, iSep) + "\",phase=\"" + sKey.substring(iSep + 1) + "\"";
+      for(int j = 0; j < PERCENTILES.length; j++) {
+        sb.append("rpc_phase_seconds{" + sLabels + ",quantile=\"" + PERCENTILES[j] + "\"} " + seconds(histogram.getPercentile(PERCENTILES[j])) + "\n");
+      }
+      sb.append("rpc_phase_seconds_sum{" + sLabels + "} " + seconds(histogram.getSum()) + "\n");
+      sb.append("rpc_phase_seconds_count{" + sLabels + "} " + histogram.getCount() + "\n");
+    }
+    sb.append("# HELP rpc_request_bytes_total Bytes of the request bodies.\n");
+    sb.append("# TYPE rpc_request_bytes_total counter\n");
+    sb.append("rpc_request_bytes_total " + getRequestBytes() + "\n");
+    sb.append("# HELP rpc_response_bytes_total Bytes of the response bodies (before compression).\n");
+    sb.append("# TYPE rpc_response_bytes_total counter\n");
+    sb.append("rpc_response_bytes_total " + getResponseBytes() + "\n");
+    return sb.toString();
+  }
+  
+  /**
+   * @return metrics as Map (latencies in nanoseconds) to be serialized in JSON
+   */
+  public static
+  Map toMap()
+  {
+    Map mapMethods = new LinkedHashMap();
+    Iterator iterator = getMethodMetrics().iterator();
+    while(iterator.hasNext()) {
+      MethodMetrics methodMetrics = (MethodMetrics) iterator.next();
+      mapMethods.put(methodMetrics.getName(), methodMetrics.toMap());
+    }
+    Map mapPhases = new LinkedHashMap();
+    List listPhases = new ArrayList(phases.keySet());
+    Collections.sort(listPhases);
+    for(int i = 0; i < listPhases.size(); i++) {
+      String sKey = (String) listPhases.get(i);
+      mapPhases.put(sKey, toMap((RpcHistogram) phases.get(sKey)));
+    }
+    Map mapResult = new LinkedHashMap();
+    mapResult.put("methods",       mapMethods);
+    mapResult.put("phases",        mapPhases);
+    mapResult.put("requestBytes",  getRequestBytes());
+    mapResult.put("responseBytes", getResponseBytes());
+    return mapResult;
+  }
+  
+  public static
+  Map toMap(RpcHistogram histogram)
+  {
+    Map mapResult = new LinkedHashMap();
+    mapResult.put("count", histogram.getCount());
+    mapResult.put("mean",  histogram.getMean());
+    mapResult.put("max",   histogram.getMax());
+    mapResult.put("p50",   histogram.getPercentile(0.5d));
+    mapResult.put("p90",   histogram.getPercentile(0.9d));
+    mapResult.put("p99",   histogram.getPercentile(0.99d));
+    mapResult.put("p999",  histogram.getPercentile(0.999d));
+    return mapResult;
+  }
+  
+  protected static
+  String seconds(long nanos)
+  {
+    return String.valueOf(nanos / 1.0e9d);
+  }
+  
+  public static
+  class MethodMetrics implements Comparable
+  {
+    protected final String name;
+    protected final String label;
+    protected final LongAdder calls  = new LongAdder();
+    protected final LongAdder errors = new LongAdder();
+    protected final LongAdder coalesced = new LongAdder();
+    protected final RpcHistogram latency = new RpcHistogram();
+    
+    public MethodMetrics(String name)
+    {
+      this.name  = name;
+      this.label = name.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+    
+    public String getName() {
+      return name;
+    }
+    
+    public String getLabel() {
+      return label;
+    }
+    
+    public long getCalls() {
+      return calls.sum();
+    }
+    
+    public long getErrors() {
+      return errors.sum();
+    }
+    
+    /**
+     * @return calls served by the invocation of another call (see RpcCoalescer)
+     */
+    public long getCoalesced() {
+      return coalesced.sum();
+    }
+    
+    public void addCoalesced() {
+      coalesced.increment();
+    }
+    
+    public RpcHistogram getLatency() {
+      return latency;
+    }
+    
+    /**
+     * Record a call started at lStart (System.nanoTime()). If the result is a CompletionStage
+     * the call is recorded when it completes.
+     */
+    public
+    void record(final long lStart, Object result)
+    {
+      if(result instanceof CompletionStage) {
+        ((CompletionStage) result).whenComplete(new BiConsumer() {
+          public void accept(Object value, Object throwable) {
+            record(lStart, throwable != null);
+          }
+        });
+        return;
+      }
+      record(lStart, false);
+    }
+    
+    public
+    void record(long lStart, boolean error)
+    {
+      latency.record(System.nanoTime() - lStart);
+      calls.increment();
+      if(error) errors.increment();
+    }
+    
+    public
+    Map toMap()
+    {
+      Map mapLatency = RpcMetrics.toMap(latency);
+      mapLatency.remove("count");
+      Map mapResult = new LinkedHashMap();
+      mapResult.put("calls",  getCalls());
+      mapResult.put("errors", getErrors());
+      mapResult.put("coalesced", getCoalesced());
+      mapResult.putAll(mapLatency);
+      return mapResult;
+    }
+    
+    public
+    int compareTo(Object object)
+    {
+      return name.compareTo(((MethodMetrics) object).name);
+    }
+  }
+}
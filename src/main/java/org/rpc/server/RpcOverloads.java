@@ -0,0 +1,101 @@
+package org.rpc.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Overloads of a handler method with the same arity.
+ * The overload selected for a tuple of runtime argument classes is remembered,
+ * so that repeated calls skip the probing of the overloads that cannot match.
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class RpcOverloads
+{
+  protected static final int MAX_MEMO_SIZE = 256;
+  
+  protected final RpcMethod[] methods;
+  protected final Map<ClassTuple, Integer> memo;
+  
+  public
+  RpcOverloads(RpcMethod[] methods)
+  {
+    this.methods = methods;
+    this.memo    = methods.length > 1 ? new ConcurrentHashMap<ClassTuple, Integer>() : null;
+  }
+  
+  public
+  RpcMethod[] getMethods()
+  {
+    return methods;
+  }
+  
+  public
+  int size()
+  {
+    return methods.length;
+  }
+  
+  /**
+   * Index of the first overload that can accept the runtime classes of params.
+   * The overloads before this index certainly don't match; the following ones
+   * must still be tried in order because a conversion may fail by value (e.g. a String that is not a date).
+   * 
+   * @param params values
+   * @return index of the first candidate (methods.length if none)
+   */
+  public
+  int firstCandidate(List params)
+  {
+    if(memo == null) return 0;
+    int paramsSize = params != null ? params.size() : 0;
+    Class[] classes = new Class[paramsSize];
+    for(int i = 0; i < paramsSize; i++) {
+      Object param = params.get(i);
+      classes[i] = param != null ? param.getClass() : null;
+    }
+    ClassTuple key = new ClassTuple(classes);
+    Integer index = memo.get(key);
+    if(index != null) return index.intValue();
+    int result = methods.length;
+    for(int i = 0; i < methods.length; i++) {
+      if(methods[i].accepts(classes)) {
+        result = i;
+        break;
+      }
+    }
+    if(memo.size() < MAX_MEMO_SIZE) memo.put(key, result);
+    return result;
+  }
+  
+  protected static
+  class ClassTuple
+  {
+    private final Class[] classes;
+    private final int     hash;
+    
+    ClassTuple(Class[] classes)
+    {
+      this.classes = classes;
+      this.hash    = Arrays.hashCode(classes);
+    }
+    
+    @Override
+    public boolean equals(Object object) {
+      if(!(object instanceof ClassTuple)) return false;
+      Class[] other = ((ClassTuple) object).classes;
+      if(other.length != classes.length) return false;
+      for(int i = 0; i < classes.length; i++) {
+        if(other[i] != classes[i]) return false;
+      }
+      return true;
+    }
+    
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package org.rpc.server;
+
+/**
+ * Tracer notified with the timing breakdown of each call (see RpcPhases).
+ */
+public
+interface RpcPhaseTracer extends RpcTracer
+{
+  /**
+   * @param sProtocol "jsonrpc", "xmlrpc" or "soaprpc"
+   * @param sMethodName handler.method (null if the request has not been dispatched)
+   * @param phases durations in nanoseconds (see RpcPhases.getDuration)
+   */
+  public void trace(String sProtocol, String sMethodName, RpcPhases phases);
+}
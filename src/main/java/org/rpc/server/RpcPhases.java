@@ -0,0 +1,217 @@
+package org.rpc.server;
+
+/**
+ * Timing breakdown of a call: monotonic timestamps (System.nanoTime()) at the end of each phase.
+ * The instance of the current call is bound to the thread by the executors (start), moved to the
+ * completing thread for the asynchronous results (suspend/resume) and recorded at the end in the
+ * RpcMetrics phase histograms and in the RpcPhaseTracer, if any.
+ * In streaming mode the body is read while parsing (READ ~ 0) and the response is
+ * serialized while writing (SERIALIZE not marked).
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcPhases
+{
+  public static final int READ          = 0;
+  public static final int PARSE         = 1;
+  public static final int AUTHORIZATION = 2;
+  public static final int DISPATCH      = 3;
+  public static final int INVOKE        = 4;
+  public static final int SERIALIZE     = 5;
+  public static final int WRITE         = 6;
+  
+  public static final String[] NAMES = {"read", "parse", "authorization", "dispatch", "invoke", "serialize", "write"};
+  
+  protected static final ThreadLocal current = new ThreadLocal();
+  
+  protected String    protocol;
+  protected String    methodName;
+  protected RpcTracer tracer;
+  protected long      start;
+  protected long[]    marks = new long[NAMES.length];
+  protected boolean   suspended;
+  protected boolean   ended;
+  
+  public RpcPhases(String protocol, RpcTracer tracer)
+  {
+    this.protocol = protocol;
+    this.tracer   = tracer;
+    this.start    = System.nanoTime();
+  }
+  
+  /**
+   * Start the timing of a call on the current thread.
+   *
+   * @return RpcPhases or null if neither the metrics nor a RpcPhaseTracer are enabled
+   */
+  public static
+  RpcPhases start(String protocol, RpcTracer tracer)
+  {
+    if(!RpcMetrics.isEnabled() && !(tracer instanceof RpcPhaseTracer)) return null;
+    RpcPhases result = new RpcPhases(protocol, tracer);
+    current.set(result);
+    return result;
+  }
+  
+  public static
+  RpcPhases current()
+  {
+    return (RpcPhases) current.get();
+  }
+  
+  /**
+   * Bind the call to the current thread (e.g. worker thread of the invocation executor).
+   *
+   * @param phases RpcPhases or null
+   */
+  public static
+  void setCurrent(RpcPhases phases)
+  {
+    if(phases != null) {
+      current.set(phases);
+    }
+    else {
+      current.remove();
+    }
+  }
+  
+  /**
+   * Mark the end of a phase of the current call.
+   */
+  public static
+  void mark(int phase)
+  {
+    RpcPhases phases = (RpcPhases) current.get();
+    if(phases != null) phases.marks[phase] = System.nanoTime();
+  }
+  
+  public static
+  void setProtocol(String protocol)
+  {
+    RpcPhases phases = (RpcPhases) current.get();
+    if(phases != null) phases.protocol = protocol;
+  }
+  
+  /**
+   * Mark the end of the dispatch (handler and method found) of the current call.
+   */
+  public static
+  void dispatched(String methodName)
+  {
+    RpcPhases phases = (RpcPhases) current.get();
+    if(phases == null) return;
+    phases.methodName = methodName;
+    phases.marks[DISPATCH] = System.nanoTime();
+  }
+  
+  /**
+   * Detach the current call from the thread (the response will be written by another thread).
+   *
+   * @return RpcPhases to resume or null
+   */
+  public static
+  RpcPhases suspend()
+  {
+    RpcPhases phases = (RpcPhases) current.get();
+    if(phases == null) return null;
+    phases.suspended = true;
+    current.remove();
+    return phases;
+  }
+  
+  /**
+   * End the current call, unless it has been suspended.
+   */
+  public static
+  void end(RpcPhases phases)
+  {
+    if(phases == null) return;
+    if(phases.suspended) {
+      // Ended by the thread that resumed it
+      if(current.get() == phases) current.remove();
+      return;
+    }
+    phases.end();
+  }
+  
+  public
+  void resume()
+  {
+    current.set(this);
+  }
+  
+  public
+  void end()
+  {
+    if(current.get() == this) current.remove();
+    if(ended) return;
+    ended = true;
+    if(RpcMetrics.isEnabled()) {
+      for(int i = 0; i < marks.length; i++) {
+        long duration = getDuration(i);
+        if(duration >= 0) RpcMetrics.getPhaseHistogram(protocol, i).record(duration);
+      }
+    }
+    if(tracer instanceof RpcPhaseTracer) {
+      try {
+        ((RpcPhaseTracer) tracer).trace(protocol, methodName, this);
+      }
+      catch(Throwable th) {
+        System.err.println("[RpcPhases] Exception in RpcPhaseTracer.trace: " + th);
+      }
+    }
+  }
+  
+  public
+  String getProtocol()
+  {
+    return protocol;
+  }
+  
+  public
+  String getMethodName()
+  {
+    return methodName;
+  }
+  
+  /**
+   * @param phase READ, PARSE, AUTHORIZATION, DISPATCH, INVOKE, SERIALIZE or WRITE
+   * @return duration in nanoseconds since the end of the previous phase, -1 if the phase has not been marked
+   */
+  public
+  long getDuration(int phase)
+  {
+    if(marks[phase] == 0) return -1;
+    long previous = start;
+    for(int i = phase - 1; i >= 0; i--) {
+      if(marks[i] != 0) {
+        previous = marks[i];
+        break;
+      }
+    }
+    return marks[phase] - previous;
+  }
+  
+  /**
+   * @return nanoseconds from the start to the last marked phase
+   */
+  public
+  long getTotal()
+  {
+    for(int i = marks.length - 1; i >= 0; i--) {
+      if(marks[i] != 0) return marks[i] - start;
+    }
+    return 0;
+  }
+  
+  public
+  String toString()
+  {
+    StringBuilder sb = new StringBuilder(protocol + " " + methodName + ":");
+    for(int i = 0; i < marks.length; i++) {
+      long duration = getDuration(i);
+      if(duration >= 0) sb.append(" " + NAMES[i] + "=" + (duration / 1000) + "us");
+    }
+    return sb.toString();
+  }
+}
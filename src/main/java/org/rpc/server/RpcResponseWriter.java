@@ -0,0 +1,118 @@
+package org.rpc.server;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer of a streaming response: the first BUFFER_LENGTH chars are kept in memory and the
+ * response of the transport is opened only when they are exceeded (or at close). If the
+ * serialization fails before, nothing has been sent and the executor can still answer with a fault.
+ */
+public
+class RpcResponseWriter extends Writer
+{
+  public static final int BUFFER_LENGTH = 32 * 1024;
+  
+  protected RpcStreamServerTransport transport;
+  protected String contentType;
+  protected char[] buffer;
+  protected int    count;
+  protected Writer out;
+  
+  public RpcResponseWriter(RpcStreamServerTransport transport, String contentType)
+  {
+    this.transport   = transport;
+    this.contentType = contentType;
+    this.buffer      = new char[BUFFER_LENGTH];
+  }
+  
+  /**
+   * @return true if the response has been opened (and part of it may have been sent)
+   */
+  public
+  boolean isOpened()
+  {
+    return out != null;
+  }
+  
+  public
+  void write(int c)
+    throws IOException
+  {
+    if(out == null) {
+      if(count < buffer.length) {
+        buffer[count++] = (char) c;
+        return;
+      }
+      open();
+    }
+    out.write(c);
+  }
+  
+  public
+  void write(char[] cbuf, int off, int len)
+    throws IOException
+  {
+    if(out == null) {
+      if(count + len <= buffer.length) {
+        System.arraycopy(cbuf, off, buffer, count, len);
+        count += len;
+        return;
+      }
+      open();
+    }
+    out.write(cbuf, off, len);
+  }
+  
+  public
+  void write(String str, int off, int len)
+    throws IOException
+  {
+    if(out == null) {
+      if(count + len <= buffer.length) {
+        str.getChars(off, off + len, buffer, count);
+        count += len;
+        return;
+      }
+      open();
+    }
+    out.write(str, off, len);
+  }
+  
+  /**
+   * Flush only after the opening: before it the content stays in the buffer.
+   */
+  public
+  void flush()
+    throws IOException
+  {
+    if(out != null) out.flush();
+  }
+  
+  public
+  void close()
+    throws IOException
+  {
+    if(out == null) open();
+    out.close();
+  }
+  
+  protected
+  void open()
+    throws IOException
+  {
+    Writer writer = null;
+    try {
+      writer = transport.openResponse(contentType);
+    }
+    catch(IOException ex) {
+      throw ex;
+    }
+    catch(Exception ex) {
+      throw new IOException(ex);
+    }
+    out = writer;
+    out.write(buffer, 0, count);
+    buffer = null;
+  }
+}
@@ -0,0 +1,416 @@
+package org.rpc.server;
+
+import java.io.InputStream;
+
+import java.lang.reflect.Array;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSON;
+import org.json.JSONString;
+
+import org.rpc.util.RpcBinary;
+
+import org.xml.rpc.XmlRpcSerializer;
+
+/**
+ * Cache of the results of the idempotent methods, in front of RpcUtil.executeMethod.
+ * A method is cached if annotated with RpcCacheable or registered (register takes precedence).
+ * The key is the method name plus the canonical form of the request parameters; calls with
+ * parameters of other types (e.g. beans) are not cached. The cache is split in segments, each
+ * one an LRU bounded to maxSize / SEGMENTS entries.
+ * <pre>
+ * RpcResultCache resultCache = new RpcResultCache(10000);
+ * resultCache.register("CONFIG.getParameters", 5 * 60 * 1000);
+ * rpcExecutor.setResultCache(resultCache);
+ * ...
+ * resultCache.invalidate("CONFIG.getParameters");
+ * </pre>
+ * Hits return an Entry: it keeps the serialized forms of the value (JSON, XML-RPC, SOAP),
+ * so that the executors do not serialize the same result again. Binary results are not cached (see isCacheable).
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcResultCache
+{
+  public static final int DEFAULT_MAX_SIZE = 10000;
+  public static final int SEGMENTS         = 16;
+  
+  protected final Segment[] segments = new Segment[SEGMENTS];
+  protected final int maxSize;
+  protected final ConcurrentHashMap registered = new ConcurrentHashMap();
+  protected final LongAdder hits   = new LongAdder();
+  protected final LongAdder misses = new LongAdder();
+  
+  public RpcResultCache()
+  {
+    this(DEFAULT_MAX_SIZE);
+  }
+  
+  /**
+   * @param maxSize max number of entries
+   */
+  public RpcResultCache(int maxSize)
+  {
+    if(maxSize <= 0) maxSize = DEFAULT_MAX_SIZE;
+    this.maxSize = maxSize;
+    int iSegmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+    for(int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(iSegmentSize);
+  }
+  
+  /**
+   * Cache the results of a method.
+   *
+   * @param methodName handler.method
+   * @param ttl time to live in ms (0 = not cached, also if annotated)
+   */
+  public
+  void register(String methodName, long ttl)
+  {
+    registered.put(methodName, Long.valueOf(ttl));
+  }
+  
+  public
+  void unregister(String methodName)
+  {
+    registered.remove(methodName);
+    invalidate(methodName);
+  }
+  
+  /**
+   * @param methodName handler.method
+   * @param method resolved method (may be null)
+   * @return time to live in ms, 0 if the method is not cached
+   */
+  public
+  long getTtl(String methodName, RpcMethod method)
+  {
+    Long oTtl = (Long) registered.get(methodName);
+    if(oTtl != null) return oTtl.longValue();
+    return method != null ? method.getCacheTtl() : 0;
+  }
+  
+  /**
+   * @param methodName handler.method
+   * @param params request parameters
+   * @return key or null if the parameters have no canonical form
+   */
+  public static
+  String key(String methodName, List params)
+  {
+    StringBuilder sb = new StringBuilder(methodName.length() + 32);
+    sb.append(methodName).append('(');
+    if(params != null) {
+      for(int i = 0; i < params.size(); i++) {
+        if(i > 0) sb.append(',');
+        if(!appendCanonical(params.get(i), sb)) return null;
+      }
+    }
+    sb.append(')');
+    return sb.toString();
+  }
+  
+  /**
+   * A RpcBinary is never cached: its content is read once and the link of an attachment
+   * allows a single download, so a memoized form would be stale at the next hit.
+   *
+   * @param value result of the method
+   * @return true if the value can be cached
+   */
+  public static
+  boolean isCacheable(Object value)
+  {
+    return !(value instanceof RpcBinary) && !(value instanceof InputStream);
+  }
+  
+  /**
+   * @return not expired entry or null
+   */
+  public
+  Entry get(String key)
+  {
+    Segment segment = segmentFor(key);
+    Entry entry = null;
+    synchronized(segment) {
+      entry = (Entry) segment.get(key);
+      if(entry != null && entry.expiry <= System.currentTimeMillis()) {
+        segment.remove(key);
+        entry = null;
+      }
+    }
+    if(entry != null) {
+      hits.increment();
+    }
+    else {
+      misses.increment();
+    }
+    return entry;
+  }
+  
+  public
+  Entry put(String key, Object value, long ttl)
+  {
+    Entry entry = new Entry(value, System.currentTimeMillis() + ttl);
+    Segment segment = segmentFor(key);
+    synchronized(segment) {
+      segment.put(key, entry);
+    }
+    return entry;
+  }
+  
+  /**
+   * Remove the entries of a method.
+   *
+   * @param methodName handler.method
+   */
+  public
+  void invalidate(String methodName)
+  {
+    String sPrefix = methodName + "(";
+    for(int i = 0; i < SEGMENTS; i++) {
+      Segment segment = segments[i];
+      synchronized(segment) {
+        Iterator iterator = segment.keySet().iterator();
+        while(iterator.hasNext()) {
+          if(((String) iterator.next()).startsWith(sPrefix)) iterator.remove();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Remove the entry of a call.
+   *
+   * @param methodName handler.method
+   * @param params request parameters
+   */
+  public
+  void invalidate(String methodName, List params)
+  {
+    String sKey = key(methodName, params);
+    if(sKey == null) return;
+    Segment segment = segmentFor(sKey);
+    synchronized(segment) {
+      segment.remove(sKey);
+    }
+  }
+  
+  public
+  void invalidateAll()
+  {
+    for(int i = 0; i < SEGMENTS; i++) {
+      Segment segment = segments[i];
+      synchronized(segment) {
+        segment.clear();
+      }
+    }
+  }
+  
+  public
+  int size()
+  {
+    int iResult = 0;
+    for(int i = 0; i < SEGMENTS; i++) {
+      Segment segment = segments[i];
+      synchronized(segment) {
+        iResult += segment.size();
+      }
+    }
+    return iResult;
+  }
+  
+  public
+  int getMaxSize()
+  {
+    return maxSize;
+  }
+  
+  public
+  long getHits()
+  {
+    return hits.sum();
+  }
+  
+  public
+  long getMisses()
+  {
+    return misses.sum();
+  }
+  
+  protected
+  Segment segmentFor(String key)
+  {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return segments[h & (SEGMENTS - 1)];
+  }
+  
+  protected static
+  boolean appendCanonical(Object value, StringBuilder sb)
+  {
+    if(value == null) {
+      sb.append("null");
+    }
+    else if(value instanceof String) {
+      String sValue = (String) value;
+      sb.append('"');
+      for(int i = 0; i < sValue.length(); i++) {
+        char c = sValue.charAt(i);
+        if(c == '"' || c == '\\') sb.append('\\');
+        sb.append(c);
+      }
+      sb.append('"');
+    }
+    else if(value instanceof Number || value instanceof Boolean || value instanceof Character) {
+      // The type is part of the key: 1 (Integer) and 1 (Long) may select different overloads
+      sb.append(value.getClass().getSimpleName()).append(':').append(value);
+    }
+    else if(value instanceof Date) {
+      sb.append("Date:").append(((Date) value).getTime());
+    }
+    else if(value instanceof Calendar) {
+      sb.append("Date:").append(((Calendar) value).getTimeInMillis());
+    }
+    else if(value instanceof Enum) {
+      sb.append(value.getClass().getName()).append(':').append(((Enum) value).name());
+    }
+    else if(value instanceof Map) {
+      Map map = (Map) value;
+      List listKeys = new ArrayList(map.size());
+      Iterator iterator = map.keySet().iterator();
+      while(iterator.hasNext()) {
+        Object oKey = iterator.next();
+        if(!(oKey instanceof String)) return false;
+        listKeys.add(oKey);
+      }
+      Collections.sort(listKeys);
+      sb.append('{');
+      for(int i = 0; i < listKeys.size(); i++) {
+        if(i > 0) sb.append(',');
+        appendCanonical(listKeys.get(i), sb);
+        sb.append(':');
+        if(!appendCanonical(map.get(listKeys.get(i)), sb)) return false;
+      }
+      sb.append('}');
+    }
+    else if(value instanceof Collection) {
+      sb.append('[');
+      Iterator iterator = ((Collection) value).iterator();
+      boolean boFirst = true;
+      while(iterator.hasNext()) {
+        if(!boFirst) sb.append(',');
+        boFirst = false;
+        if(!appendCanonical(iterator.next(), sb)) return false;
+      }
+      sb.append(']');
+    }
+    else if(value.getClass().isArray()) {
+      sb.append(value.getClass().getComponentType().getSimpleName()).append('[');
+      int iLength = Array.getLength(value);
+      for(int i = 0; i < iLength; i++) {
+        if(i > 0) sb.append(',');
+        if(!appendCanonical(Array.get(value, i), sb)) return false;
+      }
+      sb.append(']');
+    }
+    else {
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Cached result. The serialized forms are computed at the first use and then reused.
+   */
+  public static
+  class Entry implements JSONString
+  {
+    protected final Object value;
+    protected final long   expiry;
+    protected volatile String json;
+    protected volatile String xmlrpc;
+    protected volatile String soap;
+    
+    public Entry(Object value, long expiry)
+    {
+      this.value  = value;
+      this.expiry = expiry;
+    }
+    
+    public Object getValue() {
+      return value;
+    }
+    
+    public long getExpiry() {
+      return expiry;
+    }
+    
+    public String toJSONString() {
+      String sResult = json;
+      if(sResult == null) {
+        sResult = JSON.stringify(value);
+        json = sResult;
+      }
+      return sResult;
+    }
+    
+    /**
+     * @return value serialized as XML-RPC value
+     */
+    public String getXmlRpc() {
+      String sResult = xmlrpc;
+      if(sResult == null) {
+        sResult = XmlRpcSerializer.serialize(value);
+        xmlrpc = sResult;
+      }
+      return sResult;
+    }
+    
+    /**
+     * @return content of executeReturn
+     */
+    public String getSoap() {
+      String sResult = soap;
+      if(sResult == null) {
+        sResult = XmlRpcSerializer.normalizeString(toJSONString());
+        soap = sResult;
+      }
+      return sResult;
+    }
+    
+    public String toString() {
+      return String.valueOf(value);
+    }
+  }
+  
+  protected static
+  class Segment extends LinkedHashMap
+  {
+    private static final long serialVersionUID = 1L;
+    
+    protected final int capacity;
+    
+    public Segment(int capacity)
+    {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+    
+    protected
+    boolean removeEldestEntry(Map.Entry eldest)
+    {
+      return size() > capacity;
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package org.rpc.server;
+
+/**
+ * Tracer that samples the calls. The executors take the decision before the serialization of the
+ * response: the calls not sampled keep the streaming mode and no payload is built for the tracer.
+ */
+public
+interface RpcSampledTracer extends RpcTracer
+{
+  /**
+   * @return false if no call can be sampled (the request is then not kept as text)
+   */
+  public boolean isSampling();
+  
+  /**
+   * Sampling decision of the result of a call (handler.method or "batch").
+   *
+   * @return true if the result has to be traced (see traceSampled)
+   */
+  public boolean isSampled(String sMethodName);
+  
+  /**
+   * Result of a call already sampled by isSampled.
+   */
+  public void traceSampled(String sContentType, String sRequest, String sResponse, String sMethodName);
+}
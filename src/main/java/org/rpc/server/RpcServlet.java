@@ -1,6 +1,7 @@
 package org.rpc.server;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
 import java.security.Principal;
@@ -11,13 +12,11 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
 import jakarta.servlet.ServletException;
-import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -26,9 +25,11 @@ import jakarta.servlet.http.HttpSession;
 
 import org.json.JSON;
 import org.json.JavascriptDate;
+import org.json.JsonWriter;
 
 import org.rpc.util.Base64Coder;
 import org.rpc.util.RPCContext;
+import org.rpc.util.RpcBinary;
 import org.rpc.util.SimplePrincipal;
 import org.rpc.util.WebContext;
 
@@ -51,6 +52,8 @@ import org.xml.rpc.XmlRpcSerializer;
  *         rpcExecutor      = new org.rpc.server.MultiRpcExecutor();
  *         restAudit        = null;
  *         restTracer       = null;
+ *         resultCache      = null; // RpcResultCache of the REST calls (executors: setResultCache)
+ *         coalescer        = null; // RpcCoalescer of the REST calls (executors: setCoalescer)
  *         
  *         legacy           = false;
  *         createRpcContex  = false;
@@ -58,7 +61,13 @@ import org.xml.rpc.XmlRpcSerializer;
  *         checkSessionREST = false;
  *         restful          = false;
  *         basicAuth        = true;
+ *         basicCacheSize   = 10000; // cached credentials (basicExpiryIn, basicFailExpiryIn)
  *         encoding         = null; // e.g. "UTF-8", "ISO-8859-1"
+ *         asyncTimeout     = 30000; // handler methods returning CompletableFuture
+ *         compressionMinSize = 1024; // gzip/deflate responses (-1 = disabled)
+ *         maxDecodedSize   = 32 * 1024 * 1024; // gzip/deflate requests (413 if exceeded, 0 = unlimited)
+ *         metricsPath      = "/metrics"; // Prometheus text or JSON (?format=json)
+ *         attachments      = new RpcAttachments(); // RpcBinary results of RPC calls as links (GET /attachments/id)
  *         
  *         sWSDL_LOCATION   = "http://rpc.service.org*";
  *         
@@ -103,6 +112,8 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
   protected RpcExecutor rpcExecutor;
   protected RpcAudit    restAudit;
   protected RpcTracer   restTracer;
+  protected RpcResultCache resultCache;
+  protected RpcCoalescer   coalescer;
   
   protected boolean     legacy           = false;
   protected boolean     createRpcContex  = false;
@@ -116,8 +127,16 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
   protected String      basicRealm       = "RPC";
   protected String      sWhiteList       = null;
   protected String      sNoCacheList     = null;
-  protected Map         basicCache       = new LinkedHashMap();
   protected int         basicExpiryIn    = 4*60*60*1000;
+  protected int         basicFailExpiryIn = 30*1000;
+  protected int         basicCacheSize   = RpcCredentialCache.DEFAULT_MAX_SIZE;
+  protected volatile RpcCredentialCache basicCache;
+  protected long        asyncTimeout     = RpcAsync.DEFAULT_TIMEOUT;
+  protected int         compressionMinSize = RpcCompression.DEFAULT_MIN_SIZE;
+  protected int         compressionLevel   = RpcCompression.DEFAULT_LEVEL;
+  protected long        maxDecodedSize     = RpcCompression.DEFAULT_MAX_DECODED_SIZE;
+  protected String      metricsPath      = null;
+  protected RpcAttachments attachments   = null;
   
   protected
   void doGet(HttpServletRequest request, HttpServletResponse response)
@@ -132,6 +151,21 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
         return;
       }
     }
+    if(metricsPath != null && metricsPath.equals(sPathInfo)) {
+      if(basicAuth && !checkBasicAuth(request, response, true)) return;
+      showMetrics(request, response);
+      return;
+    }
+    if(attachments != null && sPathInfo != null && sPathInfo.startsWith(attachments.getPath() + "/")) {
+      if(basicAuth && !checkBasicAuth(request, response, true)) return;
+      RpcBinary binary = attachments.remove(sPathInfo.substring(attachments.getPath().length() + 1));
+      if(binary == null) {
+        response.sendError(404); // Not Found (expired or already downloaded)
+        return;
+      }
+      restBinaryResponse(request, response, null, binary);
+      return;
+    }
     if(about && sPathInfo != null && sPathInfo.equalsIgnoreCase("/about")) {
       String sQueryString = request.getQueryString();
       if(sQueryString == null || sQueryString.length() == 0) {
@@ -181,11 +215,24 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
           }
         }
         if(!restCall) {
+          RpcServletTransport transport = null;
           if(checkSession || basicAuth) {
-            rpcExecutor.execute(new RpcServletTransport(request, response, encoding, this));
+            transport = new RpcServletTransport(request, response, encoding, this);
           }
           else {
-            rpcExecutor.execute(new RpcServletTransport(request, response, encoding));
+            transport = new RpcServletTransport(request, response, encoding);
+          }
+          // Handler methods returning CompletionStage complete the response asynchronously
+          transport.setAsyncTimeout(asyncTimeout);
+          transport.setCompression(compressionMinSize, compressionLevel);
+          transport.setMaxDecodedSize(maxDecodedSize);
+          transport.setAttachments(attachments);
+          Object previous = RpcAttachments.bind(transport);
+          try {
+            rpcExecutor.execute(transport);
+          }
+          finally {
+            RpcAttachments.restore(previous);
           }
           return;
         }
@@ -346,48 +393,59 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
         }
       }
       // Check cache
-      final long currentTimeMillis = System.currentTimeMillis();
-      boolean alreadyCached = false;
-      final PrincipalExpiryIn principalExpiryIn = boNoCache ? null : (PrincipalExpiryIn) basicCache.get(sCredentials);
-      if(principalExpiryIn != null) {
-        alreadyCached = true;
-        if(principalExpiryIn.expiryIn > currentTimeMillis) {
-          WebContext webContext = RPCContext.getContext();
-          if(webContext != null) webContext.setUserPrincipal(principalExpiryIn.principal);
-          return true;
+      final RpcCredentialCache credentialCache = getBasicCache();
+      final RpcCredentialCache.Entry cacheEntry = boNoCache ? null : credentialCache.get(sCredentials);
+      if(cacheEntry != null) {
+        if(cacheEntry.getPrincipal() == null) {
+          // Failed credentials
+          sendAuthFailure(response, iSep < 0);
+          return false;
         }
+        WebContext webContext = RPCContext.getContext();
+        if(webContext != null) webContext.setUserPrincipal(cacheEntry.getPrincipal());
+        return true;
       }
       Principal principal = null;
       if(iSep < 0) {
         principal = checkToken(sCredentials);
-        if(principal == null) {
-          try{ response.sendError(403); } catch(Throwable ignore) {} // Forbidden
-          return false;
-        }
       }
       else {
         principal = authenticate(sCredentials.substring(0,iSep), sCredentials.substring(iSep+1));
       }
       if(principal == null) {
-        response.addHeader("WWW-Authenticate", "Basic realm=\"" + basicRealm.replace('"', '\'') + "\"");
-        try{ response.sendError(401); } catch(Throwable ignore) {} // Unauthorized
+        credentialCache.put(sCredentials, null, basicFailExpiryIn);
+        sendAuthFailure(response, iSep < 0);
         return false;
       }
-      basicCache.put(sCredentials, new PrincipalExpiryIn(principal, currentTimeMillis + basicExpiryIn));
-      if(!alreadyCached) {
-        final Iterator iterator = basicCache.entrySet().iterator();
-        final Map.Entry entry = (Map.Entry) iterator.next();
-        final PrincipalExpiryIn firstPrincipalExpiryIn = (PrincipalExpiryIn) entry.getValue();
-        if(firstPrincipalExpiryIn.expiryIn < currentTimeMillis) {
-          try{ iterator.remove(); } catch(Throwable ignore) {}
-        }
-      }
+      credentialCache.put(sCredentials, principal, basicExpiryIn);
       WebContext webContext = RPCContext.getContext();
       if(webContext != null) webContext.setUserPrincipal(principal);
     }
     return true;
   }
   
+  protected
+  RpcCredentialCache getBasicCache()
+  {
+    RpcCredentialCache result = basicCache;
+    if(result != null) return result;
+    synchronized(this) {
+      if(basicCache == null) basicCache = new RpcCredentialCache(basicCacheSize);
+      return basicCache;
+    }
+  }
+  
+  protected
+  void sendAuthFailure(HttpServletResponse response, boolean boToken)
+  {
+    if(boToken) {
+      try{ response.sendError(403); } catch(Throwable ignore) {} // Forbidden
+      return;
+    }
+    response.addHeader("WWW-Authenticate", "Basic realm=\"" + basicRealm.replace('"', '\'') + "\"");
+    try{ response.sendError(401); } catch(Throwable ignore) {} // Unauthorized
+  }
+  
   protected
   Principal checkToken(String token)
   {
@@ -433,6 +491,7 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
       }
       this.handlers.put(sId, oHandler);
     }
+    RpcDispatcher.getDispatcher(oHandler);
     if(sDescription == null || sDescription.length() == 0) sDescription = "&nbsp;";
     sHandlersTable += "<tr><td>" + sId + "</td>";
     sHandlersTable += "<td>(REST) " + sDescription + "</td>";
@@ -461,6 +520,7 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
       }
       this.handlers.put(sId, oHandler);
     }
+    RpcDispatcher.getDispatcher(oHandler);
     if(rpcExecutor != null) {
       rpcExecutor.addHandler(sId, oHandler);
     }
@@ -687,7 +747,13 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
         restError(request, response, null, 204, "No Response"); // No Response
         return;
       }
-      oResult = RpcUtil.executeMethod(handlers, restAudit, methodName, params);
+      oResult = RpcUtil.executeMethod(handlers, restAudit, resultCache, coalescer, methodName, params);
+      if(RpcAsync.isAsync(oResult)) {
+        oResult = RpcAsync.await(oResult, asyncTimeout);
+      }
+      if(oResult instanceof RpcResultCache.Entry) {
+        oResult = ((RpcResultCache.Entry) oResult).getValue();
+      }
     }
     catch(Throwable th) {
       restError(request, response, methodName, 500, th.toString());
@@ -779,8 +845,13 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
   void restResponse(HttpServletRequest request, HttpServletResponse response, String sMethodName, Object oResult)
     throws ServletException, IOException
   {
+    if(RpcBinary.isBinary(oResult)) {
+      restBinaryResponse(request, response, sMethodName, RpcBinary.valueOf(oResult));
+      return;
+    }
     String contentType  = null;
     String responseData = null;
+    JsonWriter jsonWriter = null;
     try {
       if(sRES_CONTENT_TYPE == null || sRES_CONTENT_TYPE.length() == 0) {
         if(oResult instanceof String) {
@@ -789,20 +860,26 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
         }
         else {
           contentType  = "application/json";
-          responseData = JSON.stringify(oResult);
+          jsonWriter   = new JsonWriter();
+          jsonWriter.write(oResult);
         }
       }
       else if(sRES_CONTENT_TYPE.indexOf("js") >= 0) {
         contentType  = sRES_CONTENT_TYPE;
-        responseData = JSON.stringify(oResult);
+        jsonWriter   = new JsonWriter();
+        jsonWriter.write(oResult);
       }
       else {
         contentType  = "text/xml";
         responseData = XmlRpcSerializer.serialize(oResult, legacy);
       }
+      if(jsonWriter != null && restTracer != null) {
+        responseData = jsonWriter.toString();
+      }
       
       String sJSONPCallback = request.getParameter(sJSONP_CALLBACK_PARAM);
       if(sJSONPCallback != null && sJSONPCallback.length() > 0 && sJSONPCallback.indexOf(';') < 0) {
+        if(responseData == null) responseData = jsonWriter.toString();
         contentType  = "application/javascript";
         responseData = sJSONPCallback + "(" + JavascriptDate.replaceDateTime(responseData) + ");";
       }
@@ -811,18 +888,23 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
         response.setCharacterEncoding(encoding);
       }
       
-      byte[] data = responseData.getBytes(response.getCharacterEncoding());
+      byte[] data = null;
+      String sCharset = response.getCharacterEncoding();
+      if(responseData == null && "UTF-8".equalsIgnoreCase(sCharset)) {
+        // Encoded from the buffer of the writer, without the intermediate String
+        data = jsonWriter.toByteArray();
+      }
+      else {
+        if(responseData == null) responseData = jsonWriter.toString();
+        data = responseData.getBytes(sCharset);
+      }
       if(encoding != null && encoding.length() > 0) {
         response.addHeader("Content-Type", contentType + "; charset=" + encoding);
       }
       else {
         response.addHeader("Content-Type", contentType);
       }
-      response.setHeader("Content-Length", String.valueOf(data.length));
-      
-      ServletOutputStream os = response.getOutputStream();
-      os.write(data, 0, data.length);
-      os.flush();
+      RpcCompression.write(request, response, data, compressionMinSize, compressionLevel);
       
       if(restTracer != null) {
         restTracer.trace(sRES_CONTENT_TYPE, restRequest(request), responseData, sMethodName);
@@ -835,6 +917,40 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
     }
   }
   
+  /**
+   * Write a binary result as is (without base64 encoding and compression).
+   */
+  protected
+  void restBinaryResponse(HttpServletRequest request, HttpServletResponse response, String sMethodName, RpcBinary binary)
+    throws ServletException, IOException
+  {
+    String contentType = binary.getContentType();
+    long lLength = 0;
+    try {
+      response.addHeader("Content-Type", contentType);
+      String sName = binary.getName();
+      if(sName != null && sName.length() > 0) {
+        response.setHeader("Content-Disposition", "attachment; filename=\"" + sName.replace('"', '_') + "\"");
+      }
+      if(binary.getLength() >= 0) {
+        response.setHeader("Content-Length", String.valueOf(binary.getLength()));
+      }
+      OutputStream os = RpcMetrics.countResponse(response.getOutputStream());
+      lLength = binary.writeTo(os);
+      os.flush();
+      
+      if(restTracer != null) {
+        restTracer.trace(sRES_CONTENT_TYPE, restRequest(request), "[" + contentType + ", " + lLength + " bytes]", sMethodName);
+      }
+    }
+    catch(IOException ex) {
+      binary.close();
+      if(restTracer != null) {
+        restTracer.trace(sRES_CONTENT_TYPE, restRequest(request), "[" + contentType + ", " + lLength + " bytes]", sMethodName, ex);
+      }
+    }
+  }
+  
   protected
   String restRequest(HttpServletRequest request)
   {
@@ -926,27 +1042,28 @@ class RpcServlet extends HttpServlet implements RpcAuthorizationChecker
   }
   
   protected
-  Map createMapHandlers()
+  void showMetrics(HttpServletRequest request, HttpServletResponse response)
+    throws IOException
   {
-    return new HashMap();
+    String sFormat = request.getParameter("format");
+    String sAccept = request.getHeader("Accept");
+    boolean boJSON = "json".equalsIgnoreCase(sFormat);
+    if(sFormat == null && sAccept != null && sAccept.indexOf("application/json") >= 0) boJSON = true;
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    if(boJSON) {
+      response.setContentType("application/json");
+      response.getWriter().write(JSON.stringify(RpcMetrics.toMap()));
+    }
+    else {
+      response.setContentType("text/plain; version=0.0.4");
+      response.getWriter().write(RpcMetrics.toPrometheus());
+    }
   }
   
-  static class PrincipalExpiryIn
+  protected
+  Map createMapHandlers()
   {
-    private Principal principal;
-    private long      expiryIn;
-    
-    public PrincipalExpiryIn(Principal principal, long expiryIn) {
-      this.principal = principal;
-      this.expiryIn  = expiryIn;
-    }
-    
-    public Principal getPrincipal() {
-      return principal;
-    }
-    
-    public long getExpiryIn() {
-      return expiryIn;
-    }
+    return new HashMap();
   }
 }
@@ -1,15 +1,24 @@
 package org.rpc.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
-import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.cbor.CBOR;
+
 public
-class RpcServletTransport implements RpcServerTransport
+class RpcServletTransport implements RpcAsyncServerTransport, RpcBinaryServerTransport
 {
   protected static final int BUFF_LENGTH = 1024;
   
@@ -17,6 +26,16 @@ class RpcServletTransport implements RpcServerTransport
   protected HttpServletResponse resp;
   protected RpcAuthorizationChecker rac;
   protected String contentTypeSuffix = "";
+  protected long asyncTimeout = RpcAsync.DEFAULT_TIMEOUT;
+  protected AsyncContext asyncContext;
+  protected InputStream requestStream;
+  protected String requestCharset;
+  protected int compressionMinSize = -1;
+  protected int compressionLevel = RpcCompression.DEFAULT_LEVEL;
+  protected RpcAttachments attachments;
+  protected long maxDecodedSize = RpcCompression.DEFAULT_MAX_DECODED_SIZE;
+  protected RpcCompression.LimitedInputStream decodedStream;
+  protected int requestStatus;
   
   public
   RpcServletTransport(HttpServletRequest req, HttpServletResponse resp)
@@ -63,7 +82,7 @@ class RpcServletTransport implements RpcServerTransport
     String[] asResult = new String[3];
     InputStream in = null;
     try {
-      in = req.getInputStream();
+      in = decode();
       
       ByteArrayOutputStream bos = new ByteArrayOutputStream();
       byte[] buff = new byte[BUFF_LENGTH];
@@ -71,9 +90,18 @@ class RpcServletTransport implements RpcServerTransport
       while((n = in.read(buff)) > 0) {
         bos.write(buff, 0, n);
       }
-      asResult[1] = bos.toString();
+      RpcMetrics.addRequestBytes(bos.size());
       asResult[2] = req.getPathInfo();
       
+      byte[] data = bos.toByteArray();
+      if(isCbor(sContentType, data)) {
+        // Binary body: it is read from getRequestStream()
+        asResult[0]   = CBOR.CONTENT_TYPE;
+        requestStream = new ByteArrayInputStream(data);
+        return asResult;
+      }
+      asResult[1] = new String(data);
+      
       if(sContentType == null || sContentType.length() == 0) {
         // Is XML?
         int iLength    = asResult[1].length();
@@ -109,12 +137,91 @@ class RpcServletTransport implements RpcServerTransport
         asResult[0] = sContentType;
       }
     }
+    catch(RpcCompression.StatusException ex) {
+      requestStatus = ex.getStatus();
+      sendRequestError();
+      throw ex;
+    }
     finally {
       if(in != null) try{ in.close(); } catch(Exception ex) {}
     }
     return asResult;
   }
   
+  public
+  String[] openRequest(String sContentType)
+      throws Exception
+  {
+    String[] asResult = new String[3];
+    InputStream in = null;
+    try {
+      in = decode();
+    }
+    catch(RpcCompression.StatusException ex) {
+      requestStatus = ex.getStatus();
+      sendRequestError();
+      throw ex;
+    }
+    requestStream  = new BufferedInputStream(RpcMetrics.countRequest(in), BUFF_LENGTH * 8);
+    requestCharset = RpcStreams.getCharset(req.getContentType());
+    asResult[2] = req.getPathInfo();
+    if(sContentType == null || sContentType.length() == 0) {
+      asResult[0] = RpcStreams.isCbor(req.getContentType()) ? CBOR.CONTENT_TYPE : RpcStreams.sniffContentType(requestStream);
+    }
+    else {
+      asResult[0] = sContentType;
+    }
+    return asResult;
+  }
+  
+  protected
+  InputStream decode()
+      throws Exception
+  {
+    InputStream in = RpcCompression.decode(req, req.getInputStream(), maxDecodedSize);
+    if(in instanceof RpcCompression.LimitedInputStream) {
+      decodedStream = (RpcCompression.LimitedInputStream) in;
+    }
+    return in;
+  }
+  
+  /**
+   * @return HTTP status of a request that cannot be served (413 decoded body too large, 415 unsupported encoding), 0 otherwise
+   */
+  public
+  int getRequestStatus()
+  {
+    if(decodedStream != null && decodedStream.isExceeded()) return 413; // Payload Too Large
+    return requestStatus;
+  }
+  
+  /**
+   * Send the error status of the request, if any, instead of the response (e.g. parse error).
+   *
+   * @return true if the request has an error status
+   */
+  protected
+  boolean sendRequestError()
+      throws Exception
+  {
+    int iStatus = getRequestStatus();
+    if(iStatus == 0) return false;
+    if(!resp.isCommitted()) resp.sendError(iStatus);
+    return true;
+  }
+  
+  public
+  InputStream getRequestStream()
+  {
+    return requestStream;
+  }
+  
+  public
+  String getRequestCharset()
+  {
+    return requestCharset;
+  }
+  
   public
   boolean checkAuthorization(String methodName)
   {
@@ -128,6 +235,12 @@ class RpcServletTransport implements RpcServerTransport
   void writeResponse(String sContentType, String responseData, boolean boTransEncChunked)
       throws Exception
   {
+    if(sendRequestError()) return;
+    if(responseData == null || responseData.length() == 0) {
+      // e.g. JSON-RPC notification
+      resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
     if(boTransEncChunked) {
       if(contentTypeSuffix != null && contentTypeSuffix.length() > 0) {
         resp.addHeader("Content-Type", sContentType + contentTypeSuffix);
@@ -137,20 +250,121 @@ class RpcServletTransport implements RpcServerTransport
         resp.addHeader("Content-Type", sContentType + "; charset=utf-8");
       }
       resp.addHeader("Transfer-Encoding", "chunked");
-      PrintWriter out = resp.getWriter();
+      String sEncoding = null;
+      if(compressionMinSize >= 0 && responseData.length() >= compressionMinSize) {
+        sEncoding = RpcCompression.getAcceptedEncoding(req);
+      }
+      if(sEncoding != null) {
+        resp.setHeader("Content-Encoding", sEncoding);
+        resp.addHeader("Vary", "Accept-Encoding");
+      }
+      OutputStream os = RpcCompression.encode(resp.getOutputStream(), sEncoding, compressionLevel);
+      Writer out = new OutputStreamWriter(RpcMetrics.countResponse(os), resp.getCharacterEncoding());
       out.write(responseData, 0, responseData.length());
-      out.flush();
+      if(sEncoding != null) {
+        out.close();
+      }
+      else {
+        out.flush();
+      }
     }
     else {
       byte[] data = responseData.getBytes(resp.getCharacterEncoding());
       resp.addHeader("Content-Type",   sContentType + contentTypeSuffix);
-      resp.setHeader("Content-Length", String.valueOf(data.length));
-      ServletOutputStream os = resp.getOutputStream();
-      os.write(data, 0, data.length);
-      os.flush();
+      RpcCompression.write(req, resp, data, compressionMinSize, compressionLevel);
     }
   }
   
+  public
+  void writeResponse(String sContentType, byte[] responseData)
+      throws Exception
+  {
+    if(sendRequestError()) return;
+    if(responseData == null || responseData.length == 0) {
+      resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+      return;
+    }
+    resp.addHeader("Content-Type", sContentType);
+    RpcCompression.write(req, resp, responseData, compressionMinSize, compressionLevel);
+  }
+  
+  public
+  Writer openResponse(String sContentType)
+      throws Exception
+  {
+    if(sendRequestError()) return Writer.nullWriter();
+    if(contentTypeSuffix == null || contentTypeSuffix.length() == 0) {
+      setEncoding("UTF-8");
+    }
+    // Content-Length not set: the container uses the chunked transfer encoding
+    resp.addHeader("Content-Type", sContentType + contentTypeSuffix);
+    OutputStream os = RpcCompression.open(req, resp, compressionMinSize, compressionLevel);
+    return new BufferedWriter(new OutputStreamWriter(os, resp.getCharacterEncoding()), BUFF_LENGTH * 8);
+  }
+  
+  /**
+   * @return true if the content type (or, if null, the Content-Type header or the first bytes of the body) is CBOR
+   */
+  protected
+  boolean isCbor(String sContentType, byte[] data)
+  {
+    if(sContentType != null && sContentType.length() > 0) {
+      return RpcStreams.isCbor(sContentType);
+    }
+    return RpcStreams.isCbor(req.getContentType()) || CBOR.isCbor(data, data.length);
+  }
+  
+  /**
+   * Enable the compression of the responses (negotiated with Accept-Encoding).
+   *
+   * @param compressionMinSize minimum size of the body to compress (negative = disabled)
+   * @param compressionLevel level 0-9 (-1 = default)
+   */
+  public
+  void setCompression(int compressionMinSize, int compressionLevel)
+  {
+    this.compressionMinSize = compressionMinSize;
+    this.compressionLevel   = compressionLevel;
+  }
+  
+  /**
+   * @param maxDecodedSize max size of the request bodies decoded from Content-Encoding gzip/deflate (0 = unlimited)
+   */
+  public
+  void setMaxDecodedSize(long maxDecodedSize)
+  {
+    this.maxDecodedSize = maxDecodedSize;
+  }
+  
+  /**
+   * @param attachments store of the binary results sent out-of-band (null = inline)
+   */
+  public
+  void setAttachments(RpcAttachments attachments)
+  {
+    this.attachments = attachments;
+  }
+  
+  public
+  RpcAttachments getAttachments()
+  {
+    return attachments;
+  }
+  
+  /**
+   * @return prefix of the links to the attachments (context path + servlet path + attachments path)
+   */
+  public
+  String getAttachmentsHref()
+  {
+    if(attachments == null) return null;
+    String sContextPath = req.getContextPath();
+    String sServletPath = req.getServletPath();
+    if(sContextPath == null) sContextPath = "";
+    if(sServletPath == null) sServletPath = "";
+    return sContextPath + sServletPath + attachments.getPath() + "/";
+  }
+  
   public
   void setEncoding(String encoding)
   {
@@ -168,4 +382,53 @@ class RpcServletTransport implements RpcServerTransport
   {
     return resp.getCharacterEncoding();
   }
+  
+  public
+  boolean startAsync(final Runnable onTimeout)
+  {
+    if(!req.isAsyncSupported()) return false;
+    try {
+      asyncContext = req.startAsync(req, resp);
+    }
+    catch(IllegalStateException ex) {
+      return false;
+    }
+    asyncContext.setTimeout(asyncTimeout);
+    asyncContext.addListener(new AsyncListener() {
+      public void onTimeout(AsyncEvent event) {
+        if(onTimeout != null) onTimeout.run();
+      }
+      public void onComplete(AsyncEvent event) {
+      }
+      public void onError(AsyncEvent event) {
+      }
+      public void onStartAsync(AsyncEvent event) {
+      }
+    });
+    return true;
+  }
+  
+  public
+  long getAsyncTimeout()
+  {
+    return asyncTimeout;
+  }
+  
+  public
+  void setAsyncTimeout(long asyncTimeout)
+  {
+    this.asyncTimeout = asyncTimeout;
+  }
+  
+  public
+  void complete()
+  {
+    if(asyncContext == null) return;
+    try {
+      asyncContext.complete();
+    }
+    catch(IllegalStateException ex) {
+      // Already completed (e.g. client disconnected)
+    }
+  }
 }
@@ -0,0 +1,39 @@
+package org.rpc.server;
+
+import java.io.InputStream;
+import java.io.Writer;
+
+/**
+ * Transport exposing the request and the response bodies as streams, so that
+ * the parsers and the serializers work without copies in memory.
+ */
+public
+interface RpcStreamServerTransport extends RpcServerTransport
+{
+  /**
+   * Open the request body without reading it.
+   *
+   * @param sContentType content type (if null it is detected from the first bytes of the body)
+   * @return [0]=content type, [1]=null (body not read), [2]=path info
+   */
+  public String[] openRequest(String sContentType) throws Exception;
+  
+  /**
+   * @return body of the request (mark supported)
+   */
+  public InputStream getRequestStream();
+  
+  /**
+   * @return charset of the Content-Type header or null
+   */
+  public String getRequestCharset();
+  
+  /**
+   * Open the response body for a streaming write. The Content-Length is not set
+   * (chunked transfer encoding).
+   *
+   * @param sContentType content type
+   * @return Writer in the charset of the response (to be closed at the end)
+   */
+  public Writer openResponse(String sContentType) throws Exception;
+}
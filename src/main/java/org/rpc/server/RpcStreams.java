@@ -0,0 +1,199 @@
+package org.rpc.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+
+import java.util.Arrays;
+
+import org.cbor.CBOR;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Utilities for the requests read as stream (see RpcStreamServerTransport).
+ */
+public
+class RpcStreams
+{
+  public static final int PEEK_LENGTH = 1024;
+  
+  /**
+   * Detect the content type from the first bytes of the body.
+   *
+   * @param in InputStream with mark supported
+   * @return "application/soap+xml" (root element Envelope), "text/xml", "application/cbor" or "application/json"
+   */
+  public static
+  String sniffContentType(InputStream in)
+    throws IOException
+  {
+    String sHead = peek(in, PEEK_LENGTH);
+    int iLength = sHead.length();
+    // Bytes as ISO-8859-1 chars: first byte of a CBOR map / array or self-described CBOR tag
+    if(iLength > 0 && sHead.charAt(0) >= 0x80 && sHead.charAt(0) <= 0xbf) {
+      return CBOR.CONTENT_TYPE;
+    }
+    if(sHead.startsWith("\u00d9\u00d9\u00f7")) {
+      return CBOR.CONTENT_TYPE;
+    }
+    int i = 0;
+    // Skip BOM and blanks
+    while(i < iLength && (sHead.charAt(i) < 33 || sHead.charAt(i) > 126)) i++;
+    if(i >= iLength || sHead.charAt(i) != '<') {
+      return "application/json";
+    }
+    // Skip prolog (<?...?>, <!--...-->, <!DOCTYPE...>)
+    while(i < iLength && sHead.charAt(i) == '<') {
+      if(sHead.startsWith("<?", i)) {
+        i = sHead.indexOf("?>", i);
+        if(i < 0) break;
+        i += 2;
+      }
+      else if(sHead.startsWith("<!--", i)) {
+        i = sHead.indexOf("-->", i);
+        if(i < 0) break;
+        i += 3;
+      }
+      else if(sHead.startsWith("<!", i)) {
+        i = sHead.indexOf('>', i);
+        if(i < 0) break;
+        i++;
+      }
+      else {
+        // Root element
+        int iEnd = i + 1;
+        while(iEnd < iLength) {
+          char c = sHead.charAt(iEnd);
+          if(c < 33 || c == '>' || c == '/') break;
+          iEnd++;
+        }
+        String sRoot = sHead.substring(i + 1, iEnd);
+        int iSep = sRoot.indexOf(':');
+        if(iSep >= 0) sRoot = sRoot.substring(iSep + 1);
+        return sRoot.equals("Envelope") ? "application/soap+xml" : "text/xml";
+      }
+      while(i < iLength && sHead.charAt(i) < 33) i++;
+    }
+    return "text/xml";
+  }
+  
+  /**
+   * @param in InputStream with mark supported
+   * @return first non blank character of the body or -1
+   */
+  public static
+  int peekFirstChar(InputStream in)
+    throws IOException
+  {
+    String sHead = peek(in, PEEK_LENGTH);
+    int iLength = sHead.length();
+    for(int i = 0; i < iLength; i++) {
+      char c = sHead.charAt(i);
+      if(c > 32 && c < 127) return c;
+    }
+    return -1;
+  }
+  
+  /**
+   * @param sContentType value of the Content-Type header
+   * @return true if the media type is application/cbor
+   */
+  public static
+  boolean isCbor(String sContentType)
+  {
+    if(sContentType == null) return false;
+    return sContentType.trim().toLowerCase().startsWith(CBOR.CONTENT_TYPE);
+  }
+  
+  /**
+   * @param sContentType value of the Content-Type header
+   * @return charset or null
+   */
+  public static
+  String getCharset(String sContentType)
+  {
+    if(sContentType == null) return null;
+    int iIndexOf = sContentType.toLowerCase().indexOf("charset=");
+    if(iIndexOf < 0) return null;
+    String sCharset = sContentType.substring(iIndexOf + 8).trim();
+    int iSep = sCharset.indexOf(';');
+    if(iSep >= 0) sCharset = sCharset.substring(0, iSep).trim();
+    if(sCharset.length() > 1 && sCharset.charAt(0) == '"') {
+      sCharset = sCharset.substring(1, sCharset.length() - 1);
+    }
+    return sCharset.length() > 0 ? sCharset : null;
+  }
+  
+  /**
+   * Reader of the body: from requestData[1] if the request has been read, otherwise from the stream of the transport.
+   */
+  public static
+  Reader getReader(String[] requestData, RpcServerTransport transport)
+    throws IOException
+  {
+    if(requestData[1] != null || !(transport instanceof RpcStreamServerTransport)) {
+      return new StringReader(requestData[1] != null ? requestData[1] : "");
+    }
+    RpcStreamServerTransport streamTransport = (RpcStreamServerTransport) transport;
+    String sCharset = streamTransport.getRequestCharset();
+    if(sCharset == null) sCharset = "UTF-8";
+    return new InputStreamReader(streamTransport.getRequestStream(), sCharset);
+  }
+  
+  /**
+   * Body as char[] (e.g. for JSONPullParser): from requestData[1] if the request has been read, otherwise from the stream of the transport.
+   */
+  public static
+  char[] getChars(String[] requestData, RpcServerTransport transport)
+    throws IOException
+  {
+    if(requestData[1] != null) return requestData[1].toCharArray();
+    Reader reader = getReader(requestData, transport);
+    char[] buffer = new char[8192];
+    int iCount = 0;
+    for(;;) {
+      if(iCount == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      int n = reader.read(buffer, iCount, buffer.length - iCount);
+      if(n < 0) break;
+      iCount += n;
+    }
+    return iCount == buffer.length ? buffer : Arrays.copyOf(buffer, iCount);
+  }
+  
+  /**
+   * InputSource of the body read from the stream of the transport. The encoding is the charset
+   * of the Content-Type header, if any, otherwise it is detected by the XML parser.
+   */
+  public static
+  InputSource getInputSource(RpcServerTransport transport)
+  {
+    RpcStreamServerTransport streamTransport = (RpcStreamServerTransport) transport;
+    InputSource inputSource = new InputSource(streamTransport.getRequestStream());
+    String sCharset = streamTransport.getRequestCharset();
+    if(sCharset != null) inputSource.setEncoding(sCharset);
+    return inputSource;
+  }
+  
+  protected static
+  String peek(InputStream in, int iMaxLength)
+    throws IOException
+  {
+    byte[] buff = new byte[iMaxLength];
+    in.mark(iMaxLength);
+    int iRead = 0;
+    try {
+      while(iRead < iMaxLength) {
+        int n = in.read(buff, iRead, iMaxLength - iRead);
+        if(n <= 0) break;
+        iRead += n;
+      }
+    }
+    finally {
+      in.reset();
+    }
+    return new String(buff, 0, iRead, "ISO-8859-1");
+  }
+}
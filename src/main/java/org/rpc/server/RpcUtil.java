@@ -3,8 +3,11 @@ package org.rpc.server;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -13,14 +16,17 @@ import jakarta.servlet.http.HttpServletRequest;
 
 import org.apache.xmlrpc.XmlRpcException;
 
+import org.cbor.CBOR;
+
 import org.dew.util.RefUtil;
 
 import org.json.JSONObject;
+import org.json.JsonWriter;
 import org.json.rpc.commons.RpcRemoteException;
 
 import org.xml.rpc.XmlRpcSerializer;
 
-@SuppressWarnings({"rawtypes"})
+@SuppressWarnings({"rawtypes","unchecked"})
 public
 class RpcUtil
 {
@@ -43,6 +49,7 @@ class RpcUtil
     sb.append("</int></value></member></struct></value></fault></methodResponse>");
     try {
       transport.writeResponse("text/xml", sb.toString(), false);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Exception e) {
       e.printStackTrace();
@@ -74,6 +81,7 @@ class RpcUtil
     sb.append("</s:Fault></s:Body></s:Envelope>");
     try {
       transport.writeResponse("text/xml", sb.toString(), true);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Exception e) {
       e.printStackTrace();
@@ -82,6 +90,20 @@ class RpcUtil
   
   public static
   void jsonrpc_sendError(RpcServerTransport transport, JSONObject resp, int code, String message, String data)
+  {
+    jsonrpc_setError(resp, code, message, data);
+    String responseData = JsonWriter.stringify(resp);
+    try {
+      transport.writeResponse("application/json", responseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
+    }
+    catch(Exception e) {
+      e.printStackTrace();
+    }
+  }
+  
+  public static
+  JSONObject jsonrpc_setError(JSONObject resp, int code, String message, String data)
   {
     if(message == null) message = "Service exception";
     JSONObject error = new JSONObject();
@@ -90,15 +112,47 @@ class RpcUtil
     if(data != null) error.put("data", data);
     resp.put("error", error);
     resp.remove("result");
-    String responseData = resp.toString();
+    return resp;
+  }
+  
+  /**
+   * @return JSON-RPC 2.0 response envelope of a CBOR-RPC call
+   */
+  public static
+  Map cborrpc_response(Object id)
+  {
+    Map resp = new HashMap(4);
+    resp.put("jsonrpc", "2.0");
+    resp.put("id", id != null ? id : JSONObject.NULL);
+    return resp;
+  }
+  
+  public static
+  void cborrpc_sendError(RpcBinaryServerTransport transport, Map resp, int code, String message, String data)
+  {
+    cborrpc_setError(resp, code, message, data);
     try {
-      transport.writeResponse("application/json", responseData, false);
+      transport.writeResponse(CBOR.CONTENT_TYPE, CBOR.encode(resp));
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Exception e) {
       e.printStackTrace();
     }
   }
   
+  public static
+  Map cborrpc_setError(Map resp, int code, String message, String data)
+  {
+    if(message == null) message = "Service exception";
+    Map error = new HashMap(4);
+    error.put("code",    code);
+    error.put("message", message);
+    if(data != null) error.put("data", data);
+    resp.put("error", error);
+    resp.remove("result");
+    return resp;
+  }
+  
   public static
   String getWSDL(HttpServletRequest request, String sLocation)
   {
@@ -222,6 +276,42 @@ class RpcUtil
     return sb.toString();
   }
   
+  /**
+   * @return true if the tracer may trace the results (the request is then kept as text)
+   */
+  public static
+  boolean isTracing(RpcTracer tracer)
+  {
+    if(tracer instanceof RpcSampledTracer) return ((RpcSampledTracer) tracer).isSampling();
+    return tracer != null;
+  }
+  
+  /**
+   * Sampling of the result of a call, decided before the serialization of the response.
+   *
+   * @return true if the result has to be traced (see traceResult)
+   */
+  public static
+  boolean isTraced(RpcTracer tracer, String methodName)
+  {
+    if(tracer instanceof RpcSampledTracer) return ((RpcSampledTracer) tracer).isSampled(methodName);
+    return tracer != null;
+  }
+  
+  /**
+   * Trace the result of a call for which isTraced returned true.
+   */
+  public static
+  void traceResult(RpcTracer tracer, String sContentType, String sRequest, String sResponse, String methodName)
+  {
+    if(tracer instanceof RpcSampledTracer) {
+      ((RpcSampledTracer) tracer).traceSampled(sContentType, sRequest, sResponse, methodName);
+    }
+    else if(tracer != null) {
+      tracer.trace(sContentType, sRequest, sResponse, methodName);
+    }
+  }
+  
   public static
   String completeMethodName(String methodName, String[] requestData)
   {
@@ -235,14 +325,82 @@ class RpcUtil
     return methodName;
   }
   
+  /**
+   * Lookup of the handler and of the method name (any arity), e.g. before parsing the parameters.
+   * The handlers bound to a JNDI name are checked at invocation time.
+   * 
+   * @throws RpcRemoteException if the handler or the method does not exist
+   */
+  public static
+  void checkMethod(Map handlers, String methodName)
+    throws RpcRemoteException
+  {
+    int iSep = methodName != null ? methodName.indexOf('.') : -1;
+    if(iSep <= 0) {
+      throw new RpcRemoteException(RpcExecutor.INVALID_REQUEST_ERROR_CODE, "invalid method name", null);
+    }
+    String handlerName = methodName.substring(0, iSep);
+    Object handler = handlers.get(handlerName);
+    if(handler == null) {
+      // [Security]
+      throw new RpcRemoteException(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, "handler " + RefUtil.msgText(handlerName) + " not found", null);
+    }
+    RpcDispatcher dispatcher = RpcDispatcher.getDispatcher(handler);
+    if(dispatcher != null && !dispatcher.hasMethod(methodName.substring(iSep + 1))) {
+      // [Security]
+      throw new RpcRemoteException(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, "method " + RefUtil.msgText(methodName.substring(iSep + 1)) + " not found", null);
+    }
+  }
+  
+  /**
+   * Execute the method on the executor (on the current thread if null).
+   * 
+   * @return result or, with an executor, CompletableFuture of the result
+   */
+  public static
+  Object executeMethod(Executor executor, Map handlers, RpcAudit audit, String methodName, List params)
+    throws Throwable
+  {
+    return executeMethod(executor, handlers, audit, null, null, methodName, params);
+  }
+  
+  /**
+   * Execute the method on the executor (on the current thread if null).
+   * 
+   * @return result, RpcResultCache.Entry if the result is cached or, with an executor, CompletableFuture of the result
+   */
+  public static
+  Object executeMethod(Executor executor, Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, String methodName, List params)
+    throws Throwable
+  {
+    if(executor == null) {
+      return executeMethod(handlers, audit, cache, coalescer, methodName, params);
+    }
+    return RpcWorkers.submit(executor, handlers, audit, cache, coalescer, methodName, params);
+  }
+  
   public static
   Object executeMethod(Map handlers, RpcAudit audit, String methodName, List params)
     throws Throwable
+  {
+    return executeMethod(handlers, audit, null, null, methodName, params);
+  }
+  
+  /**
+   * Execute the method. If the method is cached (see RpcResultCache) the result is
+   * returned as RpcResultCache.Entry; the audit is called also for the cache hits.
+   * The coalescer, if any, shares the invocation among equal concurrent calls.
+   */
+  public static
+  Object executeMethod(Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, String methodName, List params)
+    throws Throwable
   {
     String handlerName  = null;
     Object handler      = null;
     Object[] parameters = null;
     long lBefore        = 0;
+    long lStart         = 0;
+    RpcMetrics.MethodMetrics metrics = null;
     try {
       if(methodName == null || methodName.length() == 0) {
         throw new RpcRemoteException(RpcExecutor.INVALID_REQUEST_ERROR_CODE, "invalid method name", null);
@@ -273,46 +431,83 @@ class RpcUtil
       }
       
       // Find method...
-      Method method = null;
-      Method lastMethodSameName = null;
-      Method[] methods = handler.getClass().getMethods();
-      for(int i = 0; i < methods.length; i++) {
-        Method m = methods[i];
-        if(!m.getName().equals(methodName)) continue;
-        
-        lastMethodSameName = m;
-        
-        parameters = RefUtil.getParameters(m, params);
+      int paramsSize = params != null ? params.size() : 0;
+      RpcOverloads overloads = RpcDispatcher.getDispatcher(handler.getClass()).getOverloads(methodName, paramsSize);
+      RpcMethod[] methods = overloads.getMethods();
+      RpcMethod method = null;
+      for(int i = overloads.firstCandidate(params); i < methods.length; i++) {
+        parameters = methods[i].getParameters(params);
         if(parameters == null) continue;
         
-        method = m;
+        method = methods[i];
         break;
       }
       if(method == null) {
-        if(lastMethodSameName != null) {
-          parameters = RefUtil.getParametersExt(lastMethodSameName, params);
+        if(methods.length > 0) {
+          method = methods[methods.length - 1];
+          parameters = method.getParametersExt(params);
         }
         if(parameters == null) {
           // [Security]
           throw new RpcRemoteException(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, "method " + RefUtil.msgText(methodName) + "(" + RefUtil.getStringParams(params) + ") not found", null);
         }
-        method = lastMethodSameName;
       }
       
       // Invoke method...
+      String sFullName = handlerName + "." + methodName;
+      RpcPhases.dispatched(sFullName);
+      metrics = RpcMetrics.getMethodMetrics(sFullName);
+      lStart  = System.nanoTime();
       if(audit != null) {
         lBefore = System.currentTimeMillis();
         Object oBefore = audit.beforeInvoke(handlerName, methodName, handler, parameters);
         if(oBefore != null) return oBefore;
       }
-      Object oResult = method.invoke(handler, parameters);
+      String sCacheKey = null;
+      long lCacheTtl   = 0;
+      if(cache != null) {
+        lCacheTtl = cache.getTtl(sFullName, method);
+        if(lCacheTtl > 0) sCacheKey = RpcResultCache.key(sFullName, params);
+        if(sCacheKey != null) {
+          RpcResultCache.Entry entry = cache.get(sCacheKey);
+          if(entry != null) {
+            RpcPhases.mark(RpcPhases.INVOKE);
+            if(metrics != null) {
+              metrics.record(lStart, false);
+              metrics = null;
+            }
+            if(audit != null) {
+              Object oAfter = audit.afterInvoke(handlerName, methodName, handler, parameters, lBefore, entry.getValue(), null);
+              if(oAfter != null) return oAfter;
+            }
+            return entry;
+          }
+        }
+      }
+      Object oResult = null;
+      if(coalescer != null) {
+        oResult = coalescer.invoke(sFullName, params, method, handler, parameters);
+      }
+      else {
+        oResult = method.invoke(handler, parameters);
+      }
+      if(!(oResult instanceof CompletionStage)) RpcPhases.mark(RpcPhases.INVOKE);
+      if(metrics != null) {
+        metrics.record(lStart, oResult);
+        metrics = null;
+      }
       if(audit != null) {
         Object oAfter = audit.afterInvoke(handlerName, methodName, handler, parameters, lBefore, oResult, null);
         if(oAfter != null) return oAfter;
       }
+      if(sCacheKey != null && !(oResult instanceof CompletionStage) && RpcResultCache.isCacheable(oResult)) {
+        return cache.put(sCacheKey, oResult, lCacheTtl);
+      }
       return oResult;
     }
     catch(Throwable t) {
+      if(lStart != 0) RpcPhases.mark(RpcPhases.INVOKE);
+      if(metrics != null) metrics.record(lStart, true);
       if(audit != null) {
         try {
           Object oAfter = audit.afterInvoke(handlerName, methodName, handler, parameters, lBefore, null, t);
@@ -0,0 +1,161 @@
+package org.rpc.server;
+
+import java.lang.reflect.Method;
+
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+import org.rpc.util.RPCContext;
+import org.rpc.util.WebContext;
+
+/**
+ * Executors for the invocation of the handler methods (see setInvocationExecutor of the RpcExecutor implementations).
+ * <pre>
+ * rpcExecutor.setInvocationExecutor(RpcWorkers.newVirtualThreadPerCall());
+ * </pre>
+ */
+@SuppressWarnings({"rawtypes","unchecked"})
+public
+class RpcWorkers
+{
+  /**
+   * Bounded work-stealing pool for CPU bound handlers.
+   *
+   * @param parallelism max number of threads (0 = available processors)
+   * @return ExecutorService
+   */
+  public static
+  ExecutorService newWorkStealingPool(int parallelism)
+  {
+    if(parallelism <= 0) parallelism = Runtime.getRuntime().availableProcessors();
+    return Executors.newWorkStealingPool(parallelism);
+  }
+  
+  public static
+  boolean isVirtualThreadSupported()
+  {
+    return getVirtualThreadFactoryMethod() != null;
+  }
+  
+  /**
+   * A new virtual thread for each call (JDK 21+), suitable for handlers doing blocking I/O.
+   * On older runtimes a work-stealing pool is returned.
+   *
+   * @return ExecutorService
+   */
+  public static
+  ExecutorService newVirtualThreadPerCall()
+  {
+    Method method = getVirtualThreadFactoryMethod();
+    if(method != null) {
+      try {
+        return (ExecutorService) method.invoke(null);
+      }
+      catch(Throwable th) {
+        System.err.println("[RpcWorkers] Exception in newVirtualThreadPerTaskExecutor: " + th);
+      }
+    }
+    System.err.println("[RpcWorkers] virtual threads not available: work-stealing pool used");
+    return newWorkStealingPool(0);
+  }
+  
+  /**
+   * Invoke the method on the executor. The RPCContext (and the RpcPhases) of the caller is propagated to the worker thread.
+   *
+   * @return CompletableFuture of the result
+   */
+  public static
+  CompletableFuture submit(Executor executor, Map handlers, RpcAudit audit, String methodName, List params)
+  {
+    return submit(executor, handlers, audit, null, null, methodName, params);
+  }
+  
+  public static
+  CompletableFuture submit(Executor executor, Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, String methodName, List params)
+  {
+    CompletableFuture future = new CompletableFuture();
+    executor.execute(new Invocation(future, handlers, audit, cache, coalescer, methodName, params, RPCContext.getContext(), RpcPhases.current()));
+    return future;
+  }
+  
+  protected static
+  Method getVirtualThreadFactoryMethod()
+  {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    }
+    catch(Throwable th) {
+      return null;
+    }
+  }
+  
+  static class Invocation implements Runnable, BiConsumer
+  {
+    private CompletableFuture future;
+    private Map        handlers;
+    private RpcAudit   audit;
+    private RpcResultCache cache;
+    private RpcCoalescer coalescer;
+    private String     methodName;
+    private List       params;
+    private WebContext webContext;
+    private RpcPhases  phases;
+    
+    public Invocation(CompletableFuture future, Map handlers, RpcAudit audit, RpcResultCache cache, RpcCoalescer coalescer, String methodName, List params, WebContext webContext, RpcPhases phases)
+    {
+      this.future     = future;
+      this.handlers   = handlers;
+      this.audit      = audit;
+      this.cache      = cache;
+      this.coalescer  = coalescer;
+      this.methodName = methodName;
+      this.params     = params;
+      this.webContext = webContext;
+      this.phases     = phases;
+    }
+    
+    public
+    void run()
+    {
+      // The executor may run the task on the caller thread: restore the previous context.
+      WebContext previous = RPCContext.getContext();
+      RpcPhases previousPhases = RpcPhases.current();
+      RPCContext.setContext(webContext);
+      RpcPhases.setCurrent(phases);
+      try {
+        Object result = RpcUtil.executeMethod(handlers, audit, cache, coalescer, methodName, params);
+        if(result instanceof CompletionStage) {
+          ((CompletionStage) result).whenComplete(this);
+        }
+        else {
+          future.complete(result);
+        }
+      }
+      catch(Throwable t) {
+        future.completeExceptionally(t);
+      }
+      finally {
+        RPCContext.setContext(previous);
+        RpcPhases.setCurrent(previousPhases);
+      }
+    }
+    
+    public
+    void accept(Object value, Object throwable)
+    {
+      if(throwable != null) {
+        future.completeExceptionally((Throwable) throwable);
+      }
+      else {
+        future.complete(value);
+      }
+    }
+  }
+}
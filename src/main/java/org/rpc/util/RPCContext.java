@@ -24,6 +24,12 @@ class RPCContext
     threadLocal.set(webContext);
   }
   
+  public static
+  void setContext(WebContext webContext)
+  {
+    threadLocal.set(webContext);
+  }
+  
   public static
   void removeContext()
   {
@@ -0,0 +1,303 @@
+package org.rpc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.nio.ByteBuffer;
+
+import java.util.Map;
+
+import org.json.JSON;
+import org.json.JSONString;
+
+import org.rpc.server.RpcAttachments;
+
+/**
+ * Binary result (byte[], InputStream or ByteBuffer) with content type and file name.
+ * REST calls write it raw as body of the response. In the RPC protocols it is serialized
+ * as link to an attachment (see RpcAttachments) if the attachments are enabled,
+ * otherwise as byte[] (base64 in JSON and XML-RPC).
+ */
+@SuppressWarnings({"rawtypes"})
+public
+class RpcBinary implements JSONString
+{
+  public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+  
+  protected static final int BUFF_LENGTH = 64 * 1024;
+  
+  protected Object data;
+  protected String contentType;
+  protected String name;
+  protected long   length;
+  protected Map    reference;
+  
+  public RpcBinary(byte[] data)
+  {
+    this(data, null);
+  }
+  
+  public RpcBinary(byte[] data, String contentType)
+  {
+    if(data == null) throw new IllegalArgumentException("data is null");
+    this.data        = data;
+    this.contentType = contentType;
+    this.length      = data.length;
+  }
+  
+  public RpcBinary(ByteBuffer data, String contentType)
+  {
+    if(data == null) throw new IllegalArgumentException("data is null");
+    this.data        = data.duplicate();
+    this.contentType = contentType;
+    this.length      = data.remaining();
+  }
+  
+  /**
+   * @param length number of bytes of the stream (-1 = unknown)
+   */
+  public RpcBinary(InputStream data, String contentType, long length)
+  {
+    if(data == null) throw new IllegalArgumentException("data is null");
+    this.data        = data;
+    this.contentType = contentType;
+    this.length      = length;
+  }
+  
+  /**
+   * @return true if the value is byte[], InputStream, ByteBuffer or RpcBinary
+   */
+  public static
+  boolean isBinary(Object value)
+  {
+    return value instanceof byte[] || value instanceof RpcBinary || value instanceof InputStream || value instanceof ByteBuffer;
+  }
+  
+  /**
+   * @param value byte[], InputStream, ByteBuffer or RpcBinary
+   */
+  public static
+  RpcBinary valueOf(Object value)
+  {
+    if(value instanceof RpcBinary)   return (RpcBinary) value;
+    if(value instanceof byte[])      return new RpcBinary((byte[]) value);
+    if(value instanceof ByteBuffer)  return new RpcBinary((ByteBuffer) value, null);
+    if(value instanceof InputStream) return new RpcBinary((InputStream) value, null, -1);
+    throw new IllegalArgumentException("invalid binary " + (value != null ? value.getClass().getName() : "null"));
+  }
+  
+  /**
+   * @return content type set or detected from the first bytes (e.g. application/pdf)
+   */
+  public
+  String getContentType()
+  {
+    if(contentType == null || contentType.length() == 0) {
+      contentType = guessContentType(peek(8));
+    }
+    return contentType;
+  }
+  
+  public
+  void setContentType(String contentType)
+  {
+    this.contentType = contentType;
+  }
+  
+  /**
+   * @return file name (Content-Disposition) or null
+   */
+  public
+  String getName()
+  {
+    return name;
+  }
+  
+  public
+  RpcBinary setName(String name)
+  {
+    this.name = name;
+    return this;
+  }
+  
+  /**
+   * @return number of bytes or -1 if unknown
+   */
+  public
+  long getLength()
+  {
+    return length;
+  }
+  
+  /**
+   * @return content (an InputStream is read once and then kept in memory)
+   */
+  public
+  byte[] getBytes()
+    throws IOException
+  {
+    if(data instanceof byte[]) return (byte[]) data;
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length : BUFF_LENGTH);
+    writeTo(bos);
+    byte[] result = bos.toByteArray();
+    data   = result;
+    length = result.length;
+    return result;
+  }
+  
+  /**
+   * Write the content (an InputStream is consumed and closed).
+   *
+   * @return number of bytes written
+   */
+  public
+  long writeTo(OutputStream out)
+    throws IOException
+  {
+    if(data instanceof byte[]) {
+      byte[] abData = (byte[]) data;
+      out.write(abData, 0, abData.length);
+      return abData.length;
+    }
+    if(data instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) data).duplicate();
+      int iLength = buffer.remaining();
+      if(buffer.hasArray()) {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), iLength);
+        return iLength;
+      }
+      byte[] buff = new byte[Math.min(BUFF_LENGTH, iLength)];
+      while(buffer.hasRemaining()) {
+        int n = Math.min(buff.length, buffer.remaining());
+        buffer.get(buff, 0, n);
+        out.write(buff, 0, n);
+      }
+      return iLength;
+    }
+    InputStream in = (InputStream) data;
+    long lResult = 0;
+    try {
+      byte[] buff = new byte[BUFF_LENGTH];
+      int n;
+      while((n = in.read(buff)) > 0) {
+        out.write(buff, 0, n);
+        lResult += n;
+      }
+    }
+    finally {
+      try{ in.close(); } catch(Exception ex) {}
+    }
+    return lResult;
+  }
+  
+  /**
+   * Release the content (close of the InputStream).
+   */
+  public
+  void close()
+  {
+    if(data instanceof InputStream) {
+      try{ ((InputStream) data).close(); } catch(Exception ex) {}
+    }
+  }
+  
+  /**
+   * @return link of the attachment (Map href, contentType, length, name) if bound to the current call
+   * (see RpcAttachments), otherwise the content as byte[]
+   */
+  public
+  Object getValue()
+    throws IOException
+  {
+    // The link is kept: the binary is stored once also if serialized again (e.g. tracer)
+    if(reference == null) reference = RpcAttachments.reference(this);
+    if(reference != null) return reference;
+    return getBytes();
+  }
+  
+  public
+  String toJSONString()
+  {
+    try {
+      return JSON.stringify(getValue());
+    }
+    catch(IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * @param head first bytes of the content
+   * @return content type by magic number or DEFAULT_CONTENT_TYPE
+   */
+  public static
+  String guessContentType(byte[] head)
+  {
+    if(startsWith(head, 0x25, 0x50, 0x44, 0x46))       return "application/pdf"; // %PDF
+    if(startsWith(head, 0x89, 0x50, 0x4e, 0x47))       return "image/png";
+    if(startsWith(head, 0xff, 0xd8, 0xff))             return "image/jpeg";
+    if(startsWith(head, 0x47, 0x49, 0x46, 0x38))       return "image/gif";
+    if(startsWith(head, 0x50, 0x4b, 0x03, 0x04))       return "application/zip";
+    if(startsWith(head, 0x1f, 0x8b))                   return "application/gzip";
+    if(startsWith(head, 0x3c, 0x3f, 0x78, 0x6d, 0x6c)) return "application/xml"; // <?xml
+    return DEFAULT_CONTENT_TYPE;
+  }
+  
+  protected
+  byte[] peek(int iMaxLength)
+  {
+    if(data instanceof byte[]) {
+      byte[] abData = (byte[]) data;
+      byte[] result = new byte[Math.min(iMaxLength, abData.length)];
+      System.arraycopy(abData, 0, result, 0, result.length);
+      return result;
+    }
+    if(data instanceof ByteBuffer) {
+      ByteBuffer buffer = ((ByteBuffer) data).duplicate();
+      byte[] result = new byte[Math.min(iMaxLength, buffer.remaining())];
+      buffer.get(result);
+      return result;
+    }
+    InputStream in = (InputStream) data;
+    if(!in.markSupported()) return new byte[0];
+    byte[] result = new byte[iMaxLength];
+    int iRead = 0;
+    try {
+      in.mark(iMaxLength);
+      try {
+        while(iRead < iMaxLength) {
+          int n = in.read(result, iRead, iMaxLength - iRead);
+          if(n <= 0) break;
+          iRead += n;
+        }
+      }
+      finally {
+        in.reset();
+      }
+    }
+    catch(IOException ex) {
+      return new byte[0];
+    }
+    byte[] abHead = new byte[iRead];
+    System.arraycopy(result, 0, abHead, 0, iRead);
+    return abHead;
+  }
+  
+  protected static
+  boolean startsWith(byte[] data, int... prefix)
+  {
+    if(data == null || data.length < prefix.length) return false;
+    for(int i = 0; i < prefix.length; i++) {
+      if((data[i] & 0xff) != prefix[i]) return false;
+    }
+    return true;
+  }
+  
+  public
+  String toString()
+  {
+    return getClass().getName() + "[" + contentType + ", " + length + " bytes]";
+  }
+}
@@ -81,6 +81,20 @@ class WebContext
     this.userPrincipal = userPrincipal;
   }
   
+  /**
+   * Copy of the context without request and response, usable after the end of the request
+   * (e.g. by tasks executed asynchronously).
+   * 
+   * @return WebContext with servlet config, servlet context and user principal
+   */
+  public
+  WebContext detach()
+  {
+    WebContext webContext = new WebContext(null, null, config, context);
+    webContext.setUserPrincipal(getUserPrincipal());
+    return webContext;
+  }
+  
   public
   HttpSession getSession()
   {
@@ -91,6 +105,7 @@ class WebContext
   public
   Object getSessionAttribute(String sAttributeName)
   {
+    if(request == null) return null;
     HttpSession httpSession = request.getSession();
     if(httpSession == null) return null;
     return httpSession.getAttribute(sAttributeName);
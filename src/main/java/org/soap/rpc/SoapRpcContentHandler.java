@@ -4,7 +4,6 @@ import java.io.ByteArrayInputStream;
 import java.util.*;
 
 import org.json.JSON;
-import org.json.JSONArray;
 import org.xml.sax.*;
 import org.xml.sax.helpers.*;
 
@@ -35,7 +34,13 @@ class SoapRpcContentHandler implements ContentHandler
   void load(String sText)
     throws Exception
   {
-    InputSource inputSource = new InputSource(new ByteArrayInputStream(sText.getBytes()));
+    load(new InputSource(new ByteArrayInputStream(sText.getBytes())));
+  }
+  
+  public
+  void load(InputSource inputSource)
+    throws Exception
+  {
     XMLReader xmlReader = XMLReaderFactory.createXMLReader();
     xmlReader.setContentHandler(this);
     xmlReader.parse(inputSource);
@@ -74,9 +79,9 @@ class SoapRpcContentHandler implements ContentHandler
     }
     if(cFirst != '[') sArgs = "[" + sArgs + "]";
     if(boLegacy) {
-      return new JSONArray(sArgs).toVector();
+      return (List) JSON.parseLegacy(sArgs);
     }
-    return new JSONArray(sArgs).toArrayList();
+    return (List) JSON.parse(sArgs);
   }
   
   public
@@ -171,4 +176,3 @@ class SoapRpcContentHandler implements ContentHandler
   public void processingInstruction(String target, String data) throws SAXException {}
   public void skippedEntity(String name) throws SAXException {}
 }
-
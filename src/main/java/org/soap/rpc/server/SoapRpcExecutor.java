@@ -5,6 +5,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -13,9 +14,16 @@ import org.apache.xmlrpc.XmlRpcException;
 
 import org.json.JSON;
 import org.json.rpc.commons.RpcRemoteException;
+import org.rpc.server.RpcAsync;
 import org.rpc.server.RpcAudit;
+import org.rpc.server.RpcCoalescer;
+import org.rpc.server.RpcDispatcher;
 import org.rpc.server.RpcExecutor;
+import org.rpc.server.RpcPhases;
+import org.rpc.server.RpcResultCache;
 import org.rpc.server.RpcServerTransport;
+import org.rpc.server.RpcStreamServerTransport;
+import org.rpc.server.RpcStreams;
 import org.rpc.server.RpcTracer;
 import org.rpc.server.RpcUtil;
 import org.soap.rpc.SoapRpcContentHandler;
@@ -29,6 +37,9 @@ class SoapRpcExecutor implements RpcExecutor
   protected Map       handlers;
   protected RpcTracer tracer;
   protected RpcAudit  audit;
+  protected Executor  invocationExecutor;
+  protected RpcResultCache resultCache;
+  protected RpcCoalescer coalescer;
   
   public SoapRpcExecutor()
   {
@@ -51,6 +62,8 @@ class SoapRpcExecutor implements RpcExecutor
       }
       this.handlers.put(name, handler);
     }
+    // Build the dispatch table of the handler
+    RpcDispatcher.getDispatcher(handler);
   }
   
   public
@@ -73,18 +86,59 @@ class SoapRpcExecutor implements RpcExecutor
     this.audit = audit;
   }
   
+  /**
+   * Set the executor of the handler methods (null = current thread), e.g. RpcWorkers.newVirtualThreadPerCall().
+   * With an asynchronous transport the calling thread is released during the invocation.
+   */
+  public
+  void setInvocationExecutor(Executor invocationExecutor)
+  {
+    this.invocationExecutor = invocationExecutor;
+  }
+  
+  /**
+   * Set the cache of the results of the RpcCacheable (or registered) methods (null = no cache).
+   */
+  public
+  void setResultCache(RpcResultCache resultCache)
+  {
+    this.resultCache = resultCache;
+  }
+  
+  /**
+   * Set the RpcCoalescer of the RpcCoalesce (or registered) methods (null = no coalescing).
+   */
+  public
+  void setCoalescer(RpcCoalescer coalescer)
+  {
+    this.coalescer = coalescer;
+  }
+  
   public
   void execute(RpcServerTransport transport)
   {
-    String[] requestData = null;
+    RpcPhases phases = RpcPhases.start("soaprpc", tracer);
     try {
-      requestData = transport.readRequest("application/soap+xml");
+      String[] requestData = null;
+      try {
+        if(!RpcUtil.isTracing(tracer) && transport instanceof RpcStreamServerTransport) {
+          // The body is parsed directly from the stream (a tracer that may sample needs the text of the request)
+          requestData = ((RpcStreamServerTransport) transport).openRequest("application/soap+xml");
+        }
+        else {
+          requestData = transport.readRequest("application/soap+xml");
+        }
+      }
+      catch(Throwable t) {
+        t.printStackTrace();
+        return;
+      }
+      RpcPhases.mark(RpcPhases.READ);
+      soaprpc_execute(requestData, transport);
     }
-    catch(Throwable t) {
-      t.printStackTrace();
-      return;
+    finally {
+      RpcPhases.end(phases);
     }
-    soaprpc_execute(requestData, transport);
   }
   
   public static
@@ -140,7 +194,12 @@ class SoapRpcExecutor implements RpcExecutor
     SoapRpcContentHandler req = null;
     try {
       req = new SoapRpcContentHandler(true);
-      req.load(requestData[1]);
+      if(requestData[1] != null) {
+        req.load(requestData[1]);
+      }
+      else {
+        req.load(RpcStreams.getInputSource(transport));
+      }
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -168,32 +227,49 @@ class SoapRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
-    String sResult = null;
+    Object result = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params);
-      
-      sResult = XmlRpcSerializer.normalizeString(JSON.stringify(result));
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
     }
     catch(Throwable t) {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException rre = (RpcRemoteException) t;
-        RpcUtil.soaprpc_sendError(transport, rre.getCode(), rre.getMessage(), rre.getData());
-        return;
-      }
-      else
-      if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.soaprpc_sendError(transport, xre.code, xre.getMessage(), null);
-        return;
+      soaprpc_sendFault(requestData, transport, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          soaprpc_sendResult(requestData, transport, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          soaprpc_sendFault(requestData, transport, throwable);
+        }
+      });
+      return;
+    }
+    
+    soaprpc_sendResult(requestData, transport, methodName, result);
+  }
+  
+  private
+  void soaprpc_sendResult(String[] requestData, RpcServerTransport transport, String methodName, Object result)
+  {
+    String sResult = null;
+    try {
+      if(result instanceof RpcResultCache.Entry) {
+        sResult = ((RpcResultCache.Entry) result).getSoap();
       }
-      String errorMessage = t.getMessage();
-      if(errorMessage == null || errorMessage.length() == 0) {
-        errorMessage = t.toString();
+      else {
+        sResult = XmlRpcSerializer.normalizeString(JSON.stringify(result));
       }
-      RpcUtil.soaprpc_sendError(transport, 0, errorMessage, null);
+    }
+    catch(Throwable t) {
+      soaprpc_sendFault(requestData, transport, t);
       return;
     }
     
@@ -205,12 +281,37 @@ class SoapRpcExecutor implements RpcExecutor
       responseData.append(sResult);
       responseData.append("</executeReturn></executeResponse></s:Body></s:Envelope>");
       
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName);
-      transport.writeResponse("text/xml", responseData.toString(), true);
+      String sResponseData = responseData.toString();
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(RpcUtil.isTraced(tracer, methodName)) RpcUtil.traceResult(tracer, requestData[0], requestData[1], sResponseData, methodName);
+      transport.writeResponse("text/xml", sResponseData, true);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName, t);
     }
   }
+  
+  private
+  void soaprpc_sendFault(String[] requestData, RpcServerTransport transport, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException rre = (RpcRemoteException) t;
+      RpcUtil.soaprpc_sendError(transport, rre.getCode(), rre.getMessage(), rre.getData());
+      return;
+    }
+    else
+    if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.soaprpc_sendError(transport, xre.code, xre.getMessage(), null);
+      return;
+    }
+    String errorMessage = t.getMessage();
+    if(errorMessage == null || errorMessage.length() == 0) {
+      errorMessage = t.toString();
+    }
+    RpcUtil.soaprpc_sendError(transport, 0, errorMessage, null);
+  }
 }
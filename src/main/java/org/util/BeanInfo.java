@@ -0,0 +1,284 @@
+package org.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dew.util.ParamConverter;
+
+/**
+ * Bean metadata of a class resolved once per class: the properties read by JSONObject and
+ * WUtil.beanToMap, the properties written by WUtil.populateBean and the code/value accessor
+ * of the CodeAndDesc / NamedParam beans. The accessors are bound to MethodHandles
+ * (Method.invoke is the fallback when the method is not accessible through the public lookup).
+ */
+@SuppressWarnings({"rawtypes"})
+public final
+class BeanInfo
+{
+  private static final ClassValue<BeanInfo> infos = new ClassValue<BeanInfo>() {
+    protected BeanInfo computeValue(Class type) {
+      return new BeanInfo(type);
+    }
+  };
+  
+  protected final Class      beanClass;
+  protected final Property[] getters;
+  protected final Property[] setters;
+  protected final Property   codeValue;
+  
+  protected
+  BeanInfo(Class beanClass)
+  {
+    this.beanClass = beanClass;
+    boolean valueBean = isValueBean(beanClass);
+    
+    List<Property> listGetters = new ArrayList<Property>();
+    List<Property> listSetters = new ArrayList<Property>();
+    Property propCodeValue = null;
+    // If klass is a System class then set includeSuperClass to false.
+    boolean includeSuperClass = beanClass.getClassLoader() != null;
+    Method[] methods = includeSuperClass ? beanClass.getMethods() : beanClass.getDeclaredMethods();
+    for(int i = 0; i < methods.length; i++) {
+      Method method = methods[i];
+      if(!Modifier.isPublic(method.getModifiers())) continue;
+      String name = method.getName();
+      int iArity  = method.getParameterCount();
+      if(valueBean && propCodeValue == null) {
+        if(name.equalsIgnoreCase("getCode") || name.equalsIgnoreCase("getValue")) {
+          propCodeValue = new Property(null, method, false);
+        }
+      }
+      String key = "";
+      if(name.startsWith("get")) {
+        if(!"getClass".equals(name) && !"getDeclaringClass".equals(name)) {
+          key = name.substring(3);
+        }
+      }
+      else if(name.startsWith("is")) {
+        key = name.substring(2);
+      }
+      if(key.length() > 0 && key.charAt(0) < 97 && iArity == 0) {
+        listGetters.add(new Property(getPropertyName(key), method, false));
+        continue;
+      }
+      if(iArity == 1 && name.startsWith("set")) {
+        key = name.substring(3);
+        if(key.length() > 0 && key.charAt(0) < 97) {
+          listSetters.add(new Property(getPropertyName(key), method, true));
+        }
+      }
+    }
+    this.getters   = listGetters.toArray(new Property[listGetters.size()]);
+    this.setters   = listSetters.toArray(new Property[listSetters.size()]);
+    this.codeValue = propCodeValue;
+  }
+  
+  public static
+  BeanInfo getBeanInfo(Class beanClass)
+  {
+    return infos.get(beanClass);
+  }
+  
+  public
+  Class getBeanClass()
+  {
+    return beanClass;
+  }
+  
+  /**
+   * @return true if the class name contains CodeAndDesc or NamedParam
+   */
+  public static
+  boolean isValueBean(Class klass)
+  {
+    String sClassName = klass.getName();
+    return sClassName.indexOf("CodeAndDesc") >= 0 || sClassName.indexOf("NamedParam") >= 0;
+  }
+  
+  /**
+   * @return getXxx / isXxx properties (in getMethods() order)
+   */
+  public
+  Property[] getGetters()
+  {
+    return getters;
+  }
+  
+  /**
+   * @return setXxx properties (in getMethods() order)
+   */
+  public
+  Property[] getSetters()
+  {
+    return setters;
+  }
+  
+  /**
+   * @return first getCode / getValue method of a value bean or null
+   */
+  public
+  Property getCodeValue()
+  {
+    return codeValue;
+  }
+  
+  /**
+   * Property name from the method name without prefix ("Name" -&gt; "name", "URL" -&gt; "URL").
+   */
+  public static
+  String getPropertyName(String key)
+  {
+    if(key.length() == 1) {
+      return key.toLowerCase();
+    }
+    if(!Character.isUpperCase(key.charAt(1))) {
+      return key.substring(0, 1).toLowerCase() + key.substring(1);
+    }
+    return key;
+  }
+  
+  /**
+   * Accessor (getter or setter) of a bean property.
+   * As with Method.invoke the exceptions thrown by the accessor are wrapped in InvocationTargetException.
+   */
+  public static final
+  class Property
+  {
+    protected final String       name;
+    protected final Method       method;
+    protected final Class        type;
+    protected final boolean      primitive;
+    protected final MethodHandle handle;
+    protected String  genericType;
+    protected boolean genericResolved;
+    protected ParamConverter[] converters;
+    
+    protected
+    Property(String name, Method method, boolean setter)
+    {
+      this.name   = name;
+      this.method = method;
+      if(setter) {
+        Class paramType = method.getParameterTypes()[0];
+        this.primitive = paramType.isPrimitive();
+        this.type      = primitive ? MethodType.methodType(paramType).wrap().returnType() : paramType;
+        this.handle    = createHandle(method, 1);
+      }
+      else {
+        this.primitive = false;
+        this.type      = method.getReturnType();
+        this.handle    = method.getParameterCount() == 0 ? createHandle(method, 0) : null;
+      }
+    }
+    
+    public
+    String getName()
+    {
+      return name;
+    }
+    
+    public
+    Method getMethod()
+    {
+      return method;
+    }
+    
+    /**
+     * @return toString of the parameterized type of the setter parameter or null
+     */
+    public
+    String getGenericType()
+    {
+      if(!genericResolved) {
+        String sResult = null;
+        Type[] genericParameterTypes = method.getGenericParameterTypes();
+        if(genericParameterTypes != null) {
+          for(int t = 0; t < genericParameterTypes.length; t++) {
+            if(genericParameterTypes[t] instanceof ParameterizedType) {
+              sResult = genericParameterTypes[t].toString();
+            }
+          }
+        }
+        genericType     = sResult;
+        genericResolved = true;
+      }
+      return genericType;
+    }
+    
+    /**
+     * @return converters of the setter parameter (see WUtil.populateBean)
+     */
+    public
+    ParamConverter[] getConverters()
+    {
+      if(converters == null) converters = ParamConverter.createConverters(method);
+      return converters;
+    }
+    
+    public
+    Object get(Object bean)
+      throws Exception
+    {
+      if(handle == null) {
+        return method.invoke(bean, (Object[]) null);
+      }
+      try {
+        return (Object) handle.invokeExact(bean);
+      }
+      catch(Throwable th) {
+        throw new InvocationTargetException(th);
+      }
+    }
+    
+    public
+    void set(Object bean, Object value)
+      throws Exception
+    {
+      // Values that need a conversion (or are not valid) follow the rules of Method.invoke
+      boolean boExact = value == null ? !primitive : (primitive ? value.getClass() == type : type.isInstance(value));
+      if(handle == null || !boExact) {
+        method.invoke(bean, new Object[] { value });
+        return;
+      }
+      try {
+        handle.invokeExact(bean, value);
+      }
+      catch(Throwable th) {
+        throw new InvocationTargetException(th);
+      }
+    }
+    
+    protected static
+    MethodHandle createHandle(Method method, int arity)
+    {
+      try {
+        MethodHandle mh = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+        if(Modifier.isStatic(method.getModifiers())) {
+          mh = MethodHandles.dropArguments(mh, 0, Object.class);
+        }
+        // getter (Object bean)Object, setter (Object bean, Object value)void
+        return arity == 0 ? mh.asType(MethodType.methodType(Object.class, Object.class)) : mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+      }
+      catch(Throwable th) {
+        return null;
+      }
+    }
+    
+    @Override
+    public
+    String toString()
+    {
+      return name + "=" + method;
+    }
+  }
+}
@@ -2,9 +2,6 @@ package org.util;
 
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -33,7 +30,7 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
 
-import org.dew.util.RefUtil;
+import org.dew.util.ParamConverter;
 
 import org.json.JSON;
 import org.json.JSONObject;
@@ -2029,60 +2026,34 @@ class WUtil
       return mapResult;
     }
     
-    // If klass is a System class then set includeSuperClass to false.
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods  = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
+    BeanInfo.Property[] getters = BeanInfo.getBeanInfo(klass).getGetters();
     String methodName = null;
-    for(int i = 0; i < methods.length; i++) {
+    for(int i = 0; i < getters.length; i++) {
       try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          methodName = method.getName();
-          String key = "";
-          if(methodName.startsWith("get")) {
-            if("getClass".equals(methodName) || "getDeclaringClass".equals(methodName)) {
-              key = "";
-            } 
-            else {
-              key = methodName.substring(3);
-            }
-          } 
+        methodName = getters[i].getMethod().getName();
+        String key = getters[i].getName();
+        Object result = getters[i].get(bean);
+        if(result instanceof Collection) {
+          mapResult.put(key, collectionToNormalizedList((Collection) result));
+        }
+        else
+        if(result != null) {
+          Class klassResult = result.getClass();
+          // 1.5+
+          if(klassResult.isEnum()) {
+            mapResult.put(key, result.toString());
+          }
           else
-          if(methodName.startsWith("is")) {
-            key = methodName.substring(2);
+          if(klassResult.isArray()) {
+            mapResult.put(key, arrayToNormalizedList(result));
           }
-          if(key.length() > 0 && key.charAt(0) < 97 && method.getParameterTypes().length == 0) {
-            if(key.length() == 1) {
-              key = key.toLowerCase();
-            } 
-            else
-            if(!Character.isUpperCase(key.charAt(1))) {
-              key = key.substring(0, 1).toLowerCase() + key.substring(1);
-            }
-            Object result = method.invoke(bean,(Object[]) null);
-            if(result instanceof Collection) {
-              mapResult.put(key, collectionToNormalizedList((Collection) result));
+          else {
+            String classNameResult = klassResult.getName();
+            if(!classNameResult.startsWith("java.")) {
+              mapResult.put(key, beanToMap(result));
             }
-            else
-            if(result != null) {
-              Class klassResult = result.getClass();
-              // 1.5+
-              if(klassResult.isEnum()) {
-                mapResult.put(key, result.toString());
-              }
-              else
-              if(klassResult.isArray()) {
-                mapResult.put(key, arrayToNormalizedList(result));
-              }
-              else {
-                String classNameResult = klassResult.getName();
-                if(!classNameResult.startsWith("java.")) {
-                  mapResult.put(key, beanToMap(result));
-                }
-                else {
-                  mapResult.put(key, result);
-                }
-              }
+            else {
+              mapResult.put(key, result);
             }
           }
         }
@@ -2168,49 +2139,21 @@ class WUtil
     List params = new ArrayList(1);
     params.add(null);
     
-    // If klass is a System class then set includeSuperClass to false.
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods  = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
+    BeanInfo.Property[] setters = BeanInfo.getBeanInfo(klass).getSetters();
     String methodName = null;
-    for(int i = 0; i < methods.length; i++) {
+    for(int i = 0; i < setters.length; i++) {
       try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          methodName = method.getName();
-          String key = "";
-          if(methodName.startsWith("set")) {
-            key = methodName.substring(3);
-          }
-          if(key.length() > 0 && key.charAt(0) < 97 && method.getParameterTypes().length == 1) {
-            if(key.length() == 1) {
-              key = key.toLowerCase();
-            } 
-            else
-            if(!Character.isUpperCase(key.charAt(1))) {
-              key = key.substring(0, 1).toLowerCase() + key.substring(1);
-            }
-            String genericParameterType  = null;
-            Type[] genericParameterTypes = method.getGenericParameterTypes();
-            if(genericParameterTypes != null && genericParameterTypes.length > 0) {
-              for(int t = 0; t < genericParameterTypes.length; t++) {
-                Type type = genericParameterTypes[t];
-                if(type instanceof ParameterizedType) {
-                  genericParameterType = type.toString();
-                }
-              }
-            }
-            if(genericParameterType != null) {
-              Object[] parameters = new Object[1];
-              parameters[0] = toObject(mapValues.get(key), genericParameterType, classLoader);
-              method.invoke(bean, parameters);
-            }
-            else {
-              params.set(0, mapValues.get(key));
-              Object[] parameters = RefUtil.getParametersExt(method, params);
-              if(parameters == null) continue;
-              method.invoke(bean, parameters);
-            }
-          }
+        BeanInfo.Property setter = setters[i];
+        methodName = setter.getMethod().getName();
+        String genericParameterType = setter.getGenericType();
+        if(genericParameterType != null) {
+          setter.set(bean, toObject(mapValues.get(setter.getName()), genericParameterType, classLoader));
+        }
+        else {
+          params.set(0, mapValues.get(setter.getName()));
+          Object[] parameters = ParamConverter.convertExt(setter.getConverters(), params);
+          if(parameters == null) continue;
+          setter.set(bean, parameters[0]);
         }
       } 
       catch(Exception ex) {
@@ -3789,4 +3732,4 @@ class WUtil
     }
     return object;
   }
-}
\ No newline at end of file
+}
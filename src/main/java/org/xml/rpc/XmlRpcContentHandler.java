@@ -38,7 +38,13 @@ class XmlRpcContentHandler implements ContentHandler
   void load(String sText)
     throws Exception
   {
-    InputSource inputSource = new InputSource(new ByteArrayInputStream(sText.getBytes()));
+    load(new InputSource(new ByteArrayInputStream(sText.getBytes())));
+  }
+  
+  public
+  void load(InputSource inputSource)
+    throws Exception
+  {
     XMLReader xmlReader = XMLReaderFactory.createXMLReader();
     xmlReader.setContentHandler(this);
     xmlReader.parse(inputSource);
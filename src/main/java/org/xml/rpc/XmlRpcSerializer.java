@@ -1,5 +1,7 @@
 package org.xml.rpc;
 
+import java.io.IOException;
+
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -16,6 +18,9 @@ import java.util.Map;
 
 import org.rpc.util.Base64Coder;
 import org.rpc.util.Mapable;
+import org.rpc.util.RpcBinary;
+
+import org.util.BeanInfo;
 
 public
 class XmlRpcSerializer
@@ -28,109 +33,149 @@ class XmlRpcSerializer
   
   public static
   String serialize(Object object, boolean boLegacy)
+  {
+    StringBuilder sb = new StringBuilder();
+    try {
+      serialize(object, boLegacy, sb);
+    }
+    catch(IOException ex) {
+      // StringBuilder does not throw IOException
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Serialize the value directly to the output (e.g. Writer of the response).
+   *
+   * @param object value
+   * @param boLegacy legacy mode
+   * @param out Appendable
+   */
+  public static
+  void serialize(Object object, boolean boLegacy, Appendable out)
+    throws IOException
   {
     if(object == null) {
-      return boLegacy ? "" : "<value><nil/></value>"; // Estensione
+      if(!boLegacy) out.append("<value><nil/></value>"); // Estensione
     }
     else
     if(object instanceof String) {
-      return "<value>" + normalizeString((String) object) + "</value>";
+      out.append("<value>");
+      normalizeString((String) object, out);
+      out.append("</value>");
     }
     else
     if(object instanceof Integer) {
-      return "<value><int>" + object + "</int></value>";
+      out.append("<value><int>").append(object.toString()).append("</int></value>");
     }
     else
     if(object instanceof Double) {
-      return "<value><double>" + object + "</double></value>";
+      out.append("<value><double>").append(object.toString()).append("</double></value>");
     }
     else
     if(object instanceof java.util.Date) {
-      return "<value><dateTime.iso8601>" + serializeDate(object) + "</dateTime.iso8601></value>";
+      out.append("<value><dateTime.iso8601>").append(serializeDate(object)).append("</dateTime.iso8601></value>");
     }
     else
     if(object instanceof java.util.Calendar) {
-      return "<value><dateTime.iso8601>" + serializeDate(object) + "</dateTime.iso8601></value>";
+      out.append("<value><dateTime.iso8601>").append(serializeDate(object)).append("</dateTime.iso8601></value>");
     }
     else // 1.8+
     if(object instanceof java.time.LocalDate) {
-      return "<value><dateTime.iso8601>" + serializeDate(object) + "</dateTime.iso8601></value>";
+      out.append("<value><dateTime.iso8601>").append(serializeDate(object)).append("</dateTime.iso8601></value>");
     }
     else // 1.8+
     if(object instanceof java.time.LocalDateTime) {
-      return "<value><dateTime.iso8601>" + serializeDate(object) + "</dateTime.iso8601></value>";
+      out.append("<value><dateTime.iso8601>").append(serializeDate(object)).append("</dateTime.iso8601></value>");
     }
     else
     if(object instanceof Boolean) {
       if(((Boolean) object).booleanValue()) {
-        return "<value><boolean>1</boolean></value>";
+        out.append("<value><boolean>1</boolean></value>");
       }
       else {
-        return "<value><boolean>0</boolean></value>";
+        out.append("<value><boolean>0</boolean></value>");
       }
     }
     else
     if(object instanceof Map) {
-      return serializeMap((Map<?, ?>) object, boLegacy);
+      serializeMap((Map<?, ?>) object, boLegacy, out);
     }
     else
     if(object instanceof Map.Entry) {
-      return serialize(((Map.Entry<?, ?>) object).getValue(), boLegacy);
+      serialize(((Map.Entry<?, ?>) object).getValue(), boLegacy, out);
     }
     else
     if(object instanceof Collection) {
-      return serializeCollection((Collection<?>) object, boLegacy);
+      serializeCollection((Collection<?>) object, boLegacy, out);
     }
     else
     if(object instanceof byte[]) {
-      return "<value><base64>" + String.valueOf(Base64Coder.encode((byte[]) object))  + "</base64></value>";
+      out.append("<value><base64>").append(String.valueOf(Base64Coder.encode((byte[]) object))).append("</base64></value>");
+    }
+    else
+    if(object instanceof RpcBinary) {
+      serialize(((RpcBinary) object).getValue(), boLegacy, out);
     }
     else
     if(object.getClass().isArray()) {
-      return serializeArray(object, boLegacy);
+      serializeArray(object, boLegacy, out);
     }
     else
     if(object.getClass().isEnum()) {
-      return "<value>" + normalizeString(object.toString()) + "</value>";
+      out.append("<value>");
+      normalizeString(object.toString(), out);
+      out.append("</value>");
     }
     else
     if(object instanceof Mapable) {
       Map<String, Object> map = ((Mapable) object).toMap();
-      return map != null ? serializeMap(map, boLegacy) : "<value><nil/></value>";
+      if(map != null) {
+        serializeMap(map, boLegacy, out);
+      }
+      else {
+        out.append("<value><nil/></value>");
+      }
     }
     else
     if(object instanceof Long) {
-      return boLegacy ? "<value><int>" + object + "</int></value>" : "<value><long>" + object + "</long></value>"; // Estensione (non standard)
+      if(boLegacy) {
+        out.append("<value><int>").append(object.toString()).append("</int></value>");
+      }
+      else {
+        out.append("<value><long>").append(object.toString()).append("</long></value>"); // Estensione (non standard)
+      }
     }
     else
     if(object instanceof Short) {
-      return "<value><int>" + object + "</int></value>";
+      out.append("<value><int>").append(object.toString()).append("</int></value>");
     }
     else
     if(object instanceof Float) {
-      return "<value><double>" + object + "</double></value>";
+      out.append("<value><double>").append(object.toString()).append("</double></value>");
     }
     else
     if(object instanceof BigDecimal) {
-      return "<value><double>" + object + "</double></value>";
+      out.append("<value><double>").append(object.toString()).append("</double></value>");
     }
     else
     if(object instanceof BigInteger) {
-      return boLegacy ? "<value><int>" + object + "</int></value>" : "<value><long>" + object + "</long></value>"; // Estensione (non standard)
+      if(boLegacy) {
+        out.append("<value><int>").append(object.toString()).append("</int></value>");
+      }
+      else {
+        out.append("<value><long>").append(object.toString()).append("</long></value>"); // Estensione (non standard)
+      }
     }
     else
-    if(object instanceof CharSequence) {
-      return "<value>" + normalizeString(object.toString()) + "</value>";
+    if(object instanceof CharSequence || object instanceof java.net.URL || object instanceof java.net.URI || object instanceof java.io.File) {
+      out.append("<value>");
+      normalizeString(object.toString(), out);
+      out.append("</value>");
     }
-    else
-    if(object instanceof java.net.URL || object instanceof java.net.URI) {
-      return "<value>" + normalizeString(object.toString()) + "</value>";
+    else {
+      serializeBean(object, boLegacy, out);
     }
-    else
-    if(object instanceof java.io.File) {
-      return "<value>" + normalizeString(object.toString()) + "</value>";
-    }
-    return serializeBean(object, boLegacy);
   }
   
   public static
@@ -138,139 +183,169 @@ class XmlRpcSerializer
   {
     if(sValue == null) return "null";
     StringBuilder sbResult = new StringBuilder(sValue.length());
+    try {
+      normalizeString(sValue, sbResult);
+    }
+    catch(IOException ex) {
+      // StringBuilder does not throw IOException
+    }
+    return sbResult.toString();
+  }
+  
+  public static
+  void normalizeString(String sValue, Appendable out)
+    throws IOException
+  {
+    if(sValue == null) {
+      out.append("null");
+      return;
+    }
     int iLength = sValue.length();
+    int iBegin  = 0;
     for(int i = 0; i < iLength; i++) {
-      char c = sValue.charAt(i);
-      switch(c) {
+      String sEntity = null;
+      switch(sValue.charAt(i)) {
         case '<':
-          sbResult.append("&lt;");
+          sEntity = "&lt;";
           break;
         case '>':
-          sbResult.append("&gt;");
+          sEntity = "&gt;";
           break;
         case '&':
-          sbResult.append("&amp;");
+          sEntity = "&amp;";
           break;
-        default:
-          sbResult.append(c);
+      }
+      if(sEntity != null) {
+        out.append(sValue, iBegin, i).append(sEntity);
+        iBegin = i + 1;
       }
     }
-    return sbResult.toString();
+    out.append(sValue, iBegin, iLength);
+  }
+  
+  /**
+   * Value actually serialized: beans CodeAndDesc and NamedParam are serialized as their code (or value).
+   */
+  private static
+  Object getSerializedValue(Object object)
+  {
+    if(object instanceof Map.Entry) {
+      return getSerializedValue(((Map.Entry<?, ?>) object).getValue());
+    }
+    if(object == null || !isValueBean(object.getClass())) return object;
+    Method[] methods = getBeanMethods(object.getClass());
+    for(int i = 0; i < methods.length; i++) {
+      Method method = methods[i];
+      String name = method.getName();
+      if(!Modifier.isPublic(method.getModifiers()) || !name.startsWith("get")) continue;
+      String key = name.substring(3);
+      if(key.equalsIgnoreCase("code") || key.equalsIgnoreCase("value")) {
+        try {
+          return getSerializedValue(method.invoke(object,(Object[]) null));
+        }
+        catch(Exception ex) {
+        }
+      }
+    }
+    return object;
   }
   
   private static
-  String serializeMap(Map<?, ?> map, boolean boLegacy)
+  boolean isValueBean(Class<?> klass)
   {
-    StringBuilder sb = new StringBuilder(map.size() * 50 + 50);
-    sb.append("<value><struct>");
+    String sClassName = klass.getName();
+    return sClassName.indexOf("CodeAndDesc") >= 0 || sClassName.indexOf("NamedParam") >= 0;
+  }
+  
+  private static
+  Method[] getBeanMethods(Class<?> klass)
+  {
+    // If klass is a System class then set includeSuperClass to false.
+    boolean includeSuperClass = klass.getClassLoader() != null;
+    return includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
+  }
+  
+  private static
+  void serializeMap(Map<?, ?> map, boolean boLegacy, Appendable out)
+    throws IOException
+  {
+    out.append("<value><struct>");
     Iterator<? extends Map.Entry<?, ?>> iterator = map.entrySet().iterator();
     while(iterator.hasNext()) {
       Map.Entry<?, ?> entry = iterator.next();
       Object oKey   = entry.getKey();
       Object oValue = entry.getValue();
       if(oValue != null) {
-        String sSerializedValue = serialize(oValue, boLegacy);
-        if(sSerializedValue != null && sSerializedValue.length() > 0) {
-          sb.append("<member><name>");
-          sb.append(oKey.toString());
-          sb.append("</name>");
-          sb.append(sSerializedValue);
-          sb.append("</member>");
-        }
+        // In legacy mode null is not serialized
+        if(boLegacy && getSerializedValue(oValue) == null) continue;
+        out.append("<member><name>");
+        out.append(oKey.toString());
+        out.append("</name>");
+        serialize(oValue, boLegacy, out);
+        out.append("</member>");
       }
       else if(!boLegacy) {
-        sb.append("<member><name>");
-        sb.append(oKey.toString());
-        sb.append("</name><value><nil/></value></member>"); // Estensione
+        out.append("<member><name>");
+        out.append(oKey.toString());
+        out.append("</name><value><nil/></value></member>"); // Estensione
       }
     }
-    sb.append("</struct></value>");
-    return sb.toString();
+    out.append("</struct></value>");
   }
   
   private static
-  String serializeCollection(Collection<?> collection, boolean boLegacy)
+  void serializeCollection(Collection<?> collection, boolean boLegacy, Appendable out)
+    throws IOException
   {
-    StringBuilder sb = new StringBuilder(collection.size() * 20 + 50);
-    sb.append("<value><array><data>");
+    out.append("<value><array><data>");
     Iterator<?> iterator = collection.iterator();
     while(iterator.hasNext()) {
-      sb.append(serialize(iterator.next(), boLegacy));
+      serialize(iterator.next(), boLegacy, out);
     }
-    sb.append("</data></array></value>");
-    return sb.toString();
+    out.append("</data></array></value>");
   }
   
   private static
-  String serializeArray(Object array, boolean boLegacy)
+  void serializeArray(Object array, boolean boLegacy, Appendable out)
+    throws IOException
   {
     int length = Array.getLength(array);
-    StringBuilder sb = new StringBuilder(length * 20 + 50);
-    sb.append("<value><array><data>");
+    out.append("<value><array><data>");
     for(int i = 0; i < length; i++) {
-      sb.append(serialize(Array.get(array, i), boLegacy));
+      serialize(Array.get(array, i), boLegacy, out);
     }
-    sb.append("</data></array></value>");
-    return sb.toString();
+    out.append("</data></array></value>");
   }
   
   private static
-  String serializeBean(Object bean, boolean boLegacy)
+  void serializeBean(Object bean, boolean boLegacy, Appendable out)
+    throws IOException
   {
-    StringBuilder sb = new StringBuilder();
-    sb.append("<value><struct>");
-    Class<?> klass  = bean.getClass();
-    
-    String sClassName = klass.getName();
-    boolean boValue   = sClassName.indexOf("CodeAndDesc") >= 0 || sClassName.indexOf("NamedParam") >= 0;
-    
-    // If klass is a System class then set includeSuperClass to false.
-    boolean includeSuperClass = klass.getClassLoader() != null;
-    Method[] methods = includeSuperClass ? klass.getMethods() : klass.getDeclaredMethods();
-    for(int i = 0; i < methods.length; i++) {
+    Class<?> klass = bean.getClass();
+    if(isValueBean(klass)) {
+      Object oValue = getSerializedValue(bean);
+      if(oValue != bean) {
+        serialize(oValue, boLegacy, out);
+        return;
+      }
+    }
+    out.append("<value><struct>");
+    BeanInfo.Property[] getters = BeanInfo.getBeanInfo(klass).getGetters();
+    for(int i = 0; i < getters.length; i++) {
       try {
-        Method method = methods[i];
-        if(Modifier.isPublic(method.getModifiers())) {
-          String name = method.getName();
-          String key  = "";
-          if(name.startsWith("get")) {
-            if("getClass".equals(name) || "getDeclaringClass".equals(name)) {
-              key = "";
-            }
-            else {
-              key = name.substring(3);
-              if(boValue &&(key.equalsIgnoreCase("code") || key.equalsIgnoreCase("value"))) {
-                Object oValue = method.invoke(bean,(Object[]) null);
-                return serialize(oValue, boLegacy);
-              }
-            }
-          }
-          else if(name.startsWith("is")) {
-            key = name.substring(2);
-          }
-          if(key.length() > 0 && key.charAt(0) < 97 && method.getParameterTypes().length == 0) {
-            if(key.length() == 1) {
-              key = key.toLowerCase();
-            }
-            else if(!Character.isUpperCase(key.charAt(1))) {
-              key = key.substring(0, 1).toLowerCase() + key.substring(1);
-            }
-            Object oValue = method.invoke(bean,(Object[]) null);
-            if(oValue != null) {
-              sb.append("<member><name>");
-              sb.append(key);
-              sb.append("</name>");
-              sb.append(serialize(oValue, boLegacy));
-              sb.append("</member>");
-            }
-          }
+        Object oValue = getters[i].get(bean);
+        if(oValue != null) {
+          out.append("<member><name>");
+          out.append(getters[i].getName());
+          out.append("</name>");
+          serialize(oValue, boLegacy, out);
+          out.append("</member>");
         }
       }
       catch(Exception ex) {
       }
     }
-    sb.append("</struct></value>");
-    return sb.toString();
+    out.append("</struct></value>");
   }
   
   private static
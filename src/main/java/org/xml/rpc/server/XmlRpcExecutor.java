@@ -4,13 +4,22 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import org.apache.xmlrpc.XmlRpcException;
 
 import org.json.rpc.commons.RpcRemoteException;
+import org.rpc.server.RpcAsync;
 import org.rpc.server.RpcAudit;
+import org.rpc.server.RpcCoalescer;
+import org.rpc.server.RpcDispatcher;
 import org.rpc.server.RpcExecutor;
+import org.rpc.server.RpcPhases;
+import org.rpc.server.RpcResponseWriter;
+import org.rpc.server.RpcResultCache;
 import org.rpc.server.RpcServerTransport;
+import org.rpc.server.RpcStreamServerTransport;
+import org.rpc.server.RpcStreams;
 import org.rpc.server.RpcTracer;
 import org.rpc.server.RpcUtil;
 import org.util.WUtil;
@@ -24,6 +33,9 @@ class XmlRpcExecutor implements RpcExecutor
   protected Map handlers;
   protected RpcTracer tracer;
   protected RpcAudit audit;
+  protected Executor invocationExecutor;
+  protected RpcResultCache resultCache;
+  protected RpcCoalescer coalescer;
   
   public XmlRpcExecutor()
   {
@@ -46,6 +58,8 @@ class XmlRpcExecutor implements RpcExecutor
       }
       this.handlers.put(name, handler);
     }
+    // Build the dispatch table of the handler
+    RpcDispatcher.getDispatcher(handler);
   }
   
   public
@@ -68,18 +82,59 @@ class XmlRpcExecutor implements RpcExecutor
     this.audit = audit;
   }
   
+  /**
+   * Set the executor of the handler methods (null = current thread), e.g. RpcWorkers.newVirtualThreadPerCall().
+   * With an asynchronous transport the calling thread is released during the invocation.
+   */
+  public
+  void setInvocationExecutor(Executor invocationExecutor)
+  {
+    this.invocationExecutor = invocationExecutor;
+  }
+  
+  /**
+   * Set the cache of the results of the RpcCacheable (or registered) methods (null = no cache).
+   */
+  public
+  void setResultCache(RpcResultCache resultCache)
+  {
+    this.resultCache = resultCache;
+  }
+  
+  /**
+   * Set the RpcCoalescer of the RpcCoalesce (or registered) methods (null = no coalescing).
+   */
+  public
+  void setCoalescer(RpcCoalescer coalescer)
+  {
+    this.coalescer = coalescer;
+  }
+  
   public
   void execute(RpcServerTransport transport)
   {
-    String[] requestData = null;
+    RpcPhases phases = RpcPhases.start("xmlrpc", tracer);
     try {
-      requestData = transport.readRequest("text/xml");
+      String[] requestData = null;
+      try {
+        if(!RpcUtil.isTracing(tracer) && transport instanceof RpcStreamServerTransport) {
+          // The body is parsed directly from the stream (a tracer that may sample needs the text of the request)
+          requestData = ((RpcStreamServerTransport) transport).openRequest("text/xml");
+        }
+        else {
+          requestData = transport.readRequest("text/xml");
+        }
+      }
+      catch(Throwable t) {
+        t.printStackTrace();
+        return;
+      }
+      RpcPhases.mark(RpcPhases.READ);
+      xmlrpc_execute(requestData, transport);
     }
-    catch(Throwable t) {
-      t.printStackTrace();
-      return;
+    finally {
+      RpcPhases.end(phases);
     }
-    xmlrpc_execute(requestData, transport);
   }
   
   private
@@ -91,7 +146,12 @@ class XmlRpcExecutor implements RpcExecutor
     XmlRpcContentHandler req = null;
     try {
       req = new XmlRpcContentHandler(true);
-      req.load(requestData[1]);
+      if(requestData[1] != null) {
+        req.load(requestData[1]);
+      }
+      else {
+        req.load(RpcStreams.getInputSource(transport));
+      }
     }
     catch(Throwable t) {
       t.printStackTrace();
@@ -119,32 +179,82 @@ class XmlRpcExecutor implements RpcExecutor
       return;
     }
     
+    RpcPhases.mark(RpcPhases.PARSE);
     if(!transport.checkAuthorization(methodName)) return;
+    RpcPhases.mark(RpcPhases.AUTHORIZATION);
     
-    String sResult = null;
+    Object result = null;
     try {
-      Object result = RpcUtil.executeMethod(handlers, audit, methodName, params);
-      
-      sResult = XmlRpcSerializer.serialize(result);
+      result = RpcUtil.executeMethod(invocationExecutor, handlers, audit, resultCache, coalescer, methodName, params);
     }
     catch(Throwable t) {
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
-      if(t instanceof RpcRemoteException) {
-        RpcRemoteException rre = (RpcRemoteException) t;
-        RpcUtil.xmlrpc_sendError(transport, rre.getCode(), rre.getMessage());
-        return;
+      xmlrpc_sendFault(requestData, transport, t);
+      return;
+    }
+    
+    if(RpcAsync.isAsync(result)) {
+      final String fMethodName = methodName;
+      RpcAsync.execute(transport, result, new RpcAsync.Callback() {
+        public void onResult(Object value) {
+          xmlrpc_sendResult(requestData, transport, fMethodName, value);
+        }
+        public void onError(Throwable throwable) {
+          xmlrpc_sendFault(requestData, transport, throwable);
+        }
+      });
+      return;
+    }
+    
+    xmlrpc_sendResult(requestData, transport, methodName, result);
+  }
+  
+  private
+  void xmlrpc_sendResult(String[] requestData, RpcServerTransport transport, String methodName, Object result)
+  {
+    boolean traced = RpcUtil.isTraced(tracer, methodName);
+    if(!traced && transport instanceof RpcStreamServerTransport) {
+      // The response is serialized directly to the output stream (opened after the first chunk)
+      RpcResponseWriter writer = new RpcResponseWriter((RpcStreamServerTransport) transport, "text/xml");
+      try {
+        String sEncoding = transport.getEncoding();
+        if(sEncoding != null && sEncoding.length() > 0) {
+          writer.write("<?xml version=\"1.0\" encoding=\"" + sEncoding + "\"?><methodResponse><params><param>");
+        }
+        else {
+          writer.write("<?xml version=\"1.0\"?><methodResponse><params><param>");
+        }
+        if(result instanceof RpcResultCache.Entry) {
+          writer.write(((RpcResultCache.Entry) result).getXmlRpc());
+        }
+        else {
+          XmlRpcSerializer.serialize(result, false, writer);
+        }
+        writer.write("</param></params></methodResponse>");
+        writer.close();
+        RpcPhases.mark(RpcPhases.WRITE);
       }
-      else
-      if(t instanceof XmlRpcException) {
-        XmlRpcException xre = (XmlRpcException) t;
-        RpcUtil.xmlrpc_sendError(transport, xre.code, xre.getMessage());
-        return;
+      catch(Throwable t) {
+        if(!writer.isOpened()) {
+          // Nothing has been sent: fault as in the buffered mode
+          xmlrpc_sendFault(requestData, transport, t);
+          return;
+        }
+        t.printStackTrace();
       }
-      String errorMessage = t.getMessage();
-      if(errorMessage == null || errorMessage.length() == 0) {
-        errorMessage = t.toString();
+      return;
+    }
+    
+    String sResult = null;
+    try {
+      if(result instanceof RpcResultCache.Entry) {
+        sResult = ((RpcResultCache.Entry) result).getXmlRpc();
       }
-      RpcUtil.xmlrpc_sendError(transport, 0, errorMessage);
+      else {
+        sResult = XmlRpcSerializer.serialize(result);
+      }
+    }
+    catch(Throwable t) {
+      xmlrpc_sendFault(requestData, transport, t);
       return;
     }
     
@@ -161,13 +271,37 @@ class XmlRpcExecutor implements RpcExecutor
       responseData.append(sResult);
       responseData.append("</param></params></methodResponse>");
       
-      if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName);
-      transport.writeResponse("text/xml", responseData.toString(), false);
+      String sResponseData = responseData.toString();
+      RpcPhases.mark(RpcPhases.SERIALIZE);
+      if(traced) RpcUtil.traceResult(tracer, requestData[0], requestData[1], sResponseData, methodName);
+      transport.writeResponse("text/xml", sResponseData, false);
+      RpcPhases.mark(RpcPhases.WRITE);
     }
     catch(Throwable t) {
       t.printStackTrace();
       if(tracer != null) tracer.trace(requestData[0], requestData[1], responseData.toString(), methodName, t);
     }
   }
+  
+  private
+  void xmlrpc_sendFault(String[] requestData, RpcServerTransport transport, Throwable t)
+  {
+    if(tracer != null) tracer.trace(requestData[0], requestData[1], t);
+    if(t instanceof RpcRemoteException) {
+      RpcRemoteException rre = (RpcRemoteException) t;
+      RpcUtil.xmlrpc_sendError(transport, rre.getCode(), rre.getMessage());
+      return;
+    }
+    else
+    if(t instanceof XmlRpcException) {
+      XmlRpcException xre = (XmlRpcException) t;
+      RpcUtil.xmlrpc_sendError(transport, xre.code, xre.getMessage());
+      return;
+    }
+    String errorMessage = t.getMessage();
+    if(errorMessage == null || errorMessage.length() == 0) {
+      errorMessage = t.toString();
+    }
+    RpcUtil.xmlrpc_sendError(transport, 0, errorMessage);
+  }
 }
-
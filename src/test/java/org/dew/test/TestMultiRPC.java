@@ -1,17 +1,70 @@
 package org.dew.test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cbor.CBOR;
+import org.cbor.rpc.client.CborRpcInvoker;
 
+import org.json.JSON;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONPullParser;
+import org.json.JSONTokener;
+import org.json.JsonWriter;
+import org.json.LazyJSONObject;
 import org.json.rpc.client.JsonRpcInvoker;
+import org.json.rpc.commons.RpcRemoteException;
 
+import org.rpc.client.RpcBinaryClientTransport;
 import org.rpc.client.RpcClientTransport;
 import org.rpc.client.RpcInvoker;
 
+import org.rpc.server.JsonRpcEnvelope;
+import org.rpc.server.JsonRpcNotifications;
 import org.rpc.server.MultiRpcExecutor;
+import org.rpc.server.RpcAsyncServerTransport;
+import org.rpc.server.RpcAttachments;
+import org.rpc.server.RpcAudit;
+import org.rpc.server.RpcAsyncTracer;
+import org.rpc.server.RpcBatchAudit;
+import org.rpc.server.RpcCacheable;
+import org.rpc.server.RpcCoalesce;
+import org.rpc.server.RpcCoalescer;
+import org.rpc.server.RpcCompression;
+import org.rpc.server.RpcCredentialCache;
 import org.rpc.server.RpcExecutor;
+import org.rpc.server.RpcHistogram;
+import org.rpc.server.RpcIOTransport;
+import org.rpc.server.RpcMetrics;
+import org.rpc.server.RpcPhaseTracer;
+import org.rpc.server.RpcPhases;
+import org.rpc.server.RpcResultCache;
 import org.rpc.server.RpcServerTransport;
+import org.rpc.server.RpcTracer;
+import org.rpc.server.RpcUtil;
+import org.rpc.server.RpcWorkers;
+
+import org.rpc.util.Mapable;
+import org.rpc.util.RPCContext;
+import org.rpc.util.RpcBinary;
+import org.rpc.util.SimplePrincipal;
+import org.rpc.util.WebContext;
+
+import org.xml.rpc.XmlRpcSerializer;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
@@ -25,18 +78,25 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
   // Buffer
   private String sRequestData;
   private String sResponseData;
-
+  private String sNotified;
+  private int    iCounter;
+  private CountDownLatch entered;
+  private CountDownLatch release;
+  private CountDownLatch arrived;
+  private CompletableFuture<String> pendingStage;
+  private CompletableFuture<String> neverStage;
+  
   public TestMultiRPC(String testName) {
     super(testName);
-
+    
     rpcExecutor = new MultiRpcExecutor();
     rpcExecutor.addHandler("TEST", this);
   }
-
+  
   public static Test suite() {
     return new TestSuite(TestMultiRPC.class);
   }
-
+  
   public void testApp() throws Throwable {
     List<Object> parameters = new ArrayList<Object>();
     parameters.add("World");
@@ -48,12 +108,1198 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
     assert(result.equals("Hello World!"));
   }
   
+  public void testOverloads() throws Throwable {
+    RpcInvoker rpcInvoker = new JsonRpcInvoker();
+    rpcInvoker.setTransport(this);
+    
+    List<Object> parameters = new ArrayList<Object>();
+    parameters.add(1);
+    parameters.add(2);
+    assertEquals(3, rpcInvoker.invoke("TEST.add", parameters));
+    
+    parameters = new ArrayList<Object>();
+    parameters.add("1");
+    parameters.add("2");
+    assertEquals("12", rpcInvoker.invoke("TEST.add", parameters));
+    
+    parameters = new ArrayList<Object>();
+    parameters.add("1");
+    assertEquals("1", rpcInvoker.invoke("TEST.add", parameters));
+  }
+  
+  public void testBatch() throws Throwable {
+    String responseData = call("[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"A\"]},"
+        + "{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"TEST.missing\",\"params\":[]},"
+        + "{\"jsonrpc\":\"2.0\",\"id\":3,\"method\":\"TEST.add\",\"params\":[1,2]}]");
+    
+    JSONArray responses = new JSONArray(responseData);
+    assertEquals(3, responses.length());
+    assertEquals("Hello A!", responses.getJSONObject(0).get("result"));
+    assertEquals(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, responses.getJSONObject(1).getJSONObject("error").getInt("code"));
+    assertEquals(3, responses.getJSONObject(2).getInt("result"));
+    assertEquals(3, responses.getJSONObject(2).getInt("id"));
+    
+    // Blocking calls run in parallel beyond the number of CPUs
+    int iCalls = Math.max(2, Runtime.getRuntime().availableProcessors()) + 2;
+    arrived = new CountDownLatch(iCalls);
+    StringBuilder sb = new StringBuilder("[");
+    for(int i = 0; i < iCalls; i++) {
+      if(i > 0) sb.append(',');
+      sb.append("{\"jsonrpc\":\"2.0\",\"id\":").append(i).append(",\"method\":\"TEST.rendezvous\",\"params\":[]}");
+    }
+    responses = new JSONArray(call(sb.append(']').toString()));
+    for(int i = 0; i < iCalls; i++) {
+      assertTrue(responses.getJSONObject(i).getBoolean("result"));
+    }
+  }
+  
+  public void testNotification() throws Throwable {
+    String responseData = call("{\"jsonrpc\":\"2.0\",\"method\":\"TEST.track\",\"params\":[\"A\"]}");
+    assertEquals("", responseData);
+    
+    synchronized(this) {
+      if(sNotified == null) wait(5000);
+    }
+    assertEquals("A", sNotified);
+  }
+  
+  public void testNotificationDrop() throws Throwable {
+    JsonRpcNotifications notifications = new JsonRpcNotifications();
+    notifications.setThreads(1);
+    notifications.setQueueCapacity(1);
+    notifications.setOverflowPolicy(JsonRpcNotifications.OVERFLOW_DROP);
+    Map<String, Object> handlers = new HashMap<String, Object>();
+    handlers.put("TEST", this);
+    String[] requestData = { "application/json", null };
+    entered = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    try {
+      // The first one runs (blocked), the second one waits in the queue, the third one is dropped
+      assertTrue(notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("a")));
+      entered.await();
+      assertTrue(notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("b")));
+      assertFalse(notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("c")));
+      assertEquals(1, notifications.getDropped());
+    }
+    finally {
+      release.countDown();
+      notifications.shutdown();
+    }
+  }
+  
+  public void testNotificationBlock() throws Throwable {
+    final JsonRpcNotifications notifications = new JsonRpcNotifications();
+    notifications.setThreads(1);
+    notifications.setQueueCapacity(1);
+    notifications.setOverflowPolicy(JsonRpcNotifications.OVERFLOW_BLOCK);
+    final Map<String, Object> handlers = new HashMap<String, Object>();
+    handlers.put("TEST", this);
+    final String[] requestData = { "application/json", null };
+    entered = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    final boolean[] submitted = new boolean[1];
+    Thread submitter = new Thread(() -> {
+      submitted[0] = notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("c"));
+    });
+    try {
+      assertTrue(notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("a")));
+      entered.await();
+      assertTrue(notifications.submit(handlers, null, null, null, null, requestData, "TEST.slow", Arrays.asList("b")));
+      // Queue full: the submitter waits for a free slot
+      submitter.start();
+      long lDeadline = System.currentTimeMillis() + 5000;
+      while(submitter.getState() != Thread.State.WAITING && System.currentTimeMillis() < lDeadline) Thread.sleep(1);
+      assertEquals(Thread.State.WAITING, submitter.getState());
+      release.countDown();
+      submitter.join(5000);
+      assertFalse(submitter.isAlive());
+      assertTrue(submitted[0]);
+      assertEquals(0, notifications.getDropped());
+    }
+    finally {
+      release.countDown();
+      notifications.shutdown();
+    }
+  }
+  
+  public void testCredentialCache() throws Throwable {
+    RpcCredentialCache cache = new RpcCredentialCache(100);
+    cache.put("user:pass", new SimplePrincipal("user"), 60000);
+    cache.put("user:wrong", null, 60000);
+    cache.put("user:expired", new SimplePrincipal("user"), 1);
+    Thread.sleep(5);
+    
+    assertEquals("user", cache.get("user:pass").getPrincipal().getName());
+    assertNull(cache.get("user:wrong").getPrincipal());
+    assertNull(cache.get("user:expired"));
+    
+    for(int i = 0; i < 1000; i++) {
+      cache.put("user" + i + ":pass", new SimplePrincipal("user" + i), 60000 + i);
+    }
+    assertTrue(cache.size() <= 100);
+    
+    // Concurrent misses don't exceed the max size
+    final RpcCredentialCache bounded = new RpcCredentialCache(64);
+    final AtomicInteger maxObserved = new AtomicInteger();
+    Thread[] writers = new Thread[8];
+    for(int t = 0; t < writers.length; t++) {
+      final int iWriter = t;
+      writers[t] = new Thread(() -> {
+        for(int i = 0; i < 2000; i++) {
+          bounded.put("w" + iWriter + "_" + i + ":pass", null, 60000);
+          maxObserved.accumulateAndGet(bounded.size(), Math::max);
+        }
+      });
+      writers[t].start();
+    }
+    for(int t = 0; t < writers.length; t++) writers[t].join();
+    assertTrue(maxObserved.get() <= 64);
+    bounded.clear();
+    assertEquals(0, bounded.size());
+    bounded.put("user:pass", null, 60000);
+    assertEquals(1, bounded.size());
+  }
+  
+  public void testMetrics() throws Throwable {
+    call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}");
+    
+    RpcMetrics.MethodMetrics metrics = RpcMetrics.getMethodMetrics("TEST.hello");
+    assertTrue(metrics.getCalls() > 0);
+    assertTrue(metrics.getLatency().getCount() > 0);
+    assertTrue(RpcMetrics.toPrometheus().indexOf("rpc_calls_total{method=\"TEST.hello\"}") >= 0);
+    
+    RpcHistogram histogram = new RpcHistogram();
+    for(int i = 1; i <= 1000; i++) histogram.record(i * 1000L);
+    long p50 = histogram.getPercentile(0.5d);
+    long p99 = histogram.getPercentile(0.99d);
+    assertTrue(p50 >= 500000L && p50 < 500000L * 1.125);
+    assertTrue(p99 >= 990000L && p99 <= 1000000L);
+  }
+  
+  public void testPhases() throws Throwable {
+    final List<RpcPhases> traced = new ArrayList<RpcPhases>();
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setTracer(new RpcPhaseTracer() {
+      public void trace(String sProtocol, String sMethodName, RpcPhases phases) {
+        traced.add(phases);
+      }
+      public void trace(String sContentType, String sRequest, Throwable throwable) {
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName) {
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable) {
+      }
+    });
+    rpcExecutor = multiRpcExecutor;
+    
+    call("<?xml version=\"1.0\"?><methodCall><methodName>TEST.hello</methodName><params><param><value>World</value></param></params></methodCall>");
+    
+    assertEquals(1, traced.size());
+    RpcPhases phases = traced.get(0);
+    assertEquals("xmlrpc", phases.getProtocol());
+    assertEquals("TEST.hello", phases.getMethodName());
+    for(int i = RpcPhases.READ; i <= RpcPhases.WRITE; i++) {
+      assertTrue(RpcPhases.NAMES[i], phases.getDuration(i) >= 0);
+    }
+    assertNull(RpcPhases.current());
+    assertTrue(RpcMetrics.getPhaseHistogram("xmlrpc", RpcPhases.PARSE).getCount() > 0);
+  }
+  
+  public void testAsyncTracer() throws Throwable {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final List<String> traced = new ArrayList<String>();
+    RpcTracer recorder = new RpcTracer() {
+      public void trace(String sContentType, String sRequest, Throwable throwable) {
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName) {
+        try { latch.await(); } catch(InterruptedException ex) {}
+        synchronized(traced) { traced.add(sRequest + "|" + sResponse); }
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable) {
+      }
+    };
+    RpcAsyncTracer tracer = new RpcAsyncTracer(recorder, 4).setMaxPayloadLength(5).setSampleRate("TEST.never", 0.0d);
+    tracer.trace("application/json", "0123456789", "abcde", "TEST.hello");
+    tracer.trace("application/json", "0123456789", "abcde", "TEST.never");
+    // The tracer is blocked: the buffer fills up
+    for(int i = 0; i < 10; i++) {
+      tracer.trace("application/json", "req", "resp", "TEST.hello");
+    }
+    assertTrue(tracer.getDropped() > 0);
+    latch.countDown();
+    tracer.close();
+    
+    long expected = 11 - tracer.getDropped();
+    for(int i = 0; i < 100 && tracer.getTraced() < expected; i++) Thread.sleep(50);
+    assertEquals(expected, tracer.getTraced());
+    synchronized(traced) {
+      assertEquals("01234...[5 chars truncated]|abcde", traced.get(0));
+    }
+    
+    // The worker starts at the first event and, parked while idle, is woken up by the producers
+    int iWorkers = tracerThreads();
+    RpcAsyncTracer idleTracer = new RpcAsyncTracer(recorder);
+    assertTrue(tracerThreads() <= iWorkers);
+    idleTracer.trace("application/json", "req", "resp", "TEST.hello");
+    for(int i = 0; i < 100 && idleTracer.getTraced() < 1; i++) Thread.sleep(50);
+    Thread.sleep(100);
+    idleTracer.trace("application/json", "req", "resp", "TEST.hello");
+    for(int i = 0; i < 100 && idleTracer.getTraced() < 2; i++) Thread.sleep(50);
+    assertEquals(2, idleTracer.getTraced());
+    idleTracer.close();
+    
+    // Sampling decided before the serialization: the calls not sampled are streamed
+    final List<String> sampled = new ArrayList<String>();
+    RpcAsyncTracer samplingTracer = new RpcAsyncTracer(new RpcTracer() {
+      public void trace(String sContentType, String sRequest, Throwable throwable) {
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName) {
+        synchronized(sampled) { sampled.add(sMethodName + "|" + sResponse); }
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable) {
+      }
+    }).setSampleRate(0.0d);
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setTracer(samplingTracer);
+    final int[] streamed = new int[2];
+    String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}";
+    for(int i = 0; i < 2; i++) {
+      if(i == 1) samplingTracer.setSampleRate("TEST.add", 1.0d);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(request.getBytes("UTF-8")), out) {
+        public String[] openRequest(String sContentType) throws Exception {
+          streamed[0]++;
+          return super.openRequest(sContentType);
+        }
+        public java.io.Writer openResponse(String sContentType) throws Exception {
+          streamed[1]++;
+          return super.openResponse(sContentType);
+        }
+      });
+      assertTrue(new String(out.toByteArray(), "UTF-8").indexOf("Hello World!") > 0);
+    }
+    // 0%: request and response streamed; TEST.add sampled: the request is kept as text, TEST.hello not sampled
+    assertEquals(1, streamed[0]);
+    assertEquals(2, streamed[1]);
+    assertEquals(0, samplingTracer.getTraced());
+    
+    multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream("{\"jsonrpc\":\"2.0\",\"id\":2,\"method\":\"TEST.add\",\"params\":[1,2]}".getBytes("UTF-8")), new ByteArrayOutputStream()));
+    samplingTracer.close();
+    for(int i = 0; i < 100 && samplingTracer.getTraced() < 1; i++) Thread.sleep(50);
+    synchronized(sampled) {
+      assertEquals(1, sampled.size());
+      assertTrue(sampled.get(0), sampled.get(0).startsWith("TEST.add|") && sampled.get(0).indexOf("\"result\":3") > 0);
+    }
+  }
+  
+  @SuppressWarnings({"rawtypes","unchecked"})
+  public void testBatchAudit() throws Throwable {
+    final List<List> batches = new ArrayList<List>();
+    RpcBatchAudit batchAudit = new RpcBatchAudit(null, new RpcBatchAudit.Sink() {
+      public void write(List records) {
+        synchronized(batches) { batches.add(new ArrayList(records)); }
+      }
+    });
+    batchAudit.setBatchSize(2);
+    batchAudit.setFlushInterval(50);
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setAudit(batchAudit);
+    rpcExecutor = multiRpcExecutor;
+    
+    for(int i = 0; i < 3; i++) {
+      String responseData = call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}");
+      assertTrue(responseData.indexOf("Hello World!") >= 0);
+    }
+    batchAudit.shutdown();
+    
+    int count = 0;
+    synchronized(batches) {
+      for(List batch : batches) {
+        assertTrue(batch.size() <= 2);
+        count += batch.size();
+      }
+      RpcBatchAudit.Record record = (RpcBatchAudit.Record) batches.get(0).get(0);
+      assertEquals("hello", record.getMethodName());
+      assertEquals("World", record.getParameters()[0]);
+    }
+    assertEquals(3, count);
+    
+    // Without a Sink the afterInvoke of the audit sees the RPCContext of the call
+    final List<Object> principals = new ArrayList<Object>();
+    batchAudit = new RpcBatchAudit(new RpcAudit() {
+      public Object beforeInvoke(String handlerName, String methodName, Object handler, Object[] parameters) {
+        return null;
+      }
+      public Object afterInvoke(String handlerName, String methodName, Object handler, Object[] parameters, long lBefore, Object oResult, Throwable thFault) {
+        WebContext webContext = RPCContext.getContext();
+        synchronized(principals) { principals.add(webContext != null ? webContext.getUserPrincipal() : null); }
+        return null;
+      }
+    });
+    multiRpcExecutor.setAudit(batchAudit);
+    WebContext webContext = new WebContext(null, null, null, null);
+    webContext.setUserPrincipal(new SimplePrincipal("auditor"));
+    RPCContext.setContext(webContext);
+    try {
+      call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}");
+    }
+    finally {
+      RPCContext.removeContext();
+    }
+    batchAudit.shutdown();
+    assertEquals(1, principals.size());
+    assertEquals("auditor", ((java.security.Principal) principals.get(0)).getName());
+  }
+  
+  public void testAsync() throws Throwable {
+    RpcInvoker rpcInvoker = new JsonRpcInvoker();
+    rpcInvoker.setTransport(this);
+    
+    List<Object> parameters = new ArrayList<Object>();
+    parameters.add("World");
+    assertEquals("Hello World!", rpcInvoker.invoke("TEST.helloAsync", parameters));
+    
+    String responseData = call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.helloAsync\",\"params\":[\"\"]}");
+    assertTrue(responseData.indexOf("invalid name") > 0);
+    
+    // Timeout of a stage never completed: blocking (await) and async (AsyncContext) mode on each protocol
+    String[] requests = {
+      "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.never\",\"params\":[]}",
+      "<?xml version=\"1.0\"?><methodCall><methodName>TEST.never</methodName><params></params></methodCall>",
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?><s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body><execute><method>TEST.never</method><args></args></execute></s:Body></s:Envelope>"
+    };
+    String[] faults = {
+      "\"code\":" + RpcExecutor.TIMEOUT_ERROR_CODE,
+      "<int>" + RpcExecutor.TIMEOUT_ERROR_CODE + "</int>",
+      "<faultcode>" + RpcExecutor.TIMEOUT_ERROR_CODE + "</faultcode>"
+    };
+    for(int i = 0; i < requests.length; i++) {
+      for(int m = 0; m < 2; m++) {
+        boolean async = m == 1;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AsyncIOTransport transport = new AsyncIOTransport(new ByteArrayInputStream(requests[i].getBytes("UTF-8")), out, 100, async);
+        rpcExecutor.execute(transport);
+        if(async) {
+          assertEquals(0, out.size());
+          transport.fireTimeout();
+        }
+        responseData = new String(out.toByteArray(), "UTF-8");
+        assertTrue(responseData, responseData.indexOf(faults[i]) > 0);
+        assertTrue(neverStage.isCancelled());
+      }
+    }
+  }
+  
+  public void testInvocationExecutor() throws Throwable {
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setInvocationExecutor(RpcWorkers.newVirtualThreadPerCall());
+    rpcExecutor = multiRpcExecutor;
+    
+    WebContext webContext = new WebContext(null, null, null, null);
+    RPCContext.setContext(webContext);
+    try {
+      RpcInvoker rpcInvoker = new JsonRpcInvoker();
+      rpcInvoker.setTransport(this);
+      Object result = rpcInvoker.invoke("TEST.worker", new ArrayList<Object>());
+      assertNotNull(result);
+      assertFalse(result.equals(Thread.currentThread().getName()));
+      assertSame(webContext, RPCContext.getContext());
+    }
+    finally {
+      RPCContext.removeContext();
+    }
+  }
+  
+  public void testStreaming() throws Throwable {
+    String[] requests = {
+      "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}",
+      "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"World\"]}]",
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodCall><methodName>TEST.hello</methodName><params><param><value><string>World</string></value></param></params></methodCall>",
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?><s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body><execute><method>TEST.hello</method><args>\"World\"</args></execute></s:Body></s:Envelope>"
+    };
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    for(int i = 0; i < requests.length; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(requests[i].getBytes("UTF-8")), out));
+      String responseData = new String(out.toByteArray(), "UTF-8");
+      assertTrue(responseData, responseData.indexOf("Hello World!") > 0);
+    }
+    
+    // Result failing to serialize: fault, not an empty or truncated 200
+    String[] broken = {
+      "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.broken\",\"params\":[]}",
+      "[{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.broken\",\"params\":[]}]",
+      "<?xml version=\"1.0\"?><methodCall><methodName>TEST.broken</methodName><params></params></methodCall>"
+    };
+    for(int i = 0; i < broken.length; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(broken[i].getBytes("UTF-8")), out));
+      String responseData = new String(out.toByteArray(), "UTF-8");
+      if(i < 2) {
+        assertTrue(responseData, responseData.indexOf("\"error\"") > 0 && responseData.indexOf("not serializable") > 0);
+      }
+      else {
+        assertTrue(responseData, responseData.indexOf("<fault>") > 0 && responseData.indexOf("not serializable") > 0);
+      }
+    }
+  }
+  
+  public void testResultCache() throws Throwable {
+    RpcResultCache resultCache = new RpcResultCache(100);
+    MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setResultCache(resultCache);
+    rpcExecutor = multiRpcExecutor;
+    
+    String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.counter\",\"params\":[\"a\"]}";
+    String first = call(request);
+    assertEquals(first, call(request));
+    assertEquals(1, resultCache.getHits());
+    assertFalse(first.equals(call(request.replace("\"a\"", "\"b\""))));
+    
+    // Batch calls use the same cache
+    JSONArray responses = new JSONArray(call("[" + request + "," + request.replace("\"id\":1", "\"id\":2") + "]"));
+    assertEquals(new JSONObject(first).getInt("result"), responses.getJSONObject(0).getInt("result"));
+    assertEquals(new JSONObject(first).getInt("result"), responses.getJSONObject(1).getInt("result"));
+    assertEquals(3, resultCache.getHits());
+    
+    // Same entry serialized as XML-RPC
+    String xmlResponse = call("<?xml version=\"1.0\"?><methodCall><methodName>TEST.counter</methodName><params><param><value><string>a</string></value></param></params></methodCall>");
+    assertTrue(xmlResponse, xmlResponse.indexOf("<int>" + new JSONObject(first).getInt("result") + "</int>") > 0);
+    
+    resultCache.invalidate("TEST.counter");
+    assertFalse(first.equals(call(request)));
+    
+    // Registration takes precedence over the annotation
+    resultCache.register("TEST.counter", 0);
+    assertFalse(call(request).equals(call(request)));
+  }
+  
+  public void testCoalescer() throws Throwable {
+    RpcCoalescer coalescer = new RpcCoalescer();
+    final MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    multiRpcExecutor.setCoalescer(coalescer);
+    entered = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    
+    final String request = "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.slow\",\"params\":[\"a\"]}";
+    final String[] responses = new String[4];
+    Thread[] threads = new Thread[responses.length];
+    for(int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(() -> {
+        try {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(request.getBytes("UTF-8")), out));
+          responses[index] = new String(out.toByteArray(), "UTF-8");
+        }
+        catch(Exception ex) {
+          ex.printStackTrace();
+        }
+      });
+      threads[i].start();
+      if(i == 0) entered.await();
+    }
+    // The followers are coalesced only if they wait for the leader
+    long lDeadline = System.currentTimeMillis() + 5000;
+    while(coalescer.getWaiting() < 3 && System.currentTimeMillis() < lDeadline) Thread.sleep(1);
+    assertEquals(3, coalescer.getWaiting());
+    release.countDown();
+    for(int i = 0; i < threads.length; i++) threads[i].join(5000);
+    assertEquals(0, coalescer.getWaiting());
+    
+    for(int i = 0; i < responses.length; i++) {
+      assertEquals(responses[0], responses[i]);
+    }
+    assertEquals(1, coalescer.getInvocations());
+    assertEquals(3, coalescer.getCoalesced());
+    assertEquals(0.75d, coalescer.getCoalescingRatio());
+    assertEquals(0, coalescer.getInflight());
+    
+    // A shared stage: each call gets its own copy, cancelling one does not cancel the others
+    pendingStage = new CompletableFuture<String>();
+    Map<String, Object> handlers = new HashMap<String, Object>();
+    handlers.put("TEST", this);
+    Object first  = RpcUtil.executeMethod(handlers, null, null, coalescer, "TEST.coalescedStage", Arrays.asList("a"));
+    Object second = RpcUtil.executeMethod(handlers, null, null, coalescer, "TEST.coalescedStage", Arrays.asList("a"));
+    assertEquals(2, coalescer.getInvocations());
+    assertTrue(first != pendingStage);
+    assertTrue(first != second);
+    ((CompletableFuture<?>) first).cancel(true);
+    assertFalse(pendingStage.isCancelled());
+    pendingStage.complete("done");
+    assertEquals("done", ((CompletableFuture<?>) second).get());
+    assertEquals(0, coalescer.getInflight());
+  }
+  
+  public void testEnvelope() throws Throwable {
+    JsonRpcEnvelope envelope = JsonRpcEnvelope.scan("{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"params\":[\"}]\",{\"a\":[1]}],\"id\":7}");
+    assertEquals("TEST.hello", envelope.getMethod());
+    assertFalse(envelope.isComplete());
+    assertEquals(2, envelope.getParams().size());
+    assertEquals("}]", envelope.getParams().get(0));
+    assertEquals(7, envelope.getId());
+    assertTrue(envelope.isComplete());
+    
+    // Params before method, id after params
+    String responseData = call("{\"params\":[\"World\"],\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"id\":2}");
+    assertEquals("Hello World!", new JSONObject(responseData).get("result"));
+    assertEquals(2, new JSONObject(responseData).get("id"));
+    
+    // Unknown method: params skipped, id preserved
+    responseData = call("{\"jsonrpc\":\"2.0\",\"method\":\"TEST.unknown\",\"params\":[[[\"x\"]]],\"id\":3}");
+    assertEquals(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, new JSONObject(responseData).getJSONObject("error").getInt("code"));
+    assertEquals(3, new JSONObject(responseData).get("id"));
+    
+    // Malformed params of a known method
+    responseData = call("{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"params\":[\"World\" \"x\"],\"id\":4}");
+    assertEquals(RpcExecutor.PARSE_ERROR_CODE, new JSONObject(responseData).getJSONObject("error").getInt("code"));
+    
+    // Batch: params parsed after the scan of all the envelopes, invalid elements
+    List<?> batch = JsonRpcEnvelope.scanBatch("[{\"params\":[\"B\"],\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"id\":null},[1,[2]],5]".toCharArray());
+    assertEquals(3, batch.size());
+    JsonRpcEnvelope first = (JsonRpcEnvelope) batch.get(0);
+    assertTrue(first.isComplete());
+    assertEquals(JSONObject.NULL, first.getId());
+    assertEquals("B", first.getParams().get(0));
+    assertNull(batch.get(1));
+    assertNull(batch.get(2));
+    
+    responseData = call("[{\"params\":[\"B\"],\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"id\":1},7,{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"params\":[\"C\" \"D\"],\"id\":2}]");
+    JSONArray responses = new JSONArray(responseData);
+    assertEquals("Hello B!", responses.getJSONObject(0).get("result"));
+    assertEquals(RpcExecutor.INVALID_REQUEST_ERROR_CODE, responses.getJSONObject(1).getJSONObject("error").getInt("code"));
+    assertEquals(RpcExecutor.PARSE_ERROR_CODE, responses.getJSONObject(2).getJSONObject("error").getInt("code"));
+    assertEquals(2, responses.getJSONObject(2).getInt("id"));
+    
+    // Duplicate members are rejected (also after pending params)
+    String[] duplicates = {
+      "{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"method\":\"TEST.other\",\"params\":[],\"id\":1}",
+      "{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"params\":[],\"method\":1,\"id\":1}",
+      "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[],\"id\":2}",
+      "{\"jsonrpc\":\"2.0\",\"method\":\"TEST.hello\",\"params\":[],\"params\":[]}"
+    };
+    for(int i = 0; i < duplicates.length; i++) {
+      try {
+        JsonRpcEnvelope.scan(duplicates[i]).getParams();
+        fail("Duplicate key expected: " + duplicates[i]);
+      }
+      catch(JSONException ex) {
+        assertTrue(ex.getMessage(), ex.getMessage().startsWith("Duplicate key"));
+      }
+    }
+    assertEquals(RpcExecutor.PARSE_ERROR_CODE, new JSONObject(call(duplicates[2])).getJSONObject("error").getInt("code"));
+  }
+  
+  @SuppressWarnings("unchecked")
+  public void testLazyJSON() throws Throwable {
+    String text = "{\"id\":1, \"name\":\"a\\\"b\", \"tags\":[\"x\",null,{\"k\":2.5}], \"bad\":\"\\q\", 'd':'2020-01-02T03:04:05.006Z'}";
+    Map<String,Object> map = (Map<String,Object>) JSON.parseLazy(text);
+    assertEquals(5, map.size());
+    assertEquals(1, map.get("id"));
+    assertEquals("a\"b", map.get("name"));
+    List<Object> tags = (List<Object>) map.get("tags");
+    assertEquals(3, tags.size());
+    assertNull(tags.get(1));
+    assertEquals(2.5d, ((Map<String,Object>) tags.get(2)).get("k"));
+    assertTrue(map.get("d") instanceof java.util.Date);
+    assertEquals(JSON.stringify(tags), "[\"x\",null,{\"k\":2.5}]");
+    try {
+      map.get("bad");
+      fail("Illegal escape expected");
+    }
+    catch(JSONException ex) {
+    }
+    
+    String valid = text.replace("\\q", "q");
+    assertEquals(JSON.parse(valid), JSON.parseLazy(valid));
+    assertEquals(JSON.parse(valid), ((LazyJSONObject) JSON.parseLazy(valid)).toHashMap());
+  }
+  
+  public void testPullParser() throws Throwable {
+    String text = "{\"id\":1, name:'a\\\"b\\u0041', \"tags\":[\"x\",,{\"k\":2.5; \"l\":-9007199254740993},], \"n\":007, \"t\":TRUE, \"e\":1e3, \"d\":'2020-01-02T03:04:05.006Z'}";
+    Object parsed = new JSONPullParser(text).nextValue();
+    assertEquals(JSON.parse(text), parsed);
+    assertEquals(JSON.parse(text), new JSONPullParser(text.getBytes("UTF-8")).nextValue());
+    assertEquals("a\"bA", ((Map<?,?>) parsed).get("name"));
+    assertTrue(Arrays.equals(new byte[] { 1, 2, 3 }, (byte[]) new JSONPullParser("\"[B@AQID\"").nextValue()));
+    
+    JSONPullParser parser = new JSONPullParser("{\"jsonrpc\":\"2.0\", \"skip\":{\"a\":[1,2]}, \"params\":[1,,\"x\"], \"id\":3}");
+    assertEquals(JSONPullParser.START_OBJECT, parser.next());
+    List<?> params = null;
+    int event;
+    while((event = parser.next()) != JSONPullParser.END_OBJECT) {
+      assertEquals(JSONPullParser.KEY, event);
+      if(parser.getKey().equals("params")) {
+        params = (List<?>) parser.nextValue();
+      }
+      else if(parser.getKey().equals("skip")) {
+        parser.skipValue();
+      }
+      else {
+        assertEquals(JSONPullParser.VALUE, parser.next());
+      }
+    }
+    assertEquals(3, parser.getValue());
+    assertEquals(JSONPullParser.END, parser.next());
+    assertEquals(Arrays.asList(1, null, "x"), params);
+    
+    try {
+      new JSONPullParser("{\"a\":1,\"a\":2}").nextValue();
+      fail("Duplicate key expected");
+    }
+    catch(JSONException ex) {
+    }
+  }
+  
+  public void testDirectParse() throws Throwable {
+    String text = "{\"a\":[1,null,{\"b\":null,\"c\":'x'}], \"n\":null, \"m\":{}}";
+    assertEquals(new JSONObject(text).toHashMap(), JSON.parse(text));
+    assertEquals(new JSONObject(text).toHashtable(), JSON.parseLegacy(text));
+    assertTrue(((Map<?,?>) JSON.parseLegacy(text)).get("a") instanceof java.util.Vector);
+    
+    JSONArray params = new JSONArray("[1,null,{\"b\":2},[3]]");
+    List<?> view = params.asList(true);
+    assertEquals(params.toVector(), view);
+    assertTrue(view.get(2) instanceof java.util.Hashtable);
+    assertSame(view.get(2), view.get(2));
+    assertEquals(params.toArrayList(), params.asList(false));
+    
+    assertEquals("Hello A!", new JSONObject(call("{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"TEST.hello\",\"params\":[\"A\"]}")).get("result"));
+  }
+  
+  public void testJsonWriter() throws Throwable {
+    Map<Object,Object> map = new java.util.LinkedHashMap<Object,Object>();
+    for(int i = 0; i < 40; i++) map.put("key" + (40 - i), i % 3 == 0 ? null : i);
+    map.put(7, "</script>\u2028\t\u00e8");
+    map.put("date", new java.util.Date(1234567890123L));
+    map.put("bytes", new byte[] { 1, 2, 3 });
+    map.put("list", java.util.Arrays.asList(1L, 2.5d, null, new int[] { 1, -2 }, new java.math.BigDecimal("1.50"), Thread.State.NEW));
+    map.put("json", new JSONObject().put("a", new byte[] { 4 }).put("b", new java.util.Date(0L)));
+    Object[] values = { map, Arrays.asList(map, map), new Object[] { new byte[] { 5 } }, "text", 12, null, new java.util.Date(-62135769600000L), new JSONArray("[1,null,{\"x\":'y'}]") };
+    for(Object value : values) {
+      String expected = JSONObject.valueToString(value);
+      assertEquals(expected, JSON.stringify(value));
+      JsonWriter jsonWriter = new JsonWriter(4);
+      jsonWriter.write(value);
+      assertTrue(Arrays.equals(expected.getBytes("UTF-8"), jsonWriter.toByteArray()));
+    }
+    
+    // Large document written to a sink in chunks
+    StringBuilder sbText = new StringBuilder();
+    for(int i = 0; i < 20000; i++) sbText.append(i % 7 == 0 ? "\"\ud83d\ude00</" : "abc\u00e8");
+    byte[] abData = new byte[300000];
+    for(int i = 0; i < abData.length; i++) abData[i] = (byte) i;
+    List<Object> document = new ArrayList<Object>();
+    for(int i = 0; i < 2000; i++) document.add(map);
+    document.add(sbText.toString());
+    document.add(abData);
+    document.add(java.util.Collections.singletonMap("data", abData));
+    assertEquals(JSONObject.valueToString(sbText.toString()), JSON.stringify(sbText.toString()));
+    String expected = JSON.stringify(document);
+    final int[] maxWrite = new int[1];
+    java.io.StringWriter stringWriter = new java.io.StringWriter() {
+      public void write(char[] cbuf, int off, int len) {
+        maxWrite[0] = Math.max(maxWrite[0], len);
+        super.write(cbuf, off, len);
+      }
+      public void write(String str) {
+        maxWrite[0] = Math.max(maxWrite[0], str.length());
+        super.write(str);
+      }
+    };
+    JsonWriter.stringify(document, stringWriter);
+    assertEquals(expected, stringWriter.toString());
+    assertTrue(maxWrite[0] <= 32 * 1024);
+    JsonWriter jsonWriter = new JsonWriter();
+    jsonWriter.write(document);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    jsonWriter.writeTo(out);
+    assertTrue(Arrays.equals(expected.getBytes("UTF-8"), out.toByteArray()));
+  }
+  
+  public void testBeanInfo() throws Throwable {
+    Map<String,Object> values = new java.util.HashMap<String,Object>();
+    values.put("name", "foo");
+    values.put("count", "12");
+    values.put("enabled", Boolean.TRUE);
+    values.put("tags", Arrays.asList("a", "b"));
+    values.put("URL", "http://localhost");
+    Bean bean = org.util.WUtil.populateBean(Bean.class, values);
+    assertEquals("foo", bean.getName());
+    assertEquals(12, bean.getCount());
+    assertTrue(bean.isEnabled());
+    assertEquals(Arrays.asList("a", "b"), bean.getTags());
+    assertEquals("http://localhost", bean.getURL());
+    
+    Map<String,Object> map = org.util.WUtil.beanToMap(bean);
+    assertEquals(values.keySet(), map.keySet());
+    assertEquals(12, map.get("count"));
+    JSONObject jsonObject = new JSONObject(bean);
+    assertEquals("foo", jsonObject.get("name"));
+    assertEquals(Boolean.TRUE, jsonObject.get("enabled"));
+    assertFalse(jsonObject.has("class"));
+    
+    BeanCodeAndDesc codeAndDesc = new BeanCodeAndDesc();
+    assertEquals("\"X1\"", JSONObject.getCodeValueString(codeAndDesc));
+    assertEquals("\"X1\"", JSON.stringify(codeAndDesc));
+    assertNull(JSONObject.getCodeValueString(bean));
+  }
+  
+  public void testDateCodec() throws Throwable {
+    java.util.TimeZone defaultTimeZone = java.util.TimeZone.getDefault();
+    java.util.TimeZone jsonTimeZone = JSONObject.timeZone;
+    try {
+      java.util.TimeZone.setDefault(java.util.TimeZone.getTimeZone("Europe/Rome"));
+      JSONObject.timeZone = java.util.TimeZone.getTimeZone("Europe/Rome");
+      assertEquals("2009-02-13T23:31:30.123Z", JSONObject.dateTimeToString(new java.util.Date(1234567890123L)));
+      assertEquals("2024-06-30T22:00:00.000Z", JSONObject.dateTimeToString(java.time.LocalDate.of(2024, 7, 1)));
+      assertEquals("\"2024-07-01T08:30:00.000Z\"", JSON.stringify(java.time.LocalDateTime.of(2024, 7, 1, 10, 30)));
+      assertEquals(new java.util.Date(1234567890123L), JSONTokener.stringToObject("2009-02-13T23:31:30.123Z"));
+      assertEquals(new java.util.Date(1234567890123L), ((List<?>) JSON.parse("[\"2009-02-13T23:31:30.123Z\"]")).get(0));
+      // Out of the cached range (Calendar code)
+      java.util.Date date = (java.util.Date) JSONTokener.stringToObject("1800-01-01T00:00:00.000Z");
+      assertEquals("1800-01-01T00:00:00.000Z", JSONObject.dateTimeToString(date));
+      
+      java.util.TimeZone.setDefault(java.util.TimeZone.getTimeZone("America/New_York"));
+      java.util.Calendar calendar = java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("Asia/Tokyo"));
+      calendar.setTimeInMillis(1234567890123L);
+      // Wall time of the calendar as wall time of JSONObject.timeZone
+      assertEquals("2009-02-14T07:31:30.123Z", JSONObject.dateTimeToString(calendar));
+      assertEquals(new java.util.Date(1234567890123L + 6 * 3600000L), JSONTokener.stringToObject("2009-02-13T23:31:30.123Z"));
+    }
+    finally {
+      java.util.TimeZone.setDefault(defaultTimeZone);
+      JSONObject.timeZone = jsonTimeZone;
+    }
+  }
+  
+  public void testAttachments() throws Throwable {
+    assertEquals("application/pdf", RpcBinary.guessContentType("%PDF-1.7".getBytes()));
+    assertEquals("application/pdf", new RpcBinary(new java.io.BufferedInputStream(new ByteArrayInputStream("%PDF-1.7".getBytes())), null, 8).getContentType());
+    assertEquals(RpcBinary.DEFAULT_CONTENT_TYPE, new RpcBinary(new byte[] { 1, 2, 3 }).getContentType());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(3, RpcBinary.valueOf(java.nio.ByteBuffer.wrap(new byte[] { 0, 1, 2, 3 }, 1, 3)).writeTo(out));
+    assertEquals("010203", hex(out.toByteArray()));
+    
+    RpcInvoker rpcInvoker = new JsonRpcInvoker();
+    rpcInvoker.setTransport(this);
+    
+    // Not bound: inline base64
+    Object result = rpcInvoker.invoke("TEST.document", Arrays.asList(100000));
+    assertTrue(result instanceof byte[]);
+    assertEquals(100000, ((byte[]) result).length);
+    assertTrue(XmlRpcSerializer.serialize(new RpcBinary(new byte[] { 1, 2, 3 })).indexOf("<base64>") >= 0);
+    
+    RpcAttachments attachments = new RpcAttachments();
+    Object previous = RpcAttachments.bind(attachments, "/rpc/attachments/");
+    try {
+      // Small binaries stay inline
+      assertTrue(rpcInvoker.invoke("TEST.document", Arrays.asList(1000)) instanceof byte[]);
+      assertEquals(0, attachments.size());
+      
+      result = rpcInvoker.invoke("TEST.document", Arrays.asList(100000));
+      assertTrue(result instanceof Map);
+      Map<?, ?> reference = (Map<?, ?>) result;
+      String href = (String) reference.get("href");
+      assertTrue(href.startsWith("/rpc/attachments/"));
+      assertEquals("application/pdf", reference.get("contentType"));
+      assertEquals(100000, ((Number) reference.get("length")).intValue());
+      assertEquals("document.pdf", reference.get("name"));
+      assertTrue(sResponseData.length() < 1000);
+      
+      RpcBinary binary = attachments.remove(href.substring(href.lastIndexOf('/') + 1));
+      assertNotNull(binary);
+      assertEquals(100000, binary.getBytes().length);
+      assertNull(attachments.remove(href.substring(href.lastIndexOf('/') + 1)));
+      
+      // CBOR writes the link too
+      Map<?, ?> decoded = (Map<?, ?>) CBOR.decode(CBOR.encode(document(100000)));
+      assertTrue(((String) decoded.get("href")).startsWith("/rpc/attachments/"));
+      assertEquals(1, attachments.size());
+      assertEquals(100000, attachments.getPendingBytes());
+      attachments.clear();
+      assertEquals(0, attachments.getPendingBytes());
+      
+      // Binary results are not cached: each call gets its own link
+      RpcResultCache resultCache = new RpcResultCache(100);
+      resultCache.register("TEST.document", 60 * 1000);
+      ((MultiRpcExecutor) rpcExecutor).setResultCache(resultCache);
+      String href1 = (String) ((Map<?, ?>) rpcInvoker.invoke("TEST.document", Arrays.asList(100000))).get("href");
+      String href2 = (String) ((Map<?, ?>) rpcInvoker.invoke("TEST.document", Arrays.asList(100000))).get("href");
+      assertFalse(href1.equals(href2));
+      assertEquals(0, resultCache.getHits());
+      ((MultiRpcExecutor) rpcExecutor).setResultCache(null);
+      attachments.clear();
+    }
+    finally {
+      RpcAttachments.restore(previous);
+    }
+    // Byte budget: over it the binaries are inlined
+    attachments = new RpcAttachments(null, 0, 1000, 100, 150000);
+    previous = RpcAttachments.bind(attachments, "/rpc/attachments/");
+    try {
+      assertTrue(rpcInvoker.invoke("TEST.document", Arrays.asList(100000)) instanceof Map);
+      assertTrue(rpcInvoker.invoke("TEST.document", Arrays.asList(100000)) instanceof byte[]);
+      assertTrue(rpcInvoker.invoke("TEST.document", Arrays.asList(40000)) instanceof Map);
+      assertEquals(140000, attachments.getPendingBytes());
+      attachments.clear();
+      assertEquals(0, attachments.getPendingBytes());
+    }
+    finally {
+      RpcAttachments.restore(previous);
+    }
+    // Not bound: native bytes in CBOR
+    assertTrue(CBOR.decode(CBOR.encode(document(100))) instanceof byte[]);
+  }
+  
+  public void testCompression() throws Throwable {
+    assertEquals("gzip",    RpcCompression.getAcceptedEncoding(request("Accept-Encoding", "deflate, gzip;q=0.5")));
+    assertEquals("deflate", RpcCompression.getAcceptedEncoding(request("Accept-Encoding", "gzip;q=0, deflate")));
+    assertNull(RpcCompression.getAcceptedEncoding(request("Accept-Encoding", "br")));
+    assertNull(RpcCompression.getAcceptedEncoding(request("Accept-Encoding", null)));
+    
+    byte[] data = new byte[4 * 1024 * 1024];
+    for(String encoding : new String[] { "gzip", "deflate" }) {
+      byte[] compressed = RpcCompression.compress(data, encoding, -1);
+      assertTrue(compressed.length < 64 * 1024);
+      java.io.InputStream in = RpcCompression.decode(request("Content-Encoding", encoding), new ByteArrayInputStream(compressed), data.length);
+      assertEquals(data.length, readAll(in).length);
+      // Decompression bomb
+      in = RpcCompression.decode(request("Content-Encoding", encoding), new ByteArrayInputStream(compressed), 1024 * 1024);
+      try {
+        readAll(in);
+        fail("StatusException expected");
+      }
+      catch(RpcCompression.StatusException ex) {
+        assertEquals(413, ex.getStatus());
+        assertTrue(((RpcCompression.LimitedInputStream) in).isExceeded());
+      }
+    }
+    java.io.InputStream in = new ByteArrayInputStream(data);
+    assertSame(in, RpcCompression.decode(request("Content-Encoding", null), in, 1));
+    assertSame(in, RpcCompression.decode(request("Content-Encoding", "identity"), in, 1));
+    try {
+      RpcCompression.decode(request("Content-Encoding", "br"), in, 0);
+      fail("StatusException expected");
+    }
+    catch(RpcCompression.StatusException ex) {
+      assertEquals(415, ex.getStatus());
+    }
+  }
+  
+  public void testCbor() throws Throwable {
+    // RFC 8949 Appendix A
+    assertEquals("1864", hex(CBOR.encode(100)));
+    assertEquals("3903e7", hex(CBOR.encode(-1000)));
+    assertEquals("6449455446", hex(CBOR.encode("IETF")));
+    assertEquals("c249010000000000000000", hex(CBOR.encode(new BigInteger("18446744073709551616"))));
+    assertEquals(Double.valueOf(1.0), CBOR.decode(new byte[] { (byte) 0xf9, 0x3c, 0x00 }));
+    assertEquals(new BigInteger("-18446744073709551617"), CBOR.decode(new byte[] { (byte) 0xc3, 0x49, 1, 0, 0, 0, 0, 0, 0, 0, 0 }));
+    
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put("int",   -7);
+    map.put("long",  Long.MIN_VALUE);
+    map.put("big",   new BigInteger("-123456789012345678901234567890"));
+    map.put("dec",   new BigDecimal("-12.345"));
+    map.put("date",  new java.util.Date(1234567890123L));
+    map.put("bytes", new byte[] { 1, 2, 3 });
+    map.put("text",  "\u00e0\u20ac\ud83d\ude00");
+    map.put("list",  Arrays.asList(1.5d, Boolean.TRUE, null, "x"));
+    map.put("none",  null);
+    byte[] data = CBOR.encode(map);
+    Map<?, ?> decoded = (Map<?, ?>) CBOR.decode(data);
+    assertEquals(8, decoded.size());
+    assertEquals(-7, decoded.get("int"));
+    assertEquals(Long.MIN_VALUE, decoded.get("long"));
+    assertEquals(map.get("big"), decoded.get("big"));
+    assertEquals(map.get("dec"), decoded.get("dec"));
+    assertEquals(map.get("date"), decoded.get("date"));
+    assertTrue(Arrays.equals((byte[]) map.get("bytes"), (byte[]) decoded.get("bytes")));
+    assertEquals(map.get("text"), decoded.get("text"));
+    assertEquals(map.get("list"), decoded.get("list"));
+    assertTrue(data.length < JSON.stringify(map).getBytes("UTF-8").length);
+    
+    // Hostile headers: nested arrays and maps each declaring as many items as the remaining bytes
+    for(int iMajorType = 4; iMajorType <= 5; iMajorType++) {
+      byte[] hostile = new byte[1024 * 1024];
+      int p = 0;
+      for(int i = 0; i < 400; i++) {
+        int iSize = hostile.length - p - 5;
+        hostile[p++] = (byte) ((iMajorType << 5) | 26);
+        hostile[p++] = (byte) (iSize >>> 24);
+        hostile[p++] = (byte) (iSize >>> 16);
+        hostile[p++] = (byte) (iSize >>> 8);
+        hostile[p++] = (byte) iSize;
+        if(iMajorType == 5) hostile[p++] = 0; // key
+      }
+      try {
+        CBOR.decode(hostile);
+        fail("CborException expected");
+      }
+      catch(org.cbor.CborException ex) {
+        assertTrue(ex.getMessage().startsWith("unexpected end"));
+      }
+    }
+    
+    final MultiRpcExecutor multiRpcExecutor = new MultiRpcExecutor();
+    multiRpcExecutor.addHandler("TEST", this);
+    RpcInvoker invoker = new CborRpcInvoker(new RpcBinaryClientTransport() {
+      public byte[] call(String sContentType, byte[] requestData) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(requestData), out));
+        return out.toByteArray();
+      }
+      @SuppressWarnings("rawtypes")
+      public void setHeaders(Map headers) {
+      }
+      public void setTimeOut(int iTimeOut) {
+      }
+      public String call(String requestData) {
+        throw new UnsupportedOperationException();
+      }
+      @SuppressWarnings("rawtypes")
+      public String call(String requestData, Map headers) {
+        throw new UnsupportedOperationException();
+      }
+    });
+    assertEquals("Hello World!", invoker.invoke("TEST.hello", Arrays.asList("World")));
+    assertEquals(5, invoker.invoke("TEST.add", Arrays.asList(2, 3)));
+    assertEquals("Hello World!", invoker.invoke("TEST.helloAsync", Arrays.asList("World")));
+    try {
+      invoker.invoke("TEST.missing", new ArrayList<Object>());
+      fail("RpcRemoteException expected");
+    }
+    catch(RpcRemoteException ex) {
+      assertEquals(RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE, ex.getCode());
+    }
+    
+    // Batch
+    List<Object> requests = new ArrayList<Object>();
+    for(int i = 0; i < 2; i++) {
+      Map<String, Object> request = new HashMap<String, Object>();
+      request.put("jsonrpc", "2.0");
+      request.put("id", i);
+      request.put("method", "TEST.add");
+      request.put("params", Arrays.asList(i, 10));
+      requests.add(request);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(CBOR.encode(requests)), out));
+    List<?> responses = (List<?>) CBOR.decode(out.toByteArray());
+    assertEquals(2, responses.size());
+    assertEquals(11, ((Map<?, ?>) responses.get(1)).get("result"));
+    
+    // The params are decoded after the lookup of the method: malformed params (tag 0 on "x") of a missing method
+    byte[] badParams = cat(new byte[] { (byte) 0x81, (byte) 0xc0 }, CBOR.encode("x"));
+    for(int i = 0; i < 2; i++) {
+      byte[] body = cat(new byte[] { (byte) 0xa4 }, CBOR.encode("jsonrpc"), CBOR.encode("2.0"), CBOR.encode("id"), CBOR.encode(1),
+        CBOR.encode("method"), CBOR.encode(i == 0 ? "TEST.missing" : "TEST.add"), CBOR.encode("params"), badParams);
+      out = new ByteArrayOutputStream();
+      multiRpcExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(body), out));
+      Map<?, ?> error = (Map<?, ?>) ((Map<?, ?>) CBOR.decode(out.toByteArray())).get("error");
+      assertEquals(i == 0 ? RpcExecutor.METHOD_NOT_FOUND_ERROR_CODE : RpcExecutor.PARSE_ERROR_CODE, error.get("code"));
+    }
+    
+    // Batch calls run in parallel within one deadline; an invalid method fails only its call
+    requests.clear();
+    for(int i = 0; i < 4; i++) {
+      Map<String, Object> request = new HashMap<String, Object>();
+      request.put("jsonrpc", "2.0");
+      request.put("id", i);
+      request.put("method", i < 3 ? "TEST.never" : (Object) 7);
+      request.put("params", new ArrayList<Object>());
+      requests.add(request);
+    }
+    out = new ByteArrayOutputStream();
+    long lStart = System.currentTimeMillis();
+    multiRpcExecutor.execute(new AsyncIOTransport(new ByteArrayInputStream(CBOR.encode(requests)), out, 300, false));
+    assertTrue(System.currentTimeMillis() - lStart < 900);
+    responses = (List<?>) CBOR.decode(out.toByteArray());
+    assertEquals(4, responses.size());
+    for(int i = 0; i < 3; i++) {
+      assertEquals(RpcExecutor.TIMEOUT_ERROR_CODE, ((Map<?, ?>) ((Map<?, ?>) responses.get(i)).get("error")).get("code"));
+    }
+    assertEquals(3, ((Map<?, ?>) responses.get(3)).get("id"));
+    assertEquals(RpcExecutor.INVALID_REQUEST_ERROR_CODE, ((Map<?, ?>) ((Map<?, ?>) responses.get(3)).get("error")).get("code"));
+    
+    // Failed notification: the tracer receives the request as JSON text built on error
+    final String[] traced = new String[1];
+    final CountDownLatch tracedLatch = new CountDownLatch(1);
+    MultiRpcExecutor tracedExecutor = new MultiRpcExecutor();
+    tracedExecutor.addHandler("TEST", this);
+    tracedExecutor.setTracer(new RpcTracer() {
+      public void trace(String sContentType, String sRequest, Throwable throwable) {
+        traced[0] = sRequest;
+        tracedLatch.countDown();
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName) {
+      }
+      public void trace(String sContentType, String sRequest, String sResponse, String sMethodName, Throwable throwable) {
+      }
+    });
+    Map<String, Object> notification = new HashMap<String, Object>();
+    notification.put("jsonrpc", "2.0");
+    notification.put("method", "TEST.helloAsync");
+    notification.put("params", Arrays.asList(""));
+    out = new ByteArrayOutputStream();
+    tracedExecutor.execute(new RpcIOTransport(new ByteArrayInputStream(CBOR.encode(notification)), out));
+    assertTrue(tracedLatch.await(5, java.util.concurrent.TimeUnit.SECONDS));
+    assertEquals("TEST.helloAsync", new JSONObject(traced[0]).get("method"));
+  }
+  
+  private static int tracerThreads() {
+    int count = 0;
+    for(Thread thread : Thread.getAllStackTraces().keySet()) {
+      if(thread.getName().startsWith("rpc-tracer-")) count++;
+    }
+    return count;
+  }
+  
+  private static byte[] cat(byte[]... parts) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for(int i = 0; i < parts.length; i++) out.write(parts[i], 0, parts[i].length);
+    return out.toByteArray();
+  }
+  
+  private static String hex(byte[] data) {
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < data.length; i++) sb.append(String.format("%02x", data[i] & 0xff));
+    return sb.toString();
+  }
+  
+  private static jakarta.servlet.http.HttpServletRequest request(final String header, final String value) {
+    return (jakarta.servlet.http.HttpServletRequest) java.lang.reflect.Proxy.newProxyInstance(TestMultiRPC.class.getClassLoader(),
+      new Class<?>[] { jakarta.servlet.http.HttpServletRequest.class },
+      (proxy, method, args) -> method.getName().equals("getHeader") && header.equals(args[0]) ? value : null);
+  }
+  
+  private static byte[] readAll(java.io.InputStream in) throws java.io.IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buff = new byte[8192];
+    int n;
+    while((n = in.read(buff)) > 0) out.write(buff, 0, n);
+    return out.toByteArray();
+  }
+  
   // Handler methods ------------------------------------------------
   
   public String hello(String name) {
     return "Hello " + name + "!";
   }
-
+  
+  public CompletableFuture<String> helloAsync(final String name) {
+    return CompletableFuture.supplyAsync(() -> {
+      if(name.length() == 0) throw new IllegalArgumentException("invalid name");
+      return "Hello " + name + "!";
+    });
+  }
+  
+  public String worker() {
+    // Invoked on another thread with the RPCContext of the caller
+    if(RPCContext.getContext() == null) return null;
+    return Thread.currentThread().getName();
+  }
+  
+  public synchronized void track(String value) {
+    sNotified = value;
+    notifyAll();
+  }
+  
+  @RpcCacheable(ttl = 60000)
+  public synchronized int counter(String key) {
+    return ++iCounter;
+  }
+  
+  @RpcCoalesce(timeout = 5000)
+  public int slow(String key) throws InterruptedException {
+    entered.countDown();
+    release.await();
+    synchronized(this) {
+      return ++iCounter;
+    }
+  }
+  
+  @RpcCoalesce(timeout = 5000)
+  public CompletableFuture<String> coalescedStage(String key) {
+    return pendingStage;
+  }
+  
+  public boolean rendezvous() throws InterruptedException {
+    arrived.countDown();
+    return arrived.await(5, java.util.concurrent.TimeUnit.SECONDS);
+  }
+  
+  public CompletableFuture<String> never() {
+    neverStage = new CompletableFuture<String>();
+    return neverStage;
+  }
+  
+  public Mapable broken() {
+    return new Mapable() {
+      public void fromMap(Map<String, Object> map) {
+      }
+      public Map<String, Object> toMap() {
+        throw new IllegalStateException("not serializable");
+      }
+    };
+  }
+  
+  public int add(int a, int b) {
+    return a + b;
+  }
+  
+  public String add(String a, String b) {
+    return a + b;
+  }
+  
+  public static String add(String a) {
+    return a;
+  }
+  
+  public RpcBinary document(int size) {
+    byte[] data = new byte[size];
+    System.arraycopy("%PDF-1.7".getBytes(), 0, data, 0, 8);
+    return new RpcBinary(data).setName("document.pdf");
+  }
+  
+  /**
+   * RpcIOTransport with a short async timeout; in async mode the timeout callback is kept (see fireTimeout).
+   */
+  static class AsyncIOTransport extends RpcIOTransport implements RpcAsyncServerTransport {
+    private final long timeout;
+    private final boolean async;
+    private Runnable onTimeout;
+    
+    AsyncIOTransport(java.io.InputStream is, java.io.OutputStream os, long timeout, boolean async) {
+      super(is, os);
+      this.timeout = timeout;
+      this.async   = async;
+    }
+    
+    public boolean startAsync(Runnable onTimeout) {
+      this.onTimeout = onTimeout;
+      return async;
+    }
+    
+    public long getAsyncTimeout() {
+      return timeout;
+    }
+    
+    public void complete() {
+    }
+    
+    void fireTimeout() {
+      onTimeout.run();
+    }
+  }
+  
   // RpcServerTransport ---------------------------------------------
   @Override
   public String[] readRequest(String sContentType) throws Exception {
@@ -93,12 +1339,12 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
     }
     return asResult;
   }
-
+  
   @Override
   public boolean checkAuthorization(String methodName) {
     return true;
   }
-
+  
   @Override
   public void writeResponse(String sContentType, String responseData, boolean boTransEncChunked) throws Exception {
     this.sResponseData = responseData;
@@ -108,22 +1354,22 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
   public void setEncoding(String encoding) {
     System.setProperty("file.encoding", encoding);
   }
-
+  
   @Override
   public String getEncoding() {
     return System.getProperty("file.encoding");
   }
-
+  
   // RpcClientTransport ---------------------------------------------
   @SuppressWarnings("rawtypes")
   @Override
   public void setHeaders(Map headers) {
   }
-
+  
   @Override
   public void setTimeOut(int iTimeOut) {
   }
-
+  
   @Override
   public String call(String requestData) throws Exception {
     this.sRequestData = requestData;
@@ -132,7 +1378,7 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
     System.out.println(sResponseData);
     return sResponseData;
   }
-
+  
   @SuppressWarnings("rawtypes")
   @Override
   public String call(String requestData, Map headers) throws Exception {
@@ -142,4 +1388,30 @@ class TestMultiRPC extends TestCase implements RpcServerTransport, RpcClientTran
     System.out.println(sResponseData);
     return sResponseData;
   }
+  
+  // Beans ----------------------------------------------------------
+  
+  public static class Bean {
+    private String name;
+    private int count;
+    private boolean enabled;
+    private List<String> tags;
+    private String url;
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public int getCount() { return count; }
+    public void setCount(int count) { this.count = count; }
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public List<String> getTags() { return tags; }
+    public void setTags(List<String> tags) { this.tags = tags; }
+    public String getURL() { return url; }
+    public void setURL(String url) { this.url = url; }
+  }
+  
+  public static class BeanCodeAndDesc {
+    public String getCode() { return "X1"; }
+    public String getDescription() { return "Description"; }
+  }
 }